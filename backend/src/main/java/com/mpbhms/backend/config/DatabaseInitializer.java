@@ -12,7 +12,9 @@ import com.mpbhms.backend.entity.Asset;
 import com.mpbhms.backend.entity.RoomServiceMapping;
 import com.mpbhms.backend.entity.RoomAsset;
 import com.mpbhms.backend.entity.ServiceReading;
+import com.mpbhms.backend.entity.Bill;
 import com.mpbhms.backend.enums.ServiceType;
+import com.mpbhms.backend.enums.BillType;
 import com.mpbhms.backend.enums.RoomStatus;
 import com.mpbhms.backend.repository.PermissionRepository;
 import com.mpbhms.backend.repository.RoleRepository;
@@ -24,21 +26,29 @@ import com.mpbhms.backend.repository.RoomRepository;
 import com.mpbhms.backend.repository.AssetRepository;
 import com.mpbhms.backend.repository.RoomServiceMappingRepository;
 import com.mpbhms.backend.repository.RoomAssetRepository;
+import com.mpbhms.backend.repository.PaymentHistoryRepository;
 import com.mpbhms.backend.repository.ServiceReadingRepository;
+import com.mpbhms.backend.repository.BillRepository;
 import lombok.AllArgsConstructor;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 @Service
 @AllArgsConstructor
 public class    DatabaseInitializer implements CommandLineRunner {
 
+    // Số hóa đơn nạp mỗi lô khi điền next_penalty_check_at cho hóa đơn cũ
+    private static final int PENALTY_BACKFILL_BATCH_SIZE = 500;
+
     private final PermissionRepository permissionRepository;
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
@@ -51,6 +61,8 @@ public class    DatabaseInitializer implements CommandLineRunner {
     private final RoomServiceMappingRepository roomServiceMappingRepository;
     private final RoomAssetRepository roomAssetRepository;
     private final ServiceReadingRepository serviceReadingRepository;
+    private final BillRepository billRepository;
+    private final PaymentHistoryRepository paymentHistoryRepository;
 
     @Override
     public void run(String... args) throws Exception {
@@ -110,6 +122,12 @@ public class    DatabaseInitializer implements CommandLineRunner {
             permissions.add(new Permission("Create Multiple Notifications Send", "/mpbhms/notifications/send-multiple", "POST", "Notification"));
             permissions.add(new Permission("View My Notification", "/mpbhms/notifications", "GET", "Notification"));
             permissions.add(new Permission("Mark Notification as Read", "/mpbhms/notifications/{id}/read", "PUT", "Notification"));
+            permissions.add(new Permission("View WebSocket Stats", "/mpbhms/notifications/websocket-stats", "GET", "Notification"));
+            permissions.add(new Permission("View My Notification Inbox", "/mpbhms/notifications/inbox", "GET", "Notification"));
+            permissions.add(new Permission("View Unread Notification Count", "/mpbhms/notifications/unread-count", "GET", "Notification"));
+            permissions.add(new Permission("Mark All Notifications as Read", "/mpbhms/notifications/read-all", "PUT", "Notification"));
+            permissions.add(new Permission("View My Archived Notifications", "/mpbhms/notifications/archive", "GET", "Notification"));
+            permissions.add(new Permission("View Notification Retention Stats", "/mpbhms/notifications/retention-stats", "GET", "Notification"));
             //Permissions
             permissions.add(new Permission("Create Permission", "/mpbhms/permissions", "POST", "Permission"));
             permissions.add(new Permission("Update Permission", "/mpbhms/permissions", "PUT", "Permission"));
@@ -156,6 +174,7 @@ public class    DatabaseInitializer implements CommandLineRunner {
             permissions.add(new Permission("OCR CCCD", "/mpbhms/ocr/cccd", "POST", "Ocr"));
             permissions.add(new Permission("Get Scan Interval", "/mpbhms/ocr/auto-scan/interval", "GET", "Ocr"));
             permissions.add(new Permission("Set Scan Interval", "/mpbhms/ocr/auto-scan/interval", "POST", "Ocr"));
+            permissions.add(new Permission("Get OCR Strategy Stats", "/mpbhms/ocr/strategy-stats", "GET", "Ocr"));
             //Bill
             permissions.add(new Permission("Generate first", "/mpbhms/bills/generate-first", "POST", "Bill"));
             permissions.add(new Permission("Generate", "/mpbhms/bills/generate", "POST", "Bill"));
@@ -174,6 +193,9 @@ public class    DatabaseInitializer implements CommandLineRunner {
             permissions.add(new Permission("Dashboard Bill Stats", "/mpbhms/bills/dashboard-stats", "GET", "Bill"));
             permissions.add(new Permission("Bulk Generate Bills", "/mpbhms/bills/bulk-generate", "POST", "Bill"));
             permissions.add(new Permission("Auto Generate Service Bills", "/mpbhms/bills/auto-generate-service-bills", "POST", "Bill"));
+            permissions.add(new Permission("Bulk Generate Bills Async", "/mpbhms/bills/bulk-generate/async", "POST", "Bill"));
+            permissions.add(new Permission("Auto Generate Service Bills Async", "/mpbhms/bills/auto-generate-service-bills/async", "POST", "Bill"));
+            permissions.add(new Permission("Get Bill Generation Job", "/mpbhms/bills/generation-jobs/{jobId}", "GET", "Bill"));
             permissions.add(new Permission("Update Bill Payment Status", "/mpbhms/bills/{id}/payment-status", "PUT", "Bill"));
             permissions.add(new Permission("Create Late Penalty Bill", "/mpbhms/bills/{id}/create-penalty", "POST", "Bill"));
             permissions.add(new Permission("Check And Create Late Penalties", "/mpbhms/bills/check-and-create-penalties", "POST", "Bill"));
@@ -188,6 +210,10 @@ public class    DatabaseInitializer implements CommandLineRunner {
             //Payment History
             permissions.add(new Permission("Get Payment Statistics", "/mpbhms/payment-history/bill/{billId}/statistics", "GET", "payment-history"));
             permissions.add(new Permission("Get Payment History Page", "/mpbhms/payment-history/bill/{billId}/page", "GET", "payment-history"));
+            permissions.add(new Permission("Get Room Payment History Page", "/mpbhms/payment-history/room/{roomId}/cursor", "GET", "payment-history"));
+            permissions.add(new Permission("Get User Payment History Page", "/mpbhms/payment-history/user/{userId}/cursor", "GET", "payment-history"));
+            permissions.add(new Permission("Get Payment History Page By Date Range", "/mpbhms/payment-history/date-range/cursor", "GET", "payment-history"));
+            permissions.add(new Permission("Export Payment History By Date Range", "/mpbhms/payment-history/date-range/export", "GET", "payment-history"));
             //Renter
             permissions.add(new Permission("Get Renter List", "/mpbhms/renters", "GET", "Renter"));
             permissions.add(new Permission("Create new Renter", "/mpbhms/renters", "POST", "Renter"));
@@ -265,6 +291,13 @@ public class    DatabaseInitializer implements CommandLineRunner {
             Permission markReadNotification = permissionRepository.findByModuleAndApiPathAndMethod(
                 "Notification", "/mpbhms/notifications/{id}/read", "PUT"
             );
+            // Hộp thư phân trang, số chưa đọc, đánh dấu đọc tất cả, thông báo đã lưu trữ
+            List<Permission> myInboxNotifications = Stream.of(
+                    permissionRepository.findByModuleAndApiPathAndMethod("Notification", "/mpbhms/notifications/inbox", "GET"),
+                    permissionRepository.findByModuleAndApiPathAndMethod("Notification", "/mpbhms/notifications/unread-count", "GET"),
+                    permissionRepository.findByModuleAndApiPathAndMethod("Notification", "/mpbhms/notifications/read-all", "PUT"),
+                    permissionRepository.findByModuleAndApiPathAndMethod("Notification", "/mpbhms/notifications/archive", "GET")
+            ).filter(Objects::nonNull).toList();
             Permission ocrCccdPermission = permissionRepository.findByModuleAndApiPathAndMethod("Ocr", "/mpbhms/ocr/cccd", "POST");
             Role adminRole = new Role();
             adminRole.setRoleName("ADMIN");
@@ -455,6 +488,7 @@ public class    DatabaseInitializer implements CommandLineRunner {
             if (markReadNotification != null && !renterPermission.contains(markReadNotification)) {
                 renterPermission.add(markReadNotification);
             }
+            myInboxNotifications.stream().filter(p -> !renterPermission.contains(p)).forEach(renterPermission::add);
             Permission getMySchedules = permissionRepository.findByModuleAndApiPathAndMethod("Schedule", "/mpbhms/schedules/my", "GET");
             if (getMySchedules != null && !renterPermission.contains(getMySchedules)) {
                 renterPermission.add(getMySchedules);
@@ -491,6 +525,7 @@ public class    DatabaseInitializer implements CommandLineRunner {
             if (markReadNotification != null && !landlordPermission.contains(markReadNotification)) {
                 landlordPermission.add(markReadNotification);
             }
+            myInboxNotifications.stream().filter(p -> !landlordPermission.contains(p)).forEach(landlordPermission::add);
             Permission sendNotification = permissionRepository.findByModuleAndApiPathAndMethod("Notification", "/mpbhms/notifications/send", "POST");
             if (sendNotification != null && !landlordPermission.contains(sendNotification)) {
                 landlordPermission.add(sendNotification);
@@ -587,6 +622,15 @@ public class    DatabaseInitializer implements CommandLineRunner {
             if (landlordGetPaymentHistoryPage != null && !landlordPermission.contains(landlordGetPaymentHistoryPage)) {
                 landlordPermission.add(landlordGetPaymentHistoryPage);
             }
+
+            // Lịch sử thanh toán theo phòng / khoảng thời gian (phân trang cursor) và xuất CSV
+            Stream.of(
+                    permissionRepository.findByModuleAndApiPathAndMethod("payment-history", "/mpbhms/payment-history/room/{roomId}/cursor", "GET"),
+                    permissionRepository.findByModuleAndApiPathAndMethod("payment-history", "/mpbhms/payment-history/date-range/cursor", "GET"),
+                    permissionRepository.findByModuleAndApiPathAndMethod("payment-history", "/mpbhms/payment-history/date-range/export", "GET")
+            ).filter(Objects::nonNull)
+                    .filter(p -> !landlordPermission.contains(p))
+                    .forEach(landlordPermission::add);
             
             // Đảm bảo LANDLORD có quyền chấm dứt hợp đồng trực tiếp
             Permission landlordDirectTerminateContract = permissionRepository.findByModuleAndApiPathAndMethod("RoomUser", "/mpbhms/room-users/terminate-contract/{contractId}", "POST");
@@ -670,6 +714,7 @@ public class    DatabaseInitializer implements CommandLineRunner {
             if (markReadNotification != null && !userPermissions.contains(markReadNotification)) {
                 userPermissions.add(markReadNotification);
             }
+            myInboxNotifications.stream().filter(p -> !userPermissions.contains(p)).forEach(userPermissions::add);
 
             // Quyền xem phòng
             if (viewRoom != null) userPermissions.add(viewRoom);
@@ -829,6 +874,15 @@ public class    DatabaseInitializer implements CommandLineRunner {
         // Đảm bảo tất cả phòng đều có đầy đủ tài sản (an toàn, không tạo trùng)
         ensureAllRoomsHaveAssets();
 
+        // Bổ sung billingMonth cho hóa đơn cũ
+        backfillBillingMonths();
+
+        // Lên lịch mốc quá hạn cho hóa đơn chưa thanh toán tạo trước khi có next_penalty_check_at
+        backfillPenaltyChecks();
+
+        // Điền room_id và payment_date còn thiếu cho lịch sử thanh toán cũ (khóa phân trang keyset)
+        backfillPaymentHistoryKeys();
+
         if (countPermissions > 0 && countRoles > 0 && countUsers > 0 && countServices > 0 && countContractTemplates > 0 && countRooms > 0 && countAssets > 0) {
             System.out.println(">>> SKIP INIT DATABASE <<<");
         }
@@ -2209,6 +2263,42 @@ public class    DatabaseInitializer implements CommandLineRunner {
         System.out.println(">>> ASSET NAMES: " + allAssets.stream().map(Asset::getAssetName).collect(java.util.stream.Collectors.joining(", ")) + " <<<");
     }
     
+    // Backfill: Điền billingMonth cho hóa đơn tạo trước khi có cột, không tải hóa đơn nào lên bộ nhớ
+    private void backfillBillingMonths() {
+        int updated = billRepository.backfillBillingMonths();
+        if (updated > 0) {
+            System.out.println(">>> BACKFILL BILLING MONTH: " + updated + " bills <<<");
+        }
+    }
+
+    private void backfillPenaltyChecks() {
+        List<Long> billIds = billRepository.findUnscheduledPenaltyCheckIds(BillType.LATE_PENALTY);
+        if (billIds.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        // Nạp và lưu theo lô để không giữ toàn bộ hóa đơn trong bộ nhớ
+        for (int from = 0; from < billIds.size(); from += PENALTY_BACKFILL_BATCH_SIZE) {
+            List<Bill> bills = billRepository.findAllById(billIds.subList(from, Math.min(billIds.size(), from + PENALTY_BACKFILL_BATCH_SIZE)));
+            for (Bill bill : bills) {
+                bill.refreshNextPenaltyCheck(now);
+            }
+            billRepository.saveAll(bills);
+        }
+        System.out.println(">>> BACKFILL PENALTY CHECK: " + billIds.size() + " bills <<<");
+    }
+
+    private void backfillPaymentHistoryKeys() {
+        int rooms = paymentHistoryRepository.backfillRoomIds();
+        if (rooms > 0) {
+            System.out.println(">>> BACKFILL PAYMENT HISTORY ROOM: " + rooms + " rows <<<");
+        }
+        int dates = paymentHistoryRepository.backfillPaymentDates();
+        if (dates > 0) {
+            System.out.println(">>> BACKFILL PAYMENT HISTORY DATE: " + dates + " rows <<<");
+        }
+    }
+
     // Backfill: Đảm bảo mọi phòng đều có đầy đủ tài sản nếu trước đó đã tồn tại phòng/tài sản
     private void ensureAllRoomsHaveAssets() {
         List<Room> allRooms = roomRepository.findAll();
@@ -1,6 +1,7 @@
 package com.mpbhms.backend.config;
 
 
+import com.mpbhms.backend.service.RefreshTokenStore;
 import com.nimbusds.jose.jwk.source.ImmutableSecret;
 import com.nimbusds.jose.util.Base64;
 import org.springframework.beans.factory.annotation.Value;
@@ -32,17 +33,24 @@ public class JwtConfiguration {
     public JwtEncoder jwtEncoder() {
     return new NimbusJwtEncoder(new ImmutableSecret<>(getSecretKey()));
     }
+    // Decoder dựng một lần, dùng chung cho mọi request và cho kiểm tra refresh token (thread-safe)
     @Bean
-    public JwtDecoder jwtDecoder() {
+    public JwtDecoder jwtDecoder(RefreshTokenStore refreshTokenStore) {
         NimbusJwtDecoder jwtEncoder = NimbusJwtDecoder.withSecretKey(getSecretKey()).macAlgorithm
                 (JWT_MAC_ALGORITHM).build();
     return token -> {
+             Jwt jwt;
              try{
-                 return jwtEncoder.decode(token);
+                 jwt = jwtEncoder.decode(token);
              }catch(Exception e){
                  System.out.println("Error while decoding JWT token: " + e.getMessage());
                  throw e;
              }
+             // Access token đã thu hồi khi đăng xuất
+             if (refreshTokenStore.isRevoked(jwt)) {
+                 throw new BadJwtException("Token đã bị thu hồi");
+             }
+             return jwt;
         };
     }
 
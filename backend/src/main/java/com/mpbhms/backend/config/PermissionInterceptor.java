@@ -1,23 +1,21 @@
 package com.mpbhms.backend.config;
 
-import com.mpbhms.backend.entity.Permission;
-import com.mpbhms.backend.entity.Role;
-import com.mpbhms.backend.entity.User;
 import com.mpbhms.backend.exception.IdInvalidException;
-import com.mpbhms.backend.service.UserService;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.util.SecurityUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.web.servlet.HandlerMapping;
 
-import java.util.List;
-@Transactional
+import java.util.regex.Pattern;
+
 public class PermissionInterceptor implements HandlerInterceptor {
+    private static final Pattern SCHEDULE_BY_ID = Pattern.compile("/mpbhms/schedules/\\{[^/]+\\}");
+
     @Autowired
-    UserService userService;
+    AuthorizationMatrix authorizationMatrix;
 
     @Override
     public boolean preHandle(
@@ -25,22 +23,18 @@ public class PermissionInterceptor implements HandlerInterceptor {
             HttpServletResponse response, Object handler)
             throws Exception {
         String path = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
-        String requestURI = request.getRequestURI();
         String httpMethod = request.getMethod();
 
-        String email = SecurityUtil.getCurrentUserLogin().isPresent()
-                ? SecurityUtil.getCurrentUserLogin().get()
-                : "";
+        String email = SecurityUtil.getCurrentUserLogin().orElse("");
         if(!email.isEmpty()){
-            User user = this.userService.handleGetUserByUsername(email);
-            if(user != null){
-                Role role = user.getRole();
+            // Vai trò lấy từ cache, quyền tra trong bảng dựng sẵn: không truy vấn DB khi cache còn hạn
+            AuthorizationMatrix.Subject subject = authorizationMatrix.resolve(email);
+            if(subject != null){
+                AuthorizationMatrix.RoleGrants role = subject.role();
                 if(role != null){
-                    String roleName = role.getRoleName();
-                    String pathToCheck = path;
-                    String methodToCheck = httpMethod;
+                    String roleName = role.roleName();
                     // Nếu là API book lịch thì chỉ chặn ADMIN, SUBADMIN, LANDLORD
-                    if ("/mpbhms/schedules".equals(pathToCheck) && "POST".equals(methodToCheck)) {
+                    if ("/mpbhms/schedules".equals(path) && "POST".equals(httpMethod)) {
                         if ("ADMIN".equals(roleName) || "SUBADMIN".equals(roleName) || "LANDLORD".equals(roleName)) {
                             throw new IdInvalidException("You do not have permission to access this endpoint!!!");
                         }
@@ -48,13 +42,7 @@ public class PermissionInterceptor implements HandlerInterceptor {
                         return true;
                     }
                     // Các API khác kiểm tra permission như cũ
-                    List<Permission> permissions = role.getPermissionEntities();
-                    boolean isAllow = permissions.stream().anyMatch(
-                            permission -> permission.getApiPath().equals(path)
-                                    &&
-                                    permission.getMethod().equals(httpMethod)
-                    );
-                    if(!isAllow){
+                    if(!role.isAllowed(httpMethod, path)){
                         throw new IdInvalidException("You do not have permission to access this endpoint!!!");
                     }
                 }else{
@@ -71,12 +59,20 @@ public class PermissionInterceptor implements HandlerInterceptor {
                     if ("/mpbhms/notifications".equals(path) && "GET".equals(httpMethod)) {
                         return true;
                     }
+                    if (("/mpbhms/notifications/inbox".equals(path) || "/mpbhms/notifications/unread-count".equals(path)
+                            || "/mpbhms/notifications/archive".equals(path))
+                            && "GET".equals(httpMethod)) {
+                        return true;
+                    }
+                    if ("/mpbhms/notifications/read-all".equals(path) && "PUT".equals(httpMethod)) {
+                        return true;
+                    }
                     // Nếu là API xóa lịch hẹn, cũng cho phép
-                    if (path != null && path.matches("/mpbhms/schedules/\\{[^/]+\\}") && "DELETE".equals(httpMethod)) {
+                    if (path != null && SCHEDULE_BY_ID.matcher(path).matches() && "DELETE".equals(httpMethod)) {
                         return true;
                     }
                     // Nếu là API edit lịch hẹn, cũng cho phép
-                    if (path != null && path.matches("/mpbhms/schedules/\\{[^/]+\\}") && "PUT".equals(httpMethod)) {
+                    if (path != null && SCHEDULE_BY_ID.matcher(path).matches() && "PUT".equals(httpMethod)) {
                         return true;
                     }
                     // Với các API khác, từ chối truy cập
@@ -87,4 +83,4 @@ public class PermissionInterceptor implements HandlerInterceptor {
 
         return true;
     }
-}
\ No newline at end of file
+}
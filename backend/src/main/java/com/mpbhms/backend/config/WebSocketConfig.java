@@ -1,24 +1,128 @@
 package com.mpbhms.backend.config;
 
+import com.mpbhms.backend.service.LocalStompBroker;
+import com.mpbhms.backend.service.WebSocketOutboundBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+import java.io.IOException;
+
+/**
+ * STOMP qua WebSocket/SockJS.
+ * websocket.broker.mode:
+ * - simple: broker trong JVM (một node)
+ * - relay: chuyển tiếp tới broker STOMP ngoài (RabbitMQ/ActiveMQ) để nhiều node backend cùng đẩy thông báo;
+ *   user destination và user registry được broadcast qua broker nên người dùng kết nối ở node nào cũng nhận được
+ * - local-relay: như relay nhưng tự chạy {@link LocalStompBroker} trong JVM này (phát triển, kiểm thử)
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final WebSocketOutboundBuffer outboundBuffer;
+    private final String brokerMode;
+    private final String relayHost;
+    private final int relayPort;
+    private final String relayLogin;
+    private final String relayPasscode;
+    private final long heartbeatServerMs;
+    private final long heartbeatClientMs;
+    private final long sockJsHeartbeatMs;
+    private final int messageSizeLimitKb;
+
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    public WebSocketConfig(WebSocketOutboundBuffer outboundBuffer,
+                           @Value("${websocket.broker.mode:simple}") String brokerMode,
+                           @Value("${websocket.relay.host:127.0.0.1}") String relayHost,
+                           @Value("${websocket.relay.port:61613}") int relayPort,
+                           @Value("${websocket.relay.login:guest}") String relayLogin,
+                           @Value("${websocket.relay.passcode:guest}") String relayPasscode,
+                           @Value("${websocket.heartbeat.server-ms:10000}") long heartbeatServerMs,
+                           @Value("${websocket.heartbeat.client-ms:10000}") long heartbeatClientMs,
+                           @Value("${websocket.sockjs.heartbeat-ms:25000}") long sockJsHeartbeatMs,
+                           @Value("${websocket.transport.message-size-limit-kb:64}") int messageSizeLimitKb) {
+        this.outboundBuffer = outboundBuffer;
+        this.brokerMode = brokerMode;
+        this.relayHost = relayHost;
+        this.relayPort = relayPort;
+        this.relayLogin = relayLogin;
+        this.relayPasscode = relayPasscode;
+        this.heartbeatServerMs = Math.max(0, heartbeatServerMs);
+        this.heartbeatClientMs = Math.max(0, heartbeatClientMs);
+        this.sockJsHeartbeatMs = Math.max(1000, sockJsHeartbeatMs);
+        this.messageSizeLimitKb = Math.max(1, messageSizeLimitKb);
+    }
+
+    // Scheduler của chính cấu hình message broker, dùng để gửi/kiểm tra heart-beat của simple broker
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy TaskScheduler messageBrokerTaskScheduler) {
+        this.messageBrokerTaskScheduler = messageBrokerTaskScheduler;
+    }
+
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnProperty(name = "websocket.broker.mode", havingValue = "local-relay")
+    public LocalStompBroker localStompBroker() throws IOException {
+        LocalStompBroker broker = new LocalStompBroker("127.0.0.1", relayPort);
+        broker.start();
+        return broker;
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
-        registry.addEndpoint("/ws").setAllowedOrigins("*").withSockJS();
+        registry.addEndpoint("/ws").setAllowedOrigins("*").withSockJS()
+                .setHeartbeatTime(sockJsHeartbeatMs);
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.setApplicationDestinationPrefixes("/app");
-        registry.enableSimpleBroker("/queue", "/topic");
         registry.setUserDestinationPrefix("/user");
+
+        switch (brokerMode) {
+            case "relay", "local-relay" -> {
+                String host = "local-relay".equals(brokerMode) ? "127.0.0.1" : relayHost;
+                registry.enableStompBrokerRelay("/queue", "/topic")
+                        .setRelayHost(host)
+                        .setRelayPort(relayPort)
+                        .setClientLogin(relayLogin)
+                        .setClientPasscode(relayPasscode)
+                        .setSystemLogin(relayLogin)
+                        .setSystemPasscode(relayPasscode)
+                        .setSystemHeartbeatSendInterval(heartbeatClientMs)
+                        .setSystemHeartbeatReceiveInterval(heartbeatServerMs)
+                        // Thông báo gửi tới user đang kết nối ở node khác
+                        .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                        .setUserRegistryBroadcast("/topic/simp-user-registry");
+                System.out.println("📡 WebSocket broker relay: " + host + ":" + relayPort);
+            }
+            case "simple" -> registry.enableSimpleBroker("/queue", "/topic")
+                    .setHeartbeatValue(new long[]{heartbeatServerMs, heartbeatClientMs})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+            default -> throw new IllegalStateException("websocket.broker.mode không hợp lệ: " + brokerMode
+                    + " (simple | relay | local-relay)");
+        }
+    }
+
+    /**
+     * Không đặt sendTimeLimit/sendBufferSizeLimit: ConcurrentWebSocketSessionDecorator của Spring bọc phiên
+     * đã qua {@link WebSocketOutboundBuffer}, mà sendMessage của phiên đó chỉ xếp hàng rồi trả về ngay,
+     * nên hai giới hạn này không bao giờ bị chạm tới. Client chậm do WebSocketOutboundBuffer xử lý
+     * (websocket.outbound.max-queued-frames, websocket.outbound.slow-client-close-ms)
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(messageSizeLimitKb * 1024)
+                .addDecoratorFactory(outboundBuffer::decorate);
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.response.ChangePasswordDTOResponse;
 import com.mpbhms.backend.response.LoginDTOResponse;
 import com.mpbhms.backend.entity.User;
+import com.mpbhms.backend.service.RefreshTokenStore;
 import com.mpbhms.backend.service.UserService;
 import com.mpbhms.backend.util.ApiMessage;
 import com.mpbhms.backend.util.SecurityUtil;
@@ -35,6 +36,7 @@ public class AuthController {
         private final AuthenticationManagerBuilder authenticationManagerBuilder;
         private final SecurityUtil securityUtil;
         private final PasswordEncoder passwordEncoder;
+        private final RefreshTokenStore refreshTokenStore;
         @Value("${mpbhms.jwt.refresh-token-validity-in-seconds}")
         private long refreshTokenExpiration;
 
@@ -78,8 +80,8 @@ public class AuthController {
             // Tạo refresh token
             String refreshToken = this.securityUtil.createRefreshToken(login.getUsername(), loginDTOResponse);
 
-            // Cập nhật refresh token cho người dùng trong DB
-            this.userService.updateUserToken(refreshToken, login.getUsername());
+            // Cập nhật refresh token cho người dùng (DB + bộ nhớ)
+            this.refreshTokenStore.rotate(login.getUsername(), refreshToken);
 
             // Tạo cookie
             ResponseCookie responseCookie = ResponseCookie.from("refreshToken", refreshToken)
@@ -138,8 +140,11 @@ public class AuthController {
             Jwt decodedToken = securityUtil.checkValidRefreshToken(refreshToken);
             String email = decodedToken.getSubject();
 
-            // Tìm user trong DB
-            User currentUser = this.userService.getUserByRefreshTokenAndEmail(refreshToken, email);
+            // Token phải là refresh token hiện hành của user (so khớp trong bộ nhớ, không truy vấn chuỗi token trong DB)
+            if (!refreshTokenStore.isActive(email, refreshToken)) {
+                throw new JwtException("Refresh token không hợp lệ");
+            }
+            User currentUser = this.userService.getUserWithEmail(email);
             if (currentUser == null) {
                 throw new JwtException("Refresh token không hợp lệ");
             }
@@ -165,8 +170,8 @@ public class AuthController {
             // Tạo refresh token mới
             String new_refresh_token = this.securityUtil.createRefreshToken(email, loginDTOResponse);
 
-            // Cập nhật token trong DB
-            this.userService.updateUserToken(new_refresh_token, email);
+            // Xoay vòng: token cũ chỉ còn dùng được trong thời gian ân hạn
+            this.refreshTokenStore.rotate(email, new_refresh_token);
 
             // Gửi cookie mới
             ResponseCookie responseCookie = ResponseCookie.from("refreshToken", new_refresh_token)
@@ -191,8 +196,8 @@ public class AuthController {
                 throw new JwtException("Token rỗng hoặc không hợp lệ");
             }
 
-            // Xóa refresh token trong DB
-            this.userService.updateUserToken(null, email);
+            // Xóa refresh token và thu hồi access token đang dùng
+            this.refreshTokenStore.revoke(email, SecurityUtil.getCurrentAccessToken().orElse(null));
 
             // Xóa cookie bằng cách đặt maxAge = 0
             ResponseCookie deleteCookie = ResponseCookie.from("refreshToken", "")
@@ -1,5 +1,6 @@
 package com.mpbhms.backend.controller;
 
+import com.mpbhms.backend.dto.BillGenerationJobResponse;
 import com.mpbhms.backend.dto.BillResponse;
 import com.mpbhms.backend.dto.PartialPaymentRequest;
 import com.mpbhms.backend.dto.PartialPaymentResponse;
@@ -7,12 +8,14 @@ import com.mpbhms.backend.entity.Bill;
 import com.mpbhms.backend.entity.PaymentHistory;
 import com.mpbhms.backend.entity.RoomUser;
 import com.mpbhms.backend.enums.BillType;
+import com.mpbhms.backend.service.BillGenerationJobService;
 import com.mpbhms.backend.service.BillService;
 import com.mpbhms.backend.service.PaymentHistoryService;
 import com.mpbhms.backend.repository.BillRepository;
 import com.mpbhms.backend.repository.PaymentHistoryRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
@@ -20,6 +23,8 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -28,6 +33,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import com.mpbhms.backend.service.EmailService;
+import com.mpbhms.backend.service.EmailOutboxService;
 import com.mpbhms.backend.service.VnPayService;
 import com.mpbhms.backend.service.NotificationService;
 import com.mpbhms.backend.dto.NotificationDTO;
@@ -46,6 +52,8 @@ public class BillController {
     private final PaymentHistoryService paymentHistoryService;
     private final BillRepository billRepository;
     private final PaymentHistoryRepository paymentHistoryRepository;
+    private final BillGenerationJobService billGenerationJobService;
+    private final EmailOutboxService emailOutboxService;
 
     @PostMapping("/generate-first")
     public BillResponse generateFirstBill(@RequestParam Long contractId) {
@@ -89,11 +97,14 @@ public class BillController {
                                        @RequestParam(defaultValue = "10") int size) {
         Pageable pageable = PageRequest.of(page, size);
         if (roomId != null || status != null || minPrice != null || maxPrice != null || (search != null && !search.isEmpty())) {
-            return billService.filterBills(roomId, status, minPrice, maxPrice, search, pageable)
-                    .map(billService::toResponse);
+            return toResponsePage(billService.filterBills(roomId, status, minPrice, maxPrice, search, pageable));
         }
-        return billService.getBillsByContractOrRoom(contractId, roomId, pageable)
-                .map(billService::toResponse);
+        return toResponsePage(billService.getBillsByContractOrRoom(contractId, roomId, pageable));
+    }
+
+    // Chuyển cả trang hóa đơn sang BillResponse trong một lần (tránh truy vấn theo từng hóa đơn)
+    private Page<BillResponse> toResponsePage(Page<Bill> bills) {
+        return new PageImpl<>(billService.toResponses(bills.getContent()), bills.getPageable(), bills.getTotalElements());
     }
 
     @DeleteMapping("/{id}")
@@ -109,18 +120,20 @@ public class BillController {
     }
 
     @GetMapping("/{id}/export")
-    public ResponseEntity<byte[]> exportBillPdf(@PathVariable Long id) {
-        byte[] pdfBytes = billService.generateBillPdf(id);
-        return ResponseEntity.ok()
-            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=bill_" + id + ".pdf")
-            .contentType(MediaType.APPLICATION_PDF)
-            .body(pdfBytes);
+    public void exportBillPdf(@PathVariable Long id, HttpServletResponse response) throws IOException {
+        // Lấy dấu phiên bản trước (lỗi NotFound trả về trước khi ghi byte nào), sau đó stream PDF thẳng ra response;
+        // dữ liệu hóa đơn chỉ được nạp khi cache PDF trượt
+        String versionStamp = billService.getBillPdfVersionStamp(id);
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=bill_" + id + ".pdf");
+        billService.writeBillPdf(id, versionStamp, response.getOutputStream());
+        response.flushBuffer();
     }
 
     @GetMapping("/my")
     public Page<BillResponse> getMyBills(Pageable pageable) {
         Long userId = com.mpbhms.backend.util.SecurityUtil.getCurrentUserId();
-        return billService.getBillsByUserId(userId, pageable).map(billService::toResponse);
+        return toResponsePage(billService.getBillsByUserId(userId, pageable));
     }
 
     @PostMapping("/custom")
@@ -188,6 +201,22 @@ public class BillController {
         }
     }
 
+    // Tạo hóa đơn hàng loạt chạy nền: trả về jobId ngay, theo dõi tiến độ qua /generation-jobs/{jobId}
+    @PostMapping("/bulk-generate/async")
+    public ResponseEntity<BillGenerationJobResponse> bulkGenerateBillsAsync() {
+        return ResponseEntity.accepted().body(billGenerationJobService.startContractBillGeneration());
+    }
+
+    @PostMapping("/auto-generate-service-bills/async")
+    public ResponseEntity<BillGenerationJobResponse> autoGenerateServiceBillsAsync() {
+        return ResponseEntity.accepted().body(billGenerationJobService.startServiceBillGeneration());
+    }
+
+    @GetMapping("/generation-jobs/{jobId}")
+    public BillGenerationJobResponse getGenerationJob(@PathVariable String jobId) {
+        return billGenerationJobService.getJob(jobId);
+    }
+
     @PostMapping("/{billId}/send")
     public ResponseEntity<?> sendBill(@PathVariable Long billId, HttpServletRequest request) {
         return sendBillEmail(billId, request);
@@ -215,8 +244,6 @@ public class BillController {
             return ResponseEntity.badRequest().body(error);
         }
         
-        byte[] pdfBytes = billService.generateBillPdf(billId);
-        
         // Nếu hóa đơn đã từng thanh toán từng phần, kiểm tra giới hạn 30 ngày giữa các lần
         try {
             if (Boolean.TRUE.equals(bill.getIsPartiallyPaid()) && bill.getLastPaymentDate() != null) {
@@ -252,9 +279,9 @@ public class BillController {
                 // Gửi email
                 if (roomUser.getUser().getEmail() != null) {
                     try {
-                        emailService.sendBillWithAttachment(roomUser.getUser().getEmail(), subject, content, pdfBytes);
-                        // 🆕 Lưu log email đã gửi
-                        billService.logEmailSent(billId, roomUser.getUser().getEmail(), "BILL", clientIp, userAgent, getCurrentUserId());
+                        // Xếp hàng email kèm PDF, gửi nền (không chờ SMTP trong request); log email được ghi khi gửi xong
+                        emailOutboxService.enqueueBillEmail(roomUser.getUser().getEmail(), subject, content, billId, "BILL:" + billId,
+                            new EmailOutboxService.SentLog("BILL", clientIp, userAgent, getCurrentUserId()));
                         sent++;
                     } catch (Exception e) {
                         // Có thể log lỗi gửi từng email
@@ -715,9 +742,7 @@ public class BillController {
      */
     @GetMapping("/overdue-bills")
     public List<BillResponse> getOverdueBills() {
-        return billService.getOverdueBills().stream()
-                .map(billService::toResponse)
-                .toList();
+        return billService.toResponses(billService.getOverdueBills());
     }
 
     // Lấy số lần thanh toán đã thực hiện cho một hóa đơn
@@ -1124,10 +1149,11 @@ public class BillController {
                         .findFirst().orElse(null);
                     if (mainRenter != null) {
                         String emailContent = billService.buildPartialPaymentEmailContent(bill, originalPaymentAmount);
-                        emailService.sendNotificationEmail(
+                        emailOutboxService.enqueue(
                             mainRenter.getUser().getEmail(),
                             "Thanh toán tiền mặt thành công - Hóa đơn #" + bill.getId(),
-                            emailContent
+                            emailContent,
+                            null
                         );
                     }
                 }
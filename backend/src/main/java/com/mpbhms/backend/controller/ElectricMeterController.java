@@ -129,5 +129,10 @@ public class ElectricMeterController {
         return ResponseEntity.ok(new ApiResponse<>(200, null, "Lưu thành công", value));
     }
 
+    // Thống kê phương pháp nhận diện thắng (số lần, thời gian trung bình) để điều chỉnh thứ tự phương pháp
+    @GetMapping("/strategy-stats")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getStrategyStats() {
+        return ResponseEntity.ok(new ApiResponse<>(200, null, "Thành công", detectionService.getStrategyStats()));
+    }
 
 }
\ No newline at end of file
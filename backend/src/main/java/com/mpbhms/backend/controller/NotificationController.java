@@ -1,9 +1,12 @@
 package com.mpbhms.backend.controller;
 
 import com.mpbhms.backend.dto.NotificationDTO;
+import com.mpbhms.backend.dto.NotificationInboxDTO;
 import com.mpbhms.backend.dto.ResultPaginationDTO;
 import com.mpbhms.backend.entity.Notification;
+import com.mpbhms.backend.service.NotificationRetentionService;
 import com.mpbhms.backend.service.NotificationService;
+import com.mpbhms.backend.service.WebSocketOutboundBuffer;
 import com.mpbhms.backend.util.ApiMessage;
 import com.turkraft.springfilter.boot.Filter;
 import lombok.RequiredArgsConstructor;
@@ -15,12 +18,15 @@ import org.springframework.web.bind.annotation.*;
 
 import java.security.Principal;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/mpbhms/notifications")
 @RequiredArgsConstructor
 public class NotificationController {
     private final NotificationService notificationService;
+    private final WebSocketOutboundBuffer webSocketOutboundBuffer;
+    private final NotificationRetentionService notificationRetentionService;
 
     @PostMapping("/send")
     @ApiMessage("Create and send a new notification")
@@ -55,6 +61,34 @@ public class NotificationController {
         return ResponseEntity.ok(dtos);
     }
 
+    @GetMapping("/inbox")
+    @ApiMessage("Get a page of notifications for the current user")
+    public ResponseEntity<NotificationInboxDTO> getInbox(Principal principal,
+                                                         @RequestParam(required = false) String cursor,
+                                                         @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(notificationService.getInbox(principal.getName(), cursor, size));
+    }
+
+    @GetMapping("/archive")
+    @ApiMessage("Get a page of archived notifications for the current user")
+    public ResponseEntity<NotificationInboxDTO> getArchive(Principal principal,
+                                                           @RequestParam(required = false) String cursor,
+                                                           @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(notificationService.getArchive(principal.getName(), cursor, size));
+    }
+
+    @GetMapping("/unread-count")
+    @ApiMessage("Get unread notification count for the current user")
+    public ResponseEntity<Map<String, Long>> getUnreadCount(Principal principal) {
+        return ResponseEntity.ok(Map.of("unreadCount", notificationService.getUnreadCount(principal.getName())));
+    }
+
+    @PutMapping("/read-all")
+    @ApiMessage("Mark all notifications of the current user as read")
+    public ResponseEntity<Map<String, Integer>> markAllAsRead(Principal principal) {
+        return ResponseEntity.ok(Map.of("updated", notificationService.markAllAsRead(principal.getName())));
+    }
+
     @GetMapping("/all")
     @ApiMessage("Get all notifications with filters and pagination (admin only)")
     public ResponseEntity<ResultPaginationDTO> getAllNotifications(
@@ -65,6 +99,18 @@ public class NotificationController {
     }
 
 
+    @GetMapping("/websocket-stats")
+    @ApiMessage("Get WebSocket delivery statistics")
+    public ResponseEntity<Map<String, Object>> getWebSocketStats() {
+        return ResponseEntity.ok(webSocketOutboundBuffer.getStats());
+    }
+
+    @GetMapping("/retention-stats")
+    @ApiMessage("Get notification retention statistics")
+    public ResponseEntity<Map<String, Object>> getRetentionStats() {
+        return ResponseEntity.ok(notificationRetentionService.getStats());
+    }
+
     @PutMapping("/{id}/read")
     @ApiMessage("Mark a notification as read")
     public ResponseEntity<Void> markAsRead(@PathVariable Long id) {
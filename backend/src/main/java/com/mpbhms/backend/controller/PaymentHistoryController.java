@@ -1,16 +1,29 @@
 package com.mpbhms.backend.controller;
 
+import com.mpbhms.backend.dto.PaymentHistoryPageDTO;
 import com.mpbhms.backend.dto.PaymentHistoryResponse;
 import com.mpbhms.backend.service.PaymentHistoryService;
+import com.mpbhms.backend.util.CurrentPrincipal;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/mpbhms/payment-history")
@@ -20,6 +33,13 @@ public class PaymentHistoryController {
     @Autowired
     private PaymentHistoryService paymentHistoryService;
 
+    @Autowired
+    private CurrentPrincipal currentPrincipal;
+
+    // Xuất CSV theo khoảng thời gian có thể chạy lâu hơn timeout async mặc định
+    @Value("${payment-history.export.timeout-ms:600000}")
+    private long exportTimeoutMs;
+
     /**
      * Lấy lịch sử thanh toán của một hóa đơn
      */
@@ -77,14 +97,10 @@ public class PaymentHistoryController {
     @GetMapping("/room/{roomId}")
     public ResponseEntity<?> getPaymentHistoryByRoomId(@PathVariable Long roomId) {
         try {
-            List<PaymentHistoryResponse> paymentHistories = paymentHistoryService.getPaymentHistoryByRoomId(roomId);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("data", paymentHistories);
-            response.put("total", paymentHistories.size());
-            
-            return ResponseEntity.ok(response);
+            PaymentHistoryPageDTO page = paymentHistoryService.getPaymentHistoryByRoomId(roomId, currentPrincipal.getLandlordScope());
+            return ResponseEntity.ok(listResponse(page));
+        } catch (AccessDeniedException e) {
+            return forbidden(e.getMessage());
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("success", false);
@@ -99,14 +115,8 @@ public class PaymentHistoryController {
     @GetMapping("/user/{userId}")
     public ResponseEntity<?> getPaymentHistoryByUserId(@PathVariable Long userId) {
         try {
-            List<PaymentHistoryResponse> paymentHistories = paymentHistoryService.getPaymentHistoryByUserId(userId);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("data", paymentHistories);
-            response.put("total", paymentHistories.size());
-            
-            return ResponseEntity.ok(response);
+            PaymentHistoryPageDTO page = paymentHistoryService.getPaymentHistoryByUserId(userId);
+            return ResponseEntity.ok(listResponse(page));
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("success", false);
@@ -123,12 +133,10 @@ public class PaymentHistoryController {
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startDate,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate) {
         try {
-            List<PaymentHistoryResponse> paymentHistories = paymentHistoryService.getPaymentHistoryByDateRange(startDate, endDate);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("data", paymentHistories);
-            response.put("total", paymentHistories.size());
+            PaymentHistoryPageDTO page = paymentHistoryService.getPaymentHistoryByDateRange(
+                    startDate, endDate, currentPrincipal.getLandlordScope());
+
+            Map<String, Object> response = listResponse(page);
             response.put("startDate", startDate);
             response.put("endDate", endDate);
             
@@ -141,6 +149,95 @@ public class PaymentHistoryController {
         }
     }
 
+    /**
+     * Lịch sử thanh toán của một phòng, phân trang theo cursor
+     */
+    @GetMapping("/room/{roomId}/cursor")
+    public ResponseEntity<?> getPaymentHistoryPageByRoomId(
+            @PathVariable Long roomId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return pageResponse(paymentHistoryService.getPaymentHistoryPageByRoomId(
+                    roomId, currentPrincipal.getLandlordScope(), cursor, size));
+        } catch (AccessDeniedException e) {
+            return forbidden(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "Lỗi khi lấy lịch sử thanh toán: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * Lịch sử thanh toán của một người dùng, phân trang theo cursor
+     */
+    @GetMapping("/user/{userId}/cursor")
+    public ResponseEntity<?> getPaymentHistoryPageByUserId(
+            @PathVariable Long userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return pageResponse(paymentHistoryService.getPaymentHistoryPageByUserId(userId, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "Lỗi khi lấy lịch sử thanh toán: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * Lịch sử thanh toán trong khoảng thời gian, phân trang theo cursor (màn hình thanh toán của admin)
+     */
+    @GetMapping("/date-range/cursor")
+    public ResponseEntity<?> getPaymentHistoryPageByDateRange(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return pageResponse(paymentHistoryService.getPaymentHistoryPageByDateRange(
+                    startDate, endDate, currentPrincipal.getLandlordScope(), cursor, size));
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "Lỗi khi lấy lịch sử thanh toán: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * Xuất CSV lịch sử thanh toán trong khoảng thời gian; dữ liệu được ghi dần ra response theo từng lô.
+     * Timeout async riêng cho endpoint này (payment-history.export.timeout-ms), các request async khác giữ mặc định.
+     */
+    @GetMapping("/date-range/export")
+    public WebAsyncTask<Void> exportPaymentHistoryByDateRange(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate,
+            HttpServletResponse response) {
+        // Luồng ghi CSV không còn request scope: lấy phạm vi chủ trọ trước
+        Long landlordId = currentPrincipal.getLandlordScope();
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=payment_history.csv");
+        response.setContentType(new MediaType("text", "csv", StandardCharsets.UTF_8).toString());
+        Callable<Void> export = () -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+            // BOM để Excel nhận đúng tiếng Việt
+            writer.write('\uFEFF');
+            paymentHistoryService.exportPaymentHistoryByDateRange(startDate, endDate, landlordId, writer);
+            writer.flush();
+            return null;
+        };
+        return new WebAsyncTask<>(exportTimeoutMs, export);
+    }
+
     /**
      * Lấy lịch sử thanh toán theo phương thức thanh toán
      */
@@ -248,8 +345,38 @@ public class PaymentHistoryController {
             return ResponseEntity.status(500).body(errorResponse);
         }
     }
-}
 
+    private ResponseEntity<?> pageResponse(PaymentHistoryPageDTO page) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", page.getItems());
+        response.put("nextCursor", page.getNextCursor());
+        response.put("hasMore", page.isHasMore());
+        return ResponseEntity.ok(response);
+    }
 
+    // Danh sách cũ: truncated = true nghĩa là còn dòng cũ hơn, lấy tiếp bằng nextCursor qua API /cursor
+    private Map<String, Object> listResponse(PaymentHistoryPageDTO page) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", page.getItems());
+        response.put("total", page.getItems().size());
+        response.put("truncated", page.isHasMore());
+        response.put("nextCursor", page.getNextCursor());
+        return response;
+    }
 
+    private ResponseEntity<?> forbidden(String message) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("message", message);
+        return ResponseEntity.status(403).body(errorResponse);
+    }
 
+    private ResponseEntity<?> badRequest(String message) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("message", message);
+        return ResponseEntity.badRequest().body(errorResponse);
+    }
+}
@@ -109,13 +109,8 @@ public class RoomUserController {
 
         try {
             Instant newEndDate = Instant.parse(newEndDateStr);
-            // Lấy userId từ username hiện tại
-            Long userId = null;
-            String username = com.mpbhms.backend.util.CurrentUserUtil.getCurrentUserLogin().orElse(null);
-            if (username != null) {
-                com.mpbhms.backend.entity.User user = userRepository.findByUsername(username);
-                if (user != null) userId = user.getId();
-            }
+            // userId lấy từ claim của token (subject là email nên không tra được theo username)
+            Long userId = com.mpbhms.backend.util.SecurityUtil.getCurrentUserId();
             contractService.requestRenewalAmendment(contractId, newEndDate, reason, userId);
             return ResponseEntity.ok(new ApiResponse<>(200, null, "Đã gửi yêu cầu gia hạn hợp đồng, chờ duyệt.", null));
         } catch (DateTimeParseException e) {
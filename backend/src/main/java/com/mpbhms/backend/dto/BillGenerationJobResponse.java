@@ -0,0 +1,19 @@
+package com.mpbhms.backend.dto;
+
+import lombok.Data;
+import java.time.Instant;
+
+@Data
+public class BillGenerationJobResponse {
+    private String jobId;
+    private String jobType; // CONTRACT_BILLS, SERVICE_BILLS
+    private String status; // RUNNING, COMPLETED, FAILED
+    private int totalContracts;
+    private int processed;
+    private int created;
+    private int skipped;
+    private int failed;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String message;
+}
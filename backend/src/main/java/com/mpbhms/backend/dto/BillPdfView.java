@@ -0,0 +1,58 @@
+package com.mpbhms.backend.dto;
+
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Dữ liệu đã nạp sẵn để in hóa đơn PDF (bất biến, không truy cập JPA khi render)
+ */
+@Value
+@Builder
+public class BillPdfView {
+    Long billId;
+    Instant billDate;
+    boolean paid;
+
+    String roomNumber;
+    String building;
+    Long contractId;
+    @Singular
+    List<Member> members;
+
+    Instant fromDate;
+    Instant toDate;
+    // Hạn thanh toán đã đặt (có thể null) và hạn thanh toán hiển thị (mặc định toDate + 7 ngày)
+    Instant dueDate;
+    Instant effectiveDueDate;
+
+    @Singular
+    List<Line> lines;
+
+    boolean partiallyPaid;
+    BigDecimal paidAmount;
+    BigDecimal partialPaymentFeesCollected;
+    BigDecimal outstandingAmount;
+
+    @Value
+    @Builder
+    public static class Member {
+        String fullName;
+        String phoneNumber;
+        String email;
+        Instant joinedAt;
+    }
+
+    @Value
+    @Builder
+    public static class Line {
+        String description;
+        BigDecimal consumedUnits;
+        BigDecimal unitPrice;
+        BigDecimal amount;
+    }
+}
@@ -0,0 +1,14 @@
+package com.mpbhms.backend.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+// Một trang hộp thư thông báo; nextCursor dùng cho lần gọi tiếp theo (null nếu đã hết)
+@Data
+public class NotificationInboxDTO {
+    private List<NotificationDTO> items;
+    private String nextCursor;
+    private boolean hasMore;
+    private long unreadCount;
+}
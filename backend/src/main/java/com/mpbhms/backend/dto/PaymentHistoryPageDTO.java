@@ -0,0 +1,13 @@
+package com.mpbhms.backend.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+// Một trang lịch sử thanh toán; nextCursor dùng cho lần gọi tiếp theo (null nếu đã hết)
+@Data
+public class PaymentHistoryPageDTO {
+    private List<PaymentHistoryResponse> items;
+    private String nextCursor;
+    private boolean hasMore;
+}
@@ -9,16 +9,29 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "bills")
+@Table(name = "bills", indexes = {
+        @Index(name = "idx_bills_contract_period", columnList = "contract_id, from_date, to_date, bill_type"),
+        @Index(name = "idx_bills_billing_month_type", columnList = "billing_month, bill_type, contract_id"),
+        @Index(name = "idx_bills_next_penalty_check", columnList = "status, next_penalty_check_at")
+})
 @Getter
 @Setter
 public class Bill extends BaseEntity {
 
+    // Ngày quá hạn gửi cảnh báo và ngày quá hạn bắt đầu tạo phạt
+    public static final int OVERDUE_WARNING_DAY = 7;
+    public static final int PENALTY_START_DAY = 8;
+    // Hóa đơn thanh toán từng phần được trừ thêm 7 ngày trước khi tính quá hạn
+    public static final int PARTIAL_PAYMENT_GRACE_DAYS = 7;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "room_id", nullable = false)
     private Room room;
@@ -34,6 +47,10 @@ public class Bill extends BaseEntity {
     @Column(name = "to_date", nullable = false)
     private Instant toDate;
 
+    // Tháng tính hóa đơn dạng yyyy-MM (theo giờ Việt Nam), tự tính từ fromDate khi lưu
+    @Column(name = "billing_month", length = 7)
+    private String billingMonth;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "payment_cycle", nullable = false)
     private PaymentCycle paymentCycle;
@@ -92,6 +109,9 @@ public class Bill extends BaseEntity {
     @Column(name = "penalty_amount", precision = 15, scale = 2)
     private BigDecimal penaltyAmount; // Số tiền phạt
 
+    @Column(name = "penalty_revision")
+    private Integer penaltyRevision = 0; // Số lần hóa đơn phạt đã được cập nhật tại chỗ
+
     // Trường để theo dõi lãi suất cho thanh toán từng phần
     @Column(name = "interest_amount", precision = 15, scale = 2)
     private BigDecimal interestAmount = BigDecimal.ZERO; // Số tiền lãi hiện tại
@@ -107,6 +127,15 @@ public class Bill extends BaseEntity {
     @Column(name = "payment_url_locked_until")
     private Instant paymentUrlLockedUntil;
 
+    // Thời điểm trạng thái quá hạn/phạt của hóa đơn thay đổi lần tới (null = không cần theo dõi)
+    @Column(name = "next_penalty_check_at")
+    private Instant nextPenaltyCheckAt;
+
+    // Khóa lạc quan: hai luồng cùng cộng tiền vào một hóa đơn (callback VNPay, thanh toán tay) không ghi đè lẫn nhau
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    private long version;
+
     @OneToMany(mappedBy = "bill", cascade = CascadeType.ALL, orphanRemoval = true)
     @JsonManagedReference
     private List<BillDetail> billDetails = new ArrayList<>();
@@ -176,4 +205,43 @@ public class Bill extends BaseEntity {
         System.out.println("💰 addPartialPaymentFee - Sau khi cộng:");
         System.out.println("  - Tổng phí đã thu mới: " + this.partialPaymentFeesCollected);
     }
+
+    @PrePersist
+    @PreUpdate
+    protected void syncDerivedFields() {
+        this.billingMonth = toBillingMonth(this.fromDate);
+        refreshNextPenaltyCheck(Instant.now());
+    }
+
+    // Tính lại thời điểm cần xử lý quá hạn tiếp theo (cùng quy tắc với calculateOverdueDays):
+    // - Chưa tới ngày cảnh báo: hẹn đến ngày quá hạn thứ 7
+    // - Từ ngày thứ 7 trở đi: hẹn đến ngày quá hạn kế tiếp (cập nhật tỷ lệ phạt theo ngày)
+    public void refreshNextPenaltyCheck(Instant now) {
+        if (Boolean.TRUE.equals(this.status) || this.billType == BillType.LATE_PENALTY
+                || (this.dueDate == null && this.toDate == null)) {
+            this.nextPenaltyCheckAt = null;
+            return;
+        }
+        if (this.outstandingAmount != null && this.outstandingAmount.compareTo(BigDecimal.ZERO) <= 0) {
+            this.nextPenaltyCheckAt = null;
+            return;
+        }
+        Instant due = this.dueDate != null ? this.dueDate : this.toDate.plus(Duration.ofDays(7));
+        long graceDays = Boolean.TRUE.equals(this.isPartiallyPaid) ? PARTIAL_PAYMENT_GRACE_DAYS : 0;
+        long elapsedDays = now.isBefore(due) ? 0 : Duration.between(due, now).toDays();
+        long overdueDays = Math.max(0, elapsedDays - graceDays);
+        long nextOverdueDay = overdueDays < OVERDUE_WARNING_DAY ? OVERDUE_WARNING_DAY : overdueDays + 1;
+        this.nextPenaltyCheckAt = due.plus(Duration.ofDays(nextOverdueDay + graceDays));
+    }
+
+    public static String toBillingMonth(Instant instant) {
+        if (instant == null) {
+            return null;
+        }
+        return YearMonth.from(instant.atZone(ZoneId.of("Asia/Ho_Chi_Minh"))).toString();
+    }
+
+    public static String toBillingMonth(int month, int year) {
+        return YearMonth.of(year, month).toString();
+    }
 }
@@ -0,0 +1,97 @@
+package com.mpbhms.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Email chờ gửi (transactional outbox). Được ghi trong cùng transaction với nghiệp vụ,
+ * EmailOutboxDispatcher gửi nền theo lô với retry/backoff và giới hạn tốc độ.
+ */
+@Entity
+@Table(name = "email_outbox", indexes = {
+    @Index(name = "idx_email_outbox_status_next_attempt", columnList = "status, next_attempt_at"),
+    @Index(name = "idx_email_outbox_recipient_coalesce", columnList = "recipient_email, coalesce_key, status")
+})
+@Getter
+@Setter
+public class EmailOutbox {
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_SENDING = "SENDING";
+    public static final String STATUS_SENT = "SENT";
+    public static final String STATUS_FAILED = "FAILED";
+    // Bị gộp vào email mới hơn cùng người nhận + coalesceKey, không được gửi
+    public static final String STATUS_SUPERSEDED = "SUPERSEDED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "recipient_email", nullable = false)
+    private String recipientEmail;
+
+    @Column(name = "subject", nullable = false, length = 500)
+    private String subject;
+
+    @Lob
+    @Column(name = "content", nullable = false, columnDefinition = "LONGTEXT")
+    private String content;
+
+    // Hóa đơn cần đính kèm PDF (render lúc gửi, qua cache PDF); null nếu không đính kèm
+    @Column(name = "attachment_bill_id")
+    private Long attachmentBillId;
+
+    // Các email cùng người nhận + cùng khóa đang chờ gửi được gộp lại, chỉ gửi bản mới nhất
+    @Column(name = "coalesce_key", length = 100)
+    private String coalesceKey;
+
+    // Thông tin ghi EmailSentLog cho hóa đơn đính kèm khi email thực sự được gửi; null nếu không cần ghi log
+    @Column(name = "log_email_type", length = 50)
+    private String logEmailType;
+
+    @Column(name = "log_ip_address", length = 45)
+    private String logIpAddress;
+
+    @Column(name = "log_user_agent", length = 500)
+    private String logUserAgent;
+
+    @Column(name = "log_sent_by_user_id")
+    private Long logSentByUserId;
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status = STATUS_PENDING;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(name = "claimed_at")
+    private Instant claimedAt;
+
+    // Mã lượt giành quyền gửi của dispatcher (mỗi lô một mã)
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "sent_at")
+    private Instant sentAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (createdAt == null) {
+            createdAt = Instant.now();
+        }
+        if (nextAttemptAt == null) {
+            nextAttemptAt = createdAt;
+        }
+    }
+}
@@ -11,7 +11,10 @@ import java.time.LocalDateTime;
 @Entity
 @Setter
 @Getter
-@Table(name = "Notifications")
+@Table(name = "Notifications", indexes = {
+        @Index(name = "idx_notifications_recipient_created", columnList = "recipient_id, created_date, id"),
+        @Index(name = "idx_notifications_status_read", columnList = "status, read_at, created_date")
+})
 public class Notification extends BaseEntity {
     private String title;
 
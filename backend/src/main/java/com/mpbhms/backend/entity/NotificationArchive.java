@@ -0,0 +1,46 @@
+package com.mpbhms.backend.entity;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.mpbhms.backend.enums.NotificationType;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+// Thông báo đã đọc được chuyển khỏi bảng notifications sau notification.retention.read-age-days - giữ nguyên id gốc
+@Entity
+@Table(name = "notification_archives", indexes = {
+        @Index(name = "idx_notification_archives_recipient_created", columnList = "recipient_id, created_date, id")
+})
+@Getter
+@Setter
+public class NotificationArchive {
+    @Id
+    private Long id;
+
+    @Column(name = "recipient_id")
+    private Long recipientId;
+
+    private String title;
+
+    @Column(columnDefinition = "TEXT")
+    private String message;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private NotificationType type;
+
+    @Column(columnDefinition = "TEXT")
+    private String metadata;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss a", timezone = "GMT+7")
+    @Column(name = "created_date")
+    private Instant createdDate;
+
+    private LocalDateTime readAt;
+
+    @Column(name = "archived_at", nullable = false)
+    private Instant archivedAt;
+}
@@ -0,0 +1,19 @@
+package com.mpbhms.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+// Số thông báo chưa đọc của mỗi người dùng - cập nhật cùng lúc với thông báo để badge không phải COUNT cả bảng
+@Entity
+@Table(name = "notification_counters")
+@Getter
+@Setter
+public class NotificationCounter {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "unread_count", nullable = false)
+    private long unreadCount;
+}
@@ -0,0 +1,35 @@
+package com.mpbhms.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.Instant;
+
+// Sổ ghi nhận cảnh báo quá hạn đã gửi - mỗi (hóa đơn, loại cảnh báo) chỉ một dòng duy nhất
+@Entity
+@Table(name = "overdue_warning_logs", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_overdue_warning_bill_kind", columnNames = {"bill_id", "warning_kind"})
+})
+@Getter
+@Setter
+public class OverdueWarningLog {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "bill_id", nullable = false)
+    private Long billId;
+
+    @Column(name = "warning_kind", nullable = false, length = 30)
+    private String warningKind; // OVERDUE_7_DAYS, ...
+
+    @Column(name = "sent_at", nullable = false)
+    private Instant sentAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (sentAt == null) {
+            sentAt = Instant.now();
+        }
+    }
+}
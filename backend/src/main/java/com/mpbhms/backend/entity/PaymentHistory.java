@@ -9,7 +9,11 @@ import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
-@Table(name = "payment_history")
+@Table(name = "payment_history", indexes = {
+        @Index(name = "idx_payment_history_bill_date", columnList = "bill_id, payment_date, id"),
+        @Index(name = "idx_payment_history_room_date", columnList = "room_id, payment_date, id"),
+        @Index(name = "idx_payment_history_date", columnList = "payment_date, id")
+})
 @Getter
 @Setter
 public class PaymentHistory extends BaseEntity {
@@ -18,6 +22,10 @@ public class PaymentHistory extends BaseEntity {
     @JoinColumn(name = "bill_id", nullable = false)
     private Bill bill;
 
+    // Phòng của hóa đơn, sao chép sang để lọc/sắp xếp lịch sử theo phòng trên một index (không JOIN bills)
+    @Column(name = "room_id")
+    private Long roomId;
+
     @Column(name = "payment_amount", precision = 15, scale = 2, nullable = false)
     private BigDecimal paymentAmount; // Số tiền gốc thanh toán
 
@@ -88,6 +96,18 @@ public class PaymentHistory extends BaseEntity {
         this.isPartialPayment = paymentAmount.compareTo(bill.getTotalAmount()) < 0;
     }
 
+    @PrePersist
+    @PreUpdate
+    protected void syncDerivedFields() {
+        if (this.roomId == null && this.bill != null && this.bill.getRoom() != null) {
+            this.roomId = this.bill.getRoom().getId();
+        }
+        // Khóa phân trang (paymentDate, id) không được null
+        if (this.paymentDate == null) {
+            this.paymentDate = Instant.now();
+        }
+    }
+
     // Phương thức để cập nhật thông tin trước/sau thanh toán
     public void updateOutstandingInfo(BigDecimal outstandingBefore, BigDecimal outstandingAfter,
                                     BigDecimal paidBefore, BigDecimal paidAfter) {
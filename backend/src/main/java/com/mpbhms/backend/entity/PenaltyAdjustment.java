@@ -0,0 +1,63 @@
+package com.mpbhms.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+// Lịch sử điều chỉnh hóa đơn phạt (mỗi lần cập nhật tỷ lệ/số ngày/số tiền phạt là một dòng)
+@Entity
+@Table(name = "penalty_adjustments", indexes = {
+        @Index(name = "idx_penalty_adjustments_bill", columnList = "penalty_bill_id, revision")
+})
+@Getter
+@Setter
+public class PenaltyAdjustment {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "penalty_bill_id", nullable = false)
+    private Bill penaltyBill;
+
+    @Column(name = "original_bill_id")
+    private Long originalBillId;
+
+    @Column(name = "revision", nullable = false)
+    private Integer revision;
+
+    @Column(name = "previous_overdue_days")
+    private Integer previousOverdueDays;
+
+    @Column(name = "new_overdue_days")
+    private Integer newOverdueDays;
+
+    @Column(name = "previous_rate", precision = 5, scale = 2)
+    private BigDecimal previousRate;
+
+    @Column(name = "new_rate", precision = 5, scale = 2)
+    private BigDecimal newRate;
+
+    @Column(name = "previous_amount", precision = 15, scale = 2)
+    private BigDecimal previousAmount;
+
+    @Column(name = "new_amount", precision = 15, scale = 2)
+    private BigDecimal newAmount;
+
+    // Số tiền còn nợ của hóa đơn gốc dùng để tính phạt
+    @Column(name = "base_amount", precision = 15, scale = 2)
+    private BigDecimal baseAmount;
+
+    @Column(name = "adjusted_at", nullable = false)
+    private Instant adjustedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (adjustedAt == null) {
+            adjustedAt = Instant.now();
+        }
+    }
+}
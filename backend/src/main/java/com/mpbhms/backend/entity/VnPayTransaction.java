@@ -0,0 +1,57 @@
+package com.mpbhms.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+// Sổ giao dịch VNPay - mỗi vnp_TxnRef chỉ được ghi nhận (cộng tiền vào hóa đơn) đúng một lần
+@Entity
+@Table(name = "vnpay_transactions", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_vnpay_transactions_txn_ref", columnNames = {"txn_ref"})
+}, indexes = {
+        @Index(name = "idx_vnpay_transactions_bill", columnList = "bill_id")
+})
+@Getter
+@Setter
+public class VnPayTransaction {
+    public static final String STATUS_SUCCESS = "SUCCESS";
+    public static final String STATUS_IGNORED = "IGNORED"; // Hóa đơn đã thanh toán đủ trước khi callback tới
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "txn_ref", nullable = false, length = 100)
+    private String txnRef;
+
+    @Column(name = "bill_id", nullable = false)
+    private Long billId;
+
+    @Column(name = "amount", precision = 15, scale = 2)
+    private BigDecimal amount; // Tổng tiền VNPay trả (vnp_Amount / 100)
+
+    @Column(name = "transaction_no", length = 100)
+    private String transactionNo; // vnp_TransactionNo
+
+    @Column(name = "source", length = 20)
+    private String source; // RETURN, IPN
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status;
+
+    @Column(name = "payment_history_id")
+    private Long paymentHistoryId;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (createdAt == null) {
+            createdAt = Instant.now();
+        }
+    }
+}
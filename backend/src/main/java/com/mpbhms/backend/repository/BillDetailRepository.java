@@ -4,9 +4,14 @@ import com.mpbhms.backend.entity.BillDetail;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import java.util.Collection;
 import java.util.List;
 
 public interface BillDetailRepository extends JpaRepository<BillDetail, Long> {
     @Query("SELECT bd FROM BillDetail bd WHERE bd.service.id = :serviceId AND bd.bill.room.id = :roomId")
     List<BillDetail> findByServiceIdAndRoomId(@Param("serviceId") Long serviceId, @Param("roomId") Long roomId);
+
+    // Lấy chi tiết (kèm dịch vụ) của nhiều hóa đơn trong một truy vấn
+    @Query("SELECT bd FROM BillDetail bd LEFT JOIN FETCH bd.service WHERE bd.bill.id IN :billIds ORDER BY bd.id")
+    List<BillDetail> findWithServiceByBillIdIn(@Param("billIds") Collection<Long> billIds);
 } 
\ No newline at end of file
@@ -8,10 +8,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -39,6 +42,35 @@ public interface BillRepository extends JpaRepository<Bill, Long>, JpaSpecificat
         Instant toDate
     );
 
+    // Lấy kỳ hóa đơn đã tồn tại (contractId, fromDate, toDate) của nhiều hợp đồng trong một truy vấn
+    // Dùng index idx_bills_contract_period, không nạp entity Bill
+    @Query("SELECT b.contract.id, b.fromDate, b.toDate FROM Bill b " +
+           "WHERE b.contract.id IN :contractIds AND b.fromDate BETWEEN :minFrom AND :maxFrom")
+    List<Object[]> findExistingPeriods(@Param("contractIds") Collection<Long> contractIds,
+                                       @Param("minFrom") Instant minFrom,
+                                       @Param("maxFrom") Instant maxFrom);
+
+    // Lấy danh sách hợp đồng đã có hóa đơn theo loại trong một tháng (billingMonth dạng yyyy-MM)
+    // Dùng index idx_bills_billing_month_type
+    @Query("SELECT DISTINCT b.contract.id FROM Bill b " +
+           "WHERE b.billingMonth = :billingMonth AND b.billType = :billType")
+    List<Long> findContractIdsByBillTypeAndBillingMonth(@Param("billType") BillType billType,
+                                                        @Param("billingMonth") String billingMonth);
+
+    @Query("SELECT DISTINCT b.contract.id FROM Bill b " +
+           "WHERE b.billingMonth = :billingMonth AND b.billType = :billType AND b.contract.id IN :contractIds")
+    List<Long> findContractIdsByBillTypeAndBillingMonth(@Param("contractIds") Collection<Long> contractIds,
+                                                        @Param("billType") BillType billType,
+                                                        @Param("billingMonth") String billingMonth);
+
+    // Điền billingMonth cho hóa đơn cũ (tạo trước khi thêm cột) bằng một câu UPDATE.
+    // from_date lưu theo UTC; giờ Việt Nam cố định UTC+7 nên cộng 7 giờ, cùng kết quả với Bill.toBillingMonth
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE bills SET billing_month = DATE_FORMAT(DATE_ADD(from_date, INTERVAL 7 HOUR), '%Y-%m') " +
+                   "WHERE billing_month IS NULL AND from_date IS NOT NULL", nativeQuery = true)
+    int backfillBillingMonths();
+
     // Đếm số hóa đơn chưa thanh toán
     long countByStatusFalse();
     // Đếm số hóa đơn đã thanh toán
@@ -66,6 +98,31 @@ public interface BillRepository extends JpaRepository<Bill, Long>, JpaSpecificat
 
     // Kiểm tra đã tồn tại hóa đơn phạt cho hóa đơn gốc
     boolean existsByOriginalBillAndBillType(Bill originalBill, BillType billType);
+
+    List<Bill> findByOriginalBillAndBillType(Bill originalBill, BillType billType);
+
+    List<Bill> findByBillType(BillType billType);
+
+    // Dấu phiên bản dữ liệu in trên PDF hóa đơn (khóa cache PDF): version hóa đơn, thời điểm sửa phòng,
+    // danh sách và thời điểm sửa thành viên đang ở, số dòng chi tiết. Một dòng, không nạp entity
+    @Query("SELECT b.version, r.updatedDate, " +
+           "(SELECT COUNT(ru) FROM RoomUser ru WHERE ru.contract = b.contract AND ru.isActive = true), " +
+           "(SELECT SUM(ru.id) FROM RoomUser ru WHERE ru.contract = b.contract AND ru.isActive = true), " +
+           "(SELECT MAX(u.updatedDate) FROM RoomUser ru JOIN ru.user u WHERE ru.contract = b.contract AND ru.isActive = true), " +
+           "(SELECT COUNT(d) FROM BillDetail d WHERE d.bill = b) " +
+           "FROM Bill b LEFT JOIN b.room r WHERE b.id = :billId")
+    List<Object[]> findPdfVersionStamp(@Param("billId") Long billId);
+
+    // Hóa đơn chưa thanh toán đã tới thời điểm xử lý quá hạn/phạt (dùng index idx_bills_next_penalty_check)
+    // Chỉ lấy id: mỗi hóa đơn được nạp lại và xử lý trong transaction riêng
+    @Query("SELECT b.id FROM Bill b WHERE b.status = false AND b.nextPenaltyCheckAt <= :now ORDER BY b.nextPenaltyCheckAt")
+    List<Long> findDuePenaltyCheckIds(@Param("now") Instant now, Pageable pageable);
+
+    // Id hóa đơn chưa thanh toán tạo trước khi có cột next_penalty_check_at.
+    // Bỏ qua hóa đơn không có hạn hoặc đã hết nợ (refreshNextPenaltyCheck luôn trả về null) để lượt backfill hội tụ
+    @Query("SELECT b.id FROM Bill b WHERE b.status = false AND b.billType <> :excludedType AND b.nextPenaltyCheckAt IS NULL " +
+           "AND (b.dueDate IS NOT NULL OR b.toDate IS NOT NULL) AND (b.outstandingAmount IS NULL OR b.outstandingAmount > 0)")
+    List<Long> findUnscheduledPenaltyCheckIds(@Param("excludedType") BillType excludedType);
     
     // 🆕 Thống kê doanh thu chi tiết
     @Query("SELECT COALESCE(SUM(COALESCE(b.paidAmount, 0)), 0) FROM Bill b WHERE COALESCE(b.paidAmount, 0) > 0")
@@ -84,4 +141,9 @@ public interface BillRepository extends JpaRepository<Bill, Long>, JpaSpecificat
     // Tìm tất cả hóa đơn chưa thanh toán (không phải hóa đơn phạt)
     @Query("SELECT b FROM Bill b WHERE b.status = false AND b.billType != 'LATE_PENALTY'")
     List<Bill> findByStatusFalse();
-}
\ No newline at end of file
+
+    // Mở khóa tạo URL thanh toán bằng một câu UPDATE (không nạp và ghi lại toàn bộ hóa đơn)
+    @Modifying
+    @Query("UPDATE Bill b SET b.paymentUrlLockedUntil = NULL WHERE b.id = :billId")
+    int clearPaymentUrlLock(@Param("billId") Long billId);
+}
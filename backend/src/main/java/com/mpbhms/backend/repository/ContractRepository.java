@@ -30,4 +30,16 @@ public interface ContractRepository extends JpaRepository<Contract, Long>, JpaSp
     
     // Tìm tất cả hợp đồng đang active
     List<Contract> findByContractStatus(com.mpbhms.backend.enums.ContractStatus contractStatus);
+
+    // Lấy hợp đồng theo trạng thái kèm phòng trong một truy vấn
+    @Query("SELECT c FROM Contract c JOIN FETCH c.room WHERE c.contractStatus = :contractStatus")
+    List<Contract> findWithRoomByContractStatus(@Param("contractStatus") com.mpbhms.backend.enums.ContractStatus contractStatus);
+
+    // Chỉ lấy id hợp đồng theo trạng thái (dùng để chia lô khi tạo hóa đơn hàng loạt)
+    @Query("SELECT c.id FROM Contract c WHERE c.contractStatus = :contractStatus ORDER BY c.id")
+    List<Long> findIdsByContractStatus(@Param("contractStatus") com.mpbhms.backend.enums.ContractStatus contractStatus);
+
+    // Chu kỳ thanh toán của cả lô hợp đồng trong một truy vấn: [id, paymentCycle]
+    @Query("SELECT c.id, c.paymentCycle FROM Contract c WHERE c.id IN :ids")
+    List<Object[]> findPaymentCyclesByIdIn(@Param("ids") java.util.Collection<Long> ids);
 }
\ No newline at end of file
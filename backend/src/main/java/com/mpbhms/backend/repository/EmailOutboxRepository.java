@@ -0,0 +1,70 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.EmailOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+    /**
+     * Lấy id các email đến hạn gửi (PENDING và nextAttemptAt <= now), cũ nhất trước
+     */
+    @Query("SELECT e.id FROM EmailOutbox e WHERE e.status = 'PENDING' AND e.nextAttemptAt <= :now ORDER BY e.nextAttemptAt, e.id")
+    List<Long> findDueIds(@Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Giành quyền gửi các email (PENDING -> SENDING). Node khác đã giành trước thì bỏ qua dòng đó.
+     */
+    @Modifying
+    @Query("UPDATE EmailOutbox e SET e.status = 'SENDING', e.claimToken = :claimToken, e.claimedAt = :claimedAt " +
+           "WHERE e.id IN :ids AND e.status = 'PENDING'")
+    int claim(@Param("ids") Collection<Long> ids, @Param("claimToken") String claimToken, @Param("claimedAt") Instant claimedAt);
+
+    @Query("SELECT e FROM EmailOutbox e WHERE e.claimToken = :claimToken AND e.status = 'SENDING' ORDER BY e.id")
+    List<EmailOutbox> findClaimed(@Param("claimToken") String claimToken);
+
+    /**
+     * Ghi đè nội dung email đang chờ gửi cùng người nhận và cùng khóa gộp.
+     * Chỉ sửa dòng còn PENDING: dispatcher đã giành (SENDING) thì trả về 0 và người gọi tạo email mới.
+     */
+    @Modifying
+    @Query("UPDATE EmailOutbox e SET e.subject = :subject, e.content = :content, e.attachmentBillId = :attachmentBillId, " +
+           "e.logEmailType = :logEmailType, e.logIpAddress = :logIpAddress, e.logUserAgent = :logUserAgent, e.logSentByUserId = :logSentByUserId " +
+           "WHERE e.recipientEmail = :recipientEmail AND e.coalesceKey = :coalesceKey AND e.status = 'PENDING'")
+    int coalescePending(@Param("recipientEmail") String recipientEmail,
+                        @Param("coalesceKey") String coalesceKey,
+                        @Param("subject") String subject,
+                        @Param("content") String content,
+                        @Param("attachmentBillId") Long attachmentBillId,
+                        @Param("logEmailType") String logEmailType,
+                        @Param("logIpAddress") String logIpAddress,
+                        @Param("logUserAgent") String logUserAgent,
+                        @Param("logSentByUserId") Long logSentByUserId);
+
+    /**
+     * Trả các email bị kẹt ở SENDING (node gửi bị tắt giữa chừng) về PENDING
+     */
+    @Modifying
+    @Query("UPDATE EmailOutbox e SET e.status = 'PENDING', e.claimToken = null, e.claimedAt = null WHERE e.status = 'SENDING' AND e.claimedAt < :before")
+    int releaseStuck(@Param("before") Instant before);
+
+    @Modifying
+    @Query("DELETE FROM EmailOutbox e WHERE e.status = 'SENT' AND e.sentAt < :before")
+    int deleteSentBefore(@Param("before") Instant before);
+
+    // Email bị gộp không có sentAt, dọn theo thời điểm tạo
+    @Modifying
+    @Query("DELETE FROM EmailOutbox e WHERE e.status = 'SUPERSEDED' AND e.createdAt < :before")
+    int deleteSupersededBefore(@Param("before") Instant before);
+
+    long countByStatus(String status);
+}
@@ -0,0 +1,39 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.NotificationArchive;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface NotificationArchiveRepository extends JpaRepository<NotificationArchive, Long> {
+
+    /**
+     * Sao chép các thông báo theo id sang bảng lưu trữ trong một câu lệnh.
+     * INSERT IGNORE: dòng đã được lưu trữ (lần chạy trước bị ngắt giữa chừng, node khác chạy cùng lúc) được bỏ qua.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO notification_archives " +
+                   "(id, recipient_id, title, message, type, metadata, created_date, read_at, archived_at) " +
+                   "SELECT id, recipient_id, title, message, type, metadata, created_date, read_at, :archivedAt " +
+                   "FROM notifications WHERE id IN (:ids)", nativeQuery = true)
+    int copyFromNotifications(@Param("ids") Collection<Long> ids, @Param("archivedAt") Instant archivedAt);
+
+    @Query("SELECT a FROM NotificationArchive a WHERE a.recipientId = :recipientId ORDER BY a.createdDate DESC, a.id DESC")
+    List<NotificationArchive> findArchiveFirstPage(@Param("recipientId") Long recipientId, Pageable pageable);
+
+    @Query("SELECT a FROM NotificationArchive a WHERE a.recipientId = :recipientId " +
+           "AND a.createdDate <= :createdDate AND (a.createdDate < :createdDate OR a.id < :id) " +
+           "ORDER BY a.createdDate DESC, a.id DESC")
+    List<NotificationArchive> findArchivePageAfter(@Param("recipientId") Long recipientId,
+                                                   @Param("createdDate") Instant createdDate,
+                                                   @Param("id") Long id,
+                                                   Pageable pageable);
+}
@@ -0,0 +1,41 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.NotificationCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+
+@Repository
+public interface NotificationCounterRepository extends JpaRepository<NotificationCounter, Long> {
+
+    /**
+     * Khởi tạo dòng đếm bằng COUNT trong cùng một câu lệnh. INSERT ... SELECT khóa các dòng thông báo được đếm,
+     * nên thông báo tạo đồng thời hoặc được đếm ở đây, hoặc chờ tới khi dòng đếm tồn tại để incrementAll cộng vào.
+     * Dòng đếm đã có (request khác khởi tạo trước) thì giữ nguyên.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO notification_counters (user_id, unread_count) " +
+                   "SELECT :userId, COUNT(*) FROM notifications WHERE recipient_id = :userId AND status <> 'READ' " +
+                   "ON DUPLICATE KEY UPDATE unread_count = unread_count", nativeQuery = true)
+    int initializeFromNotifications(@Param("userId") Long userId);
+
+    @Query("SELECT c.unreadCount FROM NotificationCounter c WHERE c.userId = :userId")
+    Long findUnreadCount(@Param("userId") Long userId);
+
+    @Modifying
+    @Query("UPDATE NotificationCounter c SET c.unreadCount = c.unreadCount + 1 WHERE c.userId IN :userIds")
+    int incrementAll(@Param("userIds") Collection<Long> userIds);
+
+    @Modifying
+    @Query("UPDATE NotificationCounter c SET c.unreadCount = CASE WHEN c.unreadCount > 0 THEN c.unreadCount - 1 ELSE 0 END " +
+           "WHERE c.userId = :userId")
+    int decrement(@Param("userId") Long userId);
+
+    @Modifying
+    @Query("UPDATE NotificationCounter c SET c.unreadCount = 0 WHERE c.userId = :userId")
+    int reset(@Param("userId") Long userId);
+}
@@ -1,15 +1,60 @@
 package com.mpbhms.backend.repository;
 
 import com.mpbhms.backend.entity.Notification;
+import com.mpbhms.backend.enums.NotificationStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface NotificationRepository extends JpaRepository<Notification, Long>, JpaSpecificationExecutor<Notification> {
     //List<NotificationEntity> findAllByOrderByIdDesc(Long recipientId);
 
-    List<Notification> findByRecipientIdOrderByCreatedDateDesc(Long recipientId);
-}
\ No newline at end of file
+    // Hộp thư theo keyset (createdDate, id) giảm dần, dùng index idx_notifications_recipient_created
+    @Query("SELECT n FROM Notification n WHERE n.recipientId = :recipientId ORDER BY n.createdDate DESC, n.id DESC")
+    List<Notification> findInboxFirstPage(@Param("recipientId") Long recipientId, Pageable pageable);
+
+    @Query("SELECT n FROM Notification n WHERE n.recipientId = :recipientId " +
+           "AND n.createdDate <= :createdDate AND (n.createdDate < :createdDate OR n.id < :id) " +
+           "ORDER BY n.createdDate DESC, n.id DESC")
+    List<Notification> findInboxPageAfter(@Param("recipientId") Long recipientId,
+                                          @Param("createdDate") Instant createdDate,
+                                          @Param("id") Long id,
+                                          Pageable pageable);
+
+    // Lô thông báo đã đọc quá hạn lưu giữ tính từ lúc đọc, dùng index idx_notifications_status_read
+    @Query("SELECT n.id FROM Notification n WHERE n.status = :status AND n.readAt < :cutoff ORDER BY n.readAt, n.id")
+    List<Long> findIdsByStatusReadBefore(@Param("status") NotificationStatus status,
+                                         @Param("cutoff") LocalDateTime cutoff,
+                                         Pageable pageable);
+
+    // Dòng đã đọc nhưng không có readAt (dữ liệu cũ): chỉ còn createdDate để tính hạn
+    @Query("SELECT n.id FROM Notification n WHERE n.status = :status AND n.readAt IS NULL AND n.createdDate < :cutoff ORDER BY n.createdDate, n.id")
+    List<Long> findIdsByStatusWithoutReadAtCreatedBefore(@Param("status") NotificationStatus status,
+                                                         @Param("cutoff") Instant cutoff,
+                                                         Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM Notification n WHERE n.id IN :ids AND n.status = :status")
+    int deleteByIdInAndStatus(@Param("ids") Collection<Long> ids, @Param("status") NotificationStatus status);
+
+    @Modifying
+    @Query("UPDATE Notification n SET n.status = :read, n.readAt = :readAt WHERE n.recipientId = :recipientId AND n.status <> :read")
+    int markAllRead(@Param("recipientId") Long recipientId, @Param("read") NotificationStatus read, @Param("readAt") LocalDateTime readAt);
+
+    @Modifying
+    @Query("UPDATE Notification n SET n.status = :read, n.readAt = :readAt WHERE n.id = :id AND n.status <> :read")
+    int markReadIfUnread(@Param("id") Long id, @Param("read") NotificationStatus read, @Param("readAt") LocalDateTime readAt);
+
+    @Query("SELECT n.recipientId FROM Notification n WHERE n.id = :id")
+    Long findRecipientIdById(@Param("id") Long id);
+}
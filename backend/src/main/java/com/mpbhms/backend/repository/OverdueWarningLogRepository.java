@@ -0,0 +1,31 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.OverdueWarningLog;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+
+@Repository
+public interface OverdueWarningLogRepository extends JpaRepository<OverdueWarningLog, Long> {
+
+    /**
+     * Ghi nhận cảnh báo nếu chưa có (dựa vào unique (bill_id, warning_kind)).
+     * Trả về 1 nếu node hiện tại giành được quyền gửi, 0 nếu đã có node/lần chạy khác ghi trước.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO overdue_warning_logs (bill_id, warning_kind, sent_at) " +
+                   "VALUES (:billId, :warningKind, :sentAt)", nativeQuery = true)
+    int insertIfAbsent(@Param("billId") Long billId,
+                       @Param("warningKind") String warningKind,
+                       @Param("sentAt") Instant sentAt);
+
+    boolean existsByBillIdAndWarningKind(Long billId, String warningKind);
+
+    @Modifying
+    @Query("DELETE FROM OverdueWarningLog w WHERE w.billId = :billId AND w.warningKind = :warningKind")
+    int deleteByBillIdAndWarningKind(@Param("billId") Long billId, @Param("warningKind") String warningKind);
+}
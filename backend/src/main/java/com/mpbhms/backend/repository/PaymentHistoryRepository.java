@@ -1,11 +1,15 @@
 package com.mpbhms.backend.repository;
 
 import com.mpbhms.backend.entity.PaymentHistory;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -100,5 +104,109 @@ public interface PaymentHistoryRepository extends JpaRepository<PaymentHistory,
      * Tìm tất cả thanh toán tiền mặt pending của một hóa đơn
      */
     List<PaymentHistory> findByBillIdAndPaymentMethodAndStatusOrderByPaymentDateDesc(Long billId, String paymentMethod, String status);
+
+    // Dùng khi chuyển một trang hóa đơn sang BillResponse
+    List<PaymentHistory> findByBillIdInAndPaymentMethodAndStatusOrderByPaymentDateDesc(java.util.Collection<Long> billIds, String paymentMethod, String status);
+
+    /**
+     * Một trang lịch sử thanh toán của hóa đơn (LIMIT/OFFSET trên index idx_payment_history_bill_date)
+     */
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room " +
+           "WHERE b.id = :billId ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findPageByBillId(@Param("billId") Long billId, Pageable pageable);
+
+    // Phân trang keyset (paymentDate, id) giảm dần theo phòng, dùng index idx_payment_history_room_date
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room " +
+           "WHERE ph.roomId = :roomId ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findRoomFirstPage(@Param("roomId") Long roomId, Pageable pageable);
+
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room " +
+           "WHERE ph.roomId = :roomId " +
+           "AND ph.paymentDate <= :paymentDate AND (ph.paymentDate < :paymentDate OR ph.id < :id) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findRoomPageAfter(@Param("roomId") Long roomId,
+                                           @Param("paymentDate") Instant paymentDate,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+
+    // Các phòng người dùng từng ở: IN (subquery) thay cho JOIN roomUsers nên không lặp dòng
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room " +
+           "WHERE ph.roomId IN (SELECT ru.room.id FROM RoomUser ru WHERE ru.user.id = :userId) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findUserFirstPage(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room " +
+           "WHERE ph.roomId IN (SELECT ru.room.id FROM RoomUser ru WHERE ru.user.id = :userId) " +
+           "AND ph.paymentDate <= :paymentDate AND (ph.paymentDate < :paymentDate OR ph.id < :id) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findUserPageAfter(@Param("userId") Long userId,
+                                           @Param("paymentDate") Instant paymentDate,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+
+    // Khoảng thời gian, dùng index idx_payment_history_date (cả cho màn hình admin lẫn xuất CSV theo lô).
+    // landlordId = null: mọi phòng (ADMIN); ngược lại chỉ phòng của chủ trọ đó
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room r " +
+           "WHERE ph.paymentDate BETWEEN :startDate AND :endDate " +
+           "AND (:landlordId IS NULL OR r.landlord.id = :landlordId) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findDateRangeFirstPage(@Param("startDate") Instant startDate,
+                                                @Param("endDate") Instant endDate,
+                                                @Param("landlordId") Long landlordId,
+                                                Pageable pageable);
+
+    @Query("SELECT ph FROM PaymentHistory ph JOIN FETCH ph.bill b LEFT JOIN FETCH b.room r " +
+           "WHERE ph.paymentDate BETWEEN :startDate AND :endDate " +
+           "AND (:landlordId IS NULL OR r.landlord.id = :landlordId) " +
+           "AND ph.paymentDate <= :paymentDate AND (ph.paymentDate < :paymentDate OR ph.id < :id) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<PaymentHistory> findDateRangePageAfter(@Param("startDate") Instant startDate,
+                                                @Param("endDate") Instant endDate,
+                                                @Param("landlordId") Long landlordId,
+                                                @Param("paymentDate") Instant paymentDate,
+                                                @Param("id") Long id,
+                                                Pageable pageable);
+
+    // Lô xuất CSV: chỉ lấy cột cần xuất (không nạp entity nên persistence context không phình theo số lô)
+    // [id, paymentDate, billId, roomNumber, paymentAmount, totalAmount, partialPaymentFee, overdueInterest,
+    //  paymentMethod, status, transactionId]
+    @Query("SELECT ph.id, ph.paymentDate, b.id, r.roomNumber, ph.paymentAmount, ph.totalAmount, ph.partialPaymentFee, " +
+           "ph.overdueInterest, ph.paymentMethod, ph.status, ph.transactionId " +
+           "FROM PaymentHistory ph JOIN ph.bill b LEFT JOIN b.room r " +
+           "WHERE ph.paymentDate BETWEEN :startDate AND :endDate " +
+           "AND (:landlordId IS NULL OR r.landlord.id = :landlordId) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<Object[]> findExportFirstBatch(@Param("startDate") Instant startDate,
+                                        @Param("endDate") Instant endDate,
+                                        @Param("landlordId") Long landlordId,
+                                        Pageable pageable);
+
+    @Query("SELECT ph.id, ph.paymentDate, b.id, r.roomNumber, ph.paymentAmount, ph.totalAmount, ph.partialPaymentFee, " +
+           "ph.overdueInterest, ph.paymentMethod, ph.status, ph.transactionId " +
+           "FROM PaymentHistory ph JOIN ph.bill b LEFT JOIN b.room r " +
+           "WHERE ph.paymentDate BETWEEN :startDate AND :endDate " +
+           "AND (:landlordId IS NULL OR r.landlord.id = :landlordId) " +
+           "AND ph.paymentDate <= :paymentDate AND (ph.paymentDate < :paymentDate OR ph.id < :id) " +
+           "ORDER BY ph.paymentDate DESC, ph.id DESC")
+    List<Object[]> findExportBatchAfter(@Param("startDate") Instant startDate,
+                                        @Param("endDate") Instant endDate,
+                                        @Param("landlordId") Long landlordId,
+                                        @Param("paymentDate") Instant paymentDate,
+                                        @Param("id") Long id,
+                                        Pageable pageable);
+
+    // Điền room_id cho các dòng tạo trước khi có cột (gọi lúc khởi động, ngoài transaction)
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE payment_history ph JOIN bills b ON ph.bill_id = b.id " +
+                   "SET ph.room_id = b.room_id WHERE ph.room_id IS NULL AND b.room_id IS NOT NULL", nativeQuery = true)
+    int backfillRoomIds();
+
+    // Phân trang keyset cần payment_date khác null: dòng cũ thiếu ngày lấy theo created_date
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE payment_history SET payment_date = COALESCE(created_date, NOW(6)) " +
+                   "WHERE payment_date IS NULL", nativeQuery = true)
+    int backfillPaymentDates();
 }
 
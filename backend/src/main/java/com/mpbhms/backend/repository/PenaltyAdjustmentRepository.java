@@ -0,0 +1,19 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.PenaltyAdjustment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface PenaltyAdjustmentRepository extends JpaRepository<PenaltyAdjustment, Long> {
+
+    /**
+     * Lấy lịch sử điều chỉnh của một hóa đơn phạt, mới nhất trước
+     */
+    @Query("SELECT p FROM PenaltyAdjustment p WHERE p.penaltyBill.id = :billId ORDER BY p.revision DESC")
+    List<PenaltyAdjustment> findByPenaltyBillIdOrderByRevisionDesc(@Param("billId") Long billId);
+}
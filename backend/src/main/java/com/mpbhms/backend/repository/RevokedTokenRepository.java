@@ -0,0 +1,27 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.RevokedToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+
+    // [jti, expiresAt] của các token còn hạn, nạp vào bộ nhớ khi khởi động/đồng bộ
+    @Query("SELECT t.jti, t.expiresAt FROM RevokedToken t WHERE t.expiresAt > :now")
+    List<Object[]> findUnexpired(@Param("now") Instant now);
+
+    // [jti, expiresAt] của các token còn hạn được thu hồi từ thời điểm since (đồng bộ giữa các node)
+    @Query("SELECT t.jti, t.expiresAt FROM RevokedToken t WHERE t.revokedAt >= :since AND t.expiresAt > :now")
+    List<Object[]> findRevokedSince(@Param("since") Instant since, @Param("now") Instant now);
+
+    @Modifying
+    @Query("DELETE FROM RevokedToken t WHERE t.expiresAt <= :now")
+    int deleteExpired(@Param("now") Instant now);
+}
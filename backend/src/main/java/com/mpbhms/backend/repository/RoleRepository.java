@@ -3,12 +3,19 @@ package com.mpbhms.backend.repository;
 import com.mpbhms.backend.entity.Role;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface RoleRepository extends JpaRepository<Role, Long>, JpaSpecificationExecutor<Role> {
     Role findByRoleName(String roleName);
 
     boolean existsByRoleName(String name);
+
+    // Mỗi dòng: id vai trò, tên vai trò, method, apiPath (method/apiPath null nếu vai trò chưa có quyền nào)
+    @Query("SELECT r.id, r.roleName, p.method, p.apiPath FROM Role r LEFT JOIN r.permissionEntities p")
+    List<Object[]> findAllRolePermissionKeys();
 }
 
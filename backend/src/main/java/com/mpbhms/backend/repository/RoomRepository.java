@@ -14,6 +14,9 @@ import java.util.List;
 @Repository
 public interface RoomRepository extends JpaRepository<Room, Long>, JpaSpecificationExecutor<Room> {
     boolean existsByRoomNumberAndDeletedFalse(String roomNumber);
+
+    // Phòng có thuộc chủ trọ này không (giới hạn dữ liệu theo chủ trọ)
+    boolean existsByIdAndLandlordId(Long id, Long landlordId);
     
     // Override method existsByRoomNumber để chỉ kiểm tra room chưa bị xóa
     default boolean existsByRoomNumber(String roomNumber) {
@@ -3,10 +3,12 @@ package com.mpbhms.backend.repository;
 import com.mpbhms.backend.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -24,6 +26,28 @@ public interface UserRepository extends JpaRepository<User, Long>, JpaSpecificat
 
     User findByRoleRoleName(String roleName);
 
+    @Query("SELECT u.username FROM User u WHERE u.id = :id")
+    String findUsernameById(@Param("id") Long id);
+
+    // [id, username] của nhiều người nhận trong một truy vấn
+    @Query("SELECT u.id, u.username FROM User u WHERE u.id IN :ids")
+    List<Object[]> findUsernamesByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Chỉ lấy id người dùng và id vai trò (null nếu chưa có vai trò) cho kiểm tra quyền
+    @Query("SELECT u.id, r.id FROM User u LEFT JOIN u.role r WHERE u.email = :email")
+    List<Object[]> findIdAndRoleIdByEmail(@Param("email") String email);
+
+    // Chỉ đọc cột refresh_token (danh sách rỗng nếu không có người dùng)
+    @Query("SELECT u.refreshToken FROM User u WHERE u.email = :email")
+    List<String> findRefreshTokenByEmail(@Param("email") String email);
+
+    @Modifying
+    @Query("UPDATE User u SET u.refreshToken = :refreshToken WHERE u.email = :email")
+    int updateRefreshTokenByEmail(@Param("email") String email, @Param("refreshToken") String refreshToken);
+
+    @Query("SELECT u.id FROM User u WHERE u.role.roleName = :roleName")
+    List<Long> findIdsByRoleName(@Param("roleName") String roleName);
+
     @Query("SELECT u FROM User u WHERE u.role.roleName = 'RENTER' " +
            "AND NOT EXISTS (SELECT 1 FROM RoomUser ru WHERE ru.user = u AND ru.isActive = true) " +
            "AND (LOWER(u.username) LIKE LOWER(CONCAT('%', :keyword, '%')) " +
@@ -0,0 +1,40 @@
+package com.mpbhms.backend.repository;
+
+import com.mpbhms.backend.entity.VnPayTransaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Optional;
+
+@Repository
+public interface VnPayTransactionRepository extends JpaRepository<VnPayTransaction, Long> {
+
+    /**
+     * Giành quyền xử lý vnp_TxnRef (dựa vào unique txn_ref).
+     * Trả về 1 nếu giao dịch hiện tại được ghi nhận lần đầu, 0 nếu callback khác (return/IPN, node khác) đã ghi trước.
+     * Khi callback khác đang giữ dòng cùng txn_ref chưa commit, câu lệnh chờ tới khi giao dịch đó kết thúc.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO vnpay_transactions (txn_ref, bill_id, amount, transaction_no, source, status, created_at) " +
+                   "VALUES (:txnRef, :billId, :amount, :transactionNo, :source, :status, :createdAt)", nativeQuery = true)
+    int insertIfAbsent(@Param("txnRef") String txnRef,
+                       @Param("billId") Long billId,
+                       @Param("amount") BigDecimal amount,
+                       @Param("transactionNo") String transactionNo,
+                       @Param("source") String source,
+                       @Param("status") String status,
+                       @Param("createdAt") Instant createdAt);
+
+    Optional<VnPayTransaction> findByTxnRef(String txnRef);
+
+    @Modifying
+    @Query("UPDATE VnPayTransaction t SET t.status = :status, t.paymentHistoryId = :paymentHistoryId WHERE t.txnRef = :txnRef")
+    int complete(@Param("txnRef") String txnRef,
+                 @Param("status") String status,
+                 @Param("paymentHistoryId") Long paymentHistoryId);
+}
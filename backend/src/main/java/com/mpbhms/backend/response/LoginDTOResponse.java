@@ -42,6 +42,9 @@ public class LoginDTOResponse {
         private long id;
         private String email;
         private String name;
+        // Vai trò lúc cấp token, dùng cho CurrentPrincipal (null nếu chưa có vai trò)
+        private Long roleId;
+        private String roleName;
 
     }
 
@@ -0,0 +1,200 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.repository.RoleRepository;
+import com.mpbhms.backend.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bảng phân quyền dựng sẵn cho PermissionInterceptor.
+ * - Mỗi vai trò: tập bất biến method -> các apiPath được phép, tra cứu O(1) không cần truy vấn DB;
+ *   dựng lại khi khởi động, khi vai trò/quyền thay đổi và định kỳ security.authz.refresh-interval-ms
+ *   (để các node khác và thay đổi trực tiếp trong DB cũng được cập nhật)
+ * - Email -> id vai trò được cache security.authz.subject-cache-ttl-seconds giây,
+ *   tối đa security.authz.subject-cache-max-entries người dùng
+ */
+@Service
+public class AuthorizationMatrix {
+
+    private final RoleRepository roleRepository;
+    private final UserRepository userRepository;
+    private final long subjectTtlNanos;
+    private final int subjectCacheMaxEntries;
+
+    private volatile Map<Long, RoleGrants> rolesById = Map.of();
+    private final Map<String, CachedSubject> subjects = new ConcurrentHashMap<>();
+
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong subjectHits = new AtomicLong();
+    private final AtomicLong subjectMisses = new AtomicLong();
+
+    public AuthorizationMatrix(RoleRepository roleRepository,
+                               UserRepository userRepository,
+                               @Value("${security.authz.subject-cache-ttl-seconds:60}") long subjectCacheTtlSeconds,
+                               @Value("${security.authz.subject-cache-max-entries:10000}") int subjectCacheMaxEntries) {
+        this.roleRepository = roleRepository;
+        this.userRepository = userRepository;
+        this.subjectTtlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, subjectCacheTtlSeconds));
+        this.subjectCacheMaxEntries = Math.max(1, subjectCacheMaxEntries);
+    }
+
+    /**
+     * Vai trò của người dùng đã đăng nhập.
+     * Trả về null nếu không có người dùng với email này; Subject.role() null nếu người dùng chưa có vai trò.
+     */
+    public Subject resolve(String email) {
+        long now = System.nanoTime();
+        CachedSubject cached = subjects.get(email);
+        if (cached != null && now - cached.loadedAt() < subjectTtlNanos) {
+            subjectHits.incrementAndGet();
+            return new Subject(grantsOf(cached.roleId()));
+        }
+        subjectMisses.incrementAndGet();
+
+        List<Object[]> rows = userRepository.findIdAndRoleIdByEmail(email);
+        if (rows.isEmpty()) {
+            subjects.remove(email);
+            return null;
+        }
+        Long roleId = (Long) rows.get(0)[1];
+        if (subjects.size() >= subjectCacheMaxEntries) {
+            evictSubjects(now);
+        }
+        subjects.put(email, new CachedSubject(roleId, now));
+        return new Subject(grantsOf(roleId));
+    }
+
+    // Bỏ cache của người dùng khi đổi vai trò/email. Gọi trong transaction thì bỏ thêm lần nữa sau khi commit:
+    // request chen vào trước khi commit có thể đã nạp lại vai trò cũ vào cache
+    public void evictSubject(String email) {
+        if (email == null) {
+            return;
+        }
+        subjects.remove(email);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    subjects.remove(email);
+                }
+            });
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${security.authz.refresh-interval-ms:60000}",
+               initialDelayString = "${security.authz.refresh-interval-ms:60000}")
+    public void scheduledRebuild() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            System.err.println("Lỗi khi làm mới bảng phân quyền: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Dựng lại bảng phân quyền bằng một truy vấn; gọi trong transaction thì chờ tới khi commit
+     */
+    public void rebuildAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            rebuild();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                rebuild();
+            }
+        });
+    }
+
+    public synchronized void rebuild() {
+        Map<Long, String> roleNames = new HashMap<>();
+        Map<Long, Map<String, Set<String>>> grants = new HashMap<>();
+        for (Object[] row : roleRepository.findAllRolePermissionKeys()) {
+            Long roleId = (Long) row[0];
+            roleNames.put(roleId, (String) row[1]);
+            Map<String, Set<String>> byMethod = grants.computeIfAbsent(roleId, id -> new HashMap<>());
+            String method = (String) row[2];
+            String apiPath = (String) row[3];
+            if (method != null && apiPath != null) {
+                byMethod.computeIfAbsent(method, m -> new HashSet<>()).add(apiPath);
+            }
+        }
+
+        Map<Long, RoleGrants> rebuilt = new HashMap<>();
+        for (Map.Entry<Long, String> role : roleNames.entrySet()) {
+            Map<String, Set<String>> byMethod = new HashMap<>();
+            grants.get(role.getKey()).forEach((method, paths) -> byMethod.put(method, Set.copyOf(paths)));
+            rebuilt.put(role.getKey(), new RoleGrants(role.getKey(), role.getValue(), Map.copyOf(byMethod)));
+        }
+        rolesById = Map.copyOf(rebuilt);
+        rebuilds.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("roles", rolesById.size());
+        stats.put("rebuilds", rebuilds.get());
+        stats.put("cachedSubjects", subjects.size());
+        stats.put("subjectHits", subjectHits.get());
+        stats.put("subjectMisses", subjectMisses.get());
+        return stats;
+    }
+
+    private RoleGrants grantsOf(Long roleId) {
+        if (roleId == null) {
+            return null;
+        }
+        RoleGrants grants = rolesById.get(roleId);
+        if (grants == null) {
+            // Vai trò mới tạo trên node khác, chưa có trong bảng
+            rebuild();
+            grants = rolesById.get(roleId);
+        }
+        return grants != null ? grants : new RoleGrants(roleId, null, Map.of());
+    }
+
+    private void evictSubjects(long now) {
+        subjects.values().removeIf(subject -> now - subject.loadedAt() >= subjectTtlNanos);
+        if (subjects.size() >= subjectCacheMaxEntries) {
+            subjects.clear();
+        }
+    }
+
+    private record CachedSubject(Long roleId, long loadedAt) {
+    }
+
+    /**
+     * Người dùng đã đăng nhập; role null nếu chưa được gán vai trò
+     */
+    public record Subject(RoleGrants role) {
+    }
+
+    public record RoleGrants(Long roleId, String roleName, Map<String, Set<String>> pathsByMethod) {
+
+        public boolean isAllowed(String method, String apiPath) {
+            Set<String> paths = pathsByMethod.get(method);
+            return paths != null && apiPath != null && paths.contains(apiPath);
+        }
+    }
+}
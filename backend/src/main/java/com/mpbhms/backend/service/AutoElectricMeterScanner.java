@@ -7,18 +7,33 @@ import org.springframework.web.multipart.MultipartFile;
 import com.mpbhms.backend.util.FileMultipartFile;
 
 import java.io.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.atomic.AtomicBoolean;
 import com.mpbhms.backend.repository.RoomRepository;
 import com.mpbhms.backend.entity.Room;
 import java.util.Optional;
-import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import java.util.concurrent.ScheduledFuture;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 
 @Service
@@ -30,36 +45,96 @@ public class AutoElectricMeterScanner {
     private final AtomicBoolean enabled = new AtomicBoolean(false);
     private volatile String currentScanningFile = null;
     private long intervalMs = 10000; // mặc định 10s
-    private final TaskScheduler taskScheduler;
+    private final ThreadPoolTaskScheduler taskScheduler;
     private ScheduledFuture<?> scheduledFuture;
+    private final ThreadPoolTaskExecutor detectionExecutor;
+    private final ThreadPoolTaskExecutor persistenceExecutor;
+    private final Set<String> inFlightFiles = ConcurrentHashMap.newKeySet();
+
+    // Chế độ theo dõi thư mục (WatchService): ảnh mới được quét ngay, lượt quét định kỳ chỉ để đối soát
+    private final boolean watchEnabled;
+    private final long reconcileIntervalMs;
+    private final long debounceMs;
+    private volatile WatchService watchService;
+    private volatile Thread watcherThread;
+    private volatile boolean watching = false;
+    private final Map<String, ScheduledFuture<?>> pendingRoomEvents = new ConcurrentHashMap<>();
+    // Phòng đang được quét (mỗi phòng tối đa 1 ảnh cùng lúc) và phòng có ảnh mới trong lúc đang quét
+    private final Set<String> roomsInProgress = ConcurrentHashMap.newKeySet();
+    private final Set<String> dirtyRooms = ConcurrentHashMap.newKeySet();
+    // Cache số phòng -> id phòng, làm mới ở mỗi lượt quét đối soát
+    private volatile Map<String, Long> roomIdsByNumber = new ConcurrentHashMap<>();
+    // Ảnh nhận diện lỗi (đường dẫn -> lần thử lại), tránh gọi Azure và ghi log liên tục cho cùng một ảnh
+    private static final long FAILED_RETRY_BASE_MS = 30_000;
+    private static final long FAILED_RETRY_MAX_MS = 30 * 60_000;
+    private final Map<String, FailedScan> failedFiles = new ConcurrentHashMap<>();
+    // Ảnh đã lưu chỉ số nhưng không đổi tên được: bỏ qua khi tìm ảnh để không ghi trùng chỉ số
+    private final Set<String> processedFiles = ConcurrentHashMap.newKeySet();
 
     public AutoElectricMeterScanner(ElectricMeterDetectionService detectionService,
                                     ScanLogService scanLogService,
                                     RoomRepository roomRepository,
-                                    @Value("${meter.scan.folder}") String scanFolder) {
+                                    @Value("${meter.scan.folder}") String scanFolder,
+                                    @Value("${meter.scan.workers:8}") int workers,
+                                    @Value("${meter.scan.watch.enabled:true}") boolean watchEnabled,
+                                    @Value("${meter.scan.reconcile-interval-ms:300000}") long reconcileIntervalMs,
+                                    @Value("${meter.scan.watch.debounce-ms:300}") long debounceMs) {
         this.detectionService = detectionService;
         this.scanLogService = scanLogService;
         this.roomRepository = roomRepository;
         this.scanFolder = scanFolder;
+        this.watchEnabled = watchEnabled;
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        this.debounceMs = Math.max(0, debounceMs);
+
+        // Pool nhận diện song song (giới hạn) và luồng lưu kết quả riêng
+        this.detectionExecutor = newExecutor("MeterDetect-", Math.max(1, workers));
+        this.persistenceExecutor = newExecutor("MeterPersist-", 1);
         
         // Scheduler cho scan
         ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
-        scheduler.setPoolSize(1);
+        scheduler.setPoolSize(2);
         scheduler.setThreadNamePrefix("AutoElectricMeterScanner-");
         scheduler.initialize();
         this.taskScheduler = scheduler;
     }
 
-    public void start() {
+    private static ThreadPoolTaskExecutor newExecutor(String prefix, int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix(prefix);
+        // Hàng đợi đầy thì luồng quét tự chạy task -> backpressure
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stop();
+        taskScheduler.shutdown();
+        detectionExecutor.shutdown();
+        persistenceExecutor.shutdown();
+    }
+
+    public synchronized void start() {
         if (scheduledFuture != null && !scheduledFuture.isCancelled()) return;
-        scheduledFuture = taskScheduler.scheduleWithFixedDelay(this::scanFolder, intervalMs);
+        if (watchEnabled) {
+            startWatcher();
+        }
+        // Khi đang theo dõi thư mục, lượt quét định kỳ chỉ là đối soát (bắt file bị lỡ sự kiện) nên thưa hơn
+        long sweepInterval = watching ? Math.max(intervalMs, reconcileIntervalMs) : intervalMs;
+        scheduledFuture = taskScheduler.scheduleWithFixedDelay(this::scanFolder, Duration.ofMillis(sweepInterval));
     }
 
-    public void stop() {
+    public synchronized void stop() {
         if (scheduledFuture != null) {
             scheduledFuture.cancel(false);
             scheduledFuture = null;
         }
+        stopWatcher();
     }
 
     public void setInterval(long intervalMs) {
@@ -81,6 +156,14 @@ public class AutoElectricMeterScanner {
 
 
     // Bỏ annotation @Scheduled
+    /**
+     * Lượt quét toàn bộ thư mục (chế độ polling, hoặc đối soát khi đang theo dõi thư mục).
+     * Mỗi ảnh đi qua 3 bước:
+     * 1. Tìm ảnh: mỗi phòng lấy ảnh chưa xử lý đầu tiên (theo tên) để chỉ số của một phòng luôn được ghi theo thứ tự
+     * 2. Nhận diện: chạy song song trên pool giới hạn meter.scan.workers (số request tới từng endpoint Azure
+     *    còn bị giới hạn riêng trong ElectricMeterDetectionService)
+     * 3. Lưu kết quả: một luồng duy nhất lưu chỉ số, đổi tên file và ghi log
+     */
     public void scanFolder() {
         System.out.println("Auto scan is running, enabled=" + enabled.get());
         if (!enabled.get()) return;
@@ -88,62 +171,285 @@ public class AutoElectricMeterScanner {
         if (!rootFolder.exists() || !rootFolder.isDirectory()) return;
         File[] roomFolders = rootFolder.listFiles(File::isDirectory);
         if (roomFolders == null || roomFolders.length == 0) return;
+        refreshRoomCache();
+        // Ảnh lỗi đã bị xóa/di chuyển khỏi thư mục thì không cần theo dõi nữa
+        failedFiles.keySet().removeIf(path -> !new File(path).exists());
+        processedFiles.removeIf(path -> !new File(path).exists());
+
+        long startedAt = System.currentTimeMillis();
+        List<CompletableFuture<Void>> pipeline = new ArrayList<>(roomFolders.length);
         for (File roomFolder : roomFolders) {
-            String roomNumber = roomFolder.getName();
-            Optional<Room> roomOpt = roomRepository.findByRoomNumberAndDeletedFalse(roomNumber);
-            if (roomOpt.isEmpty()) continue;
-            Long roomId = roomOpt.get().getId();
-            File[] files = roomFolder.listFiles(file -> file.isFile() && file.getName().matches(".*\\.(jpg|png|jpeg)$") && !file.getName().startsWith("processed_"));
-            if (files == null || files.length == 0) continue;
-            // Lọc ra file chưa được xử lý (chưa có file processed_<tên cũ>)
-            File nextFile = java.util.Arrays.stream(files)
-                .filter(f -> !new File(roomFolder, "processed_" + f.getName()).exists())
-                .sorted((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName()))
-                .findFirst()
-                .orElse(null);
-            if (nextFile != null) {
-                currentScanningFile = nextFile.getName();
-                String result = null;
-                String error = null;
-                try {
-                    MultipartFile multipartFile = new FileMultipartFile(nextFile, "image/jpeg");
-                    result = detectionService.detectAndReadFromFile(multipartFile, roomId);
-                    System.out.println("📸 Đã quét " + nextFile.getName() + " → " + result);
-                    File processedFile = new File(roomFolder, "processed_" + nextFile.getName());
-                    System.out.println("Đổi tên từ: " + nextFile.getAbsolutePath() + " sang: " + processedFile.getAbsolutePath());
-                    boolean renamed = nextFile.renameTo(processedFile);
-                    if (!renamed) {
-                        System.out.println("Không thể đổi tên file: " + nextFile.getAbsolutePath() + " sang: " + processedFile.getAbsolutePath());
-                        // Thử copy rồi xóa file gốc (trường hợp khác phân vùng hoặc renameTo thất bại)
-                        try (java.io.InputStream in = new java.io.FileInputStream(nextFile);
-                             java.io.OutputStream out = new java.io.FileOutputStream(processedFile)) {
-                            in.transferTo(out);
-                            boolean deleted = nextFile.delete();
-                            if (!deleted) {
-                                System.out.println("Không thể xóa file gốc sau khi copy: " + nextFile.getAbsolutePath());
-                            }
-                        } catch (Exception ex) {
-                            System.out.println("Lỗi khi copy rồi xóa file: " + ex.getMessage());
-                        }
-                    } else {
-                        // Nếu file gốc vẫn còn (do lỗi move), xóa file gốc để tránh bị quét lại
-                        if (nextFile.exists()) {
-                            boolean deleted = nextFile.delete();
-                            if (!deleted) {
-                                System.out.println("Không thể xóa file gốc: " + nextFile.getAbsolutePath());
-                            }
+            Long roomId = roomIdsByNumber.get(roomFolder.getName());
+            if (roomId == null) continue;
+            pipeline.add(processRoom(roomFolder, roomId));
+        }
+        // Chờ hết lượt quét để lượt sau (fixed delay) không xử lý trùng ảnh
+        CompletableFuture.allOf(pipeline.toArray(new CompletableFuture<?>[0])).join();
+        System.out.println("📸 Lượt quét " + roomFolders.length + " phòng xong trong " + (System.currentTimeMillis() - startedAt) + " ms");
+        currentScanningFile = null;
+    }
+
+    // Một truy vấn cho tất cả phòng thay vì một truy vấn cho mỗi thư mục
+    private void refreshRoomCache() {
+        Map<String, Long> rooms = new ConcurrentHashMap<>();
+        for (Room room : roomRepository.findAllByDeletedFalse()) {
+            if (room.getRoomNumber() != null) {
+                rooms.put(room.getRoomNumber(), room.getId());
+            }
+        }
+        roomIdsByNumber = rooms;
+    }
+
+    private Long resolveRoomId(String roomNumber) {
+        Long roomId = roomIdsByNumber.get(roomNumber);
+        if (roomId != null) return roomId;
+        // Phòng mới tạo sau lượt đối soát gần nhất
+        Optional<Room> roomOpt = roomRepository.findByRoomNumberAndDeletedFalse(roomNumber);
+        roomOpt.ifPresent(room -> roomIdsByNumber.put(roomNumber, room.getId()));
+        return roomOpt.map(Room::getId).orElse(null);
+    }
+
+    /**
+     * Quét ảnh chưa xử lý tiếp theo của một phòng. Nếu phòng đang được quét thì chỉ đánh dấu để quét lại sau.
+     */
+    private CompletableFuture<Void> processRoom(File roomFolder, Long roomId) {
+        String roomNumber = roomFolder.getName();
+        if (!roomsInProgress.add(roomNumber)) {
+            dirtyRooms.add(roomNumber);
+            return CompletableFuture.completedFuture(null);
+        }
+        File nextFile = findNextFile(roomFolder);
+        if (nextFile == null) {
+            roomsInProgress.remove(roomNumber);
+            return CompletableFuture.completedFuture(null);
+        }
+        ScanTask task = new ScanTask(roomFolder, nextFile, roomId);
+        return CompletableFuture
+            .supplyAsync(() -> detect(task), detectionExecutor)
+            .thenAcceptAsync(outcome -> persist(task, outcome), persistenceExecutor)
+            .whenComplete((ignored, error) -> {
+                roomsInProgress.remove(roomNumber);
+                // Đang theo dõi thư mục: quét tiếp ảnh còn lại của phòng (không chờ lượt đối soát)
+                boolean dirty = dirtyRooms.remove(roomNumber);
+                if (watching && enabled.get() && (dirty || findNextFile(roomFolder) != null)) {
+                    processRoom(roomFolder, roomId);
+                }
+            });
+    }
+
+    // Bước 1: tìm ảnh cần quét của phòng
+    private File findNextFile(File roomFolder) {
+        File[] files = roomFolder.listFiles(file -> file.isFile() && isImageFile(file.getName()));
+        if (files == null || files.length == 0) return null;
+        // Lọc ra file chưa được xử lý (chưa có file processed_<tên cũ>)
+        File next = java.util.Arrays.stream(files)
+            .filter(f -> !new File(roomFolder, "processed_" + f.getName()).exists())
+            .filter(f -> !processedFiles.contains(f.getAbsolutePath()))
+            .sorted((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName()))
+            .findFirst()
+            .orElse(null);
+        // Ảnh đầu tiên vừa lỗi: phòng chờ tới lần thử lại (không bỏ qua để chỉ số vẫn được ghi theo thứ tự)
+        if (next != null && isBackingOff(next)) return null;
+        return next;
+    }
+
+    private boolean isBackingOff(File file) {
+        FailedScan failed = failedFiles.get(file.getAbsolutePath());
+        return failed != null && System.currentTimeMillis() < failed.retryAt();
+    }
+
+    // Lùi thời gian thử lại theo cấp số nhân: 30s, 60s, 120s... tối đa 30 phút
+    private void recordFailure(File file) {
+        failedFiles.compute(file.getAbsolutePath(), (path, previous) -> {
+            int attempts = previous == null ? 1 : previous.attempts() + 1;
+            long backoff = Math.min(FAILED_RETRY_MAX_MS, FAILED_RETRY_BASE_MS << Math.min(attempts - 1, 16));
+            return new FailedScan(attempts, System.currentTimeMillis() + backoff);
+        });
+    }
+
+    private static boolean isImageFile(String fileName) {
+        return fileName.matches(".*\\.(jpg|png|jpeg)$") && !fileName.startsWith("processed_");
+    }
+
+    private void startWatcher() {
+        if (watching) return;
+        Path root = Paths.get(scanFolder);
+        if (!Files.isDirectory(root)) {
+            System.out.println("Thư mục quét không tồn tại, dùng chế độ polling: " + root);
+            return;
+        }
+        try {
+            WatchService service = root.getFileSystem().newWatchService();
+            root.register(service, StandardWatchEventKinds.ENTRY_CREATE);
+            File[] roomFolders = root.toFile().listFiles(File::isDirectory);
+            if (roomFolders != null) {
+                for (File roomFolder : roomFolders) {
+                    roomFolder.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE);
+                }
+            }
+            watchService = service;
+            watching = true;
+            Thread thread = new Thread(() -> watchLoop(service, root), "MeterFolderWatcher");
+            thread.setDaemon(true);
+            thread.start();
+            watcherThread = thread;
+            System.out.println("👀 Đang theo dõi thư mục ảnh công tơ: " + root);
+        } catch (IOException e) {
+            System.err.println("Không thể theo dõi thư mục " + root + ", dùng chế độ polling: " + e.getMessage());
+        }
+    }
+
+    private void stopWatcher() {
+        watching = false;
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                System.err.println("Lỗi đóng WatchService: " + e.getMessage());
+            }
+        }
+        Thread thread = watcherThread;
+        watcherThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        pendingRoomEvents.values().forEach(event -> event.cancel(false));
+        pendingRoomEvents.clear();
+    }
+
+    private void watchLoop(WatchService service, Path root) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Mất sự kiện: quét đối soát toàn bộ
+                        taskScheduler.schedule(this::scanFolder, Instant.now());
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (dir.equals(root)) {
+                        // Thư mục phòng mới
+                        if (Files.isDirectory(child)) {
+                            child.register(service, StandardWatchEventKinds.ENTRY_CREATE);
+                            onRoomChanged(child.getFileName().toString());
                         }
+                    } else if (isImageFile(child.getFileName().toString())) {
+                        onRoomChanged(dir.getFileName().toString());
                     }
-                } catch (Exception e) {
-                    error = e.getMessage();
-                    e.printStackTrace();
                 }
-                scanLogService.saveLog(nextFile.getName(), roomId, result, error);
+                key.reset();
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Đã dừng theo dõi
+        } catch (IOException e) {
+            System.err.println("Lỗi theo dõi thư mục ảnh công tơ: " + e.getMessage());
+        }
+    }
+
+    // Gộp các sự kiện của cùng phòng trong debounceMs (file có thể vẫn đang được ghi)
+    private void onRoomChanged(String roomNumber) {
+        if (!enabled.get()) return;
+        pendingRoomEvents.computeIfAbsent(roomNumber, key -> taskScheduler.schedule(() -> {
+            pendingRoomEvents.remove(roomNumber);
+            Long roomId = resolveRoomId(roomNumber);
+            if (roomId != null) {
+                processRoom(new File(scanFolder, roomNumber), roomId);
+            }
+        }, Instant.now().plusMillis(debounceMs)));
+    }
+
+    // Bước 2: nhận diện chỉ số (không ghi DB)
+    private DetectionOutcome detect(ScanTask task) {
+        String fileName = task.file().getName();
+        inFlightFiles.add(fileName);
+        currentScanningFile = fileName;
+        try {
+            MultipartFile multipartFile = new FileMultipartFile(task.file(), "image/jpeg");
+            String result = detectionService.detectAndReadFromFile(multipartFile);
+            System.out.println("📸 Đã quét " + fileName + " → " + result);
+            return new DetectionOutcome(result, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new DetectionOutcome(null, e.getMessage());
+        } finally {
+            inFlightFiles.remove(fileName);
+        }
+    }
+
+    // Bước 3: lưu chỉ số, đánh dấu file đã xử lý và ghi log
+    private void persist(ScanTask task, DetectionOutcome outcome) {
+        String path = task.file().getAbsolutePath();
+        String error = outcome.error();
+        if (error == null) {
+            try {
+                detectionService.saveReadingIfValid(outcome.result(), task.roomId());
+            } catch (Exception e) {
+                error = e.getMessage();
+                e.printStackTrace();
+            }
+        }
+        if (error == null) {
+            try {
+                markProcessed(task.roomFolder(), task.file());
+            } catch (IOException e) {
+                // Chỉ số đã lưu: ghi nhớ ảnh để không quét lại (tránh ghi trùng chỉ số và log liên tục)
+                processedFiles.add(path);
+                error = e.getMessage();
+                System.err.println(e.getMessage());
+            }
+        }
+        if (error == null) {
+            failedFiles.remove(path);
+        } else if (!processedFiles.contains(path)) {
+            recordFailure(task.file());
+        }
+        try {
+            scanLogService.saveLog(task.file().getName(), task.roomId(), outcome.result(), error);
+        } catch (Exception e) {
+            System.err.println("Lỗi ghi log quét " + task.file().getName() + ": " + e.getMessage());
         }
-        currentScanningFile = null;
     }
 
+    private void markProcessed(File roomFolder, File nextFile) throws IOException {
+        File processedFile = new File(roomFolder, "processed_" + nextFile.getName());
+        System.out.println("Đổi tên từ: " + nextFile.getAbsolutePath() + " sang: " + processedFile.getAbsolutePath());
+        boolean renamed = nextFile.renameTo(processedFile);
+        if (!renamed) {
+            System.out.println("Không thể đổi tên file: " + nextFile.getAbsolutePath() + " sang: " + processedFile.getAbsolutePath());
+            // Thử copy rồi xóa file gốc (trường hợp khác phân vùng hoặc renameTo thất bại)
+            try (java.io.InputStream in = new java.io.FileInputStream(nextFile);
+                 java.io.OutputStream out = new java.io.FileOutputStream(processedFile)) {
+                in.transferTo(out);
+            } catch (Exception ex) {
+                // Bản copy dở dang không được coi là đã xử lý
+                processedFile.delete();
+                throw new IOException("Không thể đánh dấu đã xử lý " + nextFile.getAbsolutePath() + ": " + ex.getMessage(), ex);
+            }
+            boolean deleted = nextFile.delete();
+            if (!deleted) {
+                System.out.println("Không thể xóa file gốc sau khi copy: " + nextFile.getAbsolutePath());
+            }
+        } else {
+            // Nếu file gốc vẫn còn (do lỗi move), xóa file gốc để tránh bị quét lại
+            if (nextFile.exists()) {
+                boolean deleted = nextFile.delete();
+                if (!deleted) {
+                    System.out.println("Không thể xóa file gốc: " + nextFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    private record ScanTask(File roomFolder, File file, Long roomId) {}
+
+    private record DetectionOutcome(String result, String error) {}
+
+    private record FailedScan(int attempts, long retryAt) {}
+
     private String extractRoomNumber(String fileName) {
         try {
             String[] parts = fileName.split("_");
@@ -171,9 +477,21 @@ public class AutoElectricMeterScanner {
     }
     public void setScanFolder(String folder) {
         this.scanFolder = folder;
+        if (enabled.get()) {
+            stop();
+            start();
+        }
+    }
+
+    public boolean isWatching() {
+        return watching;
     }
 
     public String getCurrentScanningFile() {
         return currentScanningFile;
     }
+
+    public Set<String> getInFlightFiles() {
+        return Set.copyOf(inFlightFiles);
+    }
 } 
\ No newline at end of file
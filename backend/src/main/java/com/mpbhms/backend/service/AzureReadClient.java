@@ -0,0 +1,337 @@
+package com.mpbhms.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Client bất đồng bộ cho Azure Computer Vision Read (/vision/v3.2/read/analyze).
+ * Gửi ảnh rồi poll Operation-Location mà không giữ luồng trong lúc chờ:
+ * - Khoảng chờ giữa các lần poll tăng dần (poll-initial-delay-ms -> poll-max-delay-ms), ưu tiên header Retry-After
+ * - 429/503 được thử lại sau Retry-After thay vì báo lỗi
+ * - Một HttpClient dùng chung (giữ kết nối keep-alive), timeout kết nối/request cấu hình được
+ * - Số request HTTP đồng thời bị giới hạn bởi meter.ocr.max-concurrent-requests, request vượt giới hạn xếp hàng chứ không chặn luồng
+ * - Request đang xếp hàng không được gửi nếu tới lượt mà thao tác đã bị hủy hoặc đã quá deadline
+ */
+@Service
+public class AzureReadClient {
+
+    private static final String READ_PATH = "/vision/v3.2/read/analyze";
+
+    private final String endpoint;
+    private final String key;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService pollScheduler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AsyncPermits permits;
+    private final Duration requestTimeout;
+    private final long pollInitialDelayMs;
+    private final long pollMaxDelayMs;
+    private final double pollBackoffMultiplier;
+    private final long operationTimeoutMs;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong pollCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicInteger inFlightOperations = new AtomicInteger();
+
+    public AzureReadClient(@Value("${azure.ocr.endpoint}") String endpoint,
+                           @Value("${azure.ocr.key}") String key,
+                           @Value("${meter.ocr.max-concurrent-requests:4}") int maxConcurrentRequests,
+                           @Value("${meter.ocr.connect-timeout-ms:5000}") long connectTimeoutMs,
+                           @Value("${meter.ocr.request-timeout-ms:10000}") long requestTimeoutMs,
+                           @Value("${meter.ocr.poll-initial-delay-ms:500}") long pollInitialDelayMs,
+                           @Value("${meter.ocr.poll-max-delay-ms:2000}") long pollMaxDelayMs,
+                           @Value("${meter.ocr.poll-backoff-multiplier:1.5}") double pollBackoffMultiplier,
+                           @Value("${meter.ocr.timeout-ms:15000}") long operationTimeoutMs) {
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.key = key;
+        this.permits = new AsyncPermits(Math.max(1, maxConcurrentRequests));
+        this.requestTimeout = Duration.ofMillis(Math.max(1, requestTimeoutMs));
+        this.pollInitialDelayMs = Math.max(0, pollInitialDelayMs);
+        this.pollMaxDelayMs = Math.max(this.pollInitialDelayMs, pollMaxDelayMs);
+        this.pollBackoffMultiplier = Math.max(1.0, pollBackoffMultiplier);
+        this.operationTimeoutMs = Math.max(1, operationTimeoutMs);
+
+        // Một luồng hẹn giờ cho tất cả lần poll đang chờ; HttpClient tự quản lý pool kết nối keep-alive
+        this.pollScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AzureReadPoll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(Math.max(1, connectTimeoutMs)))
+            .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pollScheduler.shutdownNow();
+    }
+
+    /**
+     * Gửi ảnh tới Azure Read và trả về JSON kết quả khi trạng thái là "succeeded".
+     * Future lỗi với {@link OcrTimeoutException} nếu quá meter.ocr.timeout-ms, {@link OcrException} nếu Azure báo lỗi.
+     */
+    public CompletableFuture<JsonNode> read(byte[] imageBytes) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(operationTimeoutMs);
+        inFlightOperations.incrementAndGet();
+        HttpRequest analyze = baseRequest(URI.create(endpoint + READ_PATH))
+            .header("Content-Type", "application/octet-stream")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(imageBytes))
+            .build();
+
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        send(analyze, deadline, result).whenComplete((response, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+                return;
+            }
+            if (response.statusCode() / 100 != 2) {
+                result.completeExceptionally(new OcrException("Azure Read trả về HTTP " + response.statusCode() + ": " + response.body()));
+                return;
+            }
+            String operationUrl = response.headers().firstValue("Operation-Location").orElse(null);
+            if (operationUrl == null) {
+                result.completeExceptionally(new OcrException("Không nhận được Operation-Location"));
+                return;
+            }
+            long firstDelay = retryAfterMillis(response).orElse(pollInitialDelayMs);
+            schedulePoll(URI.create(operationUrl), firstDelay, pollInitialDelayMs, deadline, result);
+        });
+        // Thống kê được ghi trước khi người gọi thấy future hoàn tất; cancel() trên future trả về
+        // được chuyển tiếp vào future kết quả để lần poll tiếp theo không được gửi
+        CompletableFuture<JsonNode> observed = new CompletableFuture<>();
+        result.whenComplete((json, error) -> {
+            inFlightOperations.decrementAndGet();
+            if (error == null) {
+                completedCount.incrementAndGet();
+                observed.complete(json);
+                return;
+            }
+            if (error instanceof CancellationException) {
+                cancelledCount.incrementAndGet();
+            } else if (unwrap(error) instanceof OcrTimeoutException) {
+                timeoutCount.incrementAndGet();
+            } else {
+                failedCount.incrementAndGet();
+            }
+            observed.completeExceptionally(unwrap(error));
+        });
+        observed.whenComplete((json, error) -> {
+            if (error instanceof CancellationException) {
+                result.cancel(true);
+            }
+        });
+        return observed;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlightOperations", inFlightOperations.get());
+        stats.put("queuedRequests", permits.queued());
+        stats.put("completed", completedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("timedOut", timeoutCount.get());
+        stats.put("cancelled", cancelledCount.get());
+        stats.put("polls", pollCount.get());
+        stats.put("throttled", throttledCount.get());
+        return stats;
+    }
+
+    private void schedulePoll(URI operationUri, long delayMs, long backoffMs, long deadline, CompletableFuture<JsonNode> result) {
+        if (result.isDone()) return;
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0 || delayMs >= remainingMs) {
+            result.completeExceptionally(new OcrTimeoutException(operationTimeoutMs));
+            return;
+        }
+        pollScheduler.schedule(() -> poll(operationUri, backoffMs, deadline, result), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(URI operationUri, long backoffMs, long deadline, CompletableFuture<JsonNode> result) {
+        if (result.isDone()) return;
+        pollCount.incrementAndGet();
+        long nextBackoff = Math.min(pollMaxDelayMs, (long) (Math.max(1, backoffMs) * pollBackoffMultiplier));
+        send(baseRequest(operationUri).GET().build(), deadline, result).whenComplete((response, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+                return;
+            }
+            if (response.statusCode() / 100 != 2) {
+                result.completeExceptionally(new OcrException("Azure Read trả về HTTP " + response.statusCode() + ": " + response.body()));
+                return;
+            }
+            try {
+                JsonNode json = objectMapper.readTree(response.body());
+                String status = json.path("status").asText();
+                if ("succeeded".equals(status)) {
+                    result.complete(json);
+                } else if ("failed".equals(status)) {
+                    result.completeExceptionally(new OcrException("Azure Read trả về trạng thái failed"));
+                } else {
+                    // notStarted / running: chờ theo Retry-After nếu có, nếu không thì tăng dần khoảng chờ
+                    long delay = retryAfterMillis(response).orElse(backoffMs);
+                    schedulePoll(operationUri, delay, nextBackoff, deadline, result);
+                }
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Gửi một request trong giới hạn đồng thời; 429/503 được gửi lại sau Retry-After cho tới deadline.
+     * Trạng thái hủy và deadline được kiểm tra lúc nhận permit: request chờ trong hàng đợi lâu
+     * có thể tới lượt khi người gọi đã cancel() hoặc đã hết thời gian, khi đó trả permit ngay mà không gửi
+     */
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request, long deadline, CompletableFuture<JsonNode> operation) {
+        return permits.submit(() -> {
+            if (operation.isDone()) {
+                return CompletableFuture.failedFuture(new CancellationException("Thao tác OCR đã kết thúc"));
+            }
+            if (System.nanoTime() >= deadline) {
+                return CompletableFuture.failedFuture(new OcrTimeoutException(operationTimeoutMs));
+            }
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        })
+            .thenCompose(response -> {
+                int status = response.statusCode();
+                if (status != 429 && status != 503) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                throttledCount.incrementAndGet();
+                long delayMs = retryAfterMillis(response).orElse(pollMaxDelayMs);
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs) >= deadline) {
+                    return CompletableFuture.failedFuture(new OcrTimeoutException(operationTimeoutMs));
+                }
+                return CompletableFuture.supplyAsync(() -> null,
+                        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, pollScheduler))
+                    .thenCompose(ignored -> send(request, deadline, operation));
+            });
+    }
+
+    private HttpRequest.Builder baseRequest(URI uri) {
+        return HttpRequest.newBuilder(uri)
+            .timeout(requestTimeout)
+            .header("Ocp-Apim-Subscription-Key", key);
+    }
+
+    // Retry-After có thể là số giây hoặc ngày giờ HTTP
+    private static OptionalLong retryAfterMillis(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null || value.isBlank()) return OptionalLong.empty();
+        try {
+            return OptionalLong.of(Math.max(0, (long) (Double.parseDouble(value.trim()) * 1000)));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return OptionalLong.of(Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis()));
+            } catch (Exception ignored) {
+                return OptionalLong.empty();
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public static class OcrException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OcrException(String message) {
+            super(message);
+        }
+    }
+
+    public static class OcrTimeoutException extends OcrException {
+        private static final long serialVersionUID = 1L;
+
+        public OcrTimeoutException(long timeoutMs) {
+            super("OCR timeout sau " + (timeoutMs / 1000) + " giây");
+        }
+    }
+
+    /**
+     * Giới hạn số request đang chạy mà không chặn luồng: request vượt giới hạn được xếp hàng
+     * và gửi khi một request khác hoàn tất.
+     */
+    static class AsyncPermits {
+        private final int maxPermits;
+        private final AtomicInteger inUse = new AtomicInteger();
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+        AsyncPermits(int maxPermits) {
+            this.maxPermits = maxPermits;
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            waiting.add(() -> {
+                CompletableFuture<T> future;
+                try {
+                    future = call.get();
+                } catch (Throwable e) {
+                    future = CompletableFuture.failedFuture(e);
+                }
+                future.whenComplete((value, error) -> {
+                    inUse.decrementAndGet();
+                    drain();
+                    if (error != null) {
+                        result.completeExceptionally(unwrap(error));
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            });
+            drain();
+            return result;
+        }
+
+        int queued() {
+            return waiting.size();
+        }
+
+        private void drain() {
+            while (!waiting.isEmpty()) {
+                int current = inUse.get();
+                if (current >= maxPermits) return;
+                if (!inUse.compareAndSet(current, current + 1)) continue;
+                Runnable next = waiting.poll();
+                if (next == null) {
+                    inUse.decrementAndGet();
+                    continue;
+                }
+                next.run();
+            }
+        }
+    }
+}
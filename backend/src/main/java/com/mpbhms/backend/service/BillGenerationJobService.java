@@ -0,0 +1,311 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.dto.BillGenerationJobResponse;
+import com.mpbhms.backend.entity.Bill;
+import com.mpbhms.backend.enums.BillType;
+import com.mpbhms.backend.enums.ContractStatus;
+import com.mpbhms.backend.enums.PaymentCycle;
+import com.mpbhms.backend.exception.NotFoundException;
+import com.mpbhms.backend.repository.ContractRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine tạo hóa đơn hàng loạt chạy nền.
+ * Hợp đồng ACTIVE được chia lô, mỗi lô chạy trên pool worker giới hạn, mỗi hợp đồng một transaction ngắn.
+ * Thông báo cho người thuê được gửi ở pool riêng sau khi transaction đã commit.
+ * Trong transaction của từng hợp đồng, kỳ hóa đơn được kiểm tra lại ngay trước khi tạo: hóa đơn vừa được
+ * tạo từ nơi khác (tạo thủ công, node khác) sau bước lập kế hoạch của lô sẽ bị bỏ qua thay vì tạo trùng.
+ * Trạng thái job chỉ nằm trong bộ nhớ của node đã nhận request: restart thì mất (getJob trả 404) và job đang
+ * chạy dừng giữa chừng; chạy lại job là an toàn vì hợp đồng đã có hóa đơn kỳ này được bỏ qua.
+ */
+@Service
+@Slf4j
+public class BillGenerationJobService {
+
+    public static final String JOB_CONTRACT_BILLS = "CONTRACT_BILLS";
+    public static final String JOB_SERVICE_BILLS = "SERVICE_BILLS";
+
+    // Giữ lại trạng thái job đã xong trong 24h để client tra cứu
+    private static final Duration FINISHED_JOB_RETENTION = Duration.ofHours(24);
+
+    private final ContractRepository contractRepository;
+    private final BillService billService;
+    private final TransactionTemplate perContractTransaction;
+    private final int chunkSize;
+    private final ThreadPoolTaskExecutor coordinatorExecutor;
+    private final ThreadPoolTaskExecutor workerExecutor;
+    private final ThreadPoolTaskExecutor notificationExecutor;
+
+    private final Map<String, GenerationJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, GenerationJob> runningJobsByType = new ConcurrentHashMap<>();
+
+    public BillGenerationJobService(ContractRepository contractRepository,
+                                    BillService billService,
+                                    PlatformTransactionManager transactionManager,
+                                    @Value("${bill.generation.worker-threads:4}") int workerThreads,
+                                    @Value("${bill.generation.chunk-size:200}") int chunkSize) {
+        this.contractRepository = contractRepository;
+        this.billService = billService;
+        this.chunkSize = Math.max(1, chunkSize);
+
+        this.perContractTransaction = new TransactionTemplate(transactionManager);
+        this.perContractTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        this.coordinatorExecutor = newExecutor("BillGenJob-", 1, 16);
+        this.workerExecutor = newExecutor("BillGenWorker-", Math.max(1, workerThreads), workerThreads * 4);
+        this.notificationExecutor = newExecutor("BillGenNotify-", 1, 10000);
+    }
+
+    private static ThreadPoolTaskExecutor newExecutor(String prefix, int threads, int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(Math.max(1, queueCapacity));
+        executor.setThreadNamePrefix(prefix);
+        // Hàng đợi đầy thì luồng gọi tự chạy task -> tạo backpressure thay vì làm rơi việc
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinatorExecutor.shutdown();
+        workerExecutor.shutdown();
+        notificationExecutor.shutdown();
+    }
+
+    /**
+     * Bắt đầu job tạo hóa đơn kỳ hiện tại cho tất cả hợp đồng ACTIVE.
+     * Nếu đã có job cùng loại đang chạy thì trả về job đó.
+     */
+    public BillGenerationJobResponse startContractBillGeneration() {
+        return startJob(JOB_CONTRACT_BILLS);
+    }
+
+    /**
+     * Bắt đầu job tạo hóa đơn dịch vụ tháng hiện tại cho tất cả hợp đồng ACTIVE.
+     */
+    public BillGenerationJobResponse startServiceBillGeneration() {
+        return startJob(JOB_SERVICE_BILLS);
+    }
+
+    public BillGenerationJobResponse getJob(String jobId) {
+        GenerationJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new NotFoundException("Không tìm thấy job tạo hóa đơn: " + jobId);
+        }
+        return job.toResponse();
+    }
+
+    private synchronized BillGenerationJobResponse startJob(String jobType) {
+        GenerationJob running = runningJobsByType.get(jobType);
+        if (running != null) {
+            return running.toResponse();
+        }
+        evictFinishedJobs();
+
+        GenerationJob job = new GenerationJob(UUID.randomUUID().toString(), jobType);
+        jobs.put(job.jobId, job);
+        runningJobsByType.put(jobType, job);
+        coordinatorExecutor.execute(() -> runJob(job));
+        return job.toResponse();
+    }
+
+    private void runJob(GenerationJob job) {
+        log.info("🚀 Bắt đầu job tạo hóa đơn {} ({})", job.jobId, job.jobType);
+        try {
+            List<Long> contractIds = contractRepository.findIdsByContractStatus(ContractStatus.ACTIVE);
+            job.totalContracts = contractIds.size();
+
+            List<CompletableFuture<Void>> chunkFutures = new ArrayList<>();
+            for (int i = 0; i < contractIds.size(); i += chunkSize) {
+                List<Long> chunk = contractIds.subList(i, Math.min(i + chunkSize, contractIds.size()));
+                Runnable task = JOB_SERVICE_BILLS.equals(job.jobType)
+                    ? () -> processServiceBillChunk(job, chunk)
+                    : () -> processContractBillChunk(job, chunk);
+                chunkFutures.add(CompletableFuture.runAsync(task, workerExecutor));
+            }
+            CompletableFuture.allOf(chunkFutures.toArray(new CompletableFuture<?>[0])).join();
+
+            job.status = "COMPLETED";
+            job.message = "Đã tạo " + job.created.get() + " hóa đơn mới";
+            log.info("🏁 Job {} hoàn thành: processed={}, created={}, skipped={}, failed={}",
+                job.jobId, job.processed.get(), job.created.get(), job.skipped.get(), job.failed.get());
+        } catch (Exception e) {
+            job.status = "FAILED";
+            job.message = "Lỗi khi tạo hóa đơn: " + e.getMessage();
+            log.error("❌ Job tạo hóa đơn {} thất bại", job.jobId, e);
+        } finally {
+            job.finishedAt = Instant.now();
+            runningJobsByType.remove(job.jobType, job);
+        }
+    }
+
+    private void processContractBillChunk(GenerationJob job, List<Long> chunk) {
+        // Một truy vấn cho cả lô: hợp đồng nào chưa có hóa đơn kỳ hiện tại
+        Map<Long, LocalDate[]> pendingPeriods;
+        try {
+            pendingPeriods = billService.findContractsPendingBill(chunk);
+        } catch (Exception e) {
+            log.error("Lỗi khi lập kế hoạch lô {} hợp đồng của job {}", chunk.size(), job.jobId, e);
+            job.processed.addAndGet(chunk.size());
+            job.failed.addAndGet(chunk.size());
+            return;
+        }
+
+        Map<Long, PaymentCycle> cycles = new HashMap<>();
+        if (!pendingPeriods.isEmpty()) {
+            for (Object[] row : contractRepository.findPaymentCyclesByIdIn(pendingPeriods.keySet())) {
+                cycles.put((Long) row[0], (PaymentCycle) row[1]);
+            }
+        }
+
+        for (Long contractId : chunk) {
+            LocalDate[] period = pendingPeriods.get(contractId);
+            if (period == null) {
+                job.skipped.incrementAndGet();
+                job.processed.incrementAndGet();
+                continue;
+            }
+            try {
+                Bill bill = perContractTransaction.execute(status -> {
+                    // Kiểm tra lại trong cùng transaction với lệnh tạo: kỳ này có thể vừa được tạo sau bước lập kế hoạch
+                    if (!billService.findContractsPendingBill(List.of(contractId)).containsKey(contractId)) {
+                        return null;
+                    }
+                    // MONTHLY => CONTRACT_TOTAL; QUARTERLY/YEARLY => chỉ tiền phòng (giống bulkGenerateBills)
+                    BillType billType = cycles.get(contractId) == PaymentCycle.MONTHLY ? BillType.CONTRACT_TOTAL : BillType.CONTRACT_ROOM_RENT;
+                    return billService.generateBill(contractId, period[0], period[1], billType, false);
+                });
+                if (bill == null) {
+                    job.skipped.incrementAndGet();
+                    continue;
+                }
+                job.created.incrementAndGet();
+                scheduleNotification(bill.getId());
+            } catch (Exception e) {
+                job.failed.incrementAndGet();
+                log.warn("Lỗi tạo hóa đơn cho hợp đồng #{} (job {}): {}", contractId, job.jobId, e.getMessage());
+            } finally {
+                job.processed.incrementAndGet();
+            }
+        }
+    }
+
+    private void processServiceBillChunk(GenerationJob job, List<Long> chunk) {
+        LocalDate today = LocalDate.now();
+        int month = today.getMonthValue();
+        int year = today.getYear();
+
+        Set<Long> alreadyBilled;
+        try {
+            alreadyBilled = billService.findContractIdsWithServiceBill(chunk, month, year);
+        } catch (Exception e) {
+            log.error("Lỗi khi kiểm tra hóa đơn dịch vụ cho lô {} hợp đồng của job {}", chunk.size(), job.jobId, e);
+            job.processed.addAndGet(chunk.size());
+            job.failed.addAndGet(chunk.size());
+            return;
+        }
+
+        for (Long contractId : chunk) {
+            if (alreadyBilled.contains(contractId)) {
+                job.skipped.incrementAndGet();
+                job.processed.incrementAndGet();
+                continue;
+            }
+            try {
+                Bill bill = perContractTransaction.execute(status -> {
+                    // Kiểm tra lại trong cùng transaction với lệnh tạo, tránh hóa đơn dịch vụ trùng tháng
+                    if (billService.findContractIdsWithServiceBill(List.of(contractId), month, year).contains(contractId)) {
+                        return null;
+                    }
+                    return billService.createServiceBill(contractId, month, year, false);
+                });
+                if (bill == null) {
+                    job.skipped.incrementAndGet();
+                    continue;
+                }
+                job.created.incrementAndGet();
+                scheduleNotification(bill.getId());
+            } catch (Exception e) {
+                job.failed.incrementAndGet();
+                log.warn("Lỗi tạo hóa đơn dịch vụ cho hợp đồng #{} (job {}): {}", contractId, job.jobId, e.getMessage());
+            } finally {
+                job.processed.incrementAndGet();
+            }
+        }
+    }
+
+    // Giai đoạn sau commit: gửi thông báo ở pool riêng, không giữ transaction hay worker tạo hóa đơn
+    private void scheduleNotification(Long billId) {
+        notificationExecutor.execute(() -> {
+            try {
+                billService.sendBillNotificationToAllUsers(billId);
+            } catch (Exception e) {
+                log.warn("Lỗi gửi thông báo hóa đơn mới #{}: {}", billId, e.getMessage());
+            }
+        });
+    }
+
+    private void evictFinishedJobs() {
+        Instant threshold = Instant.now().minus(FINISHED_JOB_RETENTION);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(threshold));
+    }
+
+    private static class GenerationJob {
+        private final String jobId;
+        private final String jobType;
+        private final Instant startedAt = Instant.now();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private volatile int totalContracts;
+        private volatile String status = "RUNNING";
+        private volatile String message;
+        private volatile Instant finishedAt;
+
+        private GenerationJob(String jobId, String jobType) {
+            this.jobId = jobId;
+            this.jobType = jobType;
+        }
+
+        private BillGenerationJobResponse toResponse() {
+            BillGenerationJobResponse response = new BillGenerationJobResponse();
+            response.setJobId(jobId);
+            response.setJobType(jobType);
+            response.setStatus(status);
+            response.setTotalContracts(totalContracts);
+            response.setProcessed(processed.get());
+            response.setCreated(created.get());
+            response.setSkipped(skipped.get());
+            response.setFailed(failed.get());
+            response.setStartedAt(startedAt);
+            response.setFinishedAt(finishedAt);
+            response.setMessage(message);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.mpbhms.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Cache PDF hóa đơn trên đĩa, khóa theo (billId, dấu phiên bản dữ liệu đầu vào của hóa đơn).
+ * Dấu phiên bản lấy bằng một truy vấn nhẹ (version hóa đơn, thời điểm sửa phòng/thành viên...) trước khi nạp dữ liệu,
+ * nên cache trúng thì không phải nạp BillPdfView. Mọi thay đổi (thanh toán, phạt, sửa chi tiết) sinh ra khóa mới
+ * nên bản cũ không bao giờ bị trả về; khi render phiên bản mới thì các file cũ của cùng hóa đơn bị xóa.
+ * Tổng dung lượng được giới hạn, vượt quá thì xóa file ít dùng nhất (LRU).
+ */
+@Service
+public class BillPdfCache {
+
+    private static final String FILE_PREFIX = "bill_";
+    private static final String FILE_SUFFIX = ".pdf";
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final boolean enabled;
+
+    // Chỉ mục LRU: tên file -> kích thước (access order)
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+    // Khóa theo từng khóa cache để nhiều luồng cùng xin một hóa đơn chỉ render một lần
+    private final Map<String, Object> renderLocks = new ConcurrentHashMap<>();
+
+    public BillPdfCache(@Value("${bill.pdf.cache.dir:${java.io.tmpdir}/mpbhms-bill-pdf}") String cacheDir,
+                        @Value("${bill.pdf.cache.max-size-mb:256}") long maxSizeMb,
+                        @Value("${bill.pdf.cache.enabled:true}") boolean enabled) {
+        this.cacheDir = Paths.get(cacheDir);
+        this.maxBytes = Math.max(1, maxSizeMb) * 1024 * 1024;
+        this.enabled = enabled && initDirectory();
+    }
+
+    private boolean initDirectory() {
+        try {
+            Files.createDirectories(cacheDir);
+            // Nạp lại chỉ mục từ các file còn trên đĩa, cũ nhất trước để LRU đúng thứ tự
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, FILE_PREFIX + "*")) {
+                for (Path file : stream) {
+                    if (file.getFileName().toString().endsWith(FILE_SUFFIX)) {
+                        files.add(file);
+                    } else {
+                        Files.deleteIfExists(file); // file tạm còn sót lại
+                    }
+                }
+            }
+            files.sort(Comparator.comparingLong(this::lastModifiedOrZero));
+            List<String> evicted;
+            synchronized (index) {
+                for (Path file : files) {
+                    long size = Files.size(file);
+                    index.put(file.getFileName().toString(), size);
+                    totalBytes += size;
+                }
+                evicted = evictOverCap();
+            }
+            deleteFiles(evicted);
+            System.out.println("📄 Bill PDF cache: " + cacheDir + " (" + index.size() + " files, " + totalBytes + " bytes)");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Không thể khởi tạo thư mục cache PDF " + cacheDir + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Trả về file PDF của hóa đơn ứng với dấu phiên bản, render bằng renderer nếu chưa có trong cache
+     * (renderer tự nạp dữ liệu hóa đơn, chỉ được gọi khi cache trượt).
+     * Trả về null nếu cache bị tắt hoặc lỗi đĩa (khi đó người gọi tự render trực tiếp).
+     */
+    public Path getOrRender(Long billId, String versionStamp, Consumer<OutputStream> renderer) {
+        if (!enabled) return null;
+        String fileName = fileName(billId, versionStamp);
+        Path cached = lookup(fileName);
+        if (cached != null) return cached;
+
+        Object lock = renderLocks.computeIfAbsent(fileName, k -> new Object());
+        try {
+            synchronized (lock) {
+                cached = lookup(fileName);
+                if (cached != null) return cached;
+
+                Path target = cacheDir.resolve(fileName);
+                Path temp = Files.createTempFile(cacheDir, FILE_PREFIX, ".tmp");
+                try {
+                    try (OutputStream out = Files.newOutputStream(temp)) {
+                        renderer.accept(out);
+                    }
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+                long size = Files.size(target);
+                List<String> staleVersions = new ArrayList<>();
+                synchronized (index) {
+                    // Phiên bản mới thay thế các phiên bản cũ của cùng hóa đơn
+                    String billPrefix = billPrefix(billId);
+                    for (String name : index.keySet()) {
+                        if (name.startsWith(billPrefix) && !name.equals(fileName)) staleVersions.add(name);
+                    }
+                    staleVersions.forEach(this::removeFromIndex);
+                    index.put(fileName, size);
+                    totalBytes += size;
+                    staleVersions.addAll(evictOverCap());
+                }
+                // Xóa file ngoài khóa index để lookup của luồng khác không phải chờ I/O đĩa
+                deleteFiles(staleVersions);
+                return target;
+            }
+        } catch (IOException e) {
+            System.err.println("Lỗi ghi cache PDF hóa đơn #" + billId + ": " + e.getMessage());
+            return null;
+        } finally {
+            renderLocks.remove(fileName, lock);
+        }
+    }
+
+    /**
+     * Xóa mọi phiên bản PDF của hóa đơn (hóa đơn bị xóa hoặc thay đổi thanh toán/phạt)
+     */
+    public void invalidate(Long billId) {
+        if (!enabled || billId == null) return;
+        List<String> removed = new ArrayList<>();
+        String billPrefix = billPrefix(billId);
+        synchronized (index) {
+            for (String name : index.keySet()) {
+                if (name.startsWith(billPrefix)) removed.add(name);
+            }
+            removed.forEach(this::removeFromIndex);
+        }
+        deleteFiles(removed);
+    }
+
+    public void clear() {
+        if (!enabled) return;
+        List<String> removed;
+        synchronized (index) {
+            removed = new ArrayList<>(index.keySet());
+            index.clear();
+            totalBytes = 0;
+        }
+        deleteFiles(removed);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (index) {
+            stats.put("enabled", enabled);
+            stats.put("directory", cacheDir.toString());
+            stats.put("files", index.size());
+            stats.put("totalBytes", totalBytes);
+            stats.put("maxBytes", maxBytes);
+        }
+        return stats;
+    }
+
+    private Path lookup(String fileName) {
+        synchronized (index) {
+            if (index.get(fileName) == null) return null; // get() để cập nhật thứ tự LRU
+        }
+        Path file = cacheDir.resolve(fileName);
+        if (Files.exists(file)) return file;
+        // File bị xóa từ bên ngoài
+        synchronized (index) {
+            removeFromIndex(fileName);
+        }
+        return null;
+    }
+
+    // Gọi khi đang giữ khóa index; chỉ gỡ khỏi chỉ mục, người gọi xóa file sau khi nhả khóa.
+    // Nếu file cùng tên được render lại trước khi kịp xóa thì lookup thấy file mất và render lại
+    private List<String> evictOverCap() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        // Luôn giữ lại file vừa thêm (phần tử cuối) kể cả khi một mình nó vượt giới hạn
+        while (totalBytes > maxBytes && index.size() - evicted.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            totalBytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private void removeFromIndex(String fileName) {
+        Long size = index.remove(fileName);
+        if (size != null) totalBytes -= size;
+    }
+
+    private void deleteFiles(List<String> fileNames) {
+        for (String name : fileNames) {
+            try {
+                Files.deleteIfExists(cacheDir.resolve(name));
+            } catch (IOException e) {
+                System.err.println("Không thể xóa file cache PDF " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private long lastModifiedOrZero(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static String billPrefix(Long billId) {
+        return FILE_PREFIX + billId + "_";
+    }
+
+    // bill_<id>_<sha256 dấu phiên bản>.pdf
+    static String fileName(Long billId, String versionStamp) {
+        return billPrefix(billId) + fingerprint(versionStamp) + FILE_SUFFIX;
+    }
+
+    private static String fingerprint(String versionStamp) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(versionStamp.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+}
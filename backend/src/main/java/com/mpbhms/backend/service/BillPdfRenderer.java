@@ -0,0 +1,317 @@
+package com.mpbhms.backend.service;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.Element;
+import com.lowagie.text.Font;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.Phrase;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.PdfPCell;
+import com.lowagie.text.pdf.PdfPTable;
+import com.lowagie.text.pdf.PdfWriter;
+import com.mpbhms.backend.dto.BillPdfView;
+import org.springframework.stereotype.Service;
+
+import java.awt.Color;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * In hóa đơn PDF từ BillPdfView.
+ * Font Arial và các Font dùng chung được nạp một lần khi khởi tạo, PDF được ghi thẳng ra OutputStream.
+ */
+@Service
+public class BillPdfRenderer {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy").withZone(ZoneId.systemDefault());
+    private static final Color HEADER_BACKGROUND = new Color(240, 240, 240);
+
+    private final BaseFont baseFont;
+    private final Font titleFont;
+    private final Font headerFont;
+    private final Font normalFont;
+    private final Font boldNormalFont;
+    private final Font smallFont;
+    private final Font paidStatusFont;
+    private final Font unpaidStatusFont;
+    private final Font debtFont;
+    private final Font settledDebtFont;
+
+    public BillPdfRenderer() {
+        this.baseFont = loadBaseFont();
+        this.titleFont = new Font(baseFont, 20, Font.BOLD);
+        this.headerFont = new Font(baseFont, 12, Font.BOLD);
+        this.normalFont = new Font(baseFont, 10, Font.NORMAL);
+        this.boldNormalFont = new Font(baseFont, 10, Font.BOLD);
+        this.smallFont = new Font(baseFont, 9, Font.NORMAL);
+        this.paidStatusFont = new Font(baseFont, 12, Font.BOLD, new Color(0, 128, 0));
+        this.unpaidStatusFont = new Font(baseFont, 12, Font.BOLD, new Color(255, 0, 0));
+        this.debtFont = new Font(baseFont, 11, Font.BOLD, new Color(255, 77, 79));
+        this.settledDebtFont = new Font(baseFont, 11, Font.BOLD, new Color(82, 196, 26));
+    }
+
+    private static BaseFont loadBaseFont() {
+        try (InputStream fontStream = BillPdfRenderer.class.getClassLoader().getResourceAsStream("fonts/arial.ttf")) {
+            if (fontStream == null) throw new IllegalStateException("Không tìm thấy font Arial");
+            byte[] fontBytes = fontStream.readAllBytes();
+            return BaseFont.createFont("arial.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED, BaseFont.CACHED, fontBytes, null);
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Không thể nạp font Arial", e);
+        }
+    }
+
+    public void render(BillPdfView bill, OutputStream out) {
+        Document document = new Document(PageSize.A4, 40, 40, 60, 40);
+        try {
+            PdfWriter.getInstance(document, out);
+            document.open();
+
+            addHeader(document, bill);
+            addCustomerAndRoom(document, bill);
+            addDetails(document, bill);
+            addSummary(document, bill);
+            if (!bill.isPaid()) {
+                addPaymentInfo(document, bill);
+            }
+            addFooter(document);
+
+            document.close();
+        } catch (Exception e) {
+            throw new RuntimeException("Error generating PDF", e);
+        }
+    }
+
+    private void addHeader(Document document, BillPdfView bill) throws Exception {
+        Paragraph title = new Paragraph("HÓA ĐƠN THANH TOÁN", titleFont);
+        title.setAlignment(Element.ALIGN_CENTER);
+        title.setSpacingAfter(10f);
+        document.add(title);
+
+        Paragraph subtitle = new Paragraph("HỆ THỐNG QUẢN LÝ TÒA NHÀ MP-BHMS", normalFont);
+        subtitle.setAlignment(Element.ALIGN_CENTER);
+        subtitle.setSpacingAfter(25f);
+        document.add(subtitle);
+
+        PdfPTable headerTable = new PdfPTable(2);
+        headerTable.setWidthPercentage(100);
+        headerTable.setSpacingAfter(25f);
+
+        PdfPCell leftHeader = new PdfPCell();
+        leftHeader.setBorder(Rectangle.NO_BORDER);
+        leftHeader.addElement(new Paragraph("Số hóa đơn: #" + String.format("%06d", bill.getBillId()), headerFont));
+        leftHeader.addElement(new Paragraph("Ngày lập: " + formatDate(bill.getBillDate()), normalFont));
+
+        PdfPCell rightHeader = new PdfPCell();
+        rightHeader.setBorder(Rectangle.NO_BORDER);
+        rightHeader.setHorizontalAlignment(Element.ALIGN_RIGHT);
+        rightHeader.addElement(new Paragraph("Trạng thái:", normalFont));
+        rightHeader.addElement(bill.isPaid()
+            ? new Paragraph("ĐÃ THANH TOÁN", paidStatusFont)
+            : new Paragraph("CHƯA THANH TOÁN", unpaidStatusFont));
+
+        headerTable.addCell(leftHeader);
+        headerTable.addCell(rightHeader);
+        document.add(headerTable);
+    }
+
+    private void addCustomerAndRoom(Document document, BillPdfView bill) throws Exception {
+        PdfPTable infoMainTable = new PdfPTable(2);
+        infoMainTable.setWidthPercentage(100);
+        infoMainTable.setSpacingAfter(25f);
+
+        // Thông tin khách hàng - tất cả thành viên đang ở
+        PdfPCell customerCell = new PdfPCell();
+        customerCell.setBorder(Rectangle.BOX);
+        customerCell.setPadding(15f);
+        customerCell.setVerticalAlignment(Element.ALIGN_TOP);
+
+        Paragraph customerTitle = new Paragraph("THÔNG TIN KHÁCH HÀNG", headerFont);
+        customerTitle.setSpacingAfter(10f);
+        customerCell.addElement(customerTitle);
+
+        if (bill.getContractId() != null) {
+            int memberIndex = 1;
+            for (BillPdfView.Member member : bill.getMembers()) {
+                if (memberIndex > 1) {
+                    customerCell.addElement(new Paragraph(" ", normalFont));
+                }
+                customerCell.addElement(new Paragraph("Thành viên " + memberIndex + ":", boldNormalFont));
+                customerCell.addElement(new Paragraph("• Họ tên: " + member.getFullName(), normalFont));
+                customerCell.addElement(new Paragraph("• SĐT: " + member.getPhoneNumber(), normalFont));
+                if (member.getEmail() != null) {
+                    customerCell.addElement(new Paragraph("• Email: " + member.getEmail(), normalFont));
+                }
+                customerCell.addElement(new Paragraph("• Ngày vào ở: " + (member.getJoinedAt() != null ? formatDate(member.getJoinedAt()) : "N/A"), normalFont));
+                memberIndex++;
+            }
+            if (memberIndex == 1) {
+                customerCell.addElement(new Paragraph("Chưa có thành viên nào", normalFont));
+            }
+        }
+
+        // Thông tin phòng
+        PdfPCell roomCell = new PdfPCell();
+        roomCell.setBorder(Rectangle.BOX);
+        roomCell.setPadding(15f);
+        roomCell.setVerticalAlignment(Element.ALIGN_TOP);
+
+        Paragraph roomTitle = new Paragraph("THÔNG TIN PHÒNG", headerFont);
+        roomTitle.setSpacingAfter(10f);
+        roomCell.addElement(roomTitle);
+        roomCell.addElement(new Paragraph("• Số phòng: " + bill.getRoomNumber(), normalFont));
+        if (bill.getBuilding() != null && !bill.getBuilding().isEmpty()) {
+            roomCell.addElement(new Paragraph("• Tòa nhà: " + bill.getBuilding(), normalFont));
+        }
+        if (bill.getContractId() != null) {
+            roomCell.addElement(new Paragraph("• Hợp đồng: #" + bill.getContractId(), normalFont));
+        }
+
+        // Thời gian tính tiền
+        roomCell.addElement(new Paragraph(" ", normalFont));
+        roomCell.addElement(new Paragraph("THỜI GIAN TÍNH TIỀN:", boldNormalFont));
+        roomCell.addElement(new Paragraph("• Từ ngày: " + formatDate(bill.getFromDate()), normalFont));
+        roomCell.addElement(new Paragraph("• Đến ngày: " + formatDate(bill.getToDate()), normalFont));
+        roomCell.addElement(new Paragraph("• Hạn thanh toán: " + formatDate(bill.getEffectiveDueDate()), normalFont));
+
+        infoMainTable.addCell(customerCell);
+        infoMainTable.addCell(roomCell);
+        document.add(infoMainTable);
+    }
+
+    private void addDetails(Document document, BillPdfView bill) throws Exception {
+        Paragraph detailsTitle = new Paragraph("CHI TIẾT HÓA ĐƠN", headerFont);
+        detailsTitle.setSpacingAfter(15f);
+        document.add(detailsTitle);
+
+        PdfPTable detailTable = new PdfPTable(4);
+        detailTable.setWidthPercentage(100);
+        detailTable.setSpacingAfter(20f);
+        detailTable.setWidths(new float[]{4f, 1.5f, 2f, 2f});
+
+        for (String header : new String[]{"DIỄN GIẢI", "SỐ LƯỢNG", "ĐƠN GIÁ", "THÀNH TIỀN"}) {
+            PdfPCell cell = new PdfPCell(new Phrase(header, headerFont));
+            cell.setBackgroundColor(HEADER_BACKGROUND);
+            cell.setPadding(8f);
+            cell.setHorizontalAlignment(Element.ALIGN_CENTER);
+            detailTable.addCell(cell);
+        }
+
+        DecimalFormat quantityFormat = new DecimalFormat("#,###.##");
+        for (BillPdfView.Line line : bill.getLines()) {
+            detailTable.addCell(cell(line.getDescription(), normalFont, Element.ALIGN_LEFT, 8f));
+            String quantity = line.getConsumedUnits() != null ? quantityFormat.format(line.getConsumedUnits()) : "1";
+            detailTable.addCell(cell(quantity, normalFont, Element.ALIGN_CENTER, 8f));
+            String unitPrice = line.getUnitPrice() != null ? formatCurrency(line.getUnitPrice()) : "-";
+            detailTable.addCell(cell(unitPrice, normalFont, Element.ALIGN_RIGHT, 8f));
+            String amount = line.getAmount() != null ? formatCurrency(line.getAmount()) : "-";
+            detailTable.addCell(cell(amount, normalFont, Element.ALIGN_RIGHT, 8f));
+        }
+        document.add(detailTable);
+    }
+
+    private void addSummary(Document document, BillPdfView bill) throws Exception {
+        PdfPTable summaryTable = new PdfPTable(2);
+        summaryTable.setWidthPercentage(60);
+        summaryTable.setHorizontalAlignment(Element.ALIGN_RIGHT);
+        summaryTable.setSpacingAfter(25f);
+        summaryTable.setWidths(new float[]{3f, 2f});
+
+        BigDecimal totalAmount = BigDecimal.ZERO;
+        for (BillPdfView.Line line : bill.getLines()) {
+            if (line.getAmount() != null) {
+                totalAmount = totalAmount.add(line.getAmount());
+            }
+        }
+
+        PdfPCell totalLabelCell = cell("TỔNG CỘNG:", headerFont, Element.ALIGN_RIGHT, 10f);
+        totalLabelCell.setBackgroundColor(HEADER_BACKGROUND);
+        PdfPCell totalValueCell = cell(formatCurrency(totalAmount), headerFont, Element.ALIGN_RIGHT, 10f);
+        totalValueCell.setBackgroundColor(HEADER_BACKGROUND);
+        summaryTable.addCell(totalLabelCell);
+        summaryTable.addCell(totalValueCell);
+
+        // Thông tin thanh toán từng phần nếu có
+        if (bill.isPartiallyPaid()) {
+            summaryTable.addCell(cell("Đã thanh toán (gốc):", normalFont, Element.ALIGN_RIGHT, 8f));
+            summaryTable.addCell(cell(formatCurrency(bill.getPaidAmount() != null ? bill.getPaidAmount() : BigDecimal.ZERO), normalFont, Element.ALIGN_RIGHT, 8f));
+
+            if (bill.getPartialPaymentFeesCollected() != null && bill.getPartialPaymentFeesCollected().compareTo(BigDecimal.ZERO) > 0) {
+                summaryTable.addCell(cell("Phí thanh toán từng phần:", normalFont, Element.ALIGN_RIGHT, 8f));
+                summaryTable.addCell(cell(formatCurrency(bill.getPartialPaymentFeesCollected()), normalFont, Element.ALIGN_RIGHT, 8f));
+            }
+
+            BigDecimal outstanding = bill.getOutstandingAmount() != null ? bill.getOutstandingAmount() : BigDecimal.ZERO;
+            Font font = outstanding.compareTo(BigDecimal.ZERO) > 0 ? debtFont : settledDebtFont;
+            Color debtBackground = new Color(250, 250, 250);
+            PdfPCell debtLabelCell = cell("CÒN NỢ:", font, Element.ALIGN_RIGHT, 10f);
+            debtLabelCell.setBackgroundColor(debtBackground);
+            PdfPCell debtValueCell = cell(formatCurrency(outstanding), font, Element.ALIGN_RIGHT, 10f);
+            debtValueCell.setBackgroundColor(debtBackground);
+            summaryTable.addCell(debtLabelCell);
+            summaryTable.addCell(debtValueCell);
+        }
+
+        document.add(summaryTable);
+    }
+
+    private void addPaymentInfo(Document document, BillPdfView bill) throws Exception {
+        Paragraph paymentTitle = new Paragraph("THÔNG TIN THANH TOÁN", headerFont);
+        paymentTitle.setSpacingAfter(10f);
+        document.add(paymentTitle);
+
+        PdfPTable paymentTable = new PdfPTable(2);
+        paymentTable.setWidthPercentage(100);
+        paymentTable.setSpacingAfter(20f);
+        paymentTable.setWidths(new float[]{1f, 1f});
+
+        PdfPCell methodCell = cell("Phương thức thanh toán: VNPay / Tiền mặt", normalFont, Element.ALIGN_LEFT, 8f);
+        methodCell.setBorder(Rectangle.BOX);
+        String dueDateText = bill.getDueDate() != null ? formatDate(bill.getDueDate()) : "Chưa thiết lập";
+        PdfPCell dueDateCell = cell("Hạn thanh toán: " + dueDateText, normalFont, Element.ALIGN_LEFT, 8f);
+        dueDateCell.setBorder(Rectangle.BOX);
+
+        paymentTable.addCell(methodCell);
+        paymentTable.addCell(dueDateCell);
+        document.add(paymentTable);
+    }
+
+    private void addFooter(Document document) throws Exception {
+        Paragraph footer = new Paragraph("Cảm ơn quý khách đã sử dụng dịch vụ của chúng tôi!", smallFont);
+        footer.setAlignment(Element.ALIGN_CENTER);
+        footer.setSpacingBefore(30f);
+        document.add(footer);
+
+        Paragraph contactInfo = new Paragraph("Liên hệ: MP-BHMS | Email: support@mpbhms.online", smallFont);
+        contactInfo.setAlignment(Element.ALIGN_CENTER);
+        contactInfo.setSpacingAfter(10f);
+        document.add(contactInfo);
+    }
+
+    private static PdfPCell cell(String text, Font font, int alignment, float padding) {
+        PdfPCell cell = new PdfPCell(new Phrase(text, font));
+        cell.setPadding(padding);
+        cell.setHorizontalAlignment(alignment);
+        return cell;
+    }
+
+    private static String formatDate(Instant instant) {
+        return DATE_FORMATTER.format(instant);
+    }
+
+    // Làm tròn xuống lấy phần nguyên, giống BillServiceImpl.formatCurrency
+    private static String formatCurrency(BigDecimal amount) {
+        if (amount == null) return "0 VNĐ";
+        BigDecimal roundedAmount = amount.setScale(0, RoundingMode.DOWN);
+        return new DecimalFormat("#,###").format(roundedAmount) + " VNĐ";
+    }
+}
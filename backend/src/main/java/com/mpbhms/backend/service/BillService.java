@@ -1,5 +1,6 @@
 package com.mpbhms.backend.service;
 
+import com.mpbhms.backend.dto.BillPdfView;
 import com.mpbhms.backend.dto.BillResponse;
 import com.mpbhms.backend.entity.Bill;
 import com.mpbhms.backend.enums.BillType;
@@ -9,7 +10,10 @@ import com.mpbhms.backend.dto.BillDetailResponse;
 import com.mpbhms.backend.dto.PartialPaymentRequest;
 import com.mpbhms.backend.dto.PartialPaymentResponse;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.math.BigDecimal;
 import com.mpbhms.backend.dto.RevenueMonthDTO;
 
@@ -17,6 +21,9 @@ public interface BillService {
     // Tạo bill bất kỳ theo fromDate/toDate
     Bill generateBill(Long contractId, LocalDate fromDate, LocalDate toDate, BillType billType);
 
+    // Tạo bill theo fromDate/toDate, cho phép hoãn gửi thông báo (engine tạo hóa đơn hàng loạt gửi sau khi commit)
+    Bill generateBill(Long contractId, LocalDate fromDate, LocalDate toDate, BillType billType, boolean sendNotification);
+
     // Tạo bill đầu tiên theo hợp đồng (tự tính chu kỳ từ ContractStartDate)
     Bill generateFirstBill(Long contractId);
 
@@ -27,10 +34,19 @@ public interface BillService {
     @org.springframework.transaction.annotation.Transactional
     BillResponse toResponse(Bill bill);
 
+    // Chuyển danh sách hóa đơn sang BillResponse bằng số truy vấn cố định (dùng cho các API danh sách)
+    List<BillResponse> toResponses(List<Bill> bills);
+
     List<BillDetailResponse> calculateServiceBill(Long roomId, int month, int year);
 
     BillResponse createAndSaveServiceBill(Long roomId, int month, int year);
 
+    // Tạo hóa đơn dịch vụ tháng cho hợp đồng, cho phép hoãn gửi thông báo
+    Bill createServiceBill(Long contractId, int month, int year, boolean sendNotification);
+
+    // Gửi thông báo hóa đơn mới cho tất cả người thuê trong phòng
+    void sendBillNotificationToAllUsers(Long billId);
+
     @org.springframework.transaction.annotation.Transactional
     void deleteBillById(Long id);
 
@@ -40,6 +56,12 @@ public interface BillService {
 
     byte[] generateBillPdf(Long billId);
 
+    BillPdfView getBillPdfView(Long billId);
+
+    String getBillPdfVersionStamp(Long billId);
+
+    void writeBillPdf(Long billId, String versionStamp, java.io.OutputStream out);
+
     Page<Bill> getBillsByUserId(Long userId, Pageable pageable);
 
     long countUnpaid();
@@ -55,6 +77,12 @@ public interface BillService {
     // Tạo hóa đơn dịch vụ tự động cho tất cả phòng
     List<BillResponse> autoGenerateServiceBills();
 
+    // Trả về các hợp đồng (trong danh sách) chưa có hóa đơn cho kỳ hiện tại, kèm kỳ cần tạo [fromDate, toDate]
+    Map<Long, LocalDate[]> findContractsPendingBill(Collection<Long> contractIds);
+
+    // Trả về các hợp đồng (trong danh sách) đã có hóa đơn dịch vụ cho tháng/năm
+    Set<Long> findContractIdsWithServiceBill(Collection<Long> contractIds, int month, int year);
+
     // Cập nhật trạng thái thanh toán hóa đơn
     BillResponse updatePaymentStatus(Long billId, Boolean status);
     
@@ -66,6 +94,9 @@ public interface BillService {
     
     // Kiểm tra và tạo phạt quá hạn tự động
     List<BillResponse> checkAndCreateLatePenalties();
+
+    // Chỉ xử lý các hóa đơn đã tới thời điểm chuyển trạng thái quá hạn (cảnh báo / tạo / cập nhật phạt)
+    List<BillResponse> processDuePenaltyChecks(int limit);
     
     // Tính toán phạt quá hạn
     java.math.BigDecimal calculateLatePenalty(java.math.BigDecimal originalAmount, int overdueDays);
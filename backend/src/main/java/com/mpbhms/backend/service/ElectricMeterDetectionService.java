@@ -9,21 +9,19 @@ import com.mpbhms.backend.enums.ServiceType;
 import com.mpbhms.backend.repository.RoomRepository;
 import com.mpbhms.backend.repository.ServiceReadingRepository;
 import com.mpbhms.backend.repository.ServiceRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -32,8 +30,22 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Dịch vụ quét OCR chỉ số điện
@@ -62,6 +74,42 @@ public class ElectricMeterDetectionService {
     @Value("${app.image.storage.path:C:/Users/yugio/OneDrive/Desktop/New folder (2)/SEP490_G12_MP-BHMS/frontend/public/img/ocr}")
     private String imageStoragePath;
 
+    // Số request đồng thời tối đa tới Custom Vision khi quét song song (giới hạn của OCR Read nằm trong AzureReadClient)
+    @Value("${meter.prediction.max-concurrent-requests:4}")
+    private int predictionMaxConcurrentRequests;
+
+    private Semaphore predictionPermits;
+
+    private static final String CANCELLED_RESULT = "Lỗi: phương pháp đã bị hủy";
+
+    // Buffer ảnh trung gian dùng lại giữa các lần quét
+    @Value("${meter.image.buffer-pool-mb:64}")
+    private long imageBufferPoolMb;
+
+    private ImageBufferPool imageBufferPool = new ImageBufferPool(0);
+
+    // Chế độ hedged: chạy song song 3 phương pháp, kết quả hợp lệ đầu tiên thắng, các phương pháp còn lại bị hủy
+    @Value("${meter.detection.hedged.enabled:false}")
+    private boolean hedgedEnabled;
+
+    // Số lời gọi Azure (Custom Vision / OCR) tối đa chạy cùng lúc cho một ảnh ở chế độ hedged
+    @Value("${meter.detection.hedged.max-remote-calls-per-image:2}")
+    private int hedgedMaxRemoteCallsPerImage;
+
+    @Value("${meter.detection.hedged.threads:6}")
+    private int hedgedThreads;
+
+    private ThreadPoolTaskExecutor strategyExecutor;
+
+    // Thống kê phương pháp thắng (số lần và tổng thời gian) để điều chỉnh thứ tự phương pháp
+    private final Map<Strategy, AtomicLong> strategyWins = new ConcurrentHashMap<>();
+    private final Map<Strategy, AtomicLong> strategyWinMillis = new ConcurrentHashMap<>();
+    private final AtomicLong noValidResultCount = new AtomicLong();
+
+    private enum Strategy {
+        CUSTOM_VISION, DIRECT_OCR, ENHANCED_PREPROCESSING
+    }
+
     @Autowired
     private ServiceRepository serviceRepository;
 
@@ -71,9 +119,74 @@ public class ElectricMeterDetectionService {
     @Autowired
     private ServiceReadingRepository serviceReadingRepository;
 
+    @Autowired
+    private AzureReadClient azureReadClient;
+
+    @Autowired
+    private OcrResultCache ocrResultCache;
+
+    private static final String METER_CACHE_NAMESPACE = "meter";
+
     private final RestTemplate restTemplate = new RestTemplate();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    @PostConstruct
+    void initEndpointLimits() {
+        this.predictionPermits = new Semaphore(Math.max(1, predictionMaxConcurrentRequests), true);
+        this.imageBufferPool = new ImageBufferPool(imageBufferPoolMb * 1024 * 1024);
+        if (hedgedEnabled) {
+            int threads = Math.max(Strategy.values().length, hedgedThreads);
+            this.strategyExecutor = new ThreadPoolTaskExecutor();
+            this.strategyExecutor.setCorePoolSize(threads);
+            this.strategyExecutor.setMaxPoolSize(threads);
+            this.strategyExecutor.setQueueCapacity(100);
+            this.strategyExecutor.setThreadNamePrefix("MeterStrategy-");
+            this.strategyExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+            this.strategyExecutor.initialize();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (strategyExecutor != null) {
+            strategyExecutor.shutdown();
+        }
+    }
+
+    public Map<String, Object> getStrategyStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", strategyExecutor != null ? "hedged" : "sequential");
+        for (Strategy strategy : Strategy.values()) {
+            long wins = strategyWins.getOrDefault(strategy, new AtomicLong()).get();
+            long totalMillis = strategyWinMillis.getOrDefault(strategy, new AtomicLong()).get();
+            Map<String, Object> strategyStats = new LinkedHashMap<>();
+            strategyStats.put("wins", wins);
+            strategyStats.put("avgWinMillis", wins > 0 ? totalMillis / wins : 0);
+            stats.put(strategy.name(), strategyStats);
+        }
+        stats.put("noValidResult", noValidResultCount.get());
+        return stats;
+    }
+
+    private void recordWin(Strategy strategy, long startedAt) {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        strategyWins.computeIfAbsent(strategy, key -> new AtomicLong()).incrementAndGet();
+        strategyWinMillis.computeIfAbsent(strategy, key -> new AtomicLong()).addAndGet(elapsed);
+    }
+
+    /**
+     * Gọi endpoint trong giới hạn số request đồng thời của endpoint đó.
+     * Chỉ giữ permit trong lúc gọi HTTP, không giữ trong lúc chờ giữa các lần poll.
+     */
+    private <T> T callEndpoint(Semaphore permits, Supplier<T> call) throws InterruptedException {
+        permits.acquire();
+        try {
+            return call.get();
+        } finally {
+            permits.release();
+        }
+    }
+
     /**
      * Phương thức chính: Quét OCR và lưu ảnh
      * Kết hợp việc quét chỉ số và lưu ảnh vào hệ thống
@@ -109,12 +222,21 @@ public class ElectricMeterDetectionService {
      */
     public String detectAndReadFromFile(MultipartFile file, Long roomId) throws IOException, InterruptedException {
         String result = detectAndReadFromFile(file);
-        if (isValidReading(result)) {
-            saveElectricReading(result, roomId);
-        }
+        saveReadingIfValid(result, roomId);
         return result;
     }
 
+    /**
+     * Lưu chỉ số nếu kết quả OCR hợp lệ (tách riêng để pipeline quét tự động lưu ở bước cuối)
+     */
+    public boolean saveReadingIfValid(String result, Long roomId) {
+        if (!isValidReading(result)) {
+            return false;
+        }
+        saveElectricReading(result, roomId);
+        return true;
+    }
+
     /**
      * Lưu ảnh đã chụp vào hệ thống file với cấu trúc thư mục phù hợp
      */
@@ -178,26 +300,50 @@ public class ElectricMeterDetectionService {
             return "File không hợp lệ: chỉ chấp nhận ảnh (jpg, png, bmp, gif)";
         }
 
+        // Đọc và giải mã ảnh một lần cho cả 3 phương pháp
+        MeterImage image = MeterImage.of(file, imageBufferPool);
+
+        // Ảnh đã quét thành công trước đó (upload lại, thử lại): trả kết quả cũ, không gọi Azure
+        String contentHash = OcrResultCache.sha256(image.getBytes());
+        String cached = ocrResultCache.get(METER_CACHE_NAMESPACE, contentHash, String.class);
+        if (cached != null) {
+            System.out.println("Kết quả OCR từ cache: " + cached);
+            return cached;
+        }
+
+        String result = strategyExecutor != null ? detectHedged(image) : detectSequential(image);
+        if (isValidReading(result)) {
+            ocrResultCache.put(METER_CACHE_NAMESPACE, contentHash, result);
+        }
+        return result;
+    }
+
+    private String detectSequential(MeterImage image) throws IOException, InterruptedException {
+        long startedAt = System.currentTimeMillis();
+
         // Thử nhiều phương pháp khác nhau để tăng độ chính xác
         List<String> results = new ArrayList<>();
         
         // Phương pháp 1: Sử dụng Custom Vision để nhận diện vùng đồng hồ
-        String result1 = detectWithCustomVision(file);
+        String result1 = detectWithCustomVision(image);
         if (isValidReading(result1)) {
+            recordWin(Strategy.CUSTOM_VISION, startedAt);
             return result1;
         }
         results.add(result1);
         
         // Phương pháp 2: OCR trực tiếp trên toàn bộ ảnh
-        String result2 = detectWithDirectOcr(file);
+        String result2 = detectWithDirectOcr(image);
         if (isValidReading(result2)) {
+            recordWin(Strategy.DIRECT_OCR, startedAt);
             return result2;
         }
         results.add(result2);
         
         // Phương pháp 3: Xử lý ảnh nâng cao + OCR
-        String result3 = detectWithEnhancedPreprocessing(file);
+        String result3 = detectWithEnhancedPreprocessing(image);
         if (isValidReading(result3)) {
+            recordWin(Strategy.ENHANCED_PREPROCESSING, startedAt);
             return result3;
         }
         results.add(result3);
@@ -208,19 +354,132 @@ public class ElectricMeterDetectionService {
             return bestResult;
         }
         
+        noValidResultCount.incrementAndGet();
+        return "Không quét được chỉ số điện";
+    }
+
+    /**
+     * Chạy song song 3 phương pháp, trả về ngay khi có kết quả hợp lệ và hủy các phương pháp còn lại.
+     * Số lời gọi Azure đồng thời của ảnh bị giới hạn bởi meter.detection.hedged.max-remote-calls-per-image,
+     * phương pháp nào xin lượt trước (theo thứ tự gửi) được gọi trước.
+     */
+    private String detectHedged(MeterImage image) throws InterruptedException {
+        long startedAt = System.currentTimeMillis();
+        RemoteCallBudget budget = new RemoteCallBudget(hedgedMaxRemoteCallsPerImage);
+        ExecutorCompletionService<StrategyResult> completionService = new ExecutorCompletionService<>(strategyExecutor);
+        List<Future<StrategyResult>> futures = new ArrayList<>();
+        Map<Strategy, String> results = new EnumMap<>(Strategy.class);
+        try {
+            for (Strategy strategy : Strategy.values()) {
+                futures.add(completionService.submit(() -> new StrategyResult(strategy, runStrategy(strategy, image, budget))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                StrategyResult outcome;
+                try {
+                    outcome = completionService.take().get();
+                } catch (ExecutionException e) {
+                    System.err.println("Lỗi phương pháp nhận diện: " + e.getCause().getMessage());
+                    continue;
+                }
+                results.put(outcome.strategy(), outcome.result());
+                if (isValidReading(outcome.result())) {
+                    recordWin(outcome.strategy(), startedAt);
+                    System.out.println("Phương pháp " + outcome.strategy() + " thắng sau " + (System.currentTimeMillis() - startedAt) + " ms");
+                    return outcome.result();
+                }
+            }
+        } finally {
+            // Hủy các phương pháp còn chạy: không xin thêm lượt gọi Azure, dừng poll OCR đang chờ
+            budget.cancel();
+            futures.forEach(future -> future.cancel(true));
+        }
+
+        // Giống detectSequential: xét kết quả của các phương pháp theo thứ tự ưu tiên trước khi báo thất bại
+        String bestResult = getBestResult(new ArrayList<>(results.values()));
+        if (bestResult != null) {
+            return bestResult;
+        }
+
+        noValidResultCount.incrementAndGet();
         return "Không quét được chỉ số điện";
     }
 
+    private String runStrategy(Strategy strategy, MeterImage image, RemoteCallBudget budget) throws IOException, InterruptedException {
+        return switch (strategy) {
+            case CUSTOM_VISION -> detectWithCustomVision(image, budget);
+            case DIRECT_OCR -> detectWithDirectOcr(image, budget);
+            case ENHANCED_PREPROCESSING -> detectWithEnhancedPreprocessing(image, budget);
+        };
+    }
+
+    private record StrategyResult(Strategy strategy, String result) {
+    }
+
+    /**
+     * Giới hạn số lời gọi Azure đồng thời của một ảnh. Sau cancel() các lời gọi mới bị từ chối ngay.
+     */
+    static final class RemoteCallBudget {
+        static final RemoteCallBudget UNLIMITED = new RemoteCallBudget(0);
+
+        private final Semaphore permits;
+        private volatile boolean cancelled = false;
+
+        RemoteCallBudget(int maxConcurrentCalls) {
+            this.permits = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+        }
+
+        boolean acquire() throws InterruptedException {
+            if (cancelled) return false;
+            if (permits != null) {
+                permits.acquire();
+                if (cancelled) {
+                    permits.release();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void release() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
     /**
      * Phương pháp 1: Sử dụng Azure Custom Vision để nhận diện vùng đồng hồ
      */
     public String detectWithCustomVision(MultipartFile file) throws IOException, InterruptedException {
+        return detectWithCustomVision(MeterImage.of(file, imageBufferPool));
+    }
+
+    public String detectWithCustomVision(MeterImage image) throws IOException, InterruptedException {
+        return detectWithCustomVision(image, RemoteCallBudget.UNLIMITED);
+    }
+
+    private String detectWithCustomVision(MeterImage image, RemoteCallBudget budget) throws IOException, InterruptedException {
         try {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
         headers.set("Prediction-Key", predictionKey);
-        HttpEntity<byte[]> entity = new HttpEntity<>(file.getBytes(), headers);
-        ResponseEntity<String> response = restTemplate.exchange(imagePredictionUrl, HttpMethod.POST, entity, String.class);
+        HttpEntity<byte[]> entity = new HttpEntity<>(image.getBytes(), headers);
+        if (!budget.acquire()) return CANCELLED_RESULT;
+        ResponseEntity<String> response;
+        try {
+            response = callEndpoint(predictionPermits,
+                () -> restTemplate.exchange(imagePredictionUrl, HttpMethod.POST, entity, String.class));
+        } finally {
+            budget.release();
+        }
 
         JsonNode json = objectMapper.readTree(response.getBody());
 
@@ -239,14 +498,16 @@ public class ElectricMeterDetectionService {
 
             // Thử từng bounding box
             for (JsonNode bestBox : validBoxes) {
-                String result = processBoundingBox(file, bestBox);
+                String result = processBoundingBox(image, bestBox, budget);
                 if (isValidReading(result)) {
                     return result;
                 }
             }
 
             // Nếu không có kết quả hợp lệ, trả về lần thử đầu tiên
-            return processBoundingBox(file, validBoxes.get(0));
+            return processBoundingBox(image, validBoxes.get(0), budget);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             System.err.println("Lỗi trong detectWithCustomVision: " + e.getMessage());
             return "Lỗi Custom Vision: " + e.getMessage();
@@ -257,16 +518,19 @@ public class ElectricMeterDetectionService {
      * Phương pháp 2: OCR trực tiếp trên toàn bộ ảnh
      */
     public String detectWithDirectOcr(MultipartFile file) throws IOException, InterruptedException {
+        return detectWithDirectOcr(MeterImage.of(file, imageBufferPool));
+    }
+
+    public String detectWithDirectOcr(MeterImage image) throws IOException, InterruptedException {
+        return detectWithDirectOcr(image, RemoteCallBudget.UNLIMITED);
+    }
+
+    private String detectWithDirectOcr(MeterImage image, RemoteCallBudget budget) throws IOException, InterruptedException {
         try {
             // Xử lý ảnh trước khi OCR để tăng độ chính xác
-            BufferedImage original = ImageIO.read(file.getInputStream());
-            BufferedImage enhanced = enhanceImage(original);
-            
-            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-            ImageIO.write(enhanced, "jpg", outStream);
-            byte[] enhancedBytes = outStream.toByteArray();
-
-            return performOcr(enhancedBytes);
+            return performOcr(image.encode(MeterImage.Variant.ENHANCED), budget);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             System.err.println("Lỗi trong detectWithDirectOcr: " + e.getMessage());
             return "Lỗi OCR trực tiếp: " + e.getMessage();
@@ -277,38 +541,28 @@ public class ElectricMeterDetectionService {
      * Phương pháp 3: Xử lý ảnh nâng cao + OCR
      */
     public String detectWithEnhancedPreprocessing(MultipartFile file) throws IOException, InterruptedException {
+        return detectWithEnhancedPreprocessing(MeterImage.of(file, imageBufferPool));
+    }
+
+    public String detectWithEnhancedPreprocessing(MeterImage image) throws IOException, InterruptedException {
+        return detectWithEnhancedPreprocessing(image, RemoteCallBudget.UNLIMITED);
+    }
+
+    private String detectWithEnhancedPreprocessing(MeterImage image, RemoteCallBudget budget) throws IOException, InterruptedException {
         try {
-            BufferedImage original = ImageIO.read(file.getInputStream());
-            
-            // Thử các kỹ thuật xử lý ảnh khác nhau
-            List<BufferedImage> processedImages = new ArrayList<>();
-            
-            // Ảnh gốc
-            processedImages.add(original);
-            
-            // Tăng độ tương phản
-            processedImages.add(enhanceImage(original));
-            
-            // Chuyển sang grayscale với độ tương phản cao
-            processedImages.add(convertToGrayscale(original));
-            
-            // Các phiên bản thay đổi kích thước
-            processedImages.add(resizeImage(original, 2.0));
-            processedImages.add(resizeImage(original, 0.5));
-
-            // Thử OCR trên từng ảnh đã xử lý
-            for (BufferedImage img : processedImages) {
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-                ImageIO.write(img, "jpg", outStream);
-                byte[] imgBytes = outStream.toByteArray();
-                
-                String result = performOcr(imgBytes);
+            // Thử các kỹ thuật xử lý ảnh khác nhau: ảnh gốc, tăng độ tương phản, grayscale, phóng to 2 lần, thu nhỏ 1/2.
+            // Mỗi biến thể chỉ được xử lý khi cần tới (dừng ngay khi có kết quả hợp lệ)
+            for (MeterImage.Variant variant : MeterImage.Variant.values()) {
+                if (budget.isCancelled()) return CANCELLED_RESULT;
+                String result = performOcr(image.encode(variant), budget);
                 if (isValidReading(result)) {
                     return result;
                 }
             }
             
             return "Không quét được sau xử lý ảnh";
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             System.err.println("Lỗi trong detectWithEnhancedPreprocessing: " + e.getMessage());
             return "Lỗi xử lý ảnh: " + e.getMessage();
@@ -318,70 +572,62 @@ public class ElectricMeterDetectionService {
     /**
      * Xử lý bounding box được phát hiện từ Custom Vision
      */
-    private String processBoundingBox(MultipartFile file, JsonNode boundingBox) throws IOException, InterruptedException {
-        BufferedImage original = ImageIO.read(file.getInputStream());
-        int width = original.getWidth();
-        int height = original.getHeight();
-
-        int x = (int) (boundingBox.get("left").asDouble() * width);
-        int y = (int) (boundingBox.get("top").asDouble() * height);
-        int w = (int) (boundingBox.get("width").asDouble() * width);
-        int h = (int) (boundingBox.get("height").asDouble() * height);
-
-        // Thêm padding xung quanh bounding box
-        int padding = Math.min(w, h) / 4;
-        x = Math.max(0, x - padding);
-        y = Math.max(0, y - padding);
-        w = Math.min(width - x, w + 2 * padding);
-        h = Math.min(height - y, h + 2 * padding);
-
-        BufferedImage cropped = original.getSubimage(x, y, w, h);
-
-        // Tăng cường ảnh đã cắt
-        BufferedImage enhanced = enhanceImage(cropped);
+    private String processBoundingBox(MeterImage image, JsonNode boundingBox, RemoteCallBudget budget) throws IOException, InterruptedException {
+        byte[] croppedBytes = image.encodeRegion(
+            boundingBox.get("left").asDouble(),
+            boundingBox.get("top").asDouble(),
+            boundingBox.get("width").asDouble(),
+            boundingBox.get("height").asDouble());
+        return performOcr(croppedBytes, budget);
+    }
 
-        // Thay đổi kích thước nếu quá nhỏ
-        if (w < 100 || h < 50) {
-            enhanced = resizeImage(enhanced, 3.0);
+    /**
+     * Thực hiện OCR trên dữ liệu ảnh.
+     * Bản đồng bộ này giữ luồng gọi (luồng quét hoặc MeterStrategy-) cho tới khi Azure trả kết quả hoặc hết
+     * meter.ocr.timeout-ms; AzureReadClient bên dưới không giữ luồng nào. Các phương pháp nhận diện dựa vào
+     * interrupt để hủy nên vẫn chạy đồng bộ trên pool riêng có giới hạn (meter.detection.hedged.threads);
+     * nơi cần gửi nhiều ảnh cùng lúc dùng {@link #performOcrAsync(byte[])}
+     */
+    private String performOcr(byte[] imageBytes, RemoteCallBudget budget) throws InterruptedException {
+        if (!budget.acquire()) return CANCELLED_RESULT;
+        CompletableFuture<JsonNode> operation = azureReadClient.read(imageBytes);
+        try {
+            return toReading(operation).get();
+        } catch (InterruptedException e) {
+            // Phương pháp bị hủy: dừng poll kết quả trên Azure
+            operation.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            return "Lỗi OCR: " + e.getCause().getMessage();
+        } finally {
+            budget.release();
         }
-
-        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-        ImageIO.write(enhanced, "jpg", outStream);
-        byte[] croppedBytes = outStream.toByteArray();
-
-        return performOcr(croppedBytes);
     }
 
     /**
-     * Thực hiện OCR trên dữ liệu ảnh
+     * OCR bất đồng bộ: không giữ luồng trong lúc chờ Azure xử lý, dùng khi cần gửi nhiều ảnh cùng lúc
      */
-    private String performOcr(byte[] imageBytes) throws InterruptedException {
-        try {
-        HttpHeaders ocrHeaders = new HttpHeaders();
-        ocrHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-        ocrHeaders.set("Ocp-Apim-Subscription-Key", ocrKey);
-
-            HttpEntity<byte[]> ocrEntity = new HttpEntity<>(imageBytes, ocrHeaders);
-        ResponseEntity<Void> ocrInit = restTemplate.postForEntity(ocrEndpoint + "/vision/v3.2/read/analyze", ocrEntity, Void.class);
-        String operationUrl = ocrInit.getHeaders().getFirst("Operation-Location");
-        if (operationUrl == null) return "Lỗi: Không nhận được Operation-Location";
-
-            for (int i = 0; i < 15; i++) { // Tăng thời gian chờ
-            Thread.sleep(1000);
-            HttpEntity<Void> getEntity = new HttpEntity<>(ocrHeaders);
-            ResponseEntity<String> ocrResult = restTemplate.exchange(URI.create(operationUrl), HttpMethod.GET, getEntity, String.class);
-            JsonNode resultJson = objectMapper.readTree(ocrResult.getBody());
-
-            if ("succeeded".equals(resultJson.path("status").asText())) {
-                    return extractReadingFromOcrResult(resultJson);
-                }
-            }
+    public CompletableFuture<String> performOcrAsync(byte[] imageBytes) {
+        return toReading(azureReadClient.read(imageBytes));
+    }
 
-            return "OCR timeout sau 15 giây";
-        } catch (Exception e) {
-            System.err.println("Lỗi trong performOcr: " + e.getMessage());
-            return "Lỗi OCR: " + e.getMessage();
-        }
+    private CompletableFuture<String> toReading(CompletableFuture<JsonNode> operation) {
+        return operation
+            .thenApply(this::extractReadingFromOcrResult)
+            .exceptionally(error -> {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof CancellationException) {
+                    return CANCELLED_RESULT;
+                }
+                System.err.println("Lỗi trong performOcr: " + cause.getMessage());
+                if (cause instanceof AzureReadClient.OcrTimeoutException) {
+                    return cause.getMessage();
+                }
+                if (cause instanceof AzureReadClient.OcrException) {
+                    return "Lỗi: " + cause.getMessage();
+                }
+                return "Lỗi OCR: " + cause.getMessage();
+            });
     }
 
     /**
@@ -582,51 +828,6 @@ public class ElectricMeterDetectionService {
         return null;
     }
 
-    /**
-     * Tăng cường chất lượng ảnh
-     */
-    private BufferedImage enhanceImage(BufferedImage original) {
-        BufferedImage enhanced = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = enhanced.createGraphics();
-        
-        // Áp dụng tăng cường
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        g2d.drawImage(original, 0, 0, null);
-        g2d.dispose();
-        
-        return enhanced;
-    }
-
-    /**
-     * Chuyển ảnh sang grayscale
-     */
-    private BufferedImage convertToGrayscale(BufferedImage original) {
-        BufferedImage grayscale = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Graphics2D g2d = grayscale.createGraphics();
-        g2d.drawImage(original, 0, 0, null);
-        g2d.dispose();
-        return grayscale;
-    }
-
-    /**
-     * Thay đổi kích thước ảnh
-     */
-    private BufferedImage resizeImage(BufferedImage original, double scale) {
-        int newWidth = (int) (original.getWidth() * scale);
-        int newHeight = (int) (original.getHeight() * scale);
-        
-        BufferedImage resized = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = resized.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
-        g2d.dispose();
-        
-        return resized;
-    }
-
     /**
      * Lưu chỉ số điện vào database
      */
@@ -0,0 +1,278 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.entity.EmailOutbox;
+import com.mpbhms.backend.exception.NotFoundException;
+import com.mpbhms.backend.repository.EmailOutboxRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gửi nền các email trong outbox.
+ * Mỗi lượt lấy một lô email đến hạn, giành quyền (PENDING -> SENDING) rồi gửi song song trên pool riêng.
+ * Tốc độ gửi bị giới hạn bởi email.outbox.rate-per-second; lỗi thì thử lại với backoff lũy thừa.
+ */
+@Service
+public class EmailOutboxDispatcher {
+
+    // Email ở SENDING quá lâu (node bị tắt giữa chừng) được trả về hàng đợi
+    private static final Duration STUCK_SENDING_TIMEOUT = Duration.ofMinutes(10);
+
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final EmailService emailService;
+    private final BillService billService;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor senderExecutor;
+    private final RateLimiter rateLimiter;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffInitialSeconds;
+    private final long backoffMaxSeconds;
+    private final int retentionDays;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong supersededCount = new AtomicLong();
+
+    public EmailOutboxDispatcher(EmailOutboxRepository emailOutboxRepository,
+                                 EmailService emailService,
+                                 BillService billService,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${email.outbox.dispatcher-threads:2}") int dispatcherThreads,
+                                 @Value("${email.outbox.batch-size:50}") int batchSize,
+                                 @Value("${email.outbox.rate-per-second:5}") double ratePerSecond,
+                                 @Value("${email.outbox.max-attempts:6}") int maxAttempts,
+                                 @Value("${email.outbox.backoff-initial-seconds:30}") long backoffInitialSeconds,
+                                 @Value("${email.outbox.backoff-max-seconds:3600}") long backoffMaxSeconds,
+                                 @Value("${email.outbox.retention-days:7}") int retentionDays) {
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.emailService = emailService;
+        this.billService = billService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffInitialSeconds = Math.max(1, backoffInitialSeconds);
+        this.backoffMaxSeconds = Math.max(this.backoffInitialSeconds, backoffMaxSeconds);
+        this.retentionDays = Math.max(1, retentionDays);
+        this.rateLimiter = new RateLimiter(ratePerSecond);
+
+        int threads = Math.max(1, dispatcherThreads);
+        this.senderExecutor = new ThreadPoolTaskExecutor();
+        this.senderExecutor.setCorePoolSize(threads);
+        this.senderExecutor.setMaxPoolSize(threads);
+        this.senderExecutor.setQueueCapacity(Math.max(1, this.batchSize));
+        this.senderExecutor.setThreadNamePrefix("EmailOutbox-");
+        this.senderExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        this.senderExecutor.initialize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senderExecutor.shutdown();
+    }
+
+    /**
+     * Gửi các lô email đến hạn cho tới khi hết hoặc lô không đầy
+     */
+    @Scheduled(fixedDelayString = "${email.outbox.poll-interval-ms:2000}")
+    public void dispatchPending() {
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                emailOutboxRepository.releaseStuck(Instant.now().minus(STUCK_SENDING_TIMEOUT)));
+
+            List<EmailOutbox> batch;
+            do {
+                batch = claimBatch();
+                if (!batch.isEmpty()) {
+                    sendBatch(batch);
+                }
+            } while (batch.size() >= batchSize);
+        } catch (Exception e) {
+            System.err.println("[" + java.time.LocalDateTime.now() + "] Lỗi khi gửi email từ outbox: " + e.getMessage());
+        }
+    }
+
+    // Dọn email đã gửi và email bị gộp quá hạn lưu trữ lúc 3h30 sáng
+    @Scheduled(cron = "0 30 3 * * *")
+    public void purgeSentEmails() {
+        Instant before = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+        Integer sent = transactionTemplate.execute(status -> emailOutboxRepository.deleteSentBefore(before));
+        Integer superseded = transactionTemplate.execute(status -> emailOutboxRepository.deleteSupersededBefore(before));
+        System.out.println("[" + java.time.LocalDateTime.now() + "] Đã dọn " + sent + " email đã gửi và " + superseded + " email bị gộp khỏi outbox");
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", emailOutboxRepository.countByStatus(EmailOutbox.STATUS_PENDING));
+        stats.put("sending", emailOutboxRepository.countByStatus(EmailOutbox.STATUS_SENDING));
+        stats.put("failed", emailOutboxRepository.countByStatus(EmailOutbox.STATUS_FAILED));
+        stats.put("superseded", emailOutboxRepository.countByStatus(EmailOutbox.STATUS_SUPERSEDED));
+        stats.put("sentSinceStart", sentCount.get());
+        stats.put("supersededSinceStart", supersededCount.get());
+        stats.put("retriedSinceStart", retriedCount.get());
+        stats.put("failedSinceStart", failedCount.get());
+        return stats;
+    }
+
+    private List<EmailOutbox> claimBatch() {
+        return transactionTemplate.execute(status -> {
+            Instant now = Instant.now();
+            List<Long> dueIds = emailOutboxRepository.findDueIds(now, PageRequest.of(0, batchSize));
+            if (dueIds.isEmpty()) {
+                return List.<EmailOutbox>of();
+            }
+            String claimToken = UUID.randomUUID().toString();
+            emailOutboxRepository.claim(dueIds, claimToken, now);
+            return emailOutboxRepository.findClaimed(claimToken);
+        });
+    }
+
+    private void sendBatch(List<EmailOutbox> batch) {
+        // Gộp theo người nhận + coalesceKey trong lô: chỉ gửi bản mới nhất (id lớn nhất)
+        Map<String, EmailOutbox> latestByRecipient = new LinkedHashMap<>();
+        List<EmailOutbox> superseded = new ArrayList<>();
+        for (EmailOutbox message : batch) {
+            if (message.getCoalesceKey() == null) {
+                latestByRecipient.put("#" + message.getId(), message);
+                continue;
+            }
+            String key = message.getRecipientEmail() + "|" + message.getCoalesceKey();
+            EmailOutbox previous = latestByRecipient.put(key, message);
+            if (previous != null) {
+                superseded.add(previous);
+            }
+        }
+        // Bản bị gộp không được gửi: đánh dấu SUPERSEDED, không đặt sentAt
+        for (EmailOutbox message : superseded) {
+            message.setStatus(EmailOutbox.STATUS_SUPERSEDED);
+            message.setLastError("Đã gộp vào email mới hơn");
+            message.setClaimToken(null);
+            message.setClaimedAt(null);
+        }
+        supersededCount.addAndGet(superseded.size());
+        if (!superseded.isEmpty()) {
+            emailOutboxRepository.saveAll(superseded);
+        }
+
+        // PDF đính kèm render một lần cho mỗi hóa đơn trong lô
+        Map<Long, byte[]> attachments = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (EmailOutbox message : latestByRecipient.values()) {
+            futures.add(CompletableFuture.runAsync(() -> sendOne(message, attachments), senderExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private void sendOne(EmailOutbox message, Map<Long, byte[]> attachments) {
+        boolean delivered = false;
+        try {
+            rateLimiter.acquire();
+            if (message.getAttachmentBillId() != null) {
+                byte[] pdfBytes = attachments.computeIfAbsent(message.getAttachmentBillId(), billService::generateBillPdf);
+                emailService.sendBillWithAttachment(message.getRecipientEmail(), message.getSubject(), message.getContent(), pdfBytes);
+            } else {
+                emailService.sendNotificationEmail(message.getRecipientEmail(), message.getSubject(), message.getContent());
+            }
+            message.setStatus(EmailOutbox.STATUS_SENT);
+            message.setSentAt(Instant.now());
+            message.setLastError(null);
+            sentCount.incrementAndGet();
+            delivered = true;
+        } catch (NotFoundException e) {
+            // Hóa đơn đính kèm đã bị xóa, thử lại cũng không có tác dụng
+            markFailed(message, e);
+        } catch (Exception e) {
+            int attempts = message.getAttempts() + 1;
+            message.setAttempts(attempts);
+            if (attempts >= maxAttempts) {
+                markFailed(message, e);
+            } else {
+                long delaySeconds = Math.min(backoffMaxSeconds, backoffInitialSeconds << Math.min(attempts - 1, 20));
+                message.setStatus(EmailOutbox.STATUS_PENDING);
+                message.setNextAttemptAt(Instant.now().plusSeconds(delaySeconds));
+                message.setLastError(truncate(e.getMessage()));
+                retriedCount.incrementAndGet();
+                System.err.println("Gửi email #" + message.getId() + " tới " + message.getRecipientEmail() + " thất bại (lần " + attempts + "), thử lại sau " + delaySeconds + "s: " + e.getMessage());
+            }
+        }
+        message.setClaimToken(null);
+        message.setClaimedAt(null);
+        emailOutboxRepository.save(message);
+
+        // Ghi log sau khi đã lưu SENT: lỗi ghi log không được làm email bị gửi lại
+        if (delivered) {
+            logBillEmail(message);
+        }
+    }
+
+    // Chỉ ghi log email hóa đơn khi đã gửi thành công (không ghi lúc xếp hàng)
+    private void logBillEmail(EmailOutbox message) {
+        if (message.getLogEmailType() == null || message.getAttachmentBillId() == null) {
+            return;
+        }
+        try {
+            billService.logEmailSent(message.getAttachmentBillId(), message.getRecipientEmail(), message.getLogEmailType(),
+                message.getLogIpAddress(), message.getLogUserAgent(), message.getLogSentByUserId());
+        } catch (Exception e) {
+            System.err.println("Không ghi được log email #" + message.getId() + " (email đã gửi): " + e.getMessage());
+        }
+    }
+
+    private void markFailed(EmailOutbox message, Exception e) {
+        message.setStatus(EmailOutbox.STATUS_FAILED);
+        message.setLastError(truncate(e.getMessage()));
+        failedCount.incrementAndGet();
+        System.err.println("❌ Bỏ email #" + message.getId() + " tới " + message.getRecipientEmail() + " sau " + message.getAttempts() + " lần thử: " + e.getMessage());
+    }
+
+    private static String truncate(String error) {
+        if (error == null) return null;
+        return error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+
+    /**
+     * Giới hạn tốc độ đơn giản: mỗi lần gửi chiếm một khe thời gian 1/ratePerSecond giây
+     */
+    static class RateLimiter {
+        private final long intervalNanos;
+        private long nextFreeSlot = System.nanoTime();
+
+        RateLimiter(double ratePerSecond) {
+            this.intervalNanos = ratePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0L;
+        }
+
+        void acquire() throws InterruptedException {
+            if (intervalNanos == 0) return;
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, nextFreeSlot);
+                nextFreeSlot = slot + intervalNanos;
+                waitNanos = slot - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.entity.EmailOutbox;
+import com.mpbhms.backend.repository.EmailOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+/**
+ * Ghi email vào outbox trong transaction hiện tại của nghiệp vụ (không gọi SMTP).
+ * Transaction rollback thì email cũng không được gửi; EmailOutboxDispatcher gửi nền sau khi commit.
+ */
+@Service
+@RequiredArgsConstructor
+public class EmailOutboxService {
+
+    private final EmailOutboxRepository emailOutboxRepository;
+
+    /**
+     * Thông tin ghi EmailSentLog cho hóa đơn đính kèm; dispatcher ghi log khi email thực sự được gửi
+     */
+    public record SentLog(String emailType, String ipAddress, String userAgent, Long sentByUserId) {
+    }
+
+    @Transactional
+    public void enqueue(String recipientEmail, String subject, String content, String coalesceKey) {
+        enqueueBillEmail(recipientEmail, subject, content, null, coalesceKey, null);
+    }
+
+    @Transactional
+    public void enqueueBillEmail(String recipientEmail, String subject, String content, Long attachmentBillId, String coalesceKey) {
+        enqueueBillEmail(recipientEmail, subject, content, attachmentBillId, coalesceKey, null);
+    }
+
+    /**
+     * Xếp hàng email có đính kèm PDF hóa đơn. PDF được render lúc gửi (dùng chung cache cho mọi người nhận).
+     * Nếu đã có email cùng người nhận + coalesceKey đang chờ gửi thì ghi đè nội dung thay vì tạo email mới.
+     * Ghi đè bằng UPDATE có điều kiện status = PENDING nên không tranh chấp với dispatcher đang giành quyền gửi.
+     */
+    @Transactional
+    public void enqueueBillEmail(String recipientEmail, String subject, String content, Long attachmentBillId,
+                                 String coalesceKey, SentLog sentLog) {
+        if (coalesceKey != null) {
+            int merged = emailOutboxRepository.coalescePending(recipientEmail, coalesceKey, subject, content, attachmentBillId,
+                sentLog != null ? sentLog.emailType() : null,
+                sentLog != null ? sentLog.ipAddress() : null,
+                sentLog != null ? sentLog.userAgent() : null,
+                sentLog != null ? sentLog.sentByUserId() : null);
+            if (merged > 0) {
+                System.out.println("📨 Gộp email chờ gửi (" + coalesceKey + ") cho " + recipientEmail);
+                return;
+            }
+        }
+        EmailOutbox message = new EmailOutbox();
+        message.setRecipientEmail(recipientEmail);
+        message.setCoalesceKey(coalesceKey);
+        message.setNextAttemptAt(Instant.now());
+        message.setSubject(subject);
+        message.setContent(content);
+        message.setAttachmentBillId(attachmentBillId);
+        if (sentLog != null) {
+            message.setLogEmailType(sentLog.emailType());
+            message.setLogIpAddress(sentLog.ipAddress());
+            message.setLogUserAgent(sentLog.userAgent());
+            message.setLogSentByUserId(sentLog.sentByUserId());
+        }
+        emailOutboxRepository.save(message);
+    }
+}
@@ -0,0 +1,115 @@
+package com.mpbhms.backend.service;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool các BufferedImage tạm (ảnh tăng cường, grayscale, đổi kích thước) để các lần quét sau dùng lại raster
+ * thay vì cấp phát ảnh mới. Tổng dung lượng giữ trong pool bị giới hạn bởi maxBytes; ảnh vượt giới hạn bị bỏ cho GC.
+ * Mỗi chiều được làm tròn lên theo size class (bước 1/8 lũy thừa 2 gần nhất, lãng phí tối đa ~12.5% mỗi chiều)
+ * nên ảnh chụp từ các điện thoại khác nhau vẫn dùng lại được buffer; người gọi nhận sub-view đúng kích thước yêu cầu.
+ */
+public class ImageBufferPool {
+
+    private final long maxBytes;
+    private final Map<String, Deque<BufferedImage>> buffers = new HashMap<>();
+    // Sub-view đang cho mượn -> ảnh nền theo size class, để release() trả đúng ảnh nền về pool.
+    // BufferedImage so sánh theo identity; khóa yếu để view không bao giờ được release không giữ ảnh nền mãi
+    private final Map<BufferedImage, BufferedImage> leased = new WeakHashMap<>();
+    private long pooledBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ImageBufferPool(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Lấy ảnh cùng size class và kiểu từ pool, nếu không có thì tạo mới, rồi trả về sub-view width x height.
+     * Nội dung ảnh lấy từ pool là dữ liệu cũ, người gọi phải vẽ đè toàn bộ.
+     */
+    public BufferedImage acquire(int width, int height, int imageType) {
+        int classWidth = sizeClass(width);
+        int classHeight = sizeClass(height);
+        String key = key(classWidth, classHeight, imageType);
+        BufferedImage backing = null;
+        synchronized (this) {
+            Deque<BufferedImage> deque = buffers.get(key);
+            if (deque != null) {
+                backing = deque.pollFirst();
+            }
+            if (backing != null) {
+                pooledBytes -= sizeOf(backing);
+            }
+        }
+        if (backing != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            backing = new BufferedImage(classWidth, classHeight, imageType);
+        }
+        if (width == classWidth && height == classHeight) {
+            return backing;
+        }
+        BufferedImage view = backing.getSubimage(0, 0, width, height);
+        synchronized (this) {
+            leased.put(view, backing);
+        }
+        return view;
+    }
+
+    public void release(BufferedImage image) {
+        if (image == null) return;
+        synchronized (this) {
+            BufferedImage backing = leased.remove(image);
+            if (backing == null) {
+                // Ảnh nền trả thẳng (kích thước trùng size class) hoặc ảnh ngoài pool: chỉ nhận nếu đúng size class
+                if (image.getRaster().getParent() != null
+                        || image.getWidth() != sizeClass(image.getWidth())
+                        || image.getHeight() != sizeClass(image.getHeight())) {
+                    return;
+                }
+                backing = image;
+            }
+            long size = sizeOf(backing);
+            if (pooledBytes + size > maxBytes) return;
+            buffers.computeIfAbsent(key(backing.getWidth(), backing.getHeight(), backing.getType()), k -> new ArrayDeque<>())
+                .addFirst(backing);
+            pooledBytes += size;
+        }
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Làm tròn lên bội số của 1/8 lũy thừa 2 lớn nhất không vượt quá n (tối thiểu 16px)
+    private static int sizeClass(int n) {
+        if (n <= 16) return 16;
+        int step = Math.max(16, Integer.highestOneBit(n) / 8);
+        return ((n + step - 1) / step) * step;
+    }
+
+    private static String key(int width, int height, int imageType) {
+        return width + "x" + height + ":" + imageType;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        int bytesPerPixel = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? 1 : 4;
+        return (long) image.getWidth() * image.getHeight() * bytesPerPixel;
+    }
+}
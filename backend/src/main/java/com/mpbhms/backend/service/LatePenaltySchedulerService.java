@@ -3,13 +3,11 @@ package com.mpbhms.backend.service;
 import com.mpbhms.backend.dto.BillResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
-import java.math.BigDecimal;
-import com.mpbhms.backend.entity.Bill;
 
 @Service
 @RequiredArgsConstructor
@@ -18,154 +16,31 @@ public class LatePenaltySchedulerService {
 
     private final BillService billService;
 
-    /**
-     * Chạy tự động mỗi phút để kiểm tra và tạo phạt quá hạn
-     * Chạy mỗi phút để đảm bảo phát hiện và xử lý kịp thời
-     */
-    @Scheduled(cron = "0 * * * * ?") // Mỗi phút
-    @Transactional
-    public void checkAndCreateLatePenaltiesScheduled() {
-        log.info("🔄 Bắt đầu kiểm tra và tạo phạt quá hạn tự động...");
-        System.out.println("🔄 [" + java.time.LocalDateTime.now() + "] Bắt đầu job kiểm tra và tạo phạt quá hạn tự động...");
-        
-        try {
-            // 🆕 LOGIC MỚI: Tách biệt cảnh báo và tạo phạt
-            // 1. Gửi cảnh báo cho hóa đơn quá hạn 7 ngày
-            billService.sendOverdueWarningNotificationFor7Days();
-            
-            // 2. Tạo phạt cho hóa đơn quá hạn từ 8 ngày trở đi
-            List<BillResponse> createdPenalties = billService.checkAndCreateLatePenalties();
-            
-            if (!createdPenalties.isEmpty()) {
-                log.info("✅ Đã tạo {} hóa đơn phạt tự động", createdPenalties.size());
-                System.out.println("✅ [" + java.time.LocalDateTime.now() + "] Đã tạo " + createdPenalties.size() + " hóa đơn phạt tự động");
-                for (BillResponse penalty : createdPenalties) {
-                    log.info("📄 Hóa đơn phạt #{} cho hóa đơn gốc #{} - Số tiền: {} VNĐ", 
-                        penalty.getId(), penalty.getOriginalBillId(), penalty.getTotalAmount());
-                    System.out.println("📄 [" + java.time.LocalDateTime.now() + "] Hóa đơn phạt #" + penalty.getId() + 
-                        " cho hóa đơn gốc #" + penalty.getOriginalBillId() + " - Số tiền: " + penalty.getTotalAmount() + " VNĐ");
-                }
-            } else {
-                log.debug("ℹ️ Không có hóa đơn nào cần tạo phạt");
-                System.out.println("ℹ️ [" + java.time.LocalDateTime.now() + "] Không có hóa đơn nào cần tạo phạt");
-            }
-        } catch (Exception e) {
-            log.error("❌ Lỗi khi kiểm tra và tạo phạt quá hạn tự động", e);
-            System.err.println("❌ [" + java.time.LocalDateTime.now() + "] Lỗi khi kiểm tra và tạo phạt quá hạn tự động: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
+    // Số hóa đơn tối đa xử lý trong một lần quét
+    @Value("${bill.penalty.batch-size:500}")
+    private int penaltyBatchSize;
 
     /**
-     * Chạy tự động mỗi phút để cập nhật phạt tăng dần
-     * Chỉ cập nhật khi cần thiết (tỷ lệ phạt thay đổi)
+     * Chạy mỗi phút nhưng chỉ xử lý các hóa đơn đã tới mốc quá hạn tiếp theo (next_penalty_check_at),
+     * gồm gửi cảnh báo ngày thứ 7, tạo phạt từ ngày thứ 8 và cập nhật phạt theo số ngày quá hạn
      */
     @Scheduled(cron = "0 * * * * ?") // Mỗi phút
-    @Transactional
-    public void updateExistingPenaltiesScheduled() {
-        log.info("🔄 Bắt đầu cập nhật phạt tăng dần tự động...");
-        System.out.println("🔄 [" + java.time.LocalDateTime.now() + "] Bắt đầu job cập nhật phạt tăng dần tự động...");
-        
+    public void processDuePenaltyChecksScheduled() {
         try {
-            // Lấy tất cả hóa đơn phạt hiện tại
-            List<Bill> existingPenalties = billService.getAllPenaltyBills();
-            
-            System.out.println("🔍 [" + java.time.LocalDateTime.now() + "] Tìm thấy " + existingPenalties.size() + " hóa đơn phạt cần kiểm tra");
-            
-            int updatedCount = 0;
-            for (Bill penaltyBill : existingPenalties) {
-                try {
-                    Bill originalBill = penaltyBill.getOriginalBill();
-                    if (originalBill == null) {
-                        System.out.println("⚠️ [" + java.time.LocalDateTime.now() + "] Hóa đơn phạt #" + penaltyBill.getId() + " không có hóa đơn gốc, bỏ qua");
-                        continue;
-                    }
-                    
-                    // 🆕 Sửa: Kiểm tra xem hóa đơn gốc có còn quá hạn không (bao gồm thanh toán từng phần)
-                    if (originalBill.getStatus()) {
-                        System.out.println("ℹ️ [" + java.time.LocalDateTime.now() + "] Hóa đơn gốc #" + originalBill.getId() + " đã thanh toán đầy đủ, bỏ qua phạt #" + penaltyBill.getId());
-                        continue;
-                    }
-                    
-                    // Kiểm tra xem có còn nợ không (cho thanh toán từng phần)
-                    BigDecimal outstandingAmount = originalBill.getOutstandingAmount() != null ? 
-                        originalBill.getOutstandingAmount() : originalBill.getTotalAmount();
-                    if (outstandingAmount.compareTo(BigDecimal.ZERO) <= 0) {
-                        System.out.println("ℹ️ [" + java.time.LocalDateTime.now() + "] Hóa đơn gốc #" + originalBill.getId() + " đã thanh toán hết, bỏ qua phạt #" + penaltyBill.getId());
-                        continue;
-                    }
-                    
-                    // Tính số ngày quá hạn hiện tại
-                    int currentOverdueDays = billService.calculateOverdueDays(originalBill);
-                    int penaltyOverdueDays = penaltyBill.getOverdueDays() != null ? penaltyBill.getOverdueDays() : 0;
-                    
-                    System.out.println("🔍 [" + java.time.LocalDateTime.now() + "] So sánh phạt #" + penaltyBill.getId() + 
-                        " - Hóa đơn gốc #" + originalBill.getId() + 
-                        " - Current overdue: " + currentOverdueDays + " ngày" +
-                        " - Penalty overdue: " + penaltyOverdueDays + " ngày");
-                    
-                    // Kiểm tra xem có cần cập nhật không
-                    // Cập nhật khi: currentOverdueDays khác penaltyOverdueDays (có thể lớn hơn hoặc nhỏ hơn)
-                    if (currentOverdueDays != penaltyOverdueDays) {
-                        System.out.println("📈 [" + java.time.LocalDateTime.now() + "] Cập nhật phạt #" + penaltyBill.getId() + 
-                            " - Từ " + penaltyOverdueDays + " ngày thành " + currentOverdueDays + " ngày");
-                        
-                        // Xóa phạt cũ và tạo phạt mới với tỷ lệ đúng
-                        billService.deleteBillById(penaltyBill.getId());
-                        BillResponse newPenalty = billService.createLatePenaltyBill(originalBill.getId());
-                        
-                        System.out.println("✅ [" + java.time.LocalDateTime.now() + "] Đã cập nhật phạt #" + penaltyBill.getId() + 
-                            " thành phạt #" + newPenalty.getId() + " - Số tiền: " + newPenalty.getTotalAmount() + " VNĐ");
-                        updatedCount++;
-                    } else {
-                        System.out.println("ℹ️ [" + java.time.LocalDateTime.now() + "] Phạt #" + penaltyBill.getId() + 
-                            " không cần cập nhật (" + penaltyOverdueDays + " ngày)");
-                    }
-                    
-                } catch (Exception e) {
-                    System.err.println("❌ [" + java.time.LocalDateTime.now() + "] Lỗi khi cập nhật phạt #" + penaltyBill.getId() + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-            
-            if (updatedCount > 0) {
-                log.info("✅ Đã cập nhật {} hóa đơn phạt tăng dần", updatedCount);
-                System.out.println("✅ [" + java.time.LocalDateTime.now() + "] Hoàn thành: Đã cập nhật " + updatedCount + " hóa đơn phạt tăng dần");
-            } else {
-                log.debug("ℹ️ Không có hóa đơn phạt nào cần cập nhật");
-                System.out.println("ℹ️ [" + java.time.LocalDateTime.now() + "] Không có hóa đơn phạt nào cần cập nhật");
+            // Mỗi lần chỉ lấy tối đa một lô, phần còn lại được xử lý ở lần chạy kế tiếp
+            List<BillResponse> changedPenalties = billService.processDuePenaltyChecks(penaltyBatchSize);
+            for (BillResponse penalty : changedPenalties) {
+                log.info("📄 Hóa đơn phạt #{} cho hóa đơn gốc #{} - Số tiền: {} VNĐ - Quá hạn: {} ngày",
+                    penalty.getId(), penalty.getOriginalBillId(), penalty.getTotalAmount(), penalty.getOverdueDays());
             }
             
-        } catch (Exception e) {
-            log.error("❌ Lỗi khi cập nhật phạt tăng dần tự động", e);
-            System.err.println("❌ [" + java.time.LocalDateTime.now() + "] Lỗi khi cập nhật phạt tăng dần tự động: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Chạy tự động mỗi phút để kiểm tra hóa đơn quá hạn
-     */
-    @Scheduled(cron = "0 * * * * ?") // Mỗi phút
-    public void checkOverdueBillsScheduled() {
-        log.debug("🔍 Kiểm tra hóa đơn quá hạn mỗi phút...");
-        
-        try {
-            List<BillResponse> overdueBills = billService.getOverdueBills().stream()
-                .map(billService::toResponse)
-                .toList();
-            
-            if (!overdueBills.isEmpty()) {
-                log.info("⚠️ Phát hiện {} hóa đơn quá hạn", overdueBills.size());
-                for (BillResponse bill : overdueBills) {
-                    log.info("📋 Hóa đơn #{} - Phòng {} - Số tiền: {} VNĐ", 
-                        bill.getId(), bill.getRoomNumber(), bill.getTotalAmount());
-                }
+            if (!changedPenalties.isEmpty()) {
+                log.info("✅ Đã tạo/cập nhật {} hóa đơn phạt", changedPenalties.size());
             } else {
-                log.debug("✅ Không có hóa đơn quá hạn");
+                log.debug("ℹ️ Không có hóa đơn nào tới mốc quá hạn");
             }
         } catch (Exception e) {
-            log.error("❌ Lỗi khi kiểm tra hóa đơn quá hạn", e);
+            log.error("❌ Lỗi khi xử lý mốc quá hạn của hóa đơn", e);
         }
     }
     
@@ -202,9 +77,7 @@ public class LatePenaltySchedulerService {
         log.info("🌅 Bắt đầu kiểm tra hóa đơn quá hạn hàng ngày lúc 9h sáng...");
         
         try {
-            List<BillResponse> overdueBills = billService.getOverdueBills().stream()
-                .map(billService::toResponse)
-                .toList();
+            List<BillResponse> overdueBills = billService.toResponses(billService.getOverdueBills());
             
             if (!overdueBills.isEmpty()) {
                 log.info("⚠️ [DAILY] Phát hiện {} hóa đơn quá hạn trong ngày", overdueBills.size());
@@ -0,0 +1,330 @@
+package com.mpbhms.backend.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broker STOMP 1.2 tối giản chạy trong JVM, thay cho RabbitMQ/ActiveMQ khi phát triển và kiểm thử chế độ relay.
+ * Chỉ hỗ trợ publish/subscribe theo destination khớp chính xác (đủ cho /topic/..., /queue/...-user{session}
+ * và các topic broadcast user registry của Spring), có heart-beat và RECEIPT.
+ * Không có persistence, ack hay transaction: không dùng cho môi trường production.
+ */
+public class LocalStompBroker {
+
+    private static final byte NUL = 0;
+
+    private final String host;
+    private final int port;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeatScheduler;
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong routedMessages = new AtomicLong();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public LocalStompBroker(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LocalStompHeartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) return;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(host), port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "LocalStompBroker-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("📡 Local STOMP broker: " + host + ":" + getPort());
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        heartbeatScheduler.shutdownNow();
+    }
+
+    /**
+     * Cổng thực tế đang lắng nghe (hữu ích khi cấu hình port 0)
+     */
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connections", connections.size());
+        stats.put("subscriptions", connections.stream().mapToInt(c -> c.subscriptions.size()).sum());
+        stats.put("routedMessages", routedMessages.get());
+        return stats;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread reader = new Thread(connection::readLoop, "LocalStompBroker-conn");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Local STOMP broker không nhận được kết nối: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void route(Frame send) {
+        String destination = send.headers.get("destination");
+        if (destination == null) return;
+        for (Connection connection : connections) {
+            for (Map.Entry<String, String> subscription : connection.subscriptions.entrySet()) {
+                if (!destination.equals(subscription.getValue())) continue;
+                Map<String, String> headers = new LinkedHashMap<>(send.headers);
+                headers.remove("receipt");
+                headers.remove("content-length");
+                headers.put("subscription", subscription.getKey());
+                headers.put("message-id", String.valueOf(messageIds.incrementAndGet()));
+                routedMessages.incrementAndGet();
+                connection.write(new Frame("MESSAGE", headers, send.body));
+            }
+        }
+    }
+
+    private final class Connection {
+        private final Socket socket;
+        private final OutputStream out;
+        // subscription id -> destination
+        private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+        private final List<ScheduledFuture<?>> heartbeats = new CopyOnWriteArrayList<>();
+        private volatile long lastWriteAt = System.currentTimeMillis();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        void readLoop() {
+            try (InputStream in = new BufferedInputStream(socket.getInputStream())) {
+                Frame frame;
+                while ((frame = readFrame(in)) != null) {
+                    if (!handle(frame)) break;
+                }
+            } catch (IOException e) {
+                if (running && !(e instanceof SocketException)) {
+                    System.err.println("Local STOMP broker: lỗi đọc frame: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        // Trả về false khi kết nối cần đóng
+        private boolean handle(Frame frame) {
+            switch (frame.command) {
+                case "CONNECT", "STOMP" -> {
+                    Map<String, String> headers = new LinkedHashMap<>();
+                    headers.put("version", "1.2");
+                    headers.put("server", "mpbhms-local-stomp");
+                    headers.put("heart-beat", negotiateHeartbeat(frame.headers.get("heart-beat")));
+                    write(new Frame("CONNECTED", headers, new byte[0]));
+                }
+                case "SUBSCRIBE" -> subscriptions.put(frame.headers.getOrDefault("id", ""), frame.headers.getOrDefault("destination", ""));
+                case "UNSUBSCRIBE" -> subscriptions.remove(frame.headers.getOrDefault("id", ""));
+                case "SEND" -> route(frame);
+                case "DISCONNECT" -> {
+                    sendReceipt(frame);
+                    return false;
+                }
+                case "ACK", "NACK", "BEGIN", "COMMIT", "ABORT" -> {
+                    // Không hỗ trợ ack/transaction: chấp nhận và bỏ qua
+                }
+                default -> {
+                    write(new Frame("ERROR", Map.of("message", "Unsupported command " + frame.command), new byte[0]));
+                    return false;
+                }
+            }
+            sendReceipt(frame);
+            return true;
+        }
+
+        private void sendReceipt(Frame frame) {
+            String receipt = frame.headers.get("receipt");
+            if (receipt != null) {
+                write(new Frame("RECEIPT", Map.of("receipt-id", receipt), new byte[0]));
+            }
+        }
+
+        // Client "cx,cy": broker gửi heart-beat mỗi cy ms (client muốn nhận), không yêu cầu heart-beat từ client
+        private String negotiateHeartbeat(String clientHeartbeat) {
+            long clientReceive = 0;
+            if (clientHeartbeat != null) {
+                String[] parts = clientHeartbeat.split(",");
+                if (parts.length == 2) {
+                    try {
+                        clientReceive = Long.parseLong(parts[1].trim());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            if (clientReceive > 0) {
+                long interval = Math.max(1, clientReceive / 2);
+                heartbeats.add(heartbeatScheduler.scheduleAtFixedRate(() -> {
+                    if (System.currentTimeMillis() - lastWriteAt >= interval) {
+                        writeRaw(new byte[]{'\n'});
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS));
+            }
+            return clientReceive + ",0";
+        }
+
+        void write(Frame frame) {
+            writeRaw(frame.encode());
+        }
+
+        private void writeRaw(byte[] bytes) {
+            synchronized (out) {
+                try {
+                    out.write(bytes);
+                    out.flush();
+                    lastWriteAt = System.currentTimeMillis();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            heartbeats.forEach(heartbeat -> heartbeat.cancel(false));
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private record Frame(String command, Map<String, String> headers, byte[] body) {
+
+        byte[] encode() {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(128 + body.length);
+            StringBuilder head = new StringBuilder(command).append('\n');
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                head.append(escape(header.getKey())).append(':').append(escape(header.getValue())).append('\n');
+            }
+            if (body.length > 0) {
+                head.append("content-length:").append(body.length).append('\n');
+            }
+            head.append('\n');
+            buffer.writeBytes(head.toString().getBytes(StandardCharsets.UTF_8));
+            buffer.writeBytes(body);
+            buffer.write(NUL);
+            return buffer.toByteArray();
+        }
+    }
+
+    // Trả về null khi client đóng kết nối
+    private static Frame readFrame(InputStream in) throws IOException {
+        String command;
+        // Bỏ qua các dòng trống (heart-beat) giữa các frame
+        do {
+            command = readLine(in);
+            if (command == null) return null;
+        } while (command.isEmpty());
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String name = unescape(line.substring(0, colon));
+            // STOMP 1.2: header lặp lại thì giá trị đầu tiên được dùng
+            headers.putIfAbsent(name, unescape(line.substring(colon + 1)));
+        }
+        if (line == null) return null;
+
+        byte[] body;
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            body = in.readNBytes(Integer.parseInt(contentLength.trim()));
+            if (in.read() == -1) return null;
+        } else {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != NUL) {
+                if (b == -1) return null;
+                buffer.write(b);
+            }
+            body = buffer.toByteArray();
+        }
+        return new Frame(command, headers, body);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) return null;
+            if (b != '\r') buffer.write(b);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace(":", "\\c");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 'r' -> result.append('\r');
+                    case 'n' -> result.append('\n');
+                    case 'c' -> result.append(':');
+                    default -> result.append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package com.mpbhms.backend.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Ảnh công tơ của một lần quét: đọc file và giải mã một lần, dùng chung cho mọi phương pháp nhận diện.
+ * - Vùng cắt theo bounding box là sub-view của ảnh đã giải mã (không giải mã lại, không copy pixel)
+ * - Ảnh trung gian (tăng cường, grayscale, đổi kích thước) vẽ vào buffer lấy từ {@link ImageBufferPool}
+ *   và trả lại pool ngay sau khi nén JPEG
+ * - Bản JPEG của từng biến thể được nhớ lại để phương pháp sau không phải xử lý lại
+ */
+public class MeterImage {
+
+    public enum Variant {
+        ORIGINAL, ENHANCED, GRAYSCALE, UPSCALED, DOWNSCALED
+    }
+
+    private final byte[] bytes;
+    private final ImageBufferPool bufferPool;
+    private final Map<Variant, byte[]> encodedVariants = new EnumMap<>(Variant.class);
+    private BufferedImage decoded;
+
+    public MeterImage(byte[] bytes, ImageBufferPool bufferPool) {
+        this.bytes = bytes;
+        this.bufferPool = bufferPool;
+    }
+
+    public static MeterImage of(MultipartFile file, ImageBufferPool bufferPool) throws IOException {
+        return new MeterImage(file.getBytes(), bufferPool);
+    }
+
+    /**
+     * Dữ liệu gốc của file (gửi thẳng cho Custom Vision)
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public synchronized BufferedImage getImage() throws IOException {
+        if (decoded == null) {
+            decoded = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (decoded == null) {
+                throw new IOException("Không đọc được ảnh");
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Ảnh JPEG của một biến thể xử lý toàn ảnh, chỉ xử lý và nén lần đầu được yêu cầu
+     */
+    public synchronized byte[] encode(Variant variant) throws IOException {
+        byte[] cached = encodedVariants.get(variant);
+        if (cached != null) return cached;
+
+        BufferedImage image = getImage();
+        byte[] jpeg;
+        switch (variant) {
+            case ORIGINAL -> jpeg = toJpeg(image);
+            case ENHANCED -> jpeg = renderAndEncode(image, image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB, true);
+            case GRAYSCALE -> jpeg = renderAndEncode(image, image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY, false);
+            case UPSCALED -> jpeg = renderAndEncode(image, (int) (image.getWidth() * 2.0), (int) (image.getHeight() * 2.0), BufferedImage.TYPE_INT_RGB, false);
+            case DOWNSCALED -> jpeg = renderAndEncode(image, (int) (image.getWidth() * 0.5), (int) (image.getHeight() * 0.5), BufferedImage.TYPE_INT_RGB, false);
+            default -> throw new IllegalArgumentException("Biến thể không hỗ trợ: " + variant);
+        }
+        encodedVariants.put(variant, jpeg);
+        return jpeg;
+    }
+
+    /**
+     * Cắt vùng chỉ số theo bounding box (tọa độ tương đối 0..1 của Custom Vision), thêm padding,
+     * tăng cường và phóng to 3 lần nếu vùng quá nhỏ, rồi nén JPEG
+     */
+    public byte[] encodeRegion(double left, double top, double boxWidth, double boxHeight) throws IOException {
+        BufferedImage image = getImage();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        int x = (int) (left * width);
+        int y = (int) (top * height);
+        int w = (int) (boxWidth * width);
+        int h = (int) (boxHeight * height);
+
+        // Thêm padding xung quanh bounding box
+        int padding = Math.min(w, h) / 4;
+        x = Math.max(0, x - padding);
+        y = Math.max(0, y - padding);
+        w = Math.min(width - x, w + 2 * padding);
+        h = Math.min(height - y, h + 2 * padding);
+
+        // Sub-view dùng chung raster với ảnh gốc
+        BufferedImage region = image.getSubimage(x, y, w, h);
+        BufferedImage enhanced = render(region, w, h, BufferedImage.TYPE_INT_RGB, true);
+        try {
+            // Thay đổi kích thước nếu quá nhỏ
+            if (w < 100 || h < 50) {
+                return renderAndEncode(enhanced, (int) (w * 3.0), (int) (h * 3.0), BufferedImage.TYPE_INT_RGB, false);
+            }
+            return toJpeg(enhanced);
+        } finally {
+            bufferPool.release(enhanced);
+        }
+    }
+
+    private byte[] renderAndEncode(BufferedImage source, int width, int height, int imageType, boolean enhance) throws IOException {
+        BufferedImage target = render(source, width, height, imageType, enhance);
+        try {
+            return toJpeg(target);
+        } finally {
+            bufferPool.release(target);
+        }
+    }
+
+    private BufferedImage render(BufferedImage source, int width, int height, int imageType, boolean enhance) {
+        BufferedImage target = bufferPool.acquire(width, height, imageType);
+        Graphics2D g2d = target.createGraphics();
+        try {
+            // Buffer từ pool còn dữ liệu cũ: ảnh có alpha thì phải xóa nền đen như ảnh mới tạo
+            if (source.getColorModel().hasAlpha()) {
+                g2d.setBackground(Color.BLACK);
+                g2d.clearRect(0, 0, width, height);
+            }
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            if (enhance) {
+                g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
+            if (width == source.getWidth() && height == source.getHeight()) {
+                g2d.drawImage(source, 0, 0, null);
+            } else {
+                g2d.drawImage(source, 0, 0, width, height, null);
+            }
+        } finally {
+            g2d.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] toJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream(64 * 1024);
+        ImageIO.write(image, "jpg", outStream);
+        return outStream.toByteArray();
+    }
+}
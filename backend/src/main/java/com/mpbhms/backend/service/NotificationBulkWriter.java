@@ -0,0 +1,109 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.entity.Notification;
+import com.mpbhms.backend.util.CurrentUserUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Ghi nhiều thông báo bằng JDBC batch.
+ * Hibernate không gộp được các câu INSERT vì id dùng IDENTITY, nên gửi cho N người nhận tốn N round-trip;
+ * ở đây mỗi lô notification.bulk.batch-size dòng là một lần gửi và id sinh ra được gán lại vào entity.
+ * Chạy trên connection của transaction hiện tại (nếu có) nên commit/rollback cùng nghiệp vụ gọi nó.
+ */
+@Service
+public class NotificationBulkWriter {
+
+    private static final String INSERT_SQL = "INSERT INTO notifications "
+            + "(title, message, type, status, recipient_id, metadata, created_by, created_date) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public NotificationBulkWriter(JdbcTemplate jdbcTemplate,
+                                  @Value("${notification.bulk.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Chèn toàn bộ thông báo theo từng lô, điền createdDate/createdBy như AuditAspect và gán id vừa sinh
+     */
+    public void insertAll(List<Notification> notifications) {
+        if (notifications == null || notifications.isEmpty()) return;
+
+        Instant now = Instant.now();
+        String currentUser = CurrentUserUtil.getCurrentUserLogin().orElse("UNKNOWN");
+        for (Notification notification : notifications) {
+            if (notification.getCreatedDate() == null) {
+                notification.setCreatedDate(now);
+                notification.setCreatedBy(currentUser);
+            }
+        }
+
+        for (int from = 0; from < notifications.size(); from += batchSize) {
+            List<Notification> chunk = notifications.subList(from, Math.min(notifications.size(), from + batchSize));
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.batchUpdate(
+                    connection -> connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            bind(ps, chunk.get(i));
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return chunk.size();
+                        }
+                    },
+                    keyHolder);
+            assignIds(chunk, keyHolder.getKeyList());
+        }
+    }
+
+    private static void bind(PreparedStatement ps, Notification notification) throws SQLException {
+        ps.setString(1, notification.getTitle());
+        ps.setString(2, notification.getMessage());
+        ps.setString(3, notification.getType() != null ? notification.getType().name() : null);
+        ps.setString(4, notification.getStatus() != null ? notification.getStatus().name() : null);
+        if (notification.getRecipientId() != null) {
+            ps.setLong(5, notification.getRecipientId());
+        } else {
+            ps.setNull(5, Types.BIGINT);
+        }
+        ps.setString(6, notification.getMetadata());
+        ps.setString(7, notification.getCreatedBy());
+        // Instant được Hibernate lưu theo giờ UTC, ghi cùng cách để đọc lại qua JPA không bị lệch múi giờ
+        ps.setTimestamp(8, Timestamp.from(notification.getCreatedDate()), Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+    }
+
+    private static void assignIds(List<Notification> chunk, List<Map<String, Object>> keys) {
+        for (int i = 0; i < chunk.size() && i < keys.size(); i++) {
+            Object key = keys.get(i).values().stream().findFirst().orElse(null);
+            if (key instanceof Number number) {
+                chunk.get(i).setId(number.longValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.enums.NotificationStatus;
+import com.mpbhms.backend.repository.NotificationArchiveRepository;
+import com.mpbhms.backend.repository.NotificationRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Chuyển thông báo đã đọc quá notification.retention.read-age-days ngày (tính từ readAt) sang bảng notification_archives.
+ * Dòng đã đọc nhưng thiếu readAt (dữ liệu cũ) mới tính hạn theo createdDate.
+ * Chạy ngoài giờ cao điểm (notification.retention.cron), mỗi lô một transaction ngắn:
+ * chọn id -> INSERT ... SELECT sang bảng lưu trữ -> DELETE khỏi notifications.
+ * Giữa các lô nghỉ notification.retention.batch-pause-ms để không giữ khóa lâu trên bảng đang phục vụ hộp thư.
+ * Thông báo chưa đọc không bao giờ bị chuyển nên bộ đếm chưa đọc không thay đổi.
+ */
+@Service
+public class NotificationRetentionService {
+
+    private final NotificationRepository notificationRepository;
+    private final NotificationArchiveRepository notificationArchiveRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int readAgeDays;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long batchPauseMs;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong archivedTotal = new AtomicLong();
+    private final AtomicLong lastRunArchived = new AtomicLong();
+    private final AtomicLong lastRunBatches = new AtomicLong();
+    private final AtomicLong lastRunMillis = new AtomicLong();
+    private final AtomicReference<Instant> lastRunAt = new AtomicReference<>();
+    private final AtomicReference<String> lastError = new AtomicReference<>();
+
+    public NotificationRetentionService(NotificationRepository notificationRepository,
+                                        NotificationArchiveRepository notificationArchiveRepository,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${notification.retention.enabled:true}") boolean enabled,
+                                        @Value("${notification.retention.read-age-days:90}") int readAgeDays,
+                                        @Value("${notification.retention.batch-size:1000}") int batchSize,
+                                        @Value("${notification.retention.max-batches-per-run:500}") int maxBatchesPerRun,
+                                        @Value("${notification.retention.batch-pause-ms:200}") long batchPauseMs) {
+        this.notificationRepository = notificationRepository;
+        this.notificationArchiveRepository = notificationArchiveRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.readAgeDays = Math.max(1, readAgeDays);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.batchPauseMs = Math.max(0, batchPauseMs);
+    }
+
+    // Mặc định 2h15 sáng hàng ngày
+    @Scheduled(cron = "${notification.retention.cron:0 15 2 * * *}")
+    public void scheduledArchive() {
+        if (!enabled) return;
+        try {
+            archiveReadNotifications();
+        } catch (Exception e) {
+            System.err.println("[" + java.time.LocalDateTime.now() + "] Lỗi khi lưu trữ thông báo cũ: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lưu trữ theo lô cho tới khi hết thông báo quá hạn hoặc đạt max-batches-per-run (phần còn lại để lần chạy sau).
+     * Trả về số dòng đã chuyển, -1 nếu đang có một lần chạy khác trên node này.
+     */
+    public long archiveReadNotifications() {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        long start = System.currentTimeMillis();
+        long archived = 0;
+        int batches = 0;
+        try {
+            LocalDateTime readCutoff = LocalDateTime.now().minusDays(readAgeDays);
+            Instant createdCutoff = Instant.now().minus(readAgeDays, ChronoUnit.DAYS);
+            int moved;
+            do {
+                if (batches > 0 && batchPauseMs > 0) {
+                    Thread.sleep(batchPauseMs);
+                }
+                moved = archiveBatch(readCutoff, createdCutoff);
+                archived += moved;
+                archivedTotal.addAndGet(moved);
+                batches++;
+            } while (moved >= batchSize && batches < maxBatchesPerRun);
+            lastError.set(null);
+            System.out.println("[" + java.time.LocalDateTime.now() + "] Đã lưu trữ " + archived + " thông báo đã đọc trước " + readCutoff + " (" + batches + " lô)");
+            return archived;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return archived;
+        } catch (RuntimeException e) {
+            lastError.set(e.getMessage());
+            throw e;
+        } finally {
+            runs.incrementAndGet();
+            lastRunArchived.set(archived);
+            lastRunBatches.set(batches);
+            lastRunMillis.set(System.currentTimeMillis() - start);
+            lastRunAt.set(Instant.now());
+            running.set(false);
+        }
+    }
+
+    private int archiveBatch(LocalDateTime readCutoff, Instant createdCutoff) {
+        Integer moved = transactionTemplate.execute(status -> {
+            List<Long> ids = new ArrayList<>(notificationRepository.findIdsByStatusReadBefore(
+                    NotificationStatus.READ, readCutoff, PageRequest.of(0, batchSize)));
+            if (ids.size() < batchSize) {
+                ids.addAll(notificationRepository.findIdsByStatusWithoutReadAtCreatedBefore(
+                        NotificationStatus.READ, createdCutoff, PageRequest.of(0, batchSize - ids.size())));
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            notificationArchiveRepository.copyFromNotifications(ids, Instant.now());
+            return notificationRepository.deleteByIdInAndStatus(ids, NotificationStatus.READ);
+        });
+        return moved != null ? moved : 0;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("readAgeDays", readAgeDays);
+        stats.put("batchSize", batchSize);
+        stats.put("running", running.get());
+        stats.put("runs", runs.get());
+        stats.put("archivedSinceStart", archivedTotal.get());
+        stats.put("lastRunArchived", lastRunArchived.get());
+        stats.put("lastRunBatches", lastRunBatches.get());
+        stats.put("lastRunMillis", lastRunMillis.get());
+        stats.put("lastRunAt", lastRunAt.get());
+        stats.put("lastError", lastError.get());
+        return stats;
+    }
+}
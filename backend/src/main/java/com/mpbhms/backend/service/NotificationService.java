@@ -1,6 +1,7 @@
 package com.mpbhms.backend.service;
 
 import com.mpbhms.backend.dto.NotificationDTO;
+import com.mpbhms.backend.dto.NotificationInboxDTO;
 import com.mpbhms.backend.dto.ResultPaginationDTO;
 import com.mpbhms.backend.entity.Notification;
 import org.springframework.data.domain.Pageable;
@@ -12,9 +13,12 @@ public interface NotificationService {
     Notification createAndSend(NotificationDTO request);
     List<Notification> createAndSendMultiple(NotificationDTO request);
     List<Notification> getUserNotifications(String email);
+    NotificationInboxDTO getInbox(String email, String cursor, int size);
+    NotificationInboxDTO getArchive(String email, String cursor, int size);
+    long getUnreadCount(String email);
     void markAsRead(Long notificationId);
+    int markAllAsRead(String email);
     void deleteNotification(Long notificationId);
-    List<Notification> getNotifications();
     ResultPaginationDTO getAllNotifications(Specification<Notification> spec, Pageable pageable);
 
 }
\ No newline at end of file
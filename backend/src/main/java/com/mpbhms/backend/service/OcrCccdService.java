@@ -6,6 +6,7 @@ import com.azure.ai.formrecognizer.documentanalysis.models.AnalyzeDocumentOption
 import com.azure.ai.formrecognizer.documentanalysis.models.AnalyzeResult;
 import com.azure.core.credential.AzureKeyCredential;
 import com.azure.core.util.BinaryData;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -15,29 +16,61 @@ import java.util.regex.*;
 
 @Service
 public class OcrCccdService {
+    private static final String CACHE_NAMESPACE = "cccd";
+
     @Value("${azure.cccd.endpoint}")
     private String cccdEndpoint;
 
     @Value("${azure.cccd.key}")
     private String cccdKey;
 
+    @Autowired
+    private OcrResultCache ocrResultCache;
+
+    private volatile DocumentAnalysisClient client;
+
     // Hàm OCR 1 mặt CCCD, trả về list dòng text
     public List<String> ocrImage(MultipartFile file) throws Exception {
-        DocumentAnalysisClient client = new DocumentAnalysisClientBuilder()
-                .credential(new AzureKeyCredential(cccdKey))
-                .endpoint(cccdEndpoint)
-                .buildClient();
         byte[] fileBytes = file.getBytes();
-        AnalyzeResult result = client.beginAnalyzeDocument(
+
+        // Cùng một ảnh đã quét trước đó: dùng lại kết quả, không gọi Azure
+        String contentHash = OcrResultCache.sha256(fileBytes);
+        String[] cachedLines = ocrResultCache.get(CACHE_NAMESPACE, contentHash, String[].class);
+        if (cachedLines != null) {
+            return new ArrayList<>(Arrays.asList(cachedLines));
+        }
+
+        AnalyzeResult result = getClient().beginAnalyzeDocument(
             "prebuilt-read",
             BinaryData.fromBytes(fileBytes)
         ).getFinalResult();
 
         List<String> lines = new ArrayList<>();
         result.getPages().forEach(page -> page.getLines().forEach(line -> lines.add(line.getContent())));
+        if (!lines.isEmpty()) {
+            ocrResultCache.put(CACHE_NAMESPACE, contentHash, lines);
+        }
         return lines;
     }
 
+    // Client Azure dùng chung cho mọi lần quét (giữ pipeline HTTP và kết nối)
+    private DocumentAnalysisClient getClient() {
+        DocumentAnalysisClient current = client;
+        if (current == null) {
+            synchronized (this) {
+                current = client;
+                if (current == null) {
+                    current = new DocumentAnalysisClientBuilder()
+                            .credential(new AzureKeyCredential(cccdKey))
+                            .endpoint(cccdEndpoint)
+                            .buildClient();
+                    client = current;
+                }
+            }
+        }
+        return current;
+    }
+
     // Hàm parse thông tin từ list dòng text (mặt trước)
     public Map<String, Object> parseCccdFrontInfo(List<String> lines) {
         Map<String, Object> info = new HashMap<>();
@@ -0,0 +1,257 @@
+package com.mpbhms.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache kết quả OCR (chỉ số công tơ, các dòng chữ CCCD) theo SHA-256 nội dung ảnh.
+ * Quét lại cùng một ảnh (upload lại, thử lại) trả kết quả từ bộ nhớ, không gọi Azure.
+ * - Mỗi kết quả sống tối đa ttl-hours, tổng số kết quả giới hạn bởi max-entries (bỏ kết quả ít dùng nhất)
+ * - Ghi định kỳ ra file JSON (và khi tắt ứng dụng) để cache còn sau khi khởi động lại; thư mục và file
+ *   chỉ chủ sở hữu đọc/ghi được
+ * - Namespace chứa dữ liệu cá nhân (mặc định "cccd": số CCCD, họ tên, địa chỉ) chỉ giữ trong bộ nhớ với
+ *   TTL ngắn memory-only-ttl-minutes, không bao giờ ghi ra file
+ * Chỉ nên lưu kết quả thành công: lỗi tạm thời của Azure không được cache.
+ */
+@Service
+public class OcrResultCache {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path cacheFile;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final boolean enabled;
+    private final Set<String> memoryOnlyNamespaces;
+    private final long memoryOnlyTtlMillis;
+
+    // namespace:sha256 -> kết quả (access order để bỏ kết quả ít dùng nhất)
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private boolean dirty = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public OcrResultCache(@Value("${ocr.result-cache.file:${java.io.tmpdir}/mpbhms-ocr-cache/ocr-results.json}") String cacheFile,
+                          @Value("${ocr.result-cache.ttl-hours:720}") long ttlHours,
+                          @Value("${ocr.result-cache.max-entries:5000}") int maxEntries,
+                          @Value("${ocr.result-cache.enabled:true}") boolean enabled,
+                          @Value("${ocr.result-cache.memory-only-namespaces:cccd}") String memoryOnlyNamespaces,
+                          @Value("${ocr.result-cache.memory-only-ttl-minutes:10}") long memoryOnlyTtlMinutes) {
+        this.cacheFile = Paths.get(cacheFile);
+        this.ttlMillis = Duration.ofHours(Math.max(1, ttlHours)).toMillis();
+        this.maxEntries = Math.max(1, maxEntries);
+        this.enabled = enabled;
+        this.memoryOnlyNamespaces = Arrays.stream(memoryOnlyNamespaces.split(","))
+                .map(String::trim)
+                .filter(namespace -> !namespace.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.memoryOnlyTtlMillis = Duration.ofMinutes(Math.max(1, memoryOnlyTtlMinutes)).toMillis();
+        if (enabled) {
+            load();
+        }
+    }
+
+    /**
+     * Trả về kết quả đã lưu cho nội dung ảnh, hoặc null nếu chưa có / đã hết hạn
+     */
+    public <T> T get(String namespace, String contentHash, Class<T> type) {
+        if (!enabled) return null;
+        String key = namespace + ":" + contentHash;
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && isExpired(key, entry, System.currentTimeMillis())) {
+                entries.remove(key);
+                dirty = true;
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        try {
+            return objectMapper.treeToValue(entry.value(), type);
+        } catch (IOException e) {
+            System.err.println("Kết quả OCR trong cache không đọc được (" + key + "): " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String namespace, String contentHash, Object value) {
+        if (!enabled || value == null) return;
+        JsonNode json = objectMapper.valueToTree(value);
+        synchronized (entries) {
+            entries.put(namespace + ":" + contentHash, new CacheEntry(json, System.currentTimeMillis()));
+            evictOverCap();
+            if (!memoryOnlyNamespaces.contains(namespace)) {
+                dirty = true;
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            dirty = true;
+        }
+        flush();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("enabled", enabled);
+            stats.put("file", cacheFile.toString());
+            stats.put("entries", entries.size());
+            stats.put("maxEntries", maxEntries);
+        }
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+    /**
+     * SHA-256 (hex) của nội dung ảnh, dùng làm khóa cache
+     */
+    public static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+
+    // Ghi cache ra file nếu có thay đổi
+    @Scheduled(fixedDelayString = "${ocr.result-cache.flush-interval-ms:30000}")
+    public void flushIfDirty() {
+        synchronized (entries) {
+            if (!dirty) return;
+        }
+        flush();
+    }
+
+    @PreDestroy
+    public void flush() {
+        if (!enabled) return;
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode array = root.putArray("entries");
+        synchronized (entries) {
+            long now = System.currentTimeMillis();
+            // Cũ nhất (ít dùng nhất) trước để nạp lại đúng thứ tự LRU
+            for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+                if (isMemoryOnly(entry.getKey()) || isExpired(entry.getKey(), entry.getValue(), now)) continue;
+                ObjectNode node = array.addObject();
+                node.put("key", entry.getKey());
+                node.put("createdAt", entry.getValue().createdAt());
+                node.set("value", entry.getValue().value());
+            }
+            dirty = false;
+        }
+        try {
+            Path directory = cacheFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            restrictToOwner(directory, "rwx------");
+            // createTempFile tạo file quyền rw------- trên POSIX; giữ nguyên quyền đó khi đổi tên
+            Path temp = Files.createTempFile(directory, "ocr-results", ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    objectMapper.writeValue(out, root);
+                }
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            synchronized (entries) {
+                dirty = true;
+            }
+            System.err.println("Không thể ghi cache OCR " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(cacheFile)) return;
+        try {
+            JsonNode root = objectMapper.readTree(cacheFile.toFile());
+            long now = System.currentTimeMillis();
+            synchronized (entries) {
+                for (JsonNode node : root.path("entries")) {
+                    String key = node.path("key").asText();
+                    CacheEntry entry = new CacheEntry(node.get("value"), node.path("createdAt").asLong());
+                    if (isMemoryOnly(key)) {
+                        // File do phiên bản cũ ghi còn dữ liệu cá nhân: bỏ qua và ghi lại file không có chúng
+                        dirty = true;
+                        continue;
+                    }
+                    if (entry.value() != null && !isExpired(key, entry, now)) {
+                        entries.put(key, entry);
+                    }
+                }
+                evictOverCap();
+            }
+            restrictToOwner(cacheFile, "rw-------");
+            System.out.println("🔎 OCR result cache: " + cacheFile + " (" + entries.size() + " kết quả)");
+        } catch (IOException e) {
+            System.err.println("Không thể đọc cache OCR " + cacheFile + ", bắt đầu cache rỗng: " + e.getMessage());
+        }
+    }
+
+    // Gọi khi đang giữ khóa entries
+    private void evictOverCap() {
+        Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private boolean isMemoryOnly(String key) {
+        int colon = key.indexOf(':');
+        return colon > 0 && memoryOnlyNamespaces.contains(key.substring(0, colon));
+    }
+
+    private boolean isExpired(String key, CacheEntry entry, long now) {
+        return now - entry.createdAt() > (isMemoryOnly(key) ? memoryOnlyTtlMillis : ttlMillis);
+    }
+
+    // Bỏ qua trên hệ thống tệp không hỗ trợ quyền POSIX (Windows)
+    private static void restrictToOwner(Path path, String permissions) {
+        try {
+            Set<PosixFilePermission> perms = PosixFilePermissions.fromString(permissions);
+            Files.setPosixFilePermissions(path, perms);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Giữ quyền mặc định của hệ thống
+        }
+    }
+
+    private record CacheEntry(JsonNode value, long createdAt) {
+    }
+}
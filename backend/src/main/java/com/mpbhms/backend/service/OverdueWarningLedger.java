@@ -0,0 +1,121 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.repository.OverdueWarningLogRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sổ cảnh báo quá hạn dùng chung giữa các node.
+ * Quyền gửi cảnh báo được giành bằng INSERT IGNORE trên unique (bill_id, warning_kind) nên mỗi cảnh báo
+ * chỉ gửi một lần kể cả khi restart hoặc chạy nhiều instance. Cache LRU cục bộ (có giới hạn) giúp bỏ qua
+ * truy vấn DB cho các hóa đơn đã biết là đã gửi.
+ * Quyền gửi được ghi trong cùng transaction với việc xếp hàng email/thông báo: transaction rollback thì
+ * quyền gửi cũng mất và lần chạy sau gửi lại.
+ */
+@Service
+@Slf4j
+public class OverdueWarningLedger {
+
+    public static final String WARNING_OVERDUE_7_DAYS = "OVERDUE_7_DAYS";
+
+    private final OverdueWarningLogRepository overdueWarningLogRepository;
+    private final Map<String, Boolean> sentCache;
+
+    public OverdueWarningLedger(OverdueWarningLogRepository overdueWarningLogRepository,
+                                @Value("${bill.warning.cache-size:10000}") int cacheSize) {
+        this.overdueWarningLogRepository = overdueWarningLogRepository;
+        int maxEntries = Math.max(1, cacheSize);
+        this.sentCache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Giành quyền gửi cảnh báo cho hóa đơn. Trả về true nếu lần gọi này là lần ghi nhận đầu tiên
+     * (trên toàn bộ các node), false nếu cảnh báo đã được gửi trước đó.
+     * Phải gọi trong transaction gửi cảnh báo; cache cục bộ chỉ được cập nhật sau khi transaction commit.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean tryClaim(Long billId, String warningKind) {
+        String key = cacheKey(billId, warningKind);
+        if (sentCache.get(key) != null) {
+            return false;
+        }
+        // Node khác đang giữ dòng chưa commit thì INSERT IGNORE chờ, nên 0 nghĩa là đã gửi thật
+        boolean claimed = overdueWarningLogRepository.insertIfAbsent(billId, warningKind, Instant.now()) > 0;
+        if (!claimed) {
+            sentCache.put(key, Boolean.TRUE);
+        } else if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    sentCache.put(key, Boolean.TRUE);
+                }
+            });
+        }
+        return claimed;
+    }
+
+    /**
+     * Trả lại quyền gửi khi gửi cảnh báo thất bại để lần chạy sau có thể gửi lại
+     */
+    @Transactional
+    public void release(Long billId, String warningKind) {
+        overdueWarningLogRepository.deleteByBillIdAndWarningKind(billId, warningKind);
+        sentCache.remove(cacheKey(billId, warningKind));
+    }
+
+    @Transactional(readOnly = true)
+    public boolean isSent(Long billId, String warningKind) {
+        String key = cacheKey(billId, warningKind);
+        if (sentCache.get(key) != null) {
+            return true;
+        }
+        boolean sent = overdueWarningLogRepository.existsByBillIdAndWarningKind(billId, warningKind);
+        if (sent) {
+            sentCache.put(key, Boolean.TRUE);
+        }
+        return sent;
+    }
+
+    // Bỏ hóa đơn khỏi cache cục bộ (hóa đơn đã thanh toán / đã tạo phạt), dòng trong DB vẫn giữ làm lịch sử
+    public void evictLocal(Long billId, String warningKind) {
+        sentCache.remove(cacheKey(billId, warningKind));
+    }
+
+    public void clearLocalCache() {
+        sentCache.clear();
+    }
+
+    public Set<Long> getCachedBillIds(String warningKind) {
+        Set<Long> billIds = new HashSet<>();
+        String suffix = "|" + warningKind;
+        synchronized (sentCache) {
+            for (String key : sentCache.keySet()) {
+                if (key.endsWith(suffix)) {
+                    billIds.add(Long.valueOf(key.substring(0, key.length() - suffix.length())));
+                }
+            }
+        }
+        return billIds;
+    }
+
+    private static String cacheKey(Long billId, String warningKind) {
+        return billId + "|" + warningKind;
+    }
+}
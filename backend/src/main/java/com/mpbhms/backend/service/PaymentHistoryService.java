@@ -1,8 +1,11 @@
 package com.mpbhms.backend.service;
 
+import com.mpbhms.backend.dto.PaymentHistoryPageDTO;
 import com.mpbhms.backend.dto.PaymentHistoryResponse;
 import com.mpbhms.backend.entity.PaymentHistory;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.time.Instant;
 import java.util.List;
 
@@ -24,19 +27,41 @@ public interface PaymentHistoryService {
     List<PaymentHistoryResponse> getPaymentHistoryByBillId(Long billId, int page, int size);
 
     /**
-     * Lấy lịch sử thanh toán của một phòng
+     * Lấy lịch sử thanh toán của một phòng (các dòng mới nhất, hasMore nếu danh sách bị cắt).
+     * landlordId khác null: chỉ cho phép phòng của chủ trọ đó
      */
-    List<PaymentHistoryResponse> getPaymentHistoryByRoomId(Long roomId);
+    PaymentHistoryPageDTO getPaymentHistoryByRoomId(Long roomId, Long landlordId);
 
     /**
-     * Lấy lịch sử thanh toán của một người dùng
+     * Lấy lịch sử thanh toán của một người dùng (các dòng mới nhất, hasMore nếu danh sách bị cắt)
      */
-    List<PaymentHistoryResponse> getPaymentHistoryByUserId(Long userId);
+    PaymentHistoryPageDTO getPaymentHistoryByUserId(Long userId);
 
     /**
-     * Lấy lịch sử thanh toán trong khoảng thời gian
+     * Lấy lịch sử thanh toán trong khoảng thời gian (các dòng mới nhất, hasMore nếu danh sách bị cắt).
+     * landlordId khác null: chỉ phòng của chủ trọ đó
      */
-    List<PaymentHistoryResponse> getPaymentHistoryByDateRange(Instant startDate, Instant endDate);
+    PaymentHistoryPageDTO getPaymentHistoryByDateRange(Instant startDate, Instant endDate, Long landlordId);
+
+    /**
+     * Lịch sử thanh toán của một phòng, phân trang theo cursor (null cho trang đầu)
+     */
+    PaymentHistoryPageDTO getPaymentHistoryPageByRoomId(Long roomId, Long landlordId, String cursor, int size);
+
+    /**
+     * Lịch sử thanh toán của một người dùng, phân trang theo cursor (null cho trang đầu)
+     */
+    PaymentHistoryPageDTO getPaymentHistoryPageByUserId(Long userId, String cursor, int size);
+
+    /**
+     * Lịch sử thanh toán trong khoảng thời gian, phân trang theo cursor (null cho trang đầu)
+     */
+    PaymentHistoryPageDTO getPaymentHistoryPageByDateRange(Instant startDate, Instant endDate, Long landlordId, String cursor, int size);
+
+    /**
+     * Ghi toàn bộ lịch sử thanh toán trong khoảng thời gian ra CSV theo từng lô, trả về số dòng đã ghi
+     */
+    long exportPaymentHistoryByDateRange(Instant startDate, Instant endDate, Long landlordId, Writer writer) throws IOException;
 
     /**
      * Lấy lịch sử thanh toán theo phương thức thanh toán
@@ -0,0 +1,241 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.entity.RevokedToken;
+import com.mpbhms.backend.repository.RevokedTokenRepository;
+import com.mpbhms.backend.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refresh token đang hiệu lực của từng người dùng và danh sách access token bị thu hồi.
+ * - users.refresh_token là nguồn chuẩn: mỗi lần làm mới đều đối chiếu với DB (một truy vấn theo email),
+ *   nên token đã bị xoay vòng hoặc đăng xuất ở node khác bị từ chối ngay
+ * - Node tự xoay vòng thì nhớ dấu vân tay 128 bit (SHA-256) của token liền trước: token đó còn dùng được
+ *   security.refresh.reuse-grace-seconds giây (nhiều tab cùng làm mới) nếu DB vẫn giữ token do chính node này ghi
+ * - Access token thu hồi khi đăng xuất giữ theo jti tới khi hết hạn, lưu ở bảng revoked_tokens;
+ *   node khác nạp phần mới mỗi security.refresh.revocation-sync-ms (mặc định 5 giây)
+ */
+@Service
+public class RefreshTokenStore {
+
+    private final UserRepository userRepository;
+    private final RevokedTokenRepository revokedTokenRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long reuseGraceMillis;
+    private final int maxSessions;
+
+    // Các phiên do node này xoay vòng (chỉ dùng cho thời gian ân hạn của token liền trước)
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    // jti -> thời điểm hết hạn (epoch giây)
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    // Mốc của lần đồng bộ thu hồi gần nhất; lùi lại REVOCATION_SYNC_OVERLAP để không lỡ dòng commit chậm / lệch đồng hồ
+    private static final long REVOCATION_SYNC_OVERLAP_SECONDS = 60;
+    private volatile Instant lastRevocationSync;
+
+    private final AtomicLong rotations = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong databaseLoads = new AtomicLong();
+    private final AtomicLong revocations = new AtomicLong();
+
+    public RefreshTokenStore(UserRepository userRepository,
+                             RevokedTokenRepository revokedTokenRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${security.refresh.reuse-grace-seconds:30}") long reuseGraceSeconds,
+                             @Value("${security.refresh.max-cached-sessions:100000}") int maxSessions) {
+        this.userRepository = userRepository;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.reuseGraceMillis = Math.max(0, reuseGraceSeconds) * 1000;
+        this.maxSessions = Math.max(1, maxSessions);
+    }
+
+    /**
+     * Refresh token có phải token hiện hành của người dùng (hoặc token liền trước còn trong thời gian ân hạn)
+     */
+    public boolean isActive(String email, String refreshToken) {
+        Fingerprint presented = Fingerprint.of(refreshToken);
+        Fingerprint stored = loadStored(email);
+        if (stored == null) {
+            // Đã đăng xuất (có thể ở node khác)
+            sessions.remove(email);
+            rejected.incrementAndGet();
+            return false;
+        }
+        if (presented.equals(stored)) {
+            return true;
+        }
+        Session session = sessions.get(email);
+        if (session != null && !stored.equals(session.current())) {
+            // Node khác đã xoay vòng sau lần xoay vòng của node này: phiên cục bộ đã cũ
+            sessions.remove(email);
+            session = null;
+        }
+        if (session != null && session.acceptsPrevious(presented, System.currentTimeMillis(), reuseGraceMillis)) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Ghi refresh token mới khi đăng nhập hoặc xoay vòng; token trước đó chỉ còn hiệu lực trong thời gian ân hạn
+     */
+    public void rotate(String email, String refreshToken) {
+        Fingerprint next = Fingerprint.of(refreshToken);
+        transactionTemplate.executeWithoutResult(status -> userRepository.updateRefreshTokenByEmail(email, refreshToken));
+        long now = System.currentTimeMillis();
+        if (sessions.size() >= maxSessions && !sessions.containsKey(email)) {
+            // Vượt giới hạn: bỏ toàn bộ cache, các phiên được nạp lại từ DB khi cần
+            sessions.clear();
+        }
+        sessions.compute(email, (key, old) -> new Session(next, old != null ? old.current() : null, now));
+        rotations.incrementAndGet();
+    }
+
+    /**
+     * Đăng xuất: xóa refresh token của người dùng và thu hồi access token đang dùng (nếu token có jti)
+     */
+    public void revoke(String email, Jwt accessToken) {
+        String jti = accessToken != null ? accessToken.getId() : null;
+        Instant expiresAt = accessToken != null ? accessToken.getExpiresAt() : null;
+        boolean revokeAccessToken = jti != null && expiresAt != null && expiresAt.isAfter(Instant.now());
+        transactionTemplate.executeWithoutResult(status -> {
+            userRepository.updateRefreshTokenByEmail(email, null);
+            if (revokeAccessToken) {
+                RevokedToken revokedToken = new RevokedToken();
+                revokedToken.setJti(jti);
+                revokedToken.setExpiresAt(expiresAt);
+                revokedTokenRepository.save(revokedToken);
+            }
+        });
+        sessions.remove(email);
+        if (revokeAccessToken) {
+            revoked.put(jti, expiresAt.getEpochSecond());
+            revocations.incrementAndGet();
+        }
+    }
+
+    // Gọi cho mọi request có JWT: chỉ một lần tra map
+    public boolean isRevoked(Jwt jwt) {
+        String jti = jwt.getId();
+        return jti != null && revoked.containsKey(jti);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        syncRevocations();
+    }
+
+    @Scheduled(fixedDelayString = "${security.refresh.revocation-sync-ms:5000}",
+               initialDelayString = "${security.refresh.revocation-sync-ms:5000}")
+    public void scheduledSync() {
+        try {
+            syncNewRevocations();
+        } catch (Exception e) {
+            System.err.println("Lỗi khi đồng bộ danh sách token bị thu hồi: " + e.getMessage());
+        }
+    }
+
+    // Dọn token đã hết hạn mỗi 10 phút
+    @Scheduled(fixedDelay = 600000, initialDelay = 600000)
+    public void scheduledCleanup() {
+        try {
+            syncRevocations();
+        } catch (Exception e) {
+            System.err.println("Lỗi khi dọn danh sách token bị thu hồi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Xóa token đã hết hạn khỏi bảng và bộ nhớ, nạp lại toàn bộ các token còn hạn (khởi động, dọn định kỳ)
+     */
+    public void syncRevocations() {
+        Instant now = Instant.now();
+        List<Object[]> rows = transactionTemplate.execute(status -> {
+            revokedTokenRepository.deleteExpired(now);
+            return revokedTokenRepository.findUnexpired(now);
+        });
+        putRevoked(rows);
+        revoked.values().removeIf(expiresAt -> expiresAt <= now.getEpochSecond());
+        lastRevocationSync = now;
+    }
+
+    /**
+     * Chỉ nạp các token do node khác thu hồi từ lần đồng bộ trước (truy vấn theo index revoked_at)
+     */
+    public void syncNewRevocations() {
+        Instant since = lastRevocationSync;
+        if (since == null) {
+            syncRevocations();
+            return;
+        }
+        Instant now = Instant.now();
+        putRevoked(revokedTokenRepository.findRevokedSince(since.minusSeconds(REVOCATION_SYNC_OVERLAP_SECONDS), now));
+        lastRevocationSync = now;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cachedSessions", sessions.size());
+        stats.put("revokedTokens", revoked.size());
+        stats.put("rotations", rotations.get());
+        stats.put("rejected", rejected.get());
+        stats.put("databaseLoads", databaseLoads.get());
+        stats.put("revocations", revocations.get());
+        return stats;
+    }
+
+    private void putRevoked(List<Object[]> rows) {
+        for (Object[] row : rows) {
+            revoked.put((String) row[0], ((Instant) row[1]).getEpochSecond());
+        }
+    }
+
+    private Fingerprint loadStored(String email) {
+        databaseLoads.incrementAndGet();
+        List<String> tokens = userRepository.findRefreshTokenByEmail(email);
+        if (tokens.isEmpty() || tokens.get(0) == null) {
+            return null;
+        }
+        return Fingerprint.of(tokens.get(0));
+    }
+
+    private record Session(Fingerprint current, Fingerprint previous, long rotatedAt) {
+
+        boolean acceptsPrevious(Fingerprint presented, long now, long graceMillis) {
+            return presented.equals(previous) && now - rotatedAt < graceMillis;
+        }
+    }
+
+    // 128 bit đầu của SHA-256: đủ phân biệt token, nhỏ hơn nhiều so với chuỗi JWT
+    private record Fingerprint(long high, long low) {
+
+        static Fingerprint of(String token) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+                ByteBuffer buffer = ByteBuffer.wrap(digest);
+                return new Fingerprint(buffer.getLong(), buffer.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
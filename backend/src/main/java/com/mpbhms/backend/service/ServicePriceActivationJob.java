@@ -141,77 +141,61 @@ public class ServicePriceActivationJob {
     
     /**
      * Gửi thông báo cho tất cả người thuê và chủ trọ về việc thay đổi giá dịch vụ
-     * (KHÔNG cần kiểm tra hợp đồng active)
+     * (KHÔNG cần kiểm tra hợp đồng active).
+     * Mỗi nhóm người nhận được gửi một lần qua createAndSendMultiple thay vì từng người một.
      */
     private void sendServicePriceChangeNotification(CustomService service, ServicePriceHistory newPrice) {
         try {
+            String message = String.format(
+                "Giá dịch vụ %s đã được cập nhật thành %s VNĐ/%s từ ngày %s. " +
+                "Lý do: %s",
+                service.getServiceName(),
+                newPrice.getUnitPrice().toString(),
+                service.getUnit(),
+                newPrice.getEffectiveDate().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy")),
+                newPrice.getReason() != null ? newPrice.getReason() : "Không có lý do"
+            );
+            String metadata = String.format(
+                "{\"serviceId\":%d,\"serviceName\":\"%s\",\"newPrice\":%s,\"effectiveDate\":\"%s\"}",
+                service.getId(),
+                service.getServiceName(),
+                newPrice.getUnitPrice().toString(),
+                newPrice.getEffectiveDate().toString()
+            );
+
             // 🆕 Gửi thông báo cho TẤT CẢ landlords (không cần kiểm tra hợp đồng)
-            List<User> allLandlords = userRepository.findAll().stream()
-                .filter(user -> user.getRole() != null && "LANDLORD".equals(user.getRole().getRoleName()))
-                .toList();
-            for (User landlord : allLandlords) {
+            List<Long> landlordIds = userRepository.findIdsByRoleName("LANDLORD");
+            if (!landlordIds.isEmpty()) {
                 try {
                     NotificationDTO landlordNotification = new NotificationDTO();
-                    landlordNotification.setRecipientId(landlord.getId());
+                    landlordNotification.setRecipientIds(landlordIds);
                     landlordNotification.setTitle("Cập nhật giá dịch vụ thành công: " + service.getServiceName());
-                    landlordNotification.setMessage(String.format(
-                        "Giá dịch vụ %s đã được cập nhật thành %s VNĐ/%s từ ngày %s. " +
-                        "Lý do: %s",
-                        service.getServiceName(),
-                        newPrice.getUnitPrice().toString(),
-                        service.getUnit(),
-                        newPrice.getEffectiveDate().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy")),
-                        newPrice.getReason() != null ? newPrice.getReason() : "Không có lý do"
-                    ));
+                    landlordNotification.setMessage(message);
                     landlordNotification.setType(NotificationType.SERVICE_UPDATE);
-                    landlordNotification.setMetadata(String.format(
-                        "{\"serviceId\":%d,\"serviceName\":\"%s\",\"newPrice\":%s,\"effectiveDate\":\"%s\"}",
-                        service.getId(),
-                        service.getServiceName(),
-                        newPrice.getUnitPrice().toString(),
-                        newPrice.getEffectiveDate().toString()
-                    ));
-                    
-                    notificationService.createAndSend(landlordNotification);
-                    log.info("Đã gửi thông báo cập nhật giá dịch vụ cho landlord: {}", landlord.getId());
+                    landlordNotification.setMetadata(metadata);
+
+                    notificationService.createAndSendMultiple(landlordNotification);
+                    log.info("Đã gửi thông báo cập nhật giá dịch vụ cho {} landlord", landlordIds.size());
                 } catch (Exception e) {
-                    log.error("Lỗi gửi thông báo thay đổi giá dịch vụ cho landlord {}: {}", 
-                        landlord.getId(), e.getMessage());
+                    log.error("Lỗi gửi thông báo thay đổi giá dịch vụ cho landlord: {}", e.getMessage());
                 }
             }
-            
+
             // 🆕 Gửi thông báo cho TẤT CẢ renters (không cần kiểm tra hợp đồng)
-            List<User> allRenters = userRepository.findAll().stream()
-                .filter(user -> user.getRole() != null && "RENTER".equals(user.getRole().getRoleName()))
-                .toList();
-            for (User renter : allRenters) {
+            List<Long> renterIds = userRepository.findIdsByRoleName("RENTER");
+            if (!renterIds.isEmpty()) {
                 try {
                     NotificationDTO notification = new NotificationDTO();
-                    notification.setRecipientId(renter.getId());
+                    notification.setRecipientIds(renterIds);
                     notification.setTitle("Thay đổi giá dịch vụ: " + service.getServiceName());
-                    notification.setMessage(String.format(
-                        "Giá dịch vụ %s đã được cập nhật thành %s VNĐ/%s từ ngày %s. " +
-                        "Lý do: %s",
-                        service.getServiceName(),
-                        newPrice.getUnitPrice().toString(),
-                        service.getUnit(),
-                        newPrice.getEffectiveDate().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy")),
-                        newPrice.getReason() != null ? newPrice.getReason() : "Không có lý do"
-                    ));
+                    notification.setMessage(message);
                     notification.setType(NotificationType.SERVICE_UPDATE);
-                    notification.setMetadata(String.format(
-                        "{\"serviceId\":%d,\"serviceName\":\"%s\",\"newPrice\":%s,\"effectiveDate\":\"%s\"}",
-                        service.getId(),
-                        service.getServiceName(),
-                        newPrice.getUnitPrice().toString(),
-                        newPrice.getEffectiveDate().toString()
-                    ));
-                    
-                    notificationService.createAndSend(notification);
-                    log.info("Đã gửi thông báo thay đổi giá dịch vụ cho renter: {}", renter.getId());
+                    notification.setMetadata(metadata);
+
+                    notificationService.createAndSendMultiple(notification);
+                    log.info("Đã gửi thông báo thay đổi giá dịch vụ cho {} renter", renterIds.size());
                 } catch (Exception e) {
-                    log.error("Lỗi gửi thông báo thay đổi giá dịch vụ cho renter {}: {}", 
-                        renter.getId(), e.getMessage());
+                    log.error("Lỗi gửi thông báo thay đổi giá dịch vụ cho renter: {}", e.getMessage());
                 }
             }
         } catch (Exception e) {
@@ -0,0 +1,342 @@
+package com.mpbhms.backend.service;
+
+import com.mpbhms.backend.dto.PartialPaymentRequest;
+import com.mpbhms.backend.entity.Bill;
+import com.mpbhms.backend.entity.PaymentHistory;
+import com.mpbhms.backend.entity.VnPayTransaction;
+import com.mpbhms.backend.repository.BillRepository;
+import com.mpbhms.backend.repository.VnPayTransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Xử lý callback VNPay (return và IPN dùng chung một luồng), khóa theo vnp_TxnRef.
+ * - Mỗi vnp_TxnRef được ghi vào sổ vnpay_transactions bằng INSERT IGNORE trong cùng giao dịch cộng tiền,
+ *   nên callback lặp lại (VNPay gửi lại IPN, người dùng tải lại trang return, node khác) không cộng tiền lần hai
+ * - Callback đã xử lý được nhớ trong cache LRU cục bộ: lần lặp lại chỉ tốn một lần tra map
+ * - Các callback cùng hóa đơn trên một node chạy tuần tự theo khóa phân dải (billId -> stripe), hóa đơn khác nhau
+ *   không chờ nhau; giữa các node dùng @Version của Bill và thử lại khi xung đột
+ * Chữ ký do controller kiểm tra trước khi gọi.
+ */
+@Service
+public class VnPayPaymentProcessor {
+
+    public static final String SOURCE_RETURN = "RETURN";
+    public static final String SOURCE_IPN = "IPN";
+
+    private static final Pattern ORIGINAL_AMOUNT = Pattern.compile("\\|originalAmount:([0-9.,]+)");
+    private static final Pattern BILL_ID_IN_ORDER_INFO = Pattern.compile("#(\\d+)");
+
+    public enum Outcome {
+        APPLIED,          // Lần đầu ghi nhận, đã cộng tiền vào hóa đơn
+        DUPLICATE,        // vnp_TxnRef đã được ghi nhận trước đó, không làm gì
+        ALREADY_PAID,     // Hóa đơn đã thanh toán đủ trước khi callback tới
+        PAYMENT_FAILED,   // VNPay báo giao dịch không thành công, đã mở khóa tạo URL
+        BILL_NOT_FOUND,
+        INVALID           // Thiếu vnp_TxnRef hoặc số tiền không hợp lệ
+    }
+
+    public record Result(Outcome outcome, Long billId, Long paymentHistoryId, BigDecimal outstandingAfter, String message) {
+
+        public boolean isSuccess() {
+            return outcome == Outcome.APPLIED || outcome == Outcome.DUPLICATE || outcome == Outcome.ALREADY_PAID;
+        }
+    }
+
+    private final BillRepository billRepository;
+    private final BillService billService;
+    private final PaymentHistoryService paymentHistoryService;
+    private final VnPayTransactionRepository vnPayTransactionRepository;
+    private final VnPayService vnPayService;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final ReentrantLock[] stripes;
+    private final Map<String, Result> completed;
+
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong optimisticRetries = new AtomicLong();
+
+    public VnPayPaymentProcessor(BillRepository billRepository,
+                                 BillService billService,
+                                 PaymentHistoryService paymentHistoryService,
+                                 VnPayTransactionRepository vnPayTransactionRepository,
+                                 VnPayService vnPayService,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${vnpay.callback.lock-stripes:64}") int lockStripes,
+                                 @Value("${vnpay.callback.max-attempts:3}") int maxAttempts,
+                                 @Value("${vnpay.callback.cache-size:10000}") int cacheSize) {
+        this.billRepository = billRepository;
+        this.billService = billService;
+        this.paymentHistoryService = paymentHistoryService;
+        this.vnPayTransactionRepository = vnPayTransactionRepository;
+        this.vnPayService = vnPayService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.stripes = new ReentrantLock[Math.max(1, lockStripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        int maxEntries = Math.max(1, cacheSize);
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Xử lý một callback VNPay (các tham số vnp_* đã kiểm tra chữ ký)
+     */
+    public Result process(Map<String, String> fields, String source) {
+        String txnRef = fields.get("vnp_TxnRef");
+        if (txnRef == null || txnRef.isBlank()) {
+            return new Result(Outcome.INVALID, null, null, null, "Thiếu vnp_TxnRef");
+        }
+        Long billId = resolveBillId(txnRef, fields.get("vnp_OrderInfo"));
+        if (billId == null) {
+            return new Result(Outcome.INVALID, null, null, null, "Không xác định được hóa đơn từ vnp_TxnRef: " + txnRef);
+        }
+
+        // Chỉ ghi nhận khi cả vnp_ResponseCode và vnp_TransactionStatus đều là "00" (theo tài liệu VNPay)
+        if (!"00".equals(fields.get("vnp_ResponseCode")) || !"00".equals(fields.get("vnp_TransactionStatus"))) {
+            // Người dùng hủy hoặc giao dịch lỗi: mở khóa ngay để cho phép tạo link mới, không ghi sổ
+            // (mã lỗi giả mạo không được chiếm chỗ của callback thành công thật)
+            transactionTemplate.executeWithoutResult(status -> billRepository.clearPaymentUrlLock(billId));
+            return new Result(Outcome.PAYMENT_FAILED, billId, null, null, "Giao dịch không thành công");
+        }
+
+        Result known = completed.get(txnRef);
+        if (known != null) {
+            duplicates.incrementAndGet();
+            return duplicateOf(known);
+        }
+        // Node khác (hoặc trước khi khởi động lại) đã ghi nhận: một truy vấn theo unique key, không cần khóa
+        Optional<VnPayTransaction> recorded = vnPayTransactionRepository.findByTxnRef(txnRef);
+        if (recorded.isPresent()) {
+            duplicates.incrementAndGet();
+            return duplicateOf(remember(txnRef, fromLedger(recorded.get())));
+        }
+
+        ReentrantLock lock = stripes[Math.floorMod(Long.hashCode(billId), stripes.length)];
+        lock.lock();
+        try {
+            known = completed.get(txnRef);
+            if (known != null) {
+                duplicates.incrementAndGet();
+                return duplicateOf(known);
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    Result result = transactionTemplate.execute(status -> apply(status, txnRef, billId, fields, source));
+                    if (result.outcome() == Outcome.APPLIED || result.outcome() == Outcome.ALREADY_PAID) {
+                        remember(txnRef, result);
+                    } else if (result.outcome() == Outcome.DUPLICATE) {
+                        duplicates.incrementAndGet();
+                    }
+                    return result;
+                } catch (OptimisticLockingFailureException e) {
+                    // Hóa đơn vừa được cập nhật ở nơi khác (node khác, thanh toán tay): đọc lại và thử lại
+                    if (attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    optimisticRetries.incrementAndGet();
+                    System.out.println("⚠️ Xung đột phiên bản hóa đơn #" + billId + " khi xử lý " + txnRef + ", thử lại lần " + (attempt + 1));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("applied", applied.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("optimisticRetries", optimisticRetries.get());
+        stats.put("cachedTransactions", completed.size());
+        stats.put("lockStripes", stripes.length);
+        return stats;
+    }
+
+    private Result apply(TransactionStatus status, String txnRef, Long billId, Map<String, String> fields, String source) {
+        Bill bill = billRepository.findById(billId).orElse(null);
+        if (bill == null) {
+            System.out.println("LỖI: Không tìm thấy hóa đơn với ID: " + billId);
+            return new Result(Outcome.BILL_NOT_FOUND, billId, null, null, "Không tìm thấy hóa đơn");
+        }
+
+        BigDecimal paidAmount = parseVnpAmount(fields.get("vnp_Amount"));
+        String transactionNo = fields.get("vnp_TransactionNo");
+        boolean alreadyPaid = Boolean.TRUE.equals(bill.getStatus());
+        int claimed = vnPayTransactionRepository.insertIfAbsent(txnRef, billId, paidAmount, transactionNo, source,
+                alreadyPaid ? VnPayTransaction.STATUS_IGNORED : VnPayTransaction.STATUS_SUCCESS, Instant.now());
+        if (claimed == 0) {
+            // Callback khác đã ghi nhận và commit trong lúc chờ (INSERT IGNORE chờ dòng trùng khóa)
+            return vnPayTransactionRepository.findByTxnRef(txnRef)
+                    .map(this::fromLedger)
+                    .orElse(new Result(Outcome.DUPLICATE, billId, null, null, "Giao dịch đã được ghi nhận trước đó"));
+        }
+        if (alreadyPaid) {
+            System.out.println("Hóa đơn #" + billId + " đã thanh toán, không cần cập nhật (" + txnRef + ")");
+            return new Result(Outcome.ALREADY_PAID, billId, null, BigDecimal.ZERO, "Hóa đơn đã được thanh toán trước đó");
+        }
+
+        BigDecimal originalAmount = parseOriginalAmount(fields.get("vnp_OrderInfo")).orElse(paidAmount);
+        if (originalAmount.compareTo(BigDecimal.ZERO) <= 0) {
+            System.out.println("❌ originalAmount không hợp lệ: " + originalAmount);
+            status.setRollbackOnly();
+            return new Result(Outcome.INVALID, billId, null, null, "originalAmount không hợp lệ");
+        }
+
+        BigDecimal outstandingBefore = Optional.ofNullable(bill.getOutstandingAmount()).orElse(bill.getTotalAmount());
+        BigDecimal paidBefore = Optional.ofNullable(bill.getPaidAmount()).orElse(BigDecimal.ZERO);
+        BigDecimal outstandingAfter = outstandingBefore.subtract(originalAmount).max(BigDecimal.ZERO);
+        BigDecimal paidAfter = paidBefore.add(originalAmount);
+        BigDecimal partialPaymentFee = paidAmount.subtract(originalAmount).max(BigDecimal.ZERO);
+        // Thanh toán từng phần khi số tiền gốc <= số tiền còn nợ (bao gồm cả trường hợp bằng nhau)
+        boolean isPartialPayment = originalAmount.compareTo(outstandingBefore) <= 0
+                && outstandingBefore.compareTo(BigDecimal.ZERO) > 0;
+
+        System.out.println("🔍 VNPAY " + source + " " + txnRef + ": originalAmount=" + originalAmount
+                + ", totalPaid=" + paidAmount + ", outstanding " + outstandingBefore + " -> " + outstandingAfter
+                + ", partialFee=" + partialPaymentFee + ", từng phần=" + isPartialPayment);
+
+        if (!isPartialPayment && Boolean.TRUE.equals(bill.getIsPartiallyPaid())) {
+            // Hóa đơn đã từng thanh toán từng phần: thu phí cho lần thanh toán này
+            int paymentCount = billService.getPaymentCount(billId);
+            BigDecimal nextPaymentFee = billService.calculateNextPaymentFee(paymentCount);
+            bill.addPartialPaymentFee(nextPaymentFee);
+            String currentNotes = bill.getNotes() != null ? bill.getNotes() : "";
+            bill.setNotes(currentNotes + String.format(" [Phí thanh toán từng phần: %s VNĐ (lần thứ %d)]",
+                    nextPaymentFee.toString(), paymentCount + 1));
+        }
+
+        // Lịch sử thanh toán tạo TRƯỚC khi cập nhật hóa đơn, dùng các giá trị before/after vừa tính
+        PaymentHistory paymentHistory = new PaymentHistory();
+        paymentHistory.setBill(bill);
+        paymentHistory.setPaymentMethod("VNPAY");
+        paymentHistory.setStatus("SUCCESS");
+        paymentHistory.setPaymentDate(Instant.now());
+        paymentHistory.setPaymentNumber(billService.getAllPaymentCount(billId) + 1);
+        paymentHistory.setPaymentAmount(originalAmount); // TIỀN GỐC
+        paymentHistory.setTotalAmount(paidAmount); // tổng VNPay trả (gồm phí)
+        paymentHistory.setPartialPaymentFee(partialPaymentFee);
+        paymentHistory.setOverdueInterest(BigDecimal.ZERO);
+        paymentHistory.setOutstandingBefore(outstandingBefore);
+        paymentHistory.setOutstandingAfter(outstandingAfter);
+        paymentHistory.setPaidBefore(paidBefore);
+        paymentHistory.setPaidAfter(paidAfter);
+        paymentHistory.setIsPartialPayment(isPartialPayment);
+        paymentHistory.setMonthsOverdue(calculateOverdueMonths(bill));
+        paymentHistory.setTransactionId(transactionNo);
+        paymentHistory.setNotes(SOURCE_IPN.equals(source) ? "VNPay IPN" : "Thanh toán qua VNPAY");
+        PaymentHistory savedHistory = paymentHistoryService.savePaymentHistory(paymentHistory);
+
+        if (isPartialPayment) {
+            // Cùng giao dịch: makePartialPayment đọc lại đúng entity Bill đang được quản lý
+            PartialPaymentRequest partialRequest = new PartialPaymentRequest();
+            partialRequest.setBillId(billId);
+            partialRequest.setPaymentAmount(originalAmount);
+            partialRequest.setPaymentMethod("VNPAY");
+            partialRequest.setNotes("Thanh toán qua VNPAY");
+            partialRequest.setSkipPaymentHistoryCreation(true); // Đã tạo PaymentHistory ở trên
+            billService.makePartialPayment(partialRequest);
+        } else {
+            bill.addPayment(originalAmount);
+            if (partialPaymentFee.compareTo(BigDecimal.ZERO) > 0) {
+                bill.addPartialPaymentFee(partialPaymentFee);
+            }
+            bill.setStatus(bill.getOutstandingAmount().compareTo(BigDecimal.ZERO) <= 0);
+            if (Boolean.TRUE.equals(bill.getStatus()) && bill.getPaidDate() == null) {
+                bill.setPaidDate(Instant.now());
+            }
+        }
+
+        // Xóa khóa tạo URL khi đã thanh toán thành công để không chờ đủ 15 phút
+        bill.setPaymentUrlLockedUntil(null);
+        billRepository.save(bill);
+        vnPayTransactionRepository.complete(txnRef, VnPayTransaction.STATUS_SUCCESS, savedHistory.getId());
+        applied.incrementAndGet();
+        System.out.println("✅ Đã ghi nhận " + txnRef + " cho hóa đơn #" + billId + ", trạng thái: " + bill.getStatus());
+        return new Result(Outcome.APPLIED, billId, savedHistory.getId(), bill.getOutstandingAmount(),
+                "Giao dịch đã được xử lý thành công");
+    }
+
+    private Long resolveBillId(String txnRef, String orderInfo) {
+        Long billId = vnPayService.extractBillIdFromTxnRef(txnRef);
+        if (billId == null && orderInfo != null) {
+            // ví dụ "Thanh toán từng phần hóa đơn #123|originalAmount:456000"
+            Matcher m = BILL_ID_IN_ORDER_INFO.matcher(orderInfo);
+            if (m.find()) {
+                billId = Long.parseLong(m.group(1));
+            }
+        }
+        return billId;
+    }
+
+    private Result remember(String txnRef, Result result) {
+        completed.put(txnRef, result);
+        return result;
+    }
+
+    private Result fromLedger(VnPayTransaction transaction) {
+        Outcome outcome = VnPayTransaction.STATUS_IGNORED.equals(transaction.getStatus()) ? Outcome.ALREADY_PAID : Outcome.APPLIED;
+        return new Result(outcome, transaction.getBillId(), transaction.getPaymentHistoryId(), null,
+                "Giao dịch đã được ghi nhận trước đó");
+    }
+
+    private static Result duplicateOf(Result known) {
+        return new Result(Outcome.DUPLICATE, known.billId(), known.paymentHistoryId(), known.outstandingAfter(),
+                "Giao dịch đã được ghi nhận trước đó");
+    }
+
+    private static BigDecimal parseVnpAmount(String vnpAmount) {
+        if (vnpAmount == null || vnpAmount.isBlank()) {
+            return BigDecimal.ZERO;
+        }
+        return new BigDecimal(vnpAmount).divide(BigDecimal.valueOf(100)); // VNPAY trả về x100
+    }
+
+    // "|originalAmount:..." do BillController ghi bằng toPlainString; chuỗi có dấu ngăn nghìn thì bỏ dấu
+    public static Optional<BigDecimal> parseOriginalAmount(String orderInfo) {
+        Matcher m = ORIGINAL_AMOUNT.matcher(orderInfo != null ? orderInfo : "");
+        if (!m.find()) {
+            return Optional.empty();
+        }
+        String raw = m.group(1);
+        try {
+            if (raw.indexOf(',') < 0) {
+                return Optional.of(new BigDecimal(raw));
+            }
+        } catch (NumberFormatException ignored) {
+            // "1.500.000": dấu chấm là dấu ngăn nghìn
+        }
+        return Optional.of(new BigDecimal(raw.replace(".", "").replace(",", "")));
+    }
+
+    private static int calculateOverdueMonths(Bill bill) {
+        if (bill.getDueDate() == null) return 0;
+        Instant due = bill.getDueDate();
+        Instant now = Instant.now();
+        if (now.isBefore(due)) return 0;
+        long days = java.time.temporal.ChronoUnit.DAYS.between(due, now);
+        return (int) Math.ceil(days / 30.44); // gần đúng số tháng
+    }
+}
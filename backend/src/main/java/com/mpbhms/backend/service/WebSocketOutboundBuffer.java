@@ -0,0 +1,231 @@
+package com.mpbhms.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hàng đợi gửi riêng cho từng phiên WebSocket.
+ * Luồng broker/clientOutboundChannel chỉ xếp frame vào hàng đợi của phiên rồi quay lại ngay;
+ * frame được ghi ra socket trên pool websocket.outbound.sender-threads, mỗi phiên tối đa một luồng ghi.
+ * - Hàng đợi giới hạn websocket.outbound.max-queued-frames frame: khi đầy thì bỏ frame MESSAGE/heart-beat
+ *   cũ nhất (thông báo vẫn còn trong DB, client tải lại khi mở hộp thư); CONNECTED/RECEIPT/ERROR không bị bỏ
+ * - Phiên đầy liên tục quá websocket.outbound.slow-client-close-ms bị đóng (SESSION_NOT_RELIABLE) để client kết nối lại
+ */
+@Service
+public class WebSocketOutboundBuffer {
+
+    private final String brokerMode;
+    private final int maxQueuedFrames;
+    private final long slowClientCloseMs;
+    private final ThreadPoolTaskExecutor senderExecutor;
+    private final Map<String, BufferedSession> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong queuedFrames = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong closedSlowSessions = new AtomicLong();
+
+    public WebSocketOutboundBuffer(@Value("${websocket.broker.mode:simple}") String brokerMode,
+                                   @Value("${websocket.outbound.max-queued-frames:256}") int maxQueuedFrames,
+                                   @Value("${websocket.outbound.slow-client-close-ms:30000}") long slowClientCloseMs,
+                                   @Value("${websocket.outbound.sender-threads:4}") int senderThreads) {
+        this.brokerMode = brokerMode;
+        this.maxQueuedFrames = Math.max(1, maxQueuedFrames);
+        this.slowClientCloseMs = Math.max(1, slowClientCloseMs);
+
+        int threads = Math.max(1, senderThreads);
+        // Mỗi phiên có nhiều nhất một tác vụ ghi trong hàng đợi nên hàng đợi của pool không cần giới hạn
+        this.senderExecutor = new ThreadPoolTaskExecutor();
+        this.senderExecutor.setCorePoolSize(threads);
+        this.senderExecutor.setMaxPoolSize(threads);
+        this.senderExecutor.setThreadNamePrefix("WsOutbound-");
+        this.senderExecutor.initialize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senderExecutor.shutdown();
+    }
+
+    /**
+     * Bọc handler WebSocket (dùng cho WebSocketTransportRegistration.addDecoratorFactory)
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                BufferedSession buffered = new BufferedSession(session);
+                sessions.put(session.getId(), buffered);
+                super.afterConnectionEstablished(buffered);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                super.handleMessage(buffered(session), message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                super.handleTransportError(buffered(session), exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                BufferedSession buffered = sessions.remove(session.getId());
+                if (buffered != null) {
+                    buffered.discard();
+                }
+                super.afterConnectionClosed(buffered != null ? buffered : session, closeStatus);
+            }
+        };
+    }
+
+    private WebSocketSession buffered(WebSocketSession session) {
+        BufferedSession buffered = sessions.get(session.getId());
+        return buffered != null ? buffered : session;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("brokerMode", brokerMode);
+        stats.put("connectedSessions", sessions.size());
+        stats.put("queuedFrames", queuedFrames.get());
+        stats.put("sentFrames", sentFrames.get());
+        stats.put("droppedFrames", droppedFrames.get());
+        stats.put("closedSlowSessions", closedSlowSessions.get());
+        stats.put("maxQueuedFramesPerSession", maxQueuedFrames);
+        return stats;
+    }
+
+    // Frame có thể bỏ khi client chậm: MESSAGE (client tải lại từ DB) và heart-beat
+    private static boolean isDroppable(WebSocketMessage<?> message) {
+        if (!(message instanceof TextMessage text)) return false;
+        String payload = text.getPayload();
+        return payload.startsWith("MESSAGE\n") || payload.isBlank();
+    }
+
+    private final class BufferedSession extends WebSocketSessionDecorator {
+
+        private final ArrayDeque<WebSocketMessage<?>> queue = new ArrayDeque<>();
+        private boolean draining = false;
+        private boolean discarded = false;
+        // Thời điểm hàng đợi bắt đầu đầy liên tục (0 nếu chưa đầy)
+        private long fullSince = 0;
+
+        BufferedSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            boolean startDrain;
+            boolean closeSlow = false;
+            synchronized (this) {
+                if (discarded) return;
+                if (queue.size() >= maxQueuedFrames) {
+                    long now = System.currentTimeMillis();
+                    if (fullSince == 0) {
+                        fullSince = now;
+                    } else if (now - fullSince > slowClientCloseMs) {
+                        closeSlow = true;
+                    }
+                    if (!closeSlow && !dropOldest() && isDroppable(message)) {
+                        droppedFrames.incrementAndGet();
+                        return;
+                    }
+                }
+                if (!closeSlow) {
+                    queue.add(message);
+                    queuedFrames.incrementAndGet();
+                }
+                startDrain = !closeSlow && !draining;
+                if (startDrain) {
+                    draining = true;
+                }
+            }
+            if (closeSlow) {
+                closedSlowSessions.incrementAndGet();
+                System.err.println("WebSocket " + getId() + ": client quá chậm, đóng phiên");
+                discard();
+                // Đóng trên luồng ghi: close() có thể chờ socket của chính client chậm này
+                senderExecutor.execute(() -> closeQuietly(CloseStatus.SESSION_NOT_RELIABLE));
+                return;
+            }
+            if (startDrain) {
+                senderExecutor.execute(this::drain);
+            }
+        }
+
+        // Gọi khi đang giữ khóa
+        private boolean dropOldest() {
+            Iterator<WebSocketMessage<?>> it = queue.iterator();
+            while (it.hasNext()) {
+                if (isDroppable(it.next())) {
+                    it.remove();
+                    queuedFrames.decrementAndGet();
+                    droppedFrames.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void drain() {
+            while (true) {
+                WebSocketMessage<?> next;
+                synchronized (this) {
+                    next = queue.poll();
+                    if (next == null || discarded) {
+                        draining = false;
+                        return;
+                    }
+                    queuedFrames.decrementAndGet();
+                }
+                try {
+                    getDelegate().sendMessage(next);
+                    sentFrames.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("WebSocket " + getId() + ": lỗi gửi frame: " + e.getMessage());
+                    discard();
+                    closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                    return;
+                }
+                synchronized (this) {
+                    if (queue.size() < maxQueuedFrames) {
+                        fullSince = 0;
+                    }
+                }
+            }
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            queuedFrames.addAndGet(-queue.size());
+            queue.clear();
+        }
+
+        private void closeQuietly(CloseStatus status) {
+            try {
+                getDelegate().close(status);
+            } catch (IOException | RuntimeException ignored) {
+            }
+        }
+    }
+}
@@ -6,7 +6,7 @@ import com.mpbhms.backend.entity.User;
 import com.mpbhms.backend.repository.AssetInventoryRepository;
 import com.mpbhms.backend.repository.UserRepository;
 import com.mpbhms.backend.service.AssetInventoryService;
-import com.mpbhms.backend.util.CurrentUserUtil;
+import com.mpbhms.backend.util.CurrentPrincipal;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import java.time.Instant;
@@ -18,11 +18,13 @@ import java.util.Map;
 public class AssetInventoryServiceImpl implements AssetInventoryService {
     private final AssetInventoryRepository assetInventoryRepository;
     private final UserRepository userRepository;
+    private final CurrentPrincipal currentPrincipal;
 
     @Override
     public void saveCheckinAssets(List<AssetInventoryRequest> requestList) {
-        String username = CurrentUserUtil.getCurrentUserLogin().orElse(null);
-        User user = userRepository.findByUsername(username);
+        // Chỉ cần khóa ngoại tới người kiểm kê: dùng id trong token, không tải lại User
+        Long userId = currentPrincipal.getUserId();
+        User user = userId != null ? userRepository.getReferenceById(userId) : null;
         for (AssetInventoryRequest req : requestList) {
             // Chặn checkin/checkout nhiều lần cho cùng asset + contract + type
             if (assetInventoryRepository.existsByAssetIdAndContractIdAndType(req.getAssetId(), req.getContractId(), req.getType())) {
@@ -1,6 +1,7 @@
 package com.mpbhms.backend.service.impl;
 
 import com.mpbhms.backend.dto.BillDetailResponse;
+import com.mpbhms.backend.dto.BillPdfView;
 import com.mpbhms.backend.dto.BillResponse;
 import com.mpbhms.backend.dto.PartialPaymentRequest;
 import com.mpbhms.backend.dto.PartialPaymentResponse;
@@ -17,10 +18,14 @@ import com.mpbhms.backend.repository.BillRepository;
 import com.mpbhms.backend.repository.BillDetailRepository;
 import com.mpbhms.backend.repository.ContractRepository;
 import com.mpbhms.backend.repository.EmailSentLogRepository;
+import com.mpbhms.backend.repository.PenaltyAdjustmentRepository;
 import com.mpbhms.backend.repository.ServiceReadingRepository;
 import com.mpbhms.backend.repository.ServiceRepository;
 import com.mpbhms.backend.repository.RoomRepository;
+import com.mpbhms.backend.service.BillPdfCache;
+import com.mpbhms.backend.service.BillPdfRenderer;
 import com.mpbhms.backend.service.BillService;
+import com.mpbhms.backend.service.OverdueWarningLedger;
 import com.mpbhms.backend.service.ServiceService;
 import com.mpbhms.backend.dto.NotificationDTO;
 import com.mpbhms.backend.enums.NotificationType;
@@ -37,32 +42,22 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
-import com.lowagie.text.*;
-import com.lowagie.text.pdf.PdfWriter;
 import java.io.ByteArrayOutputStream;
-import com.lowagie.text.pdf.BaseFont;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.format.DateTimeFormatter;
-import java.text.NumberFormat;
-import java.util.Locale;
-import com.lowagie.text.FontFactory;
-import com.lowagie.text.pdf.PdfPTable;
-import com.lowagie.text.pdf.PdfPCell;
-import com.lowagie.text.pdf.PdfWriter;
-import com.lowagie.text.pdf.draw.LineSeparator;
-import java.awt.Color;
 import java.util.stream.Collectors;
-import com.mpbhms.backend.service.EmailService;
+import com.mpbhms.backend.service.EmailOutboxService;
 import com.mpbhms.backend.service.InterestCalculationService;
 import com.mpbhms.backend.service.PaymentHistoryService;
 import com.mpbhms.backend.repository.PaymentHistoryRepository;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -79,13 +74,19 @@ public class BillServiceImpl implements BillService {
     private final ServiceService serviceService;
     private final RoomRepository roomRepository;
     private final NotificationService notificationService;
-    private final EmailService emailService;
+    private final EmailOutboxService emailOutboxService;
     private final InterestCalculationService interestCalculationService;
     private final PaymentHistoryService paymentHistoryService;
     private final PaymentHistoryRepository paymentHistoryRepository;
-    
-    // Cache để theo dõi các hóa đơn đã gửi cảnh báo ngày thứ 7
-    private final Set<Long> warningSentBills = new HashSet<>();
+    private final PenaltyAdjustmentRepository penaltyAdjustmentRepository;
+    // Sổ cảnh báo quá hạn ngày thứ 7 (lưu DB, dùng chung giữa các node)
+    private final OverdueWarningLedger overdueWarningLedger;
+    private final BillPdfRenderer billPdfRenderer;
+    private final BillPdfCache billPdfCache;
+    private final PlatformTransactionManager transactionManager;
+
+    // Số lần thử một hóa đơn khi xử lý quá hạn bị xung đột phiên bản
+    private static final int PENALTY_CHECK_MAX_ATTEMPTS = 3;
 
     @Override
     public Bill generateFirstBill(Long contractId) {
@@ -267,6 +268,11 @@ public class BillServiceImpl implements BillService {
 
     @Override
     public Bill generateBill(Long contractId, LocalDate fromDate, LocalDate toDate, BillType billType) {
+        return generateBill(contractId, fromDate, toDate, billType, true);
+    }
+
+    @Override
+    public Bill generateBill(Long contractId, LocalDate fromDate, LocalDate toDate, BillType billType, boolean sendNotification) {
         System.out.println(String.format(
             "\n🏁 YÊU CẦU TẠO HÓA ĐƠN:\n" +
             "ID Hợp đồng: %d\n" +
@@ -506,7 +512,9 @@ public class BillServiceImpl implements BillService {
             detail.setBill(bill);
         }
         billRepository.save(bill);
-        sendBillNotificationToAllUsers(bill);
+        if (sendNotification) {
+            sendBillNotificationToAllUsers(bill);
+        }
         return bill;
     }
 
@@ -649,6 +657,79 @@ public class BillServiceImpl implements BillService {
             throw new RuntimeException("Bill object is null");
         }
         
+        // Fetch room để tránh lazy loading
+        String roomNumber = null;
+        if (bill.getRoom() != null) {
+            try {
+                Room room = roomRepository.findById(bill.getRoom().getId())
+                    .orElseThrow(() -> new RuntimeException("Không tìm thấy room"));
+                roomNumber = room.getRoomNumber();
+            } catch (Exception e) {
+                System.err.println("Lỗi khi fetch room cho bill #" + bill.getId() + ": " + e.getMessage());
+            }
+        }
+        
+        List<PaymentHistory> pendingCashPayments;
+        try {
+            pendingCashPayments = paymentHistoryRepository.findByBillIdAndPaymentMethodAndStatusOrderByPaymentDateDesc(
+                bill.getId(), "CASH", "PENDING");
+        } catch (Exception e) {
+            System.err.println("Lỗi khi lấy danh sách thanh toán tiền mặt pending cho bill #" + bill.getId() + ": " + e.getMessage());
+            pendingCashPayments = new ArrayList<>();
+        }
+        
+        return buildBillResponse(bill, roomNumber, bill.getBillDetails(), pendingCashPayments);
+    }
+
+    /**
+     * Chuyển một trang hóa đơn sang BillResponse với số truy vấn cố định:
+     * 1 truy vấn phòng, 1 truy vấn chi tiết (kèm dịch vụ), 1 truy vấn thanh toán tiền mặt pending
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<BillResponse> toResponses(List<Bill> bills) {
+        if (bills == null || bills.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        Set<Long> billIds = new HashSet<>();
+        Set<Long> roomIds = new HashSet<>();
+        for (Bill bill : bills) {
+            billIds.add(bill.getId());
+            if (bill.getRoom() != null) {
+                roomIds.add(bill.getRoom().getId());
+            }
+        }
+        
+        Map<Long, String> roomNumbers = new HashMap<>();
+        for (Room room : roomRepository.findAllById(roomIds)) {
+            roomNumbers.put(room.getId(), room.getRoomNumber());
+        }
+        
+        Map<Long, List<BillDetail>> detailsByBill = new HashMap<>();
+        for (BillDetail detail : billDetailRepository.findWithServiceByBillIdIn(billIds)) {
+            detailsByBill.computeIfAbsent(detail.getBill().getId(), id -> new ArrayList<>()).add(detail);
+        }
+        
+        Map<Long, List<PaymentHistory>> pendingCashByBill = new HashMap<>();
+        for (PaymentHistory payment : paymentHistoryRepository.findByBillIdInAndPaymentMethodAndStatusOrderByPaymentDateDesc(
+                billIds, "CASH", "PENDING")) {
+            pendingCashByBill.computeIfAbsent(payment.getBill().getId(), id -> new ArrayList<>()).add(payment);
+        }
+        
+        List<BillResponse> responses = new ArrayList<>(bills.size());
+        for (Bill bill : bills) {
+            String roomNumber = bill.getRoom() != null ? roomNumbers.get(bill.getRoom().getId()) : null;
+            responses.add(buildBillResponse(bill, roomNumber,
+                detailsByBill.getOrDefault(bill.getId(), new ArrayList<>()),
+                pendingCashByBill.getOrDefault(bill.getId(), new ArrayList<>())));
+        }
+        return responses;
+    }
+
+    // Dựng BillResponse từ dữ liệu đã nạp sẵn (không truy vấn thêm)
+    private BillResponse buildBillResponse(Bill bill, String roomNumber, List<BillDetail> billDetails,
+                                           List<PaymentHistory> pendingCashPayments) {
         // Đảm bảo outstandingAmount được tính đúng
         try {
             bill.calculateOutstandingAmount();
@@ -669,17 +750,8 @@ public class BillServiceImpl implements BillService {
         
         // Kiểm tra room
         if (bill.getRoom() != null) {
-        response.setRoomId(bill.getRoom().getId());
-        
-        // Fetch room để tránh lazy loading
-        try {
-            Room room = roomRepository.findById(bill.getRoom().getId())
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy room"));
-            response.setRoomNumber(room.getRoomNumber());
-        } catch (Exception e) {
-            System.err.println("Lỗi khi fetch room cho bill #" + bill.getId() + ": " + e.getMessage());
-                response.setRoomNumber("N/A");
-            }
+            response.setRoomId(bill.getRoom().getId());
+            response.setRoomNumber(roomNumber != null ? roomNumber : "N/A");
         } else {
             System.err.println("Room is null cho bill #" + bill.getId());
             response.setRoomId(null);
@@ -733,8 +805,8 @@ public class BillServiceImpl implements BillService {
 
         List<BillDetailResponse> detailResponses = new ArrayList<>();
         try {
-            if (bill.getBillDetails() != null) {
-        for (BillDetail detail : bill.getBillDetails()) {
+            if (billDetails != null) {
+        for (BillDetail detail : billDetails) {
                     if (detail != null) {
             BillDetailResponse d = new BillDetailResponse();
             d.setItemType(detail.getItemType());
@@ -755,35 +827,26 @@ public class BillServiceImpl implements BillService {
         response.setDetails(detailResponses);
 
         // Thêm danh sách thanh toán tiền mặt pending
-        try {
-            List<PaymentHistory> pendingCashPayments = paymentHistoryRepository.findByBillIdAndPaymentMethodAndStatusOrderByPaymentDateDesc(
-                bill.getId(), "CASH", "PENDING");
-            List<Map<String, Object>> pendingPaymentsList = new ArrayList<>();
+        List<Map<String, Object>> pendingPaymentsList = new ArrayList<>();
+        for (PaymentHistory payment : pendingCashPayments) {
+            Map<String, Object> paymentMap = new HashMap<>();
+            paymentMap.put("id", payment.getId());
+            paymentMap.put("paymentNumber", payment.getPaymentNumber());
+            paymentMap.put("paymentAmount", payment.getPaymentAmount());
+            paymentMap.put("totalAmount", payment.getTotalAmount());
+            paymentMap.put("partialPaymentFee", payment.getPartialPaymentFee());
+            paymentMap.put("overdueInterest", payment.getOverdueInterest());
+            paymentMap.put("paymentDate", payment.getPaymentDate());
+            paymentMap.put("notes", payment.getNotes());
             
-            for (PaymentHistory payment : pendingCashPayments) {
-                Map<String, Object> paymentMap = new HashMap<>();
-                paymentMap.put("id", payment.getId());
-                paymentMap.put("paymentNumber", payment.getPaymentNumber());
-                paymentMap.put("paymentAmount", payment.getPaymentAmount());
-                paymentMap.put("totalAmount", payment.getTotalAmount());
-                paymentMap.put("partialPaymentFee", payment.getPartialPaymentFee());
-                paymentMap.put("overdueInterest", payment.getOverdueInterest());
-                paymentMap.put("paymentDate", payment.getPaymentDate());
-                paymentMap.put("notes", payment.getNotes());
-                
-                // Thêm thông tin hiển thị đã được Việt hóa
-                paymentMap.put("paymentMethodDisplay", getPaymentMethodDisplay(payment.getPaymentMethod()));
-                paymentMap.put("statusDisplay", getStatusDisplay(payment.getStatus()));
-                paymentMap.put("paymentTypeDisplay", getPaymentTypeDisplay(payment.getIsPartialPayment()));
-                
-                pendingPaymentsList.add(paymentMap);
-            }
+            // Thêm thông tin hiển thị đã được Việt hóa
+            paymentMap.put("paymentMethodDisplay", getPaymentMethodDisplay(payment.getPaymentMethod()));
+            paymentMap.put("statusDisplay", getStatusDisplay(payment.getStatus()));
+            paymentMap.put("paymentTypeDisplay", getPaymentTypeDisplay(payment.getIsPartialPayment()));
             
-            response.setPendingCashPayments(pendingPaymentsList);
-        } catch (Exception e) {
-            System.err.println("Lỗi khi lấy danh sách thanh toán tiền mặt pending cho bill #" + bill.getId() + ": " + e.getMessage());
-            response.setPendingCashPayments(new ArrayList<>());
+            pendingPaymentsList.add(paymentMap);
         }
+        response.setPendingCashPayments(pendingPaymentsList);
 
         return response;
     }
@@ -871,6 +934,27 @@ public class BillServiceImpl implements BillService {
         // Lấy contract active của phòng
         Contract contract = contractRepository.findActiveByRoomId(roomId)
                 .orElseThrow(() -> new NotFoundException("Không có hợp đồng đang hoạt động cho phòng này"));
+        Bill bill = saveServiceBill(room, contract, month, year);
+        sendBillNotificationToAllUsers(bill);
+        return toResponse(bill);
+    }
+
+    @Override
+    public Bill createServiceBill(Long contractId, int month, int year, boolean sendNotification) {
+        Contract contract = contractRepository.findById(contractId)
+                .orElseThrow(() -> new NotFoundException("Không tìm thấy hợp đồng"));
+        if (contract.getContractStatus() != ContractStatus.ACTIVE) {
+            throw new BusinessException("Hợp đồng #" + contractId + " không còn hoạt động");
+        }
+        Bill bill = saveServiceBill(contract.getRoom(), contract, month, year);
+        if (sendNotification) {
+            sendBillNotificationToAllUsers(bill);
+        }
+        return bill;
+    }
+
+    // Tính và lưu hóa đơn dịch vụ tháng cho phòng/hợp đồng (không gửi thông báo)
+    private Bill saveServiceBill(Room room, Contract contract, int month, int year) {
         ZoneId vnZone = ZoneId.of("Asia/Ho_Chi_Minh");
         LocalDate monthStart = LocalDate.of(year, month, 1);
         LocalDate monthEnd = monthStart.withDayOfMonth(monthStart.lengthOfMonth());
@@ -962,9 +1046,7 @@ public class BillServiceImpl implements BillService {
         for (BillDetail detail : details) {
             detail.setBill(bill);
         }
-        billRepository.save(bill);
-        sendBillNotificationToAllUsers(bill);
-        return toResponse(bill);
+        return billRepository.save(bill);
     }
 
     @Override
@@ -1023,8 +1105,15 @@ public class BillServiceImpl implements BillService {
             emailSentLogRepository.deleteAll(emailLogs);
         }
         
+        // Xóa lịch sử điều chỉnh phạt (nếu là hóa đơn phạt)
+        List<PenaltyAdjustment> penaltyAdjustments = penaltyAdjustmentRepository.findByPenaltyBillIdOrderByRevisionDesc(id);
+        if (!penaltyAdjustments.isEmpty()) {
+            penaltyAdjustmentRepository.deleteAll(penaltyAdjustments);
+        }
+        
         // Bây giờ có thể xóa hóa đơn an toàn
         billRepository.deleteById(id);
+        billPdfCache.invalidate(id);
         System.out.println("✅ Đã xóa hóa đơn #" + id + " thành công");
     }
 
@@ -1172,50 +1261,41 @@ public class BillServiceImpl implements BillService {
         List<BillResponse> generatedBills = new ArrayList<>();
         
         // Lấy tất cả hợp đồng ACTIVE
-        List<Contract> activeContracts = contractRepository.findAll().stream()
-            .filter(contract -> contract.getContractStatus() == ContractStatus.ACTIVE)
-            .toList();
+        List<Contract> activeContracts = contractRepository.findByContractStatus(ContractStatus.ACTIVE);
         
         System.out.println("📋 Found " + activeContracts.size() + " active contracts");
         
         LocalDate today = LocalDate.now();
         
+        // Bước 1: Tính kỳ hóa đơn cần tạo cho từng hợp đồng (chưa truy vấn bảng bills)
+        Map<Long, LocalDate[]> candidatePeriods = computeCandidatePeriods(activeContracts, today);
+        
+        // Bước 2: Lấy toàn bộ kỳ đã có hóa đơn bằng một truy vấn theo index (contract_id, from_date, to_date, bill_type)
+        Set<String> existingPeriods = findExistingBillPeriods(candidatePeriods);
+        
+        // Bước 3: Tạo hóa đơn cho các hợp đồng chưa có hóa đơn trong kỳ
         for (Contract contract : activeContracts) {
+            LocalDate[] period = candidatePeriods.get(contract.getId());
+            if (period == null) {
+                continue;
+            }
             try {
                 System.out.println("\n--- Processing Contract #" + contract.getId() + " ---");
                 System.out.println("Room: " + contract.getRoom().getRoomNumber());
                 System.out.println("Payment Cycle: " + contract.getPaymentCycle());
                 
-                // Tính toán chu kỳ tiếp theo cần tạo bill
-                LocalDate contractStart = contract.getContractStartDate().atZone(ZoneId.systemDefault()).toLocalDate();
-                LocalDate contractEnd = contract.getContractEndDate().atZone(ZoneId.systemDefault()).toLocalDate();
-                
-                if (today.isAfter(contractEnd)) {
-                    System.out.println("⏭️ Contract expired, skipping");
-                    continue;
-                }
-                
-                PaymentCycle cycle = contract.getPaymentCycle();
-                LocalDate nextPeriodStart = calculateNextPeriodStart(contractStart, cycle, today);
-                LocalDate nextPeriodEnd = calculatePeriodEnd(nextPeriodStart, cycle);
-                
-                // Đảm bảo không vượt quá ngày kết thúc hợp đồng
-                if (nextPeriodEnd.isAfter(contractEnd)) {
-                    nextPeriodEnd = contractEnd;
-                }
-                
+                LocalDate nextPeriodStart = period[0];
+                LocalDate nextPeriodEnd = period[1];
                 System.out.println("📅 Next period: " + nextPeriodStart + " to " + nextPeriodEnd);
                 
                 // Kiểm tra đã có bill cho chu kỳ này chưa
-                boolean billExists = checkBillExists(contract.getId(), nextPeriodStart, nextPeriodEnd);
-                
-                if (billExists) {
+                if (existingPeriods.contains(billPeriodKey(contract.getId(), toPeriodFromInstant(nextPeriodStart), toPeriodToInstant(nextPeriodEnd)))) {
                     System.out.println("Hóa đơn đã tồn tại cho kỳ này, bỏ qua");
                     continue;
                 }
                 
                 // Tạo bill mới theo chu kỳ: MONTHLY => CONTRACT_TOTAL; QUARTERLY/YEARLY => chỉ tiền phòng
-                BillType billTypeToGenerate = (cycle == PaymentCycle.MONTHLY)
+                BillType billTypeToGenerate = (contract.getPaymentCycle() == PaymentCycle.MONTHLY)
                     ? BillType.CONTRACT_TOTAL
                     : BillType.CONTRACT_ROOM_RENT;
                 Bill newBill = generateBill(contract.getId(), nextPeriodStart, nextPeriodEnd, billTypeToGenerate);
@@ -1240,10 +1320,8 @@ public class BillServiceImpl implements BillService {
         System.out.println("\n🚀 AUTO SERVICE BILL GENERATION STARTED");
         List<BillResponse> generatedBills = new ArrayList<>();
         
-        // Lấy tất cả hợp đồng ACTIVE
-        List<Contract> activeContracts = contractRepository.findAll().stream()
-            .filter(contract -> contract.getContractStatus() == ContractStatus.ACTIVE)
-            .toList();
+        // Lấy tất cả hợp đồng ACTIVE (kèm phòng)
+        List<Contract> activeContracts = contractRepository.findWithRoomByContractStatus(ContractStatus.ACTIVE);
         
         System.out.println("📋 Found " + activeContracts.size() + " active contracts");
         
@@ -1251,6 +1329,10 @@ public class BillServiceImpl implements BillService {
         int currentMonth = today.getMonthValue();
         int currentYear = today.getYear();
         
+        // Các hợp đồng đã có hóa đơn dịch vụ tháng này - một truy vấn duy nhất
+        Set<Long> billedContractIds = new HashSet<>(billRepository.findContractIdsByBillTypeAndBillingMonth(
+            BillType.SERVICE, Bill.toBillingMonth(currentMonth, currentYear)));
+        
         for (Contract contract : activeContracts) {
             try {
                 System.out.println("\n--- Processing Service Bill for Contract #" + contract.getId() + " ---");
@@ -1264,22 +1346,17 @@ public class BillServiceImpl implements BillService {
                 }
                 
                 // Kiểm tra đã có hóa đơn dịch vụ cho tháng này chưa
-                boolean serviceExistsForMonth = billRepository.findAll().stream()
-                    .anyMatch(bill -> 
-                        bill.getContract().getId().equals(contract.getId()) &&
-                        bill.getBillType() == BillType.SERVICE &&
-                        bill.getFromDate().atZone(ZoneId.systemDefault()).getMonthValue() == currentMonth &&
-                        bill.getFromDate().atZone(ZoneId.systemDefault()).getYear() == currentYear
-                    );
-                
-                if (serviceExistsForMonth) {
+                if (billedContractIds.contains(contract.getId())) {
                     System.out.println("Hóa đơn dịch vụ đã tồn tại cho tháng " + currentMonth + "/" + currentYear + ", bỏ qua");
                     continue;
                 }
                 
                 // Tạo hóa đơn dịch vụ tự động
                 try {
-                    BillResponse serviceBill = createAndSaveServiceBill(contract.getRoom().getId(), currentMonth, currentYear);
+                    Bill bill = saveServiceBill(contract.getRoom(), contract, currentMonth, currentYear);
+                    billedContractIds.add(contract.getId());
+                    sendBillNotificationToAllUsers(bill);
+                    BillResponse serviceBill = toResponse(bill);
                     generatedBills.add(serviceBill);
                     System.out.println("✅ Đã tạo hóa đơn dịch vụ #" + serviceBill.getId() + " - Số tiền: " + serviceBill.getTotalAmount() + " VND");
                 } catch (Exception e) {
@@ -1332,309 +1409,213 @@ public class BillServiceImpl implements BillService {
     }
 
     /**
-     * Kiểm tra đã có bill cho chu kỳ này chưa
+     * Tính kỳ hóa đơn tiếp theo (fromDate, toDate) cho từng hợp đồng còn hiệu lực
      */
-    private boolean checkBillExists(Long contractId, LocalDate fromDate, LocalDate toDate) {
-        ZoneId vnZone = ZoneId.of("Asia/Ho_Chi_Minh");
-        Instant fromInstant = fromDate.atStartOfDay(vnZone).toInstant();
-        Instant toInstant = toDate.atTime(23, 59).atZone(vnZone).toInstant();
-        
-        return billRepository.findAll().stream()
-            .anyMatch(bill -> 
-                bill.getContract().getId().equals(contractId) &&
-                bill.getFromDate().equals(fromInstant) &&
-                bill.getToDate().equals(toInstant)
-            );
+    private Map<Long, LocalDate[]> computeCandidatePeriods(List<Contract> contracts, LocalDate today) {
+        Map<Long, LocalDate[]> candidatePeriods = new HashMap<>();
+        for (Contract contract : contracts) {
+            try {
+                LocalDate contractStart = contract.getContractStartDate().atZone(ZoneId.systemDefault()).toLocalDate();
+                LocalDate contractEnd = contract.getContractEndDate().atZone(ZoneId.systemDefault()).toLocalDate();
+                
+                if (today.isAfter(contractEnd)) {
+                    System.out.println("⏭️ Contract #" + contract.getId() + " expired, skipping");
+                    continue;
+                }
+                
+                PaymentCycle cycle = contract.getPaymentCycle();
+                LocalDate nextPeriodStart = calculateNextPeriodStart(contractStart, cycle, today);
+                LocalDate nextPeriodEnd = calculatePeriodEnd(nextPeriodStart, cycle);
+                
+                // Đảm bảo không vượt quá ngày kết thúc hợp đồng
+                if (nextPeriodEnd.isAfter(contractEnd)) {
+                    nextPeriodEnd = contractEnd;
+                }
+                candidatePeriods.put(contract.getId(), new LocalDate[]{nextPeriodStart, nextPeriodEnd});
+            } catch (Exception e) {
+                System.out.println("Lỗi xử lý hợp đồng #" + contract.getId() + ": " + e.getMessage());
+            }
+        }
+        return candidatePeriods;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Long, LocalDate[]> findContractsPendingBill(Collection<Long> contractIds) {
+        List<Contract> contracts = contractRepository.findAllById(contractIds).stream()
+            .filter(contract -> contract.getContractStatus() == ContractStatus.ACTIVE)
+            .toList();
+        Map<Long, LocalDate[]> candidatePeriods = computeCandidatePeriods(contracts, LocalDate.now());
+        Set<String> existingPeriods = findExistingBillPeriods(candidatePeriods);
+        candidatePeriods.entrySet().removeIf(entry -> existingPeriods.contains(
+            billPeriodKey(entry.getKey(), toPeriodFromInstant(entry.getValue()[0]), toPeriodToInstant(entry.getValue()[1]))));
+        return candidatePeriods;
     }
 
     @Override
+    @Transactional(readOnly = true)
+    public Set<Long> findContractIdsWithServiceBill(Collection<Long> contractIds, int month, int year) {
+        if (contractIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(billRepository.findContractIdsByBillTypeAndBillingMonth(
+            contractIds, BillType.SERVICE, Bill.toBillingMonth(month, year)));
+    }
+
+    /**
+     * Số hợp đồng tối đa trong một mệnh đề IN khi tra cứu kỳ hóa đơn đã tồn tại
+     */
+    private static final int EXISTING_PERIOD_QUERY_CHUNK = 1000;
+
+    /**
+     * Lấy các kỳ hóa đơn đã tồn tại cho danh sách hợp đồng ứng viên.
+     * Mỗi lô hợp đồng chỉ tốn một truy vấn projection (contractId, fromDate, toDate), không nạp entity Bill.
+     */
+    private Set<String> findExistingBillPeriods(Map<Long, LocalDate[]> candidatePeriods) {
+        Set<String> existing = new HashSet<>();
+        if (candidatePeriods.isEmpty()) {
+            return existing;
+        }
+        
+        List<Long> contractIds = new ArrayList<>(candidatePeriods.keySet());
+        for (int i = 0; i < contractIds.size(); i += EXISTING_PERIOD_QUERY_CHUNK) {
+            List<Long> chunk = contractIds.subList(i, Math.min(i + EXISTING_PERIOD_QUERY_CHUNK, contractIds.size()));
+            Instant minFrom = null;
+            Instant maxFrom = null;
+            for (Long contractId : chunk) {
+                Instant from = toPeriodFromInstant(candidatePeriods.get(contractId)[0]);
+                if (minFrom == null || from.isBefore(minFrom)) minFrom = from;
+                if (maxFrom == null || from.isAfter(maxFrom)) maxFrom = from;
+            }
+            for (Object[] row : billRepository.findExistingPeriods(chunk, minFrom, maxFrom)) {
+                existing.add(billPeriodKey((Long) row[0], (Instant) row[1], (Instant) row[2]));
+            }
+        }
+        return existing;
+    }
+
+    private Instant toPeriodFromInstant(LocalDate fromDate) {
+        return fromDate.atStartOfDay(ZoneId.of("Asia/Ho_Chi_Minh")).toInstant();
+    }
+
+    private Instant toPeriodToInstant(LocalDate toDate) {
+        return toDate.atTime(23, 59).atZone(ZoneId.of("Asia/Ho_Chi_Minh")).toInstant();
+    }
+
+    private String billPeriodKey(Long contractId, Instant fromDate, Instant toDate) {
+        return contractId + "|" + fromDate.toEpochMilli() + "|" + toDate.toEpochMilli();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public byte[] generateBillPdf(Long billId) {
+        // Dùng cho file đính kèm email (JavaMail cần toàn bộ nội dung), export HTTP dùng writeBillPdf để stream
+        String versionStamp = getBillPdfVersionStamp(billId);
+        java.nio.file.Path cached = billPdfCache.getOrRender(billId, versionStamp, out -> billPdfRenderer.render(getBillPdfView(billId), out));
+        if (cached != null) {
+            try {
+                return java.nio.file.Files.readAllBytes(cached);
+            } catch (java.io.IOException e) {
+                System.err.println("Không đọc được cache PDF hóa đơn #" + billId + ", render lại: " + e.getMessage());
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        billPdfRenderer.render(getBillPdfView(billId), baos);
+        return baos.toByteArray();
+    }
+
+    // Khóa cache PDF lấy từ một truy vấn nhẹ, không nạp hóa đơn/chi tiết/thành viên
+    @Override
+    public String getBillPdfVersionStamp(Long billId) {
+        List<Object[]> rows = billRepository.findPdfVersionStamp(billId);
+        if (rows.isEmpty()) {
+            throw new NotFoundException("Không tìm thấy hóa đơn");
+        }
+        StringBuilder stamp = new StringBuilder();
+        for (Object value : rows.get(0)) {
+            stamp.append(value).append('|');
+        }
+        return stamp.toString();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BillPdfView getBillPdfView(Long billId) {
         Bill bill = billRepository.findById(billId)
             .orElseThrow(() -> new NotFoundException("Không tìm thấy hóa đơn"));
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Document document = new Document(PageSize.A4, 40, 40, 60, 40);
-        try {
-            // Load Arial font from resources
-            InputStream fontStream = getClass().getClassLoader().getResourceAsStream("fonts/arial.ttf");
-            if (fontStream == null) throw new RuntimeException("Không tìm thấy font Arial");
-            byte[] fontBytes = fontStream.readAllBytes();
-            BaseFont baseFont = BaseFont.createFont("arial.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED, BaseFont.CACHED, fontBytes, null);
-            
-            // Professional fonts
-            Font titleFont = new Font(baseFont, 20, Font.BOLD);
-            Font headerFont = new Font(baseFont, 12, Font.BOLD);
-            Font normalFont = new Font(baseFont, 10, Font.NORMAL);
-            Font smallFont = new Font(baseFont, 9, Font.NORMAL);
-
-            PdfWriter.getInstance(document, baos);
-            document.open();
-
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd/MM/yyyy").withZone(ZoneId.systemDefault());
-
-            // Professional header with company info
-            Paragraph title = new Paragraph("HÓA ĐƠN THANH TOÁN", titleFont);
-            title.setAlignment(Element.ALIGN_CENTER);
-            title.setSpacingAfter(10f);
-            document.add(title);
-            
-            Paragraph subtitle = new Paragraph("HỆ THỐNG QUẢN LÝ TÒA NHÀ MP-BHMS", normalFont);
-            subtitle.setAlignment(Element.ALIGN_CENTER);
-            subtitle.setSpacingAfter(25f);
-            document.add(subtitle);
-            
-            // Invoice header info - clean layout
-            PdfPTable headerTable = new PdfPTable(2);
-            headerTable.setWidthPercentage(100);
-            headerTable.setSpacingAfter(25f);
-            
-            PdfPCell leftHeader = new PdfPCell();
-            leftHeader.setBorder(Rectangle.NO_BORDER);
-            leftHeader.addElement(new Paragraph("Số hóa đơn: #" + String.format("%06d", bill.getId()), headerFont));
-            leftHeader.addElement(new Paragraph("Ngày lập: " + dateFormatter.format(bill.getBillDate().atZone(ZoneId.systemDefault())), normalFont));
-            
-            PdfPCell rightHeader = new PdfPCell();
-            rightHeader.setBorder(Rectangle.NO_BORDER);
-            rightHeader.setHorizontalAlignment(Element.ALIGN_RIGHT);
-            String statusText = bill.getStatus() ? "ĐÃ THANH TOÁN" : "CHƯA THANH TOÁN";
-            Color statusColor = bill.getStatus() ? new Color(0, 128, 0) : new Color(255, 0, 0);
-            Font statusFont = new Font(baseFont, 12, Font.BOLD, statusColor);
-            rightHeader.addElement(new Paragraph("Trạng thái:", normalFont));
-            rightHeader.addElement(new Paragraph(statusText, statusFont));
-            
-            headerTable.addCell(leftHeader);
-            headerTable.addCell(rightHeader);
-            document.add(headerTable);
-
-            // Customer and Room Information - improved layout
-            PdfPTable infoMainTable = new PdfPTable(2);
-            infoMainTable.setWidthPercentage(100);
-            infoMainTable.setSpacingAfter(25f);
-            
-            // Customer Info - TẤT CẢ thành viên trong phòng
-            PdfPCell customerCell = new PdfPCell();
-            customerCell.setBorder(Rectangle.BOX);
-            customerCell.setPadding(15f);
-            customerCell.setVerticalAlignment(Element.ALIGN_TOP);
-            
-            Paragraph customerTitle = new Paragraph("THÔNG TIN KHÁCH HÀNG", headerFont);
-            customerTitle.setSpacingAfter(10f);
-            customerCell.addElement(customerTitle);
-            
-            if (bill.getContract() != null && bill.getContract().getRoomUsers() != null) {
-                int memberIndex = 1;
+
+        BillPdfView.BillPdfViewBuilder view = BillPdfView.builder()
+            .billId(bill.getId())
+            .billDate(bill.getBillDate())
+            .paid(Boolean.TRUE.equals(bill.getStatus()))
+            .roomNumber(bill.getRoom().getRoomNumber())
+            .building(bill.getRoom().getBuilding())
+            .fromDate(bill.getFromDate())
+            .toDate(bill.getToDate())
+            .dueDate(bill.getDueDate())
+            .effectiveDueDate(bill.getDueDate() != null ? bill.getDueDate() : bill.getToDate().plusSeconds(7 * 24 * 60 * 60))
+            .partiallyPaid(Boolean.TRUE.equals(bill.getIsPartiallyPaid()))
+            .paidAmount(bill.getPaidAmount())
+            .partialPaymentFeesCollected(bill.getPartialPaymentFeesCollected())
+            .outstandingAmount(bill.getOutstandingAmount());
+
+        // TẤT CẢ thành viên đang ở trong phòng
+        if (bill.getContract() != null) {
+            view.contractId(bill.getContract().getId());
+            if (bill.getContract().getRoomUsers() != null) {
                 for (RoomUser roomUser : bill.getContract().getRoomUsers()) {
                     if (roomUser.getUser() != null && roomUser.getUser().getUserInfo() != null && Boolean.TRUE.equals(roomUser.getIsActive())) {
-                        if (memberIndex > 1) {
-                            customerCell.addElement(new Paragraph(" ", normalFont)); // Spacing
-                        }
-                        customerCell.addElement(new Paragraph("Thành viên " + memberIndex + ":", new Font(baseFont, 10, Font.BOLD)));
-                        customerCell.addElement(new Paragraph("• Họ tên: " + roomUser.getUser().getUserInfo().getFullName(), normalFont));
-                        customerCell.addElement(new Paragraph("• SĐT: " + roomUser.getUser().getUserInfo().getPhoneNumber(), normalFont));
-                        if (roomUser.getUser().getEmail() != null) {
-                            customerCell.addElement(new Paragraph("• Email: " + roomUser.getUser().getEmail(), normalFont));
-                        }
-                        customerCell.addElement(new Paragraph("• Ngày vào ở: " + (roomUser.getJoinedAt() != null ? dateFormatter.format(roomUser.getJoinedAt().atZone(ZoneId.systemDefault())) : "N/A"), normalFont));
-                        memberIndex++;
+                        view.member(BillPdfView.Member.builder()
+                            .fullName(roomUser.getUser().getUserInfo().getFullName())
+                            .phoneNumber(roomUser.getUser().getUserInfo().getPhoneNumber())
+                            .email(roomUser.getUser().getEmail())
+                            .joinedAt(roomUser.getJoinedAt())
+                            .build());
                     }
                 }
-                if (memberIndex == 1) {
-                    customerCell.addElement(new Paragraph("Chưa có thành viên nào", normalFont));
-                }
-            }
-            
-            // Room Info
-            PdfPCell roomCell = new PdfPCell();
-            roomCell.setBorder(Rectangle.BOX);
-            roomCell.setPadding(15f);
-            roomCell.setVerticalAlignment(Element.ALIGN_TOP);
-            
-            Paragraph roomTitle = new Paragraph("THÔNG TIN PHÒNG", headerFont);
-            roomTitle.setSpacingAfter(10f);
-            roomCell.addElement(roomTitle);
-            roomCell.addElement(new Paragraph("• Số phòng: " + bill.getRoom().getRoomNumber(), normalFont));
-            if (bill.getRoom().getBuilding() != null && !bill.getRoom().getBuilding().isEmpty()) {
-                roomCell.addElement(new Paragraph("• Tòa nhà: " + bill.getRoom().getBuilding(), normalFont));
-            }
-            if (bill.getContract() != null) {
-                roomCell.addElement(new Paragraph("• Hợp đồng: #" + bill.getContract().getId(), normalFont));
-            }
-            
-            // Thời gian tính tiền
-            roomCell.addElement(new Paragraph(" ", normalFont));
-            roomCell.addElement(new Paragraph("THỜI GIAN TÍNH TIỀN:", new Font(baseFont, 10, Font.BOLD)));
-            roomCell.addElement(new Paragraph("• Từ ngày: " + dateFormatter.format(bill.getFromDate().atZone(ZoneId.systemDefault())), normalFont));
-            roomCell.addElement(new Paragraph("• Đến ngày: " + dateFormatter.format(bill.getToDate().atZone(ZoneId.systemDefault())), normalFont));
-            
-            // Hạn thanh toán
-            String roomDueDateText;
-            if (bill.getDueDate() != null) {
-                roomDueDateText = dateFormatter.format(bill.getDueDate().atZone(ZoneId.systemDefault()));
-            } else {
-                roomDueDateText = dateFormatter.format(bill.getToDate().plusSeconds(7 * 24 * 60 * 60).atZone(ZoneId.systemDefault()));
-            }
-            roomCell.addElement(new Paragraph("• Hạn thanh toán: " + roomDueDateText, normalFont));
-            
-            infoMainTable.addCell(customerCell);
-            infoMainTable.addCell(roomCell);
-            document.add(infoMainTable);
-
-            // Invoice Details - professional table
-            Paragraph detailsTitle = new Paragraph("CHI TIẾT HÓA ĐƠN", headerFont);
-            detailsTitle.setSpacingAfter(15f);
-            document.add(detailsTitle);
-            
-            PdfPTable detailTable = new PdfPTable(4);
-            detailTable.setWidthPercentage(100);
-            detailTable.setSpacingAfter(20f);
-            detailTable.setWidths(new float[]{4f, 1.5f, 2f, 2f});
-            
-            // Header row with styling
-            PdfPCell[] headerCells = {
-                new PdfPCell(new Phrase("DIỄN GIẢI", headerFont)),
-                new PdfPCell(new Phrase("SỐ LƯỢNG", headerFont)),
-                new PdfPCell(new Phrase("ĐƠN GIÁ", headerFont)),
-                new PdfPCell(new Phrase("THÀNH TIỀN", headerFont))
-            };
-            
-            for (PdfPCell cell : headerCells) {
-                cell.setBackgroundColor(new Color(240, 240, 240));
-                cell.setPadding(8f);
-                cell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                detailTable.addCell(cell);
-            }
-            
-            BigDecimal totalAmount = BigDecimal.ZERO;
-            for (BillDetail detail : bill.getBillDetails()) {
-                // Description
-                PdfPCell descCell = new PdfPCell(new Phrase(detail.getDescription(), normalFont));
-                descCell.setPadding(8f);
-                detailTable.addCell(descCell);
-                
-                // Quantity - center aligned
-                String quantity = detail.getConsumedUnits() != null ? 
-                    new java.text.DecimalFormat("#,###.##").format(detail.getConsumedUnits()) : "1";
-                PdfPCell qtyCell = new PdfPCell(new Phrase(quantity, normalFont));
-                qtyCell.setPadding(8f);
-                qtyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                detailTable.addCell(qtyCell);
-                
-                // Unit Price - right aligned
-                String unitPrice = detail.getUnitPriceAtBill() != null ? formatCurrency(detail.getUnitPriceAtBill()) : "-";
-                PdfPCell priceCell = new PdfPCell(new Phrase(unitPrice, normalFont));
-                priceCell.setPadding(8f);
-                priceCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-                detailTable.addCell(priceCell);
-                
-                // Amount - right aligned
-                String amount = detail.getItemAmount() != null ? formatCurrency(detail.getItemAmount()) : "-";
-                PdfPCell amountCell = new PdfPCell(new Phrase(amount, normalFont));
-                amountCell.setPadding(8f);
-                amountCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-                detailTable.addCell(amountCell);
-                
-                if (detail.getItemAmount() != null) {
-                    totalAmount = totalAmount.add(detail.getItemAmount());
-                }
-            }
-            document.add(detailTable);
-
-            // Payment Summary - professional layout
-            PdfPTable summaryTable = new PdfPTable(2);
-            summaryTable.setWidthPercentage(60);
-            summaryTable.setHorizontalAlignment(Element.ALIGN_RIGHT);
-            summaryTable.setSpacingAfter(25f);
-            summaryTable.setWidths(new float[]{3f, 2f});
-            
-            // Total amount
-            PdfPCell totalLabelCell = new PdfPCell(new Phrase("TỔNG CỘNG:", headerFont));
-            totalLabelCell.setPadding(10f);
-            totalLabelCell.setBackgroundColor(new Color(240, 240, 240));
-            totalLabelCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-            
-            PdfPCell totalValueCell = new PdfPCell(new Phrase(formatCurrency(totalAmount), headerFont));
-            totalValueCell.setPadding(10f);
-            totalValueCell.setBackgroundColor(new Color(240, 240, 240));
-            totalValueCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-            
-            summaryTable.addCell(totalLabelCell);
-            summaryTable.addCell(totalValueCell);
-            
-            // Thông tin thanh toán từng phần nếu có
-            if (Boolean.TRUE.equals(bill.getIsPartiallyPaid())) {
-                // Đã thanh toán (gốc)
-                summaryTable.addCell(new PdfPCell(new Phrase("Đã thanh toán (gốc):", normalFont)) {{ setPadding(8f); setHorizontalAlignment(Element.ALIGN_RIGHT); }});
-                summaryTable.addCell(new PdfPCell(new Phrase(formatCurrency(bill.getPaidAmount() != null ? bill.getPaidAmount() : BigDecimal.ZERO), normalFont)) {{ setPadding(8f); setHorizontalAlignment(Element.ALIGN_RIGHT); }});
-                
-                // Phí thanh toán từng phần
-                if (bill.getPartialPaymentFeesCollected() != null && bill.getPartialPaymentFeesCollected().compareTo(BigDecimal.ZERO) > 0) {
-                    summaryTable.addCell(new PdfPCell(new Phrase("Phí thanh toán từng phần:", normalFont)) {{ setPadding(8f); setHorizontalAlignment(Element.ALIGN_RIGHT); }});
-                    summaryTable.addCell(new PdfPCell(new Phrase(formatCurrency(bill.getPartialPaymentFeesCollected()), normalFont)) {{ setPadding(8f); setHorizontalAlignment(Element.ALIGN_RIGHT); }});
-                }
-                
-                // Còn nợ
-                Color debtColor = bill.getOutstandingAmount() != null && bill.getOutstandingAmount().compareTo(BigDecimal.ZERO) > 0 ? 
-                    new Color(255, 77, 79) : new Color(82, 196, 26);
-                Font debtFont = new Font(baseFont, 11, Font.BOLD, debtColor);
-                
-                PdfPCell debtLabelCell = new PdfPCell(new Phrase("CÒN NỢ:", debtFont));
-                debtLabelCell.setPadding(10f);
-                debtLabelCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-                debtLabelCell.setBackgroundColor(new Color(250, 250, 250));
-                
-                PdfPCell debtValueCell = new PdfPCell(new Phrase(formatCurrency(bill.getOutstandingAmount() != null ? bill.getOutstandingAmount() : BigDecimal.ZERO), debtFont));
-                debtValueCell.setPadding(10f);
-                debtValueCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-                debtValueCell.setBackgroundColor(new Color(250, 250, 250));
-                
-                summaryTable.addCell(debtLabelCell);
-                summaryTable.addCell(debtValueCell);
-            }
-            
-            document.add(summaryTable);
-
-            // Payment Information (only if not paid)
-            if (!bill.getStatus()) {
-                Paragraph paymentTitle = new Paragraph("THÔNG TIN THANH TOÁN", headerFont);
-                paymentTitle.setSpacingAfter(10f);
-                document.add(paymentTitle);
-                
-                PdfPTable paymentTable = new PdfPTable(2);
-                paymentTable.setWidthPercentage(100);
-                paymentTable.setSpacingAfter(20f);
-                paymentTable.setWidths(new float[]{1f, 1f});
-                
-                PdfPCell methodCell = new PdfPCell(new Phrase("Phương thức thanh toán: VNPay / Tiền mặt", normalFont));
-                methodCell.setPadding(8f);
-                methodCell.setBorder(Rectangle.BOX);
-                
-                String dueDateText = bill.getDueDate() != null ? 
-                    dateFormatter.format(bill.getDueDate().atZone(ZoneId.systemDefault())) : 
-                    "Chưa thiết lập";
-                PdfPCell dueDateCell = new PdfPCell(new Phrase("Hạn thanh toán: " + dueDateText, normalFont));
-                dueDateCell.setPadding(8f);
-                dueDateCell.setBorder(Rectangle.BOX);
-                
-                paymentTable.addCell(methodCell);
-                paymentTable.addCell(dueDateCell);
-                document.add(paymentTable);
             }
+        }
 
-            // Professional footer
-            Paragraph footer = new Paragraph("Cảm ơn quý khách đã sử dụng dịch vụ của chúng tôi!", smallFont);
-            footer.setAlignment(Element.ALIGN_CENTER);
-            footer.setSpacingBefore(30f);
-            document.add(footer);
-            
-            Paragraph contactInfo = new Paragraph("Liên hệ: MP-BHMS | Email: support@mpbhms.online", smallFont);
-            contactInfo.setAlignment(Element.ALIGN_CENTER);
-            contactInfo.setSpacingAfter(10f);
-            document.add(contactInfo);
+        for (BillDetail detail : bill.getBillDetails()) {
+            view.line(BillPdfView.Line.builder()
+                .description(detail.getDescription())
+                .consumedUnits(detail.getConsumedUnits())
+                .unitPrice(detail.getUnitPriceAtBill())
+                .amount(detail.getItemAmount())
+                .build());
+        }
+        return view.build();
+    }
 
-            document.close();
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating PDF", e);
+    @Override
+    public void writeBillPdf(Long billId, String versionStamp, OutputStream out) {
+        java.nio.file.Path cached = billPdfCache.getOrRender(billId, versionStamp, cacheOut -> billPdfRenderer.render(loadBillPdfView(billId), cacheOut));
+        if (cached != null) {
+            // Chuyển file cache sang response bằng FileChannel.transferTo, không render lại
+            try (java.nio.channels.FileChannel file = java.nio.channels.FileChannel.open(cached, java.nio.file.StandardOpenOption.READ)) {
+                java.nio.channels.WritableByteChannel target = java.nio.channels.Channels.newChannel(out);
+                long position = 0;
+                long size = file.size();
+                while (position < size) {
+                    position += file.transferTo(position, size - position, target);
+                }
+                return;
+            } catch (java.nio.file.NoSuchFileException e) {
+                // File vừa bị LRU xóa trước khi mở, render trực tiếp
+                System.err.println("File cache PDF hóa đơn #" + billId + " đã bị xóa, render trực tiếp");
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
         }
-        return baos.toByteArray();
+        billPdfRenderer.render(loadBillPdfView(billId), out);
+    }
+
+    // Nạp BillPdfView trong transaction chỉ đọc riêng (gọi nội bộ không đi qua proxy @Transactional),
+    // transaction đóng trước khi render/stream PDF
+    private BillPdfView loadBillPdfView(Long billId) {
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        return readOnlyTransaction.execute(status -> getBillPdfView(billId));
     }
 
     @Override
@@ -1702,6 +1683,14 @@ public class BillServiceImpl implements BillService {
         return billRepository.countPartiallyPaidBills();
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public void sendBillNotificationToAllUsers(Long billId) {
+        Bill bill = billRepository.findById(billId)
+                .orElseThrow(() -> new NotFoundException("Không tìm thấy hóa đơn"));
+        sendBillNotificationToAllUsers(bill);
+    }
+
     // Gửi notification cho từng user trong phòng ứng với hợp đồng khi gửi bill
     private void sendBillNotificationToAllUsers(Bill bill) {
         Contract contract = bill.getContract();
@@ -1749,8 +1738,9 @@ public class BillServiceImpl implements BillService {
         Bill updatedBill = billRepository.save(bill);
         
         // 🆕 Xóa khỏi cache cảnh báo nếu bill được thanh toán
+        billPdfCache.invalidate(billId);
         if (status) {
-            warningSentBills.remove(billId);
+            overdueWarningLedger.evictLocal(billId, OverdueWarningLedger.WARNING_OVERDUE_7_DAYS);
             System.out.println("[" + java.time.LocalDateTime.now() + "] Đã xóa hóa đơn #" + billId + " khỏi cache cảnh báo (đã thanh toán)");
 
             // 🆕 Gửi email/notification xác nhận đã thanh toán khi bấm nút "Đã thanh toán"
@@ -1856,10 +1846,11 @@ public class BillServiceImpl implements BillService {
                             "<li><strong>Còn nợ:</strong> 0 VNĐ</li>" +
                             "<li><strong>Ngày thanh toán:</strong> " + formatDateTime(bill.getPaidDate()) + "</li>" +
                             "</ul>";
-                        emailService.sendNotificationEmail(
+                        emailOutboxService.enqueue(
                             mainRenter.getUser().getEmail(),
                             "Xác nhận đã thanh toán - Hóa đơn #" + bill.getId(),
-                            content
+                            content,
+                            null
                         );
                     }
                 }
@@ -1898,6 +1889,7 @@ public class BillServiceImpl implements BillService {
         
         // Lưu hóa đơn
         Bill savedBill = billRepository.save(bill);
+        billPdfCache.invalidate(savedBill.getId());
         
         // 🆕 Tạo lịch sử thanh toán và cập nhật phí thanh toán từng phần
         // Chỉ tạo PaymentHistory nếu không có flag skipPaymentHistoryCreation
@@ -2018,10 +2010,11 @@ public class BillServiceImpl implements BillService {
                 
                 if (mainRenter != null && mainRenter.getUser().getEmail() != null) {
                     String emailContent = buildPartialPaymentEmailContent(bill, paymentAmount);
-                    emailService.sendNotificationEmail(
+                    emailOutboxService.enqueue(
                         mainRenter.getUser().getEmail(),
                         "Thanh toán hóa đơn thành công - Hóa đơn #" + bill.getId(),
-                        emailContent
+                        emailContent,
+                        null
                     );
                 }
             }
@@ -2124,18 +2117,29 @@ public class BillServiceImpl implements BillService {
         
         System.out.println("Tạo phạt cho hóa đơn #" + originalBill.getId() + " - Quá hạn: " + overdueDays + " ngày");
         
-        // 🆕 LOGIC MỚI: Xóa hóa đơn phạt cũ nếu có và tạo hóa đơn phạt mới với tỷ lệ cao hơn
-        if (billRepository.existsByOriginalBillAndBillType(originalBill, BillType.LATE_PENALTY)) {
-            // Tìm và xóa hóa đơn phạt cũ
-            List<Bill> existingPenaltyBills = billRepository.findAll().stream()
-                .filter(bill -> bill.getOriginalBill() != null && 
-                               bill.getOriginalBill().getId().equals(originalBill.getId()) && 
-                               bill.getBillType() == BillType.LATE_PENALTY)
-                .collect(Collectors.toList());
-            
+        // 🆕 Nếu đã có hóa đơn phạt chưa thanh toán: cập nhật tại chỗ (tỷ lệ, số ngày, số tiền) thay vì xóa và tạo lại
+        List<Bill> existingPenaltyBills = billRepository.findByOriginalBillAndBillType(originalBill, BillType.LATE_PENALTY);
+        Bill unpaidPenaltyBill = existingPenaltyBills.stream()
+            .filter(bill -> !Boolean.TRUE.equals(bill.getStatus()))
+            .findFirst()
+            .orElse(null);
+        if (unpaidPenaltyBill != null) {
+            PenaltyAdjustment adjustment = applyPenaltyUpdate(unpaidPenaltyBill, originalBill, overdueDays);
+            if (adjustment != null) {
+                billRepository.save(unpaidPenaltyBill);
+                penaltyAdjustmentRepository.save(adjustment);
+            }
+            overdueWarningLedger.evictLocal(originalBillId, OverdueWarningLedger.WARNING_OVERDUE_7_DAYS);
+            return toResponse(unpaidPenaltyBill);
+        }
+        
+        // Hóa đơn phạt cũ đã thanh toán: giữ logic cũ, xóa và tạo hóa đơn phạt mới
+        if (!existingPenaltyBills.isEmpty()) {
             for (Bill existingPenaltyBill : existingPenaltyBills) {
                 System.out.println("Xóa hóa đơn phạt cũ #" + existingPenaltyBill.getId() + " để tạo phạt mới với tỷ lệ cao hơn");
+                penaltyAdjustmentRepository.deleteAll(penaltyAdjustmentRepository.findByPenaltyBillIdOrderByRevisionDesc(existingPenaltyBill.getId()));
                 billRepository.delete(existingPenaltyBill);
+                billPdfCache.invalidate(existingPenaltyBill.getId());
             }
         }
         
@@ -2186,7 +2190,7 @@ public class BillServiceImpl implements BillService {
         Bill savedPenaltyBill = billRepository.save(penaltyBill);
         
         // 🆕 Xóa hóa đơn gốc khỏi cache cảnh báo khi đã tạo phạt
-        warningSentBills.remove(originalBillId);
+        overdueWarningLedger.evictLocal(originalBillId, OverdueWarningLedger.WARNING_OVERDUE_7_DAYS);
         System.out.println("[" + java.time.LocalDateTime.now() + "] Đã xóa hóa đơn #" + originalBillId + " khỏi cache cảnh báo (đã tạo phạt)");
         
         // Gửi thông báo
@@ -2217,13 +2221,7 @@ public class BillServiceImpl implements BillService {
                 }
                 
                 // 🆕 Kiểm tra xem đã có phạt cho hóa đơn này chưa
-                List<Bill> existingPenalties = billRepository.findAll().stream()
-                    .filter(bill -> bill.getOriginalBill() != null && 
-                                   bill.getOriginalBill().getId().equals(overdueBill.getId()) && 
-                                   bill.getBillType() == BillType.LATE_PENALTY)
-                    .toList();
-                
-                if (!existingPenalties.isEmpty()) {
+                if (billRepository.existsByOriginalBillAndBillType(overdueBill, BillType.LATE_PENALTY)) {
                     System.out.println("[" + java.time.LocalDateTime.now() + "] Hóa đơn #" + overdueBill.getId() + " đã có phạt, bỏ qua");
                     continue;
                 }
@@ -2255,10 +2253,181 @@ public class BillServiceImpl implements BillService {
         System.out.println("[" + java.time.LocalDateTime.now() + "] Không có hóa đơn nào cần tạo phạt (cảnh báo đã được xử lý riêng)");
         return createdPenalties;
     }
+
+    @Override
+    public List<BillResponse> processDuePenaltyChecks(int limit) {
+        List<Long> dueBillIds = billRepository.findDuePenaltyCheckIds(Instant.now(), org.springframework.data.domain.PageRequest.of(0, limit));
+        List<BillResponse> changedPenalties = new ArrayList<>();
+        if (dueBillIds.isEmpty()) {
+            return changedPenalties;
+        }
+        
+        System.out.println("[" + java.time.LocalDateTime.now() + "] Xử lý " + dueBillIds.size() + " hóa đơn tới hạn kiểm tra quá hạn");
+        
+        // Mỗi hóa đơn một transaction (kể cả email/thông báo xếp hàng trong outbox):
+        // một hóa đơn lỗi chỉ rollback phần của nó, không làm mất kết quả của cả lô.
+        // Đánh đổi: cập nhật hóa đơn phạt không còn gom thành một batch UPDATE cho cả lượt chạy,
+        // mỗi hóa đơn tới hạn tốn một lần commit (JDBC batch chỉ còn tác dụng trong phạm vi một hóa đơn)
+        TransactionTemplate perBillTransaction = new TransactionTemplate(transactionManager);
+        for (Long billId : dueBillIds) {
+            try {
+                List<BillResponse> changed = processPenaltyCheckWithRetry(perBillTransaction, billId);
+                if (changed != null) {
+                    changedPenalties.addAll(changed);
+                }
+            } catch (Exception e) {
+                // Lỗi sẽ được xử lý lại ở mốc kế tiếp hoặc job đối soát hàng ngày, không chặn các hóa đơn khác
+                System.err.println("[" + java.time.LocalDateTime.now() + "] Lỗi khi xử lý quá hạn hóa đơn #" + billId + ": " + e.getMessage());
+                postponePenaltyCheck(perBillTransaction, billId);
+            }
+        }
+        
+        return changedPenalties;
+    }
+
+    // Hóa đơn có @Version: thanh toán (VNPay, tiền mặt) chạy song song làm transaction xung đột thì đọc lại và thử lại
+    private List<BillResponse> processPenaltyCheckWithRetry(TransactionTemplate perBillTransaction, Long billId) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return perBillTransaction.execute(status -> processPenaltyCheck(billId));
+            } catch (org.springframework.dao.OptimisticLockingFailureException e) {
+                if (attempt >= PENALTY_CHECK_MAX_ATTEMPTS) {
+                    throw e;
+                }
+                System.out.println("⚠️ Xung đột phiên bản hóa đơn #" + billId + " khi xử lý quá hạn, thử lại lần " + (attempt + 1));
+            }
+        }
+    }
+
+    // Xử lý mốc quá hạn của một hóa đơn: cập nhật tại chỗ hóa đơn phạt + lịch sử điều chỉnh, không xóa/tạo lại hóa đơn
+    private List<BillResponse> processPenaltyCheck(Long billId) {
+        Bill bill = billRepository.findById(billId).orElse(null);
+        if (bill == null) {
+            return List.of();
+        }
+        List<BillResponse> changed = new ArrayList<>();
+        List<Bill> updatedPenaltyBills = new ArrayList<>();
+        List<PenaltyAdjustment> adjustments = new ArrayList<>();
+        // Hóa đơn vừa được thanh toán sau khi lấy danh sách thì chỉ cần tính lại mốc kiểm tra
+        if (!Boolean.TRUE.equals(bill.getStatus())) {
+            BillResponse penalty = applyPenaltyTransition(bill, updatedPenaltyBills, adjustments);
+            if (penalty != null) {
+                changed.add(penalty);
+            }
+        }
+        bill.refreshNextPenaltyCheck(Instant.now());
+        billRepository.save(bill);
+        if (!updatedPenaltyBills.isEmpty()) {
+            billRepository.saveAll(updatedPenaltyBills);
+            penaltyAdjustmentRepository.saveAll(adjustments);
+            for (Bill penaltyBill : updatedPenaltyBills) {
+                changed.add(toResponse(penaltyBill));
+            }
+        }
+        return changed;
+    }
+
+    // Hẹn lại mốc kiểm tra của hóa đơn xử lý lỗi để lượt chạy kế tiếp không lấy lại ngay
+    private void postponePenaltyCheck(TransactionTemplate perBillTransaction, Long billId) {
+        try {
+            perBillTransaction.executeWithoutResult(status -> billRepository.findById(billId).ifPresent(bill -> {
+                bill.refreshNextPenaltyCheck(Instant.now());
+                billRepository.save(bill);
+            }));
+        } catch (Exception e) {
+            System.err.println("[" + java.time.LocalDateTime.now() + "] Không thể hẹn lại mốc quá hạn hóa đơn #" + billId + ": " + e.getMessage());
+        }
+    }
+
+    // Xử lý một mốc quá hạn của hóa đơn gốc: cảnh báo ngày thứ 7, tạo phạt từ ngày thứ 8,
+    // các ngày sau đó cập nhật tại chỗ hóa đơn phạt hiện có (gom vào updatedPenaltyBills/adjustments)
+    private BillResponse applyPenaltyTransition(Bill bill, List<Bill> updatedPenaltyBills, List<PenaltyAdjustment> adjustments) {
+        int overdueDays = calculateOverdueDays(bill);
+        
+        if (overdueDays == Bill.OVERDUE_WARNING_DAY) {
+            sendOverdueWarningOnce(bill);
+            return null;
+        }
+        
+        if (overdueDays < Bill.PENALTY_START_DAY) {
+            return null;
+        }
+        
+        List<Bill> existingPenalties = billRepository.findByOriginalBillAndBillType(bill, BillType.LATE_PENALTY);
+        if (existingPenalties.isEmpty()) {
+            System.out.println("[" + java.time.LocalDateTime.now() + "] Hóa đơn #" + bill.getId() + " quá hạn " + overdueDays + " ngày - TẠO PHẠT + THÔNG BÁO");
+            return createLatePenaltyBill(bill.getId());
+        }
+        
+        Bill currentPenalty = existingPenalties.get(0);
+        if (Boolean.TRUE.equals(currentPenalty.getStatus())) {
+            return null;
+        }
+        
+        PenaltyAdjustment adjustment = applyPenaltyUpdate(currentPenalty, bill, overdueDays);
+        if (adjustment != null) {
+            updatedPenaltyBills.add(currentPenalty);
+            adjustments.add(adjustment);
+        }
+        return null;
+    }
+
+    /**
+     * Cập nhật tại chỗ hóa đơn phạt theo số ngày quá hạn hiện tại của hóa đơn gốc.
+     * Trả về dòng lịch sử điều chỉnh (chưa lưu), hoặc null nếu không có gì thay đổi.
+     */
+    private PenaltyAdjustment applyPenaltyUpdate(Bill penaltyBill, Bill originalBill, int overdueDays) {
+        BigDecimal baseAmount = originalBill.getOutstandingAmount() != null ?
+            originalBill.getOutstandingAmount() : originalBill.getTotalAmount();
+        BigDecimal newRate = calculatePenaltyRate(overdueDays);
+        BigDecimal newAmount = calculateLatePenalty(baseAmount, overdueDays);
+        
+        Integer previousOverdueDays = penaltyBill.getOverdueDays();
+        BigDecimal previousRate = penaltyBill.getPenaltyRate();
+        BigDecimal previousAmount = penaltyBill.getTotalAmount();
+        if (previousOverdueDays != null && previousOverdueDays == overdueDays
+                && previousAmount != null && previousAmount.compareTo(newAmount) == 0) {
+            return null;
+        }
+        
+        int revision = (penaltyBill.getPenaltyRevision() != null ? penaltyBill.getPenaltyRevision() : 0) + 1;
+        penaltyBill.setPenaltyRevision(revision);
+        billPdfCache.invalidate(penaltyBill.getId());
+        penaltyBill.setOverdueDays(overdueDays);
+        penaltyBill.setPenaltyRate(newRate);
+        penaltyBill.setPenaltyAmount(newAmount);
+        penaltyBill.setTotalAmount(newAmount);
+        if (penaltyBill.getOutstandingAmount() != null) {
+            penaltyBill.calculateOutstandingAmount();
+        }
+        penaltyBill.setNotes("Phạt quá hạn cho hóa đơn #" + originalBill.getId() + " - Quá hạn " + overdueDays + " ngày (Tỷ lệ: " + newRate + "%) - Tính trên số tiền còn nợ: " + formatCurrency(baseAmount));
+        for (BillDetail detail : penaltyBill.getBillDetails()) {
+            if (detail.getItemType() == BillItemType.LATE_PENALTY) {
+                detail.setDescription("Phạt quá hạn hóa đơn #" + originalBill.getId() + " - " + overdueDays + " ngày quá hạn (" + newRate + "%) - Tính trên số tiền còn nợ: " + formatCurrency(baseAmount));
+                detail.setItemAmount(newAmount);
+            }
+        }
+        
+        System.out.println("📈 [" + java.time.LocalDateTime.now() + "] Cập nhật phạt #" + penaltyBill.getId() + 
+            " (lần " + revision + ") - Từ " + previousOverdueDays + " ngày thành " + overdueDays + " ngày - Số tiền: " + previousAmount + " -> " + newAmount);
+        
+        PenaltyAdjustment adjustment = new PenaltyAdjustment();
+        adjustment.setPenaltyBill(penaltyBill);
+        adjustment.setOriginalBillId(originalBill.getId());
+        adjustment.setRevision(revision);
+        adjustment.setPreviousOverdueDays(previousOverdueDays);
+        adjustment.setNewOverdueDays(overdueDays);
+        adjustment.setPreviousRate(previousRate);
+        adjustment.setNewRate(newRate);
+        adjustment.setPreviousAmount(previousAmount);
+        adjustment.setNewAmount(newAmount);
+        adjustment.setBaseAmount(baseAmount);
+        return adjustment;
+    }
     
-    // Gửi thông báo cảnh báo hóa đơn quá hạn
+    // Gửi thông báo cảnh báo hóa đơn quá hạn; trả về false nếu không gửi được (lỗi đã được ghi log)
     @Transactional
-    private void sendOverdueWarningNotificationInternal(Bill overdueBill) {
+    private boolean sendOverdueWarningNotificationInternal(Bill overdueBill) {
         try {
             // Fetch contract với roomUsers để tránh lazy loading
             Contract contract = contractRepository.findById(overdueBill.getContract().getId())
@@ -2290,14 +2459,13 @@ public class BillServiceImpl implements BillService {
                                 String subject = "CẢNH BÁO HÓA ĐƠN QUÁ HẠN - Phòng " + contract.getRoom().getRoomNumber();
                                 String content = buildOverdueWarningEmailContent(overdueBill, overdueDays);
                                 
-                                // Tạo PDF hóa đơn gốc
-                                byte[] pdfBytes = generateBillPdf(overdueBill.getId());
-                                
-                                emailService.sendBillWithAttachment(
-                                    ru.getUser().getEmail(), 
-                                    subject, 
-                                    content, 
-                                    pdfBytes
+                                // Xếp hàng email kèm PDF hóa đơn gốc (gửi nền sau khi commit)
+                                emailOutboxService.enqueueBillEmail(
+                                    ru.getUser().getEmail(),
+                                    subject,
+                                    content,
+                                    overdueBill.getId(),
+                                    "OVERDUE_WARNING:" + overdueBill.getId()
                                 );
                                 
                                 System.out.println("Đã gửi email cảnh báo quá hạn cho " + ru.getUser().getEmail());
@@ -2311,10 +2479,12 @@ public class BillServiceImpl implements BillService {
             
             // 2. 🆕 Gửi thông báo cho landlord
             sendLandlordOverdueNotification(overdueBill, overdueDays);
+            return true;
             
         } catch (Exception e) {
             System.err.println("Lỗi trong sendOverdueWarningNotificationInternal: " + e.getMessage());
             e.printStackTrace();
+            return false;
         }
     }
     
@@ -2342,12 +2512,8 @@ public class BillServiceImpl implements BillService {
                         String subject = "THÔNG BÁO HÓA ĐƠN QUÁ HẠN - Phòng " + overdueBill.getRoom().getRoomNumber();
                         String content = buildLandlordOverdueEmailContent(overdueBill, overdueDays);
                         
-                        emailService.sendBillWithAttachment(
-                            landlord.getEmail(), 
-                            subject, 
-                            content, 
-                            null // Không đính kèm PDF cho landlord
-                        );
+                        // Không đính kèm PDF cho landlord
+                        emailOutboxService.enqueue(landlord.getEmail(), subject, content, null);
                         
                         System.out.println("Đã gửi email cảnh báo quá hạn cho landlord " + landlord.getEmail());
                     } catch (Exception e) {
@@ -2577,9 +2743,7 @@ public class BillServiceImpl implements BillService {
 
     @Override
     public List<Bill> getAllPenaltyBills() {
-        return billRepository.findAll().stream()
-            .filter(bill -> bill.getBillType() == BillType.LATE_PENALTY)
-            .toList();
+        return billRepository.findByBillType(BillType.LATE_PENALTY);
     }
 
     @Override
@@ -2727,14 +2891,13 @@ public class BillServiceImpl implements BillService {
                                 String subject = "HÓA ĐƠN PHẠT QUÁ HẠN - Phòng " + contract.getRoom().getRoomNumber();
                                 String content = buildPenaltyEmailContent(penaltyBill, originalBill);
                                 
-                                // Tạo PDF hóa đơn phạt
-                                byte[] pdfBytes = generateBillPdf(penaltyBill.getId());
-                                
-                                emailService.sendBillWithAttachment(
-                                    ru.getUser().getEmail(), 
-                                    subject, 
-                                    content, 
-                                    pdfBytes
+                                // Xếp hàng email kèm PDF hóa đơn phạt (gửi nền sau khi commit)
+                                emailOutboxService.enqueueBillEmail(
+                                    ru.getUser().getEmail(),
+                                    subject,
+                                    content,
+                                    penaltyBill.getId(),
+                                    "PENALTY:" + penaltyBill.getId()
                                 );
                                 
                                 System.out.println("Đã gửi email phạt cho " + ru.getUser().getEmail());
@@ -2791,19 +2954,17 @@ public class BillServiceImpl implements BillService {
                                 String subject = "HÓA ĐƠN PHẠT QUÁ HẠN - Phòng " + contract.getRoom().getRoomNumber();
                                 String content = buildPenaltyEmailContent(penaltyBill, originalBill);
                                 
-                                // Tạo PDF hóa đơn phạt
-                                byte[] pdfBytes = generateBillPdf(penaltyBill.getId());
-                                
-                                emailService.sendBillWithAttachment(
-                                    ru.getUser().getEmail(), 
-                                    subject, 
-                                    content, 
-                                    pdfBytes
+                                // Xếp hàng email kèm PDF hóa đơn phạt (gửi nền sau khi commit)
+                                emailOutboxService.enqueueBillEmail(
+                                    ru.getUser().getEmail(),
+                                    subject,
+                                    content,
+                                    penaltyBill.getId(),
+                                    "PENALTY:" + penaltyBill.getId(),
+                                    // 🆕 Log email được ghi khi dispatcher gửi xong (giống như API gửi email bình thường)
+                                    new EmailOutboxService.SentLog("PENALTY", clientIp, userAgent, sentByUserId)
                                 );
                                 
-                                // 🆕 Lưu log email đã gửi (giống như API gửi email bình thường)
-                                logEmailSent(penaltyBill.getId(), ru.getUser().getEmail(), "PENALTY", clientIp, userAgent, sentByUserId);
-                                
                                 System.out.println("Đã gửi email phạt cho " + ru.getUser().getEmail());
                             } catch (Exception e) {
                                 System.err.println("Lỗi gửi email phạt cho " + ru.getUser().getEmail() + ": " + e.getMessage());
@@ -2846,12 +3007,8 @@ public class BillServiceImpl implements BillService {
                         String subject = "THÔNG BÁO HÓA ĐƠN PHẠT - Phòng " + penaltyBill.getRoom().getRoomNumber();
                         String content = buildLandlordPenaltyEmailContent(penaltyBill, originalBill);
                         
-                        emailService.sendBillWithAttachment(
-                            landlord.getEmail(), 
-                            subject, 
-                            content, 
-                            null // Không đính kèm PDF cho landlord
-                        );
+                        // Không đính kèm PDF cho landlord
+                        emailOutboxService.enqueue(landlord.getEmail(), subject, content, null);
                         
                         System.out.println("Đã gửi email phạt cho landlord " + landlord.getEmail());
                     } catch (Exception e) {
@@ -2968,19 +3125,17 @@ public class BillServiceImpl implements BillService {
                                 String subject = "CẢNH BÁO HÓA ĐƠN QUÁ HẠN - Phòng " + contract.getRoom().getRoomNumber();
                                 String content = buildOverdueWarningEmailContent(overdueBill, overdueDays);
                                 
-                                // Tạo PDF hóa đơn gốc
-                                byte[] pdfBytes = generateBillPdf(overdueBill.getId());
-                                
-                                emailService.sendBillWithAttachment(
-                                    ru.getUser().getEmail(), 
-                                    subject, 
-                                    content, 
-                                    pdfBytes
+                                // Xếp hàng email kèm PDF hóa đơn gốc (gửi nền sau khi commit)
+                                emailOutboxService.enqueueBillEmail(
+                                    ru.getUser().getEmail(),
+                                    subject,
+                                    content,
+                                    overdueBill.getId(),
+                                    "OVERDUE_WARNING:" + overdueBill.getId(),
+                                    // 🆕 Log email được ghi khi dispatcher gửi xong (giống như API gửi email bình thường)
+                                    new EmailOutboxService.SentLog("OVERDUE_WARNING", clientIp, userAgent, sentByUserId)
                                 );
                                 
-                                // 🆕 Lưu log email đã gửi (giống như API gửi email bình thường)
-                                logEmailSent(overdueBill.getId(), ru.getUser().getEmail(), "OVERDUE_WARNING", clientIp, userAgent, sentByUserId);
-                                
                                 System.out.println("Đã gửi email cảnh báo quá hạn cho " + ru.getUser().getEmail());
                             } catch (Exception e) {
                                 System.err.println("Lỗi gửi email cảnh báo cho " + ru.getUser().getEmail() + ": " + e.getMessage());
@@ -3019,20 +3174,10 @@ public class BillServiceImpl implements BillService {
                 
                 // Chỉ gửi cảnh báo cho hóa đơn quá hạn đúng 7 ngày
                 if (overdueDays == 7) {
-                    // 🆕 KIỂM TRA: Chỉ gửi cảnh báo 1 lần duy nhất
-                    if (warningSentBills.contains(overdueBill.getId())) {
-                        System.out.println("[" + java.time.LocalDateTime.now() + "] Hóa đơn #" + overdueBill.getId() + " đã được gửi cảnh báo trước đó, bỏ qua");
-                        continue;
+                    // 🆕 KIỂM TRA: Chỉ gửi cảnh báo 1 lần duy nhất (qua sổ cảnh báo)
+                    if (sendOverdueWarningOnce(overdueBill)) {
+                        warningCount++;
                     }
-                    
-                    System.out.println("[" + java.time.LocalDateTime.now() + "] Gửi cảnh báo cho hóa đơn #" + overdueBill.getId() + " (quá hạn 7 ngày)");
-                    sendOverdueWarningNotificationInternal(overdueBill);
-                    
-                    // 🆕 ĐÁNH DẤU: Đã gửi cảnh báo cho bill này
-                    warningSentBills.add(overdueBill.getId());
-                    warningCount++;
-                    
-                    System.out.println("[" + java.time.LocalDateTime.now() + "] Đã đánh dấu hóa đơn #" + overdueBill.getId() + " là đã gửi cảnh báo");
                 }
                 
             } catch (Exception e) {
@@ -3044,15 +3189,31 @@ public class BillServiceImpl implements BillService {
         System.out.println("[" + java.time.LocalDateTime.now() + "] Hoàn thành: Đã gửi " + warningCount + " cảnh báo cho hóa đơn quá hạn 7 ngày");
     }
 
-    // 🆕 Method để reset cache cảnh báo (dùng khi restart server)
+    // Gửi cảnh báo ngày thứ 7 nếu chưa node nào gửi (ghi nhận vào sổ trước, trả lại nếu gửi lỗi để lượt sau thử lại).
+    // Sổ cảnh báo và outbox cùng nằm trong transaction của sendOverdueWarningNotificationFor7Days: rollback thì cả hai cùng mất
+    private boolean sendOverdueWarningOnce(Bill overdueBill) {
+        if (!overdueWarningLedger.tryClaim(overdueBill.getId(), OverdueWarningLedger.WARNING_OVERDUE_7_DAYS)) {
+            System.out.println("[" + java.time.LocalDateTime.now() + "] Hóa đơn #" + overdueBill.getId() + " đã được gửi cảnh báo trước đó, bỏ qua");
+            return false;
+        }
+        System.out.println("[" + java.time.LocalDateTime.now() + "] Gửi cảnh báo cho hóa đơn #" + overdueBill.getId() + " (quá hạn 7 ngày)");
+        if (!sendOverdueWarningNotificationInternal(overdueBill)) {
+            overdueWarningLedger.release(overdueBill.getId(), OverdueWarningLedger.WARNING_OVERDUE_7_DAYS);
+            return false;
+        }
+        System.out.println("[" + java.time.LocalDateTime.now() + "] Đã đánh dấu hóa đơn #" + overdueBill.getId() + " là đã gửi cảnh báo");
+        return true;
+    }
+
+    // 🆕 Method để reset cache cảnh báo cục bộ (sổ cảnh báo trong DB vẫn giữ nguyên)
     public void resetWarningCache() {
-        warningSentBills.clear();
+        overdueWarningLedger.clearLocalCache();
         System.out.println("[" + java.time.LocalDateTime.now() + "] Đã reset cache cảnh báo hóa đơn quá hạn");
     }
     
     // 🆕 Method để xem cache hiện tại
     public Set<Long> getWarningCache() {
-        return new HashSet<>(warningSentBills);
+        return overdueWarningLedger.getCachedBillIds(OverdueWarningLedger.WARNING_OVERDUE_7_DAYS);
     }
     
     @Override
@@ -3224,10 +3385,11 @@ public class BillServiceImpl implements BillService {
                     contentBody.append("</div>");
                     
                     String emailContent = buildStandardEmailTemplate("XÁC NHẬN ĐÃ THANH TOÁN", "#52c41a", contentBody.toString());
-                    emailService.sendNotificationEmail(
+                    emailOutboxService.enqueue(
                         mainRenter.getUser().getEmail(),
                         "Xác nhận đã thanh toán - Hóa đơn #" + bill.getId(),
-                        emailContent
+                        emailContent,
+                        null
                     );
                 }
             }
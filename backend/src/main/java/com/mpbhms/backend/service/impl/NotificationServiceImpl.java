@@ -2,21 +2,41 @@ package com.mpbhms.backend.service.impl;
 
 import com.mpbhms.backend.dto.Meta;
 import com.mpbhms.backend.dto.NotificationDTO;
+import com.mpbhms.backend.dto.NotificationInboxDTO;
 import com.mpbhms.backend.dto.ResultPaginationDTO;
 import com.mpbhms.backend.entity.Notification;
+import com.mpbhms.backend.entity.NotificationArchive;
+import com.mpbhms.backend.entity.NotificationCounter;
 import com.mpbhms.backend.enums.NotificationStatus;
+import com.mpbhms.backend.repository.NotificationArchiveRepository;
+import com.mpbhms.backend.repository.NotificationCounterRepository;
 import com.mpbhms.backend.repository.NotificationRepository;
 import com.mpbhms.backend.repository.UserRepository;
+import com.mpbhms.backend.service.NotificationBulkWriter;
 import com.mpbhms.backend.service.NotificationService;
+import com.mpbhms.backend.util.CurrentPrincipal;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
@@ -24,99 +44,204 @@ public class NotificationServiceImpl implements NotificationService {
     private final NotificationRepository notificationRepository;
     private final UserRepository userRepository;
     private final SimpMessagingTemplate messagingTemplate;
+    private final NotificationBulkWriter notificationBulkWriter;
+    private final NotificationCounterRepository notificationCounterRepository;
+    private final NotificationArchiveRepository notificationArchiveRepository;
+    private final CurrentPrincipal currentPrincipal;
+
+    private static final int MAX_IN_PARAMETERS = 10_000;
+    private static final int MAX_INBOX_PAGE_SIZE = 100;
+    // GET /notifications cũ chỉ trả về các thông báo mới nhất, phần còn lại lấy qua /inbox
+    private static final int LEGACY_INBOX_LIMIT = 100;
 
 
     @Override
+    @Transactional
     public Notification createAndSend(NotificationDTO request) {
-        Notification notification = new Notification();
-        notification.setTitle(request.getTitle() != null ? request.getTitle() : "Thông báo mới");
-        notification.setMessage(request.getMessage() != null ? request.getMessage() : "Bạn có một thông báo mới từ hệ thống.");
-        notification.setType(request.getType());
+        Notification notification = buildNotification(request, request.getRecipientId());
+        String recipientUsername = null;
         if (request.getRecipientId() != null) {
-            notification.setRecipientId(request.getRecipientId());
+            recipientUsername = userRepository.findUsernameById(request.getRecipientId());
         } else if (request.getRecipientEmail() != null) {
             com.mpbhms.backend.entity.User user = userRepository.findByEmail(request.getRecipientEmail());
             if (user != null) {
                 notification.setRecipientId(user.getId());
+                recipientUsername = user.getUsername();
             }
         }
-        notification.setMetadata(request.getMetadata());
-        notification.setStatus(NotificationStatus.SENT);
 
         Notification saved = notificationRepository.save(notification);
+        if (saved.getRecipientId() != null) {
+            notificationCounterRepository.incrementAll(List.of(saved.getRecipientId()));
+        }
 
         // Gửi WebSocket: nếu có recipientId thì gửi riêng, ngược lại gửi broadcast
-        if (notification.getRecipientId() != null) {
-            userRepository.findById(notification.getRecipientId()).ifPresent(user -> {
-                messagingTemplate.convertAndSendToUser(
-                        user.getUsername(),
-                        "/queue/notifications",
-                        saved
-                );
-            });
-        } else {
-            messagingTemplate.convertAndSend("/topic/notifications", saved);
-        }
+        String username = recipientUsername;
+        sendAfterCommit(() -> {
+            if (saved.getRecipientId() != null) {
+                if (username != null) {
+                    messagingTemplate.convertAndSendToUser(username, "/queue/notifications", saved);
+                }
+            } else {
+                messagingTemplate.convertAndSend("/topic/notifications", saved);
+            }
+        });
 
         return saved;
     }
 
+    /**
+     * Gửi cùng một thông báo cho nhiều người nhận:
+     * username của tất cả người nhận lấy trong một truy vấn, thông báo được chèn bằng JDBC batch
+     * và chỉ đẩy qua WebSocket sau khi transaction commit.
+     */
     @Override
+    @Transactional
     public List<Notification> createAndSendMultiple(NotificationDTO request) {
         if (request.getRecipientIds() == null || request.getRecipientIds().isEmpty()) {
             throw new IllegalArgumentException("Recipient IDs list cannot be null or empty");
         }
 
-        List<Notification> notifications = new java.util.ArrayList<>();
-        
-        for (Long recipientId : request.getRecipientIds()) {
-            Notification notification = new Notification();
-            notification.setTitle(request.getTitle() != null ? request.getTitle() : "Thông báo mới");
-            notification.setMessage(request.getMessage() != null ? request.getMessage() : "Bạn có một thông báo mới từ hệ thống.");
-            notification.setType(request.getType());
-            notification.setRecipientId(recipientId);
-            notification.setMetadata(request.getMetadata());
-            notification.setStatus(NotificationStatus.SENT);
-
-            Notification saved = notificationRepository.save(notification);
-            notifications.add(saved);
-
-            // Gửi WebSocket cho từng người nhận
-            userRepository.findById(recipientId).ifPresent(user -> {
-                messagingTemplate.convertAndSendToUser(
-                        user.getUsername(),
-                        "/queue/notifications",
-                        saved
-                );
-            });
+        // Bỏ id trùng để một người không nhận hai lần
+        Set<Long> recipientIds = new LinkedHashSet<>(request.getRecipientIds());
+        recipientIds.remove(null);
+
+        List<Notification> notifications = new ArrayList<>(recipientIds.size());
+        for (Long recipientId : recipientIds) {
+            notifications.add(buildNotification(request, recipientId));
         }
+        notificationBulkWriter.insertAll(notifications);
+        incrementUnreadCounters(recipientIds);
+
+        Map<Long, String> usernames = findUsernames(recipientIds);
+        sendAfterCommit(() -> {
+            for (Notification notification : notifications) {
+                String username = usernames.get(notification.getRecipientId());
+                if (username != null) {
+                    messagingTemplate.convertAndSendToUser(username, "/queue/notifications", notification);
+                }
+            }
+        });
 
         return notifications;
     }
 
     @Override
     public List<Notification> getUserNotifications(String email) {
-        Long userId = userRepository.findByEmail(email).getId();
-        return notificationRepository.findByRecipientIdOrderByCreatedDateDesc(userId);
+        Long userId = userIdOf(email);
+        return notificationRepository.findInboxFirstPage(userId, PageRequest.of(0, LEGACY_INBOX_LIMIT));
     }
 
+    /**
+     * Hộp thư phân trang theo keyset (createdDate, id) giảm dần: mỗi trang chỉ đọc size + 1 dòng trên index
+     * idx_notifications_recipient_created, không phụ thuộc số thông báo cũ của người dùng.
+     * cursor là chuỗi nextCursor của trang trước (null cho trang đầu).
+     */
     @Override
+    @Transactional
+    public NotificationInboxDTO getInbox(String email, String cursor, int size) {
+        Long userId = userIdOf(email);
+        int pageSize = Math.min(Math.max(size, 1), MAX_INBOX_PAGE_SIZE);
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<Notification> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = notificationRepository.findInboxFirstPage(userId, limit);
+        } else {
+            InboxCursor after = decodeCursor(cursor);
+            rows = notificationRepository.findInboxPageAfter(userId, after.createdDate(), after.id(), limit);
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<Notification> page = hasMore ? rows.subList(0, pageSize) : rows;
+
+        NotificationInboxDTO inbox = new NotificationInboxDTO();
+        inbox.setItems(page.stream().map(this::convertToDTO).toList());
+        inbox.setHasMore(hasMore);
+        if (hasMore) {
+            Notification last = page.get(page.size() - 1);
+            inbox.setNextCursor(encodeCursor(last.getCreatedDate(), last.getId()));
+        }
+        inbox.setUnreadCount(unreadCount(userId));
+        return inbox;
+    }
+
+    /**
+     * Thông báo đã được chuyển sang bảng lưu trữ (xem NotificationRetentionService), phân trang giống hộp thư
+     */
+    @Override
+    @Transactional
+    public NotificationInboxDTO getArchive(String email, String cursor, int size) {
+        Long userId = userIdOf(email);
+        int pageSize = Math.min(Math.max(size, 1), MAX_INBOX_PAGE_SIZE);
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<NotificationArchive> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = notificationArchiveRepository.findArchiveFirstPage(userId, limit);
+        } else {
+            InboxCursor after = decodeCursor(cursor);
+            rows = notificationArchiveRepository.findArchivePageAfter(userId, after.createdDate(), after.id(), limit);
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<NotificationArchive> page = hasMore ? rows.subList(0, pageSize) : rows;
+
+        NotificationInboxDTO archive = new NotificationInboxDTO();
+        archive.setItems(page.stream().map(this::convertToDTO).toList());
+        archive.setHasMore(hasMore);
+        if (hasMore) {
+            NotificationArchive last = page.get(page.size() - 1);
+            archive.setNextCursor(encodeCursor(last.getCreatedDate(), last.getId()));
+        }
+        archive.setUnreadCount(unreadCount(userId));
+        return archive;
+    }
+
+    @Override
+    @Transactional
+    public long getUnreadCount(String email) {
+        return unreadCount(userIdOf(email));
+    }
+
+    /**
+     * Đánh dấu đã đọc bằng UPDATE có điều kiện: chỉ request thực sự đổi trạng thái
+     * (1 dòng bị ảnh hưởng) mới giảm bộ đếm, nên hai request đồng thời không trừ hai lần
+     */
+    @Override
+    @Transactional
     public void markAsRead(Long notificationId) {
-        notificationRepository.findById(notificationId).ifPresent(n -> {
-            n.setStatus(NotificationStatus.READ);
-            n.setReadAt(LocalDateTime.now());
-            notificationRepository.save(n);
-        });
+        int updated = notificationRepository.markReadIfUnread(notificationId, NotificationStatus.READ, LocalDateTime.now());
+        if (updated != 1) {
+            return;
+        }
+        Long recipientId = notificationRepository.findRecipientIdById(notificationId);
+        if (recipientId != null) {
+            notificationCounterRepository.decrement(recipientId);
+        }
     }
 
+    /**
+     * Đánh dấu đã đọc toàn bộ thông báo của người dùng bằng một câu UPDATE
+     */
     @Override
-    public void deleteNotification(Long notificationId) {
-        notificationRepository.findById(notificationId).ifPresent(notificationRepository::delete);
+    @Transactional
+    public int markAllAsRead(String email) {
+        Long userId = userIdOf(email);
+        int updated = notificationRepository.markAllRead(userId, NotificationStatus.READ, LocalDateTime.now());
+        notificationCounterRepository.reset(userId);
+        return updated;
     }
 
     @Override
-    public List<Notification> getNotifications() {
-        return notificationRepository.findAll();
+    @Transactional
+    public void deleteNotification(Long notificationId) {
+        notificationRepository.findById(notificationId).ifPresent(n -> {
+            notificationRepository.delete(n);
+            if (n.getRecipientId() != null && n.getStatus() != NotificationStatus.READ) {
+                notificationCounterRepository.decrement(n.getRecipientId());
+            }
+        });
     }
 
     @Override
@@ -141,6 +266,109 @@ public class NotificationServiceImpl implements NotificationService {
         return result;
     }
 
+    private Notification buildNotification(NotificationDTO request, Long recipientId) {
+        Notification notification = new Notification();
+        notification.setTitle(request.getTitle() != null ? request.getTitle() : "Thông báo mới");
+        notification.setMessage(request.getMessage() != null ? request.getMessage() : "Bạn có một thông báo mới từ hệ thống.");
+        notification.setType(request.getType());
+        notification.setRecipientId(recipientId);
+        notification.setMetadata(request.getMetadata());
+        notification.setStatus(NotificationStatus.SENT);
+        return notification;
+    }
+
+    private Map<Long, String> findUsernames(Set<Long> recipientIds) {
+        Map<Long, String> usernames = new HashMap<>(recipientIds.size() * 2);
+        List<Long> ids = new ArrayList<>(recipientIds);
+        // MySQL giới hạn 65.535 tham số mỗi câu lệnh
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_PARAMETERS));
+            for (Object[] row : userRepository.findUsernamesByIdIn(chunk)) {
+                usernames.put((Long) row[0], (String) row[1]);
+            }
+        }
+        return usernames;
+    }
+
+    // Email là của người đang đăng nhập thì lấy id từ token, không truy vấn lại bảng users
+    private Long userIdOf(String email) {
+        if (CurrentPrincipal.isAvailable() && currentPrincipal.isCurrentUser(email)) {
+            return currentPrincipal.getUserId();
+        }
+        return userRepository.findByEmail(email).getId();
+    }
+
+    // Số chưa đọc lấy từ bảng notification_counters; người dùng chưa có dòng đếm thì khởi tạo một lần bằng COUNT
+    // (COUNT và INSERT trong cùng một câu lệnh để không lỡ thông báo tạo xen giữa)
+    private long unreadCount(Long userId) {
+        return notificationCounterRepository.findById(userId)
+                .map(NotificationCounter::getUnreadCount)
+                .orElseGet(() -> {
+                    notificationCounterRepository.initializeFromNotifications(userId);
+                    Long count = notificationCounterRepository.findUnreadCount(userId);
+                    return count != null ? count : 0L;
+                });
+    }
+
+    private void incrementUnreadCounters(Set<Long> recipientIds) {
+        List<Long> ids = new ArrayList<>(recipientIds);
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+            notificationCounterRepository.incrementAll(ids.subList(from, Math.min(ids.size(), from + MAX_IN_PARAMETERS)));
+        }
+    }
+
+    private static String encodeCursor(Instant createdDate, Long id) {
+        String raw = createdDate + "," + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static InboxCursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int comma = raw.lastIndexOf(',');
+            return new InboxCursor(Instant.parse(raw.substring(0, comma)), Long.parseLong(raw.substring(comma + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor);
+        }
+    }
+
+    private record InboxCursor(Instant createdDate, Long id) {
+    }
+
+    // Đẩy WebSocket sau khi commit: người nhận không thấy thông báo của transaction bị rollback
+    private void sendAfterCommit(Runnable send) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            send.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    send.run();
+                } catch (Exception e) {
+                    System.err.println("Lỗi gửi thông báo qua WebSocket: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private NotificationDTO convertToDTO(NotificationArchive archived) {
+        NotificationDTO dto = new NotificationDTO();
+        dto.setId(archived.getId());
+        dto.setTitle(archived.getTitle());
+        dto.setMessage(archived.getMessage());
+        dto.setType(archived.getType());
+        dto.setDisplayType(archived.getType() != null ? archived.getType().getDisplayName() : null);
+        dto.setRecipientId(archived.getRecipientId());
+        dto.setMetadata(archived.getMetadata());
+        dto.setCreatedDate(archived.getCreatedDate());
+        // Chỉ thông báo đã đọc mới được lưu trữ
+        dto.setStatus(NotificationStatus.READ);
+        dto.setDisplayStatus(NotificationStatus.READ.getDisplayName());
+        return dto;
+    }
+
     private NotificationDTO convertToDTO(Notification notification) {
         NotificationDTO dto = new NotificationDTO();
         dto.setId(notification.getId());
@@ -1,34 +1,55 @@
 package com.mpbhms.backend.service.impl;
 
+import com.mpbhms.backend.dto.PaymentHistoryPageDTO;
 import com.mpbhms.backend.dto.PaymentHistoryResponse;
 import com.mpbhms.backend.entity.Bill;
 import com.mpbhms.backend.entity.PaymentHistory;
 import com.mpbhms.backend.exception.NotFoundException;
 import com.mpbhms.backend.repository.BillRepository;
 import com.mpbhms.backend.repository.PaymentHistoryRepository;
+import com.mpbhms.backend.repository.RoomRepository;
 import com.mpbhms.backend.service.PaymentHistoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 @Service
 public class PaymentHistoryServiceImpl implements PaymentHistoryService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    // Các API trả danh sách cũ (phòng, người dùng, khoảng thời gian) trả tối đa chừng này dòng mới nhất mỗi lần
+    private static final int LEGACY_LIST_LIMIT = 500;
+    private static final int EXPORT_BATCH_SIZE = 500;
+    private static final DateTimeFormatter EXPORT_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.of("GMT+7"));
+
     @Autowired
     private PaymentHistoryRepository paymentHistoryRepository;
 
     @Autowired
     private BillRepository billRepository;
 
+    @Autowired
+    private RoomRepository roomRepository;
+
     @Override
     @Transactional
     public PaymentHistory savePaymentHistory(PaymentHistory paymentHistory) {
@@ -66,56 +87,112 @@ public class PaymentHistoryServiceImpl implements PaymentHistoryService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Một trang lịch sử thanh toán của hóa đơn: LIMIT/OFFSET ngay trong DB thay vì nạp hết rồi cắt danh sách
+     */
     @Override
     public List<PaymentHistoryResponse> getPaymentHistoryByBillId(Long billId, int page, int size) {
         System.out.println("DEBUG - Getting payment history for bill ID: " + billId + " with pagination (page: " + page + ", size: " + size + ")");
-        List<PaymentHistory> paymentHistories = paymentHistoryRepository.findByBillIdOrderByPaymentDateDesc(billId);
-        System.out.println("DEBUG - Found " + paymentHistories.size() + " payment histories total");
-        
-        // Manual pagination since we need to sort by payment date desc
-        int start = page * size;
-        int end = Math.min(start + size, paymentHistories.size());
-        
-        if (start >= paymentHistories.size()) {
-            System.out.println("DEBUG - No payment histories for this page");
-            return List.of();
-        }
-        
-        List<PaymentHistory> paginatedHistories = paymentHistories.subList(start, end);
-        System.out.println("DEBUG - Returning " + paginatedHistories.size() + " payment histories for this page");
-        
-        for (PaymentHistory ph : paginatedHistories) {
-            System.out.println("DEBUG - PaymentHistory ID: " + ph.getId() + ", PaymentMethod: " + ph.getPaymentMethod());
-            System.out.println("DEBUG - OutstandingBefore: " + ph.getOutstandingBefore() + ", OutstandingAfter: " + ph.getOutstandingAfter());
-        }
-        
-        return paginatedHistories.stream()
+        int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+        List<PaymentHistory> paymentHistories = paymentHistoryRepository.findPageByBillId(
+                billId, PageRequest.of(Math.max(page, 0), pageSize));
+        System.out.println("DEBUG - Returning " + paymentHistories.size() + " payment histories for this page");
+        return paymentHistories.stream()
                 .map(this::convertToResponse)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Các API danh sách cũ trả trang đầu LEGACY_LIST_LIMIT dòng mới nhất; hasMore = true nghĩa là danh sách
+     * đã bị cắt, phần còn lại lấy tiếp bằng nextCursor qua API phân trang cursor tương ứng
+     */
     @Override
-    public List<PaymentHistoryResponse> getPaymentHistoryByRoomId(Long roomId) {
-        List<PaymentHistory> paymentHistories = paymentHistoryRepository.findByRoomId(roomId);
-        return paymentHistories.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public PaymentHistoryPageDTO getPaymentHistoryByRoomId(Long roomId, Long landlordId) {
+        return getPaymentHistoryPageByRoomId(roomId, landlordId, null, LEGACY_LIST_LIMIT, LEGACY_LIST_LIMIT);
     }
 
     @Override
-    public List<PaymentHistoryResponse> getPaymentHistoryByUserId(Long userId) {
-        List<PaymentHistory> paymentHistories = paymentHistoryRepository.findByUserId(userId);
-        return paymentHistories.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public PaymentHistoryPageDTO getPaymentHistoryByUserId(Long userId) {
+        return keysetPage(null, LEGACY_LIST_LIMIT, userQuery(userId));
     }
 
     @Override
-    public List<PaymentHistoryResponse> getPaymentHistoryByDateRange(Instant startDate, Instant endDate) {
-        List<PaymentHistory> paymentHistories = paymentHistoryRepository.findByPaymentDateBetween(startDate, endDate);
-        return paymentHistories.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public PaymentHistoryPageDTO getPaymentHistoryByDateRange(Instant startDate, Instant endDate, Long landlordId) {
+        return keysetPage(null, LEGACY_LIST_LIMIT, dateRangeQuery(startDate, endDate, landlordId));
+    }
+
+    /**
+     * Phân trang keyset (paymentDate, id) giảm dần: mỗi trang chỉ đọc size + 1 dòng trên index
+     * idx_payment_history_room_date, không phụ thuộc số lần thanh toán cũ của phòng.
+     * landlordId khác null: phòng phải thuộc chủ trọ đó, nếu không ném AccessDeniedException.
+     */
+    @Override
+    public PaymentHistoryPageDTO getPaymentHistoryPageByRoomId(Long roomId, Long landlordId, String cursor, int size) {
+        return getPaymentHistoryPageByRoomId(roomId, landlordId, cursor, size, MAX_PAGE_SIZE);
+    }
+
+    @Override
+    public PaymentHistoryPageDTO getPaymentHistoryPageByUserId(Long userId, String cursor, int size) {
+        return keysetPage(cursor, clampPageSize(size, MAX_PAGE_SIZE), userQuery(userId));
+    }
+
+    @Override
+    public PaymentHistoryPageDTO getPaymentHistoryPageByDateRange(Instant startDate, Instant endDate, Long landlordId,
+                                                                  String cursor, int size) {
+        return keysetPage(cursor, clampPageSize(size, MAX_PAGE_SIZE), dateRangeQuery(startDate, endDate, landlordId));
+    }
+
+    /**
+     * Xuất CSV theo lô EXPORT_BATCH_SIZE dòng (keyset trên idx_payment_history_date), ghi ra writer ngay sau mỗi lô:
+     * bộ nhớ chỉ giữ một lô dù khoảng thời gian có bao nhiêu giao dịch.
+     * Chạy trên luồng async của StreamingResponseBody (không còn request scope) nên landlordId phải được
+     * lấy sẵn từ CurrentPrincipal trên luồng request.
+     */
+    @Override
+    public long exportPaymentHistoryByDateRange(Instant startDate, Instant endDate, Long landlordId, Writer writer) throws IOException {
+        writer.write("ID,Ngày thanh toán,Hóa đơn,Phòng,Số tiền gốc,Tổng tiền,Phí thanh toán từng phần,Lãi quá hạn,Phương thức,Trạng thái,Mã giao dịch\n");
+        PageRequest limit = PageRequest.of(0, EXPORT_BATCH_SIZE);
+        long written = 0;
+        List<Object[]> rows = paymentHistoryRepository.findExportFirstBatch(startDate, endDate, landlordId, limit);
+        while (!rows.isEmpty()) {
+            for (Object[] row : rows) {
+                writer.write(toCsvLine(row));
+            }
+            writer.flush();
+            written += rows.size();
+            if (rows.size() < EXPORT_BATCH_SIZE) {
+                break;
+            }
+            Object[] last = rows.get(rows.size() - 1);
+            rows = paymentHistoryRepository.findExportBatchAfter(startDate, endDate, landlordId, (Instant) last[1], (Long) last[0], limit);
+        }
+        System.out.println("📄 Đã xuất " + written + " lịch sử thanh toán từ " + startDate + " đến " + endDate);
+        return written;
+    }
+
+    private PaymentHistoryPageDTO getPaymentHistoryPageByRoomId(Long roomId, Long landlordId, String cursor, int size, int maxSize) {
+        if (landlordId != null && !roomRepository.existsByIdAndLandlordId(roomId, landlordId)) {
+            throw new AccessDeniedException("Không có quyền xem lịch sử thanh toán của phòng #" + roomId);
+        }
+        return keysetPage(cursor, clampPageSize(size, maxSize), (after, limit) -> after == null
+                ? paymentHistoryRepository.findRoomFirstPage(roomId, limit)
+                : paymentHistoryRepository.findRoomPageAfter(roomId, after.paymentDate(), after.id(), limit));
+    }
+
+    private BiFunction<PageCursor, PageRequest, List<PaymentHistory>> userQuery(Long userId) {
+        return (after, limit) -> after == null
+                ? paymentHistoryRepository.findUserFirstPage(userId, limit)
+                : paymentHistoryRepository.findUserPageAfter(userId, after.paymentDate(), after.id(), limit);
+    }
+
+    private BiFunction<PageCursor, PageRequest, List<PaymentHistory>> dateRangeQuery(Instant startDate, Instant endDate, Long landlordId) {
+        return (after, limit) -> after == null
+                ? paymentHistoryRepository.findDateRangeFirstPage(startDate, endDate, landlordId, limit)
+                : paymentHistoryRepository.findDateRangePageAfter(startDate, endDate, landlordId, after.paymentDate(), after.id(), limit);
+    }
+
+    private static int clampPageSize(int size, int maxSize) {
+        return Math.min(Math.max(size, 1), maxSize);
     }
 
     @Override
@@ -330,6 +407,67 @@ public class PaymentHistoryServiceImpl implements PaymentHistoryService {
         return response;
     }
 
+    private PaymentHistoryPageDTO keysetPage(String cursor, int pageSize,
+                                             BiFunction<PageCursor, PageRequest, List<PaymentHistory>> query) {
+        PageCursor after = cursor == null || cursor.isBlank() ? null : decodeCursor(cursor);
+        List<PaymentHistory> rows = query.apply(after, PageRequest.of(0, pageSize + 1));
+
+        boolean hasMore = rows.size() > pageSize;
+        List<PaymentHistory> page = hasMore ? rows.subList(0, pageSize) : rows;
+
+        PaymentHistoryPageDTO result = new PaymentHistoryPageDTO();
+        result.setItems(page.stream().map(this::convertToResponse).collect(Collectors.toList()));
+        result.setHasMore(hasMore);
+        if (hasMore) {
+            PaymentHistory last = page.get(page.size() - 1);
+            result.setNextCursor(encodeCursor(last.getPaymentDate(), last.getId()));
+        }
+        return result;
+    }
+
+    private static String toCsvLine(Object[] row) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            Object value = row[i];
+            if (value instanceof Instant instant) {
+                line.append(EXPORT_DATE_FORMAT.format(instant));
+            } else if (value instanceof BigDecimal amount) {
+                line.append(amount.toPlainString());
+            } else if (value != null) {
+                line.append(escapeCsv(value.toString()));
+            }
+        }
+        return line.append('\n').toString();
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String encodeCursor(Instant paymentDate, Long id) {
+        String raw = paymentDate + "," + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PageCursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int comma = raw.lastIndexOf(',');
+            return new PageCursor(Instant.parse(raw.substring(0, comma)), Long.parseLong(raw.substring(comma + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor);
+        }
+    }
+
+    private record PageCursor(Instant paymentDate, Long id) {
+    }
+
     @Override
     public PaymentHistory getPaymentHistoryById(Long paymentHistoryId) {
         PaymentHistory paymentHistory = paymentHistoryRepository.findById(paymentHistoryId)
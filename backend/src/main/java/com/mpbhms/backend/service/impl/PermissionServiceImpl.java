@@ -9,6 +9,7 @@ import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.exception.IdInvalidException;
 import com.mpbhms.backend.exception.ResourceNotFoundException;
 import com.mpbhms.backend.repository.PermissionRepository;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.PermissionService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -26,6 +27,7 @@ import java.util.Optional;
 public class PermissionServiceImpl implements PermissionService {
 
     private final PermissionRepository permissionRepository;
+    private final AuthorizationMatrix authorizationMatrix;
     @Override
     public boolean isPermission(Permission permission) {
         return this.permissionRepository.existsByModuleAndApiPathAndMethod(
@@ -85,7 +87,10 @@ public class PermissionServiceImpl implements PermissionService {
         existing.setMethod(permission.getMethod());
         existing.setModule(permission.getModule());
 
-        return permissionRepository.save(existing);
+        Permission saved = permissionRepository.save(existing);
+        // Đổi apiPath/method ảnh hưởng mọi vai trò đang có quyền này
+        authorizationMatrix.rebuildAfterCommit();
+        return saved;
     }
     @Override
     public void deletePermission(Long id) {
@@ -99,6 +104,7 @@ public class PermissionServiceImpl implements PermissionService {
 
         // Xóa permission
         permissionRepository.delete(permission);
+        authorizationMatrix.rebuildAfterCommit();
     }
     @Override
     public ResultPaginationDTO getAllPermissions(Specification<Permission> spec, Pageable pageable) {
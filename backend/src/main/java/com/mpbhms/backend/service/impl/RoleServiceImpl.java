@@ -8,6 +8,7 @@ import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.exception.IdInvalidException;
 import com.mpbhms.backend.repository.PermissionRepository;
 import com.mpbhms.backend.repository.RoleRepository;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.RoleService;
 import lombok.AllArgsConstructor;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -27,6 +28,7 @@ public class RoleServiceImpl implements RoleService {
 
     private final RoleRepository roleRepository;
     private final PermissionRepository permissionRepository;
+    private final AuthorizationMatrix authorizationMatrix;
     @Override
     public boolean existByName(String name) {
         return this.roleRepository.existsByRoleName(name);
@@ -48,7 +50,9 @@ public class RoleServiceImpl implements RoleService {
             role.setPermissionEntities(dbPermissions);
         }
 
-        return roleRepository.save(role);
+        Role saved = roleRepository.save(role);
+        authorizationMatrix.rebuildAfterCommit();
+        return saved;
     }
 
     @Override
@@ -84,7 +88,9 @@ public class RoleServiceImpl implements RoleService {
         // Cập nhật tên role
         roleDB.setRoleName(role.getRoleName());
 
-        return roleRepository.save(roleDB);
+        Role saved = roleRepository.save(roleDB);
+        authorizationMatrix.rebuildAfterCommit();
+        return saved;
     }
 
 
@@ -98,6 +104,7 @@ public class RoleServiceImpl implements RoleService {
         } catch (DataIntegrityViolationException ex) {
             throw new BusinessException("Vai trò này vẫn đang được gán cho người dùng và không thể xóa.");
         }
+        authorizationMatrix.rebuildAfterCommit();
     }
 
 
@@ -18,6 +18,7 @@ import com.mpbhms.backend.repository.ServiceRepository;
 import com.mpbhms.backend.repository.ServiceReadingRepository;
 import com.mpbhms.backend.service.RoomUserService;
 import com.mpbhms.backend.service.RoomService;
+import com.mpbhms.backend.util.CurrentPrincipal;
 import com.mpbhms.backend.util.CurrentUserUtil;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -38,6 +39,7 @@ public class RoomUserServiceImpl implements RoomUserService {
     private final ServiceRepository serviceRepository;
     private final ServiceReadingRepository serviceReadingRepository;
     private final RoomService roomService;
+    private final CurrentPrincipal currentPrincipal;
 
     @Override
     @Transactional
@@ -210,16 +212,11 @@ public class RoomUserServiceImpl implements RoomUserService {
 
     @Override
     public Room getCurrentRenterRoom() {
-        String username = com.mpbhms.backend.util.CurrentUserUtil.getCurrentUserLogin().orElse(null);
-        System.out.println("Current username: " + username);
-        if (username == null) return null;
-        User user = userRepository.findByUsername(username);
-        if (user == null) {
-            user = userRepository.findByEmail(username);
-        }
-        System.out.println("User: " + user);
-        if (user == null) return null;
-        RoomUser roomUser = roomUserRepository.findTopByUserIdOrderByJoinedAtDesc(user.getId());
+        // Id người thuê lấy từ token, không tra lại bảng users theo username/email
+        Long userId = currentPrincipal.getUserId();
+        System.out.println("Current user id: " + userId);
+        if (userId == null) return null;
+        RoomUser roomUser = roomUserRepository.findTopByUserIdOrderByJoinedAtDesc(userId);
         System.out.println("RoomUser: " + roomUser);
         if (roomUser == null || !Boolean.TRUE.equals(roomUser.getIsActive())) return null;
         System.out.println("Room: " + (roomUser != null ? roomUser.getRoom() : null));
@@ -228,14 +225,9 @@ public class RoomUserServiceImpl implements RoomUserService {
 
     @Override
     public java.util.Map<String, Object> getCurrentRenterRoomDetail() {
-        String username = com.mpbhms.backend.util.CurrentUserUtil.getCurrentUserLogin().orElse(null);
-        if (username == null) return null;
-        User user = userRepository.findByUsername(username);
-        if (user == null) {
-            user = userRepository.findByEmail(username);
-        }
-        if (user == null) return null;
-        RoomUser roomUser = roomUserRepository.findTopByUserIdOrderByJoinedAtDesc(user.getId());
+        Long userId = currentPrincipal.getUserId();
+        if (userId == null) return null;
+        RoomUser roomUser = roomUserRepository.findTopByUserIdOrderByJoinedAtDesc(userId);
         if (roomUser == null || !Boolean.TRUE.equals(roomUser.getIsActive())) return null;
         Room room = roomUser.getRoom();
         if (room == null) return null;
@@ -28,7 +28,7 @@ import java.time.ZoneId;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
-import com.mpbhms.backend.util.SecurityUtil;
+import com.mpbhms.backend.util.CurrentPrincipal;
 
 @Service
 public class ScheduleServiceImpl implements ScheduleService {
@@ -40,6 +40,8 @@ public class ScheduleServiceImpl implements ScheduleService {
     private UserRepository userRepository;
     @Autowired
     private NotificationService notificationService;
+    @Autowired
+    private CurrentPrincipal currentPrincipal;
 
     @Override
     public ScheduleDTO createSchedule(CreateScheduleRequest request) {
@@ -302,20 +304,11 @@ public class ScheduleServiceImpl implements ScheduleService {
         Schedule schedule = scheduleRepository.findById(id)
             .orElseThrow(() -> new RuntimeException("Không tìm thấy lịch hẹn"));
 
-        Long currentUserId = SecurityUtil.getCurrentUserId();
-        User currentUser = null;
-        if (currentUserId != null) {
-            currentUser = userRepository.findById(currentUserId).orElse(null);
-        }
+        // Người dùng hiện tại lấy từ token (CurrentPrincipal), không tải lại entity User
+        boolean authenticated = currentPrincipal.isAuthenticated();
 
         // Cho phép ADMIN, SUBADMIN, LANDLORD xóa lịch hẹn
-        boolean isAdminRole = false;
-        if (currentUser != null && currentUser.getRole() != null) {
-            String roleName = currentUser.getRole().getRoleName();
-            if ("ADMIN".equals(roleName) || "SUBADMIN".equals(roleName) || "LANDLORD".equals(roleName)) {
-                isAdminRole = true;
-            }
-        }
+        boolean isAdminRole = authenticated && currentPrincipal.hasAnyRole("ADMIN", "SUBADMIN", "LANDLORD");
         if (isAdminRole) {
             // Admin roles có thể xóa bất kỳ lịch hẹn nào
             scheduleRepository.delete(schedule);
@@ -323,13 +316,13 @@ public class ScheduleServiceImpl implements ScheduleService {
         }
 
         boolean isOwner = false;
-        if (currentUser != null) {
+        if (authenticated) {
             // Nếu là renter của lịch hẹn
-            if (schedule.getRenter() != null && schedule.getRenter().getId().equals(currentUser.getId())) {
+            if (schedule.getRenter() != null && schedule.getRenter().getId().equals(currentPrincipal.getUserId())) {
                 isOwner = true;
             }
             // Nếu là user thường hoặc không có role, kiểm tra email trùng với lịch hẹn
-            if (schedule.getEmail() != null && schedule.getEmail().equalsIgnoreCase(currentUser.getEmail())) {
+            if (schedule.getEmail() != null && schedule.getEmail().equalsIgnoreCase(currentPrincipal.getEmail())) {
                 isOwner = true;
             }
         }
@@ -7,6 +7,7 @@ import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.repository.PasswordResetTokenRepository;
 import com.mpbhms.backend.repository.UserInfoRepository;
 import com.mpbhms.backend.repository.UserRepository;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.EmailService;
 import com.mpbhms.backend.service.RoleService;
 import com.mpbhms.backend.service.UserService;
@@ -45,6 +46,7 @@ public class UserServiceImpl implements UserService {
     private final PasswordResetTokenRepository passwordResetTokenRepository;
     private final NotificationService notificationService;
     private final UserInfoRepository userInfoRepository;
+    private final AuthorizationMatrix authorizationMatrix;
     @Override
     public User getUserWithEmail(String email) {
     return this.userRepository.findByEmail(email);
@@ -262,10 +264,14 @@ public class UserServiceImpl implements UserService {
             existingUser.setRole(newRole);
         }
 
+        String oldEmail = existingUser.getEmail();
         existingUser.setUsername(dto.getUsername());
         existingUser.setEmail(dto.getEmail());
 
         User savedUser = userRepository.save(existingUser);
+        // Vai trò/email đã đổi: kiểm tra quyền ở request sau phải đọc lại từ DB
+        authorizationMatrix.evictSubject(oldEmail);
+        authorizationMatrix.evictSubject(savedUser.getEmail());
         // Gửi thông báo nếu role bị thay đổi
         if (oldRole == null || newRole == null || !oldRole.getId().equals(newRole.getId())) {
             NotificationDTO noti = new NotificationDTO();
@@ -584,6 +590,7 @@ public class UserServiceImpl implements UserService {
             throw new BusinessException("Cập nhật tài khoản thất bại", errors);
         }
 
+        String oldEmail = user.getEmail();
         user.setEmail(request.getEmail());
         user.setUsername(request.getUsername());
 
@@ -592,6 +599,7 @@ public class UserServiceImpl implements UserService {
         }
 
         userRepository.save(user);
+        authorizationMatrix.evictSubject(oldEmail);
     }
 
 }
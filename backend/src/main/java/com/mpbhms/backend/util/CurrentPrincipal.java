@@ -0,0 +1,129 @@
+package com.mpbhms.backend.util;
+
+import com.mpbhms.backend.service.AuthorizationMatrix;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Map;
+
+/**
+ * Người dùng đang đăng nhập của request hiện tại, dựng một lần từ claim "user" của JWT
+ * (id, email, tên, vai trò) để service không phải findByEmail/findById lại chính người dùng này.
+ * - Vai trò đối chiếu với AuthorizationMatrix (PermissionInterceptor đã nạp vào cache cho request này,
+ *   nên không phát sinh truy vấn): đổi vai trò có hiệu lực ngay, không chờ token hết hạn
+ * - Chỉ tồn tại trong HTTP request; code chạy cả ngoài request (job, WebSocket) phải kiểm tra isAvailable()
+ */
+@Component
+@RequestScope
+public class CurrentPrincipal {
+
+    private final AuthorizationMatrix authorizationMatrix;
+
+    private boolean resolved;
+    private Long userId;
+    private String email;
+    private String name;
+    private Long roleId;
+    private String roleName;
+
+    public CurrentPrincipal(AuthorizationMatrix authorizationMatrix) {
+        this.authorizationMatrix = authorizationMatrix;
+    }
+
+    public static boolean isAvailable() {
+        return RequestContextHolder.getRequestAttributes() != null;
+    }
+
+    public boolean isAuthenticated() {
+        resolve();
+        return userId != null;
+    }
+
+    public Long getUserId() {
+        resolve();
+        return userId;
+    }
+
+    public String getEmail() {
+        resolve();
+        return email;
+    }
+
+    public String getName() {
+        resolve();
+        return name;
+    }
+
+    public Long getRoleId() {
+        resolve();
+        return roleId;
+    }
+
+    public String getRoleName() {
+        resolve();
+        return roleName;
+    }
+
+    public boolean hasAnyRole(String... roleNames) {
+        resolve();
+        for (String candidate : roleNames) {
+            if (candidate.equals(roleName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isLandlord() {
+        return hasAnyRole("LANDLORD");
+    }
+
+    /**
+     * Id chủ trọ dùng để giới hạn dữ liệu: chính người dùng nếu là LANDLORD, null với các vai trò khác
+     */
+    public Long getLandlordScope() {
+        return isLandlord() ? userId : null;
+    }
+
+    // Email (subject của token) có phải của người đang đăng nhập không
+    public boolean isCurrentUser(String email) {
+        resolve();
+        return userId != null && email != null && email.equalsIgnoreCase(this.email);
+    }
+
+    private void resolve() {
+        if (resolved) {
+            return;
+        }
+        resolved = true;
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof Jwt jwt)) {
+            return;
+        }
+        Map<String, Object> user = jwt.getClaim("user");
+        if (user == null || user.get("id") == null || jwt.getSubject() == null) {
+            return;
+        }
+        AuthorizationMatrix.Subject subject = authorizationMatrix.resolve(jwt.getSubject());
+        if (subject == null) {
+            // Tài khoản đã bị xóa sau khi cấp token
+            return;
+        }
+        userId = Long.valueOf(user.get("id").toString());
+        email = jwt.getSubject();
+        name = (String) user.get("name");
+        roleId = user.get("roleId") != null ? Long.valueOf(user.get("roleId").toString()) : null;
+        roleName = (String) user.get("roleName");
+        AuthorizationMatrix.RoleGrants role = subject.role();
+        Long currentRoleId = role != null ? role.roleId() : null;
+        if (currentRoleId == null || !currentRoleId.equals(roleId) || roleName == null) {
+            // Token cấp trước khi đổi vai trò (hoặc token cũ chưa có claim vai trò)
+            roleId = currentRoleId;
+            roleName = role != null ? role.roleName() : null;
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.mpbhms.backend.util;
 import com.mpbhms.backend.entity.User;
 import com.mpbhms.backend.repository.UserRepository;
 import com.mpbhms.backend.response.LoginDTOResponse;
-import com.nimbusds.jose.util.Base64;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
@@ -14,13 +13,12 @@ import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
 import org.springframework.security.oauth2.jwt.*;
 import org.springframework.stereotype.Service;
 
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 
 @Service
@@ -30,25 +28,26 @@ public class SecurityUtil {
     private final JwtDecoder jwtDecoder;
     private final UserRepository userRepository;
     public static final MacAlgorithm JWT_MAC_ALGORITHM = com.mpbhms.backend.config.JwtConfiguration.JWT_MAC_ALGORITHM;
-    @Value("${mpbhms.jwt.base64-secret}")
-    private String jwtKey;
-
     @Value("${mpbhms.jwt.access-token-validity-in-seconds}")
     private long accessTokenExpiration;
 
     @Value("${mpbhms.jwt.refresh-token-validity-in-seconds}")
     private long refreshTokenExpiration;
 
-    private SecretKey getSecretKey() {
-        byte[] keyBytes = Base64.from(jwtKey).decode();
-        return new SecretKeySpec(keyBytes,0,keyBytes.length,JWT_MAC_ALGORITHM.getName());
-    }
-
-    public String createAccessToken(String email, LoginDTOResponse loginDTOResponse) {
+    private static LoginDTOResponse.UserInsideToken toUserInsideToken(LoginDTOResponse loginDTOResponse) {
         LoginDTOResponse.UserInsideToken userInsideToken = new LoginDTOResponse.UserInsideToken();
         userInsideToken.setId(loginDTOResponse.getUser().getId());
         userInsideToken.setEmail(loginDTOResponse.getUser().getEmail());
         userInsideToken.setName(loginDTOResponse.getUser().getName());
+        if (loginDTOResponse.getUser().getRole() != null) {
+            userInsideToken.setRoleId(loginDTOResponse.getUser().getRole().getId());
+            userInsideToken.setRoleName(loginDTOResponse.getUser().getRole().getRoleName());
+        }
+        return userInsideToken;
+    }
+
+    public String createAccessToken(String email, LoginDTOResponse loginDTOResponse) {
+        LoginDTOResponse.UserInsideToken userInsideToken = toUserInsideToken(loginDTOResponse);
 
         Instant now = Instant.now();
         Instant validity =now.plus(this.accessTokenExpiration, ChronoUnit.SECONDS);
@@ -57,6 +56,7 @@ public class SecurityUtil {
                 .issuedAt(now)
                 .expiresAt(validity)
                 .subject(email)
+                .id(UUID.randomUUID().toString())
                 .claim("user", userInsideToken)
                 .build();
         JwsHeader jwsHeader = JwsHeader.with(JWT_MAC_ALGORITHM).build();
@@ -64,10 +64,7 @@ public class SecurityUtil {
 
     }
     public String createRefreshToken(String email, LoginDTOResponse loginDTOResponse) {
-        LoginDTOResponse.UserInsideToken userInsideToken = new LoginDTOResponse.UserInsideToken();
-        userInsideToken.setId(loginDTOResponse.getUser().getId());
-        userInsideToken.setEmail(loginDTOResponse.getUser().getEmail());
-        userInsideToken.setName(loginDTOResponse.getUser().getName());
+        LoginDTOResponse.UserInsideToken userInsideToken = toUserInsideToken(loginDTOResponse);
 
 
         Instant now = Instant.now();
@@ -77,6 +74,7 @@ public class SecurityUtil {
                 .issuedAt(now)
                 .expiresAt(validity)
                 .subject(email)
+                .id(UUID.randomUUID().toString())
                 .claim("user", userInsideToken)
                 .build();
         JwsHeader jwsHeader = JwsHeader.with(JWT_MAC_ALGORITHM).build();
@@ -85,11 +83,10 @@ public class SecurityUtil {
     }
 
 
+    // Dùng lại JwtDecoder của ứng dụng (dựng sẵn khóa và decoder một lần) thay vì dựng decoder mới mỗi lần làm mới
     public Jwt checkValidRefreshToken(String token) {
-        NimbusJwtDecoder jwtEncoder = NimbusJwtDecoder.withSecretKey(getSecretKey()).macAlgorithm
-                (SecurityUtil.JWT_MAC_ALGORITHM).build();
         try{
-            return jwtEncoder.decode(token);
+            return jwtDecoder.decode(token);
         }catch(Exception e){
             System.out.println("Refresh Token Error: " + e.getMessage());
             throw e;
@@ -144,6 +141,17 @@ public class SecurityUtil {
         return null;
     }
 
+    /**
+     * Access token (đã giải mã) của request hiện tại
+     */
+    public static Optional<Jwt> getCurrentAccessToken() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof Jwt jwt) {
+            return Optional.of(jwt);
+        }
+        return Optional.empty();
+    }
+
     /**
      * Get the JWT of the current user.
      *
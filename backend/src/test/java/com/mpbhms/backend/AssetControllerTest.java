@@ -6,6 +6,7 @@ import com.mpbhms.backend.controller.AssetController;
 import com.mpbhms.backend.dto.AssetDTO;
 import com.mpbhms.backend.dto.ResultPaginationDTO;
 import com.mpbhms.backend.service.AssetService;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -39,6 +40,8 @@ public class AssetControllerTest {
 
     @MockBean
     private UserService userService;
+    @MockBean
+    private AuthorizationMatrix authorizationMatrix;
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -6,6 +6,7 @@ import com.mpbhms.backend.controller.AssetInventoryController;
 import com.mpbhms.backend.dto.AssetInventoryRequest;
 import com.mpbhms.backend.entity.AssetInventory;
 import com.mpbhms.backend.service.AssetInventoryService;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -43,6 +44,8 @@ public class AssetInventoryControllerTest {
 
     @MockBean
     private UserService userService;
+    @MockBean
+    private AuthorizationMatrix authorizationMatrix;
 
     @Autowired
     private ObjectMapper objectMapper;
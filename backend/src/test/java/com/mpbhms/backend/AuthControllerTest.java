@@ -9,6 +9,7 @@ import com.mpbhms.backend.entity.User;
 import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.exception.GlobalExceptionHandler;
 import com.mpbhms.backend.response.LoginDTOResponse;
+import com.mpbhms.backend.service.RefreshTokenStore;
 import com.mpbhms.backend.service.UserService;
 import com.mpbhms.backend.util.SecurityUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -55,6 +56,9 @@ public class AuthControllerTest {
         @Mock
         private PasswordEncoder passwordEncoder;
 
+        @Mock
+        private RefreshTokenStore refreshTokenStore;
+
         private ObjectMapper objectMapper;
 
         @BeforeEach
@@ -63,7 +67,7 @@ public class AuthControllerTest {
                 mockMvc = MockMvcBuilders
                                 .standaloneSetup(
                                                 new AuthController(userService, authenticationManagerBuilder,
-                                                                securityUtil, passwordEncoder))
+                                                                securityUtil, passwordEncoder, refreshTokenStore))
                                 .setControllerAdvice(new GlobalExceptionHandler())
                                 .build();
         }
@@ -0,0 +1,271 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.entity.Room;
+import com.mpbhms.backend.repository.RoomRepository;
+import com.mpbhms.backend.service.AutoElectricMeterScanner;
+import com.mpbhms.backend.service.ElectricMeterDetectionService;
+import com.mpbhms.backend.service.ScanLogService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AutoElectricMeterScannerTest {
+
+        @Mock
+        private ElectricMeterDetectionService detectionService;
+        @Mock
+        private ScanLogService scanLogService;
+        @Mock
+        private RoomRepository roomRepository;
+
+        @TempDir
+        Path scanFolder;
+
+        private AutoElectricMeterScanner scanner;
+
+        @BeforeEach
+        void setUp() {
+                scanner = new AutoElectricMeterScanner(detectionService, scanLogService, roomRepository, scanFolder.toString(), 4,
+                                false, 300000, 0);
+                // Bật quét mà không khởi động lịch chạy nền
+                ((AtomicBoolean) ReflectionTestUtils.getField(scanner, "enabled")).set(true);
+        }
+
+        @AfterEach
+        void tearDown() {
+                scanner.shutdown();
+        }
+
+        // ==================== TEST SCAN PIPELINE ====================
+
+        @Test
+        public void testScanFolder_DetectsRoomsInParallel() throws Exception {
+                // Arrange: 6 phòng, 4 luồng nhận diện; mỗi lần nhận diện chờ tới khi test cho phép
+                List<Room> rooms = new ArrayList<>();
+                for (long i = 1; i <= 6; i++) {
+                        createImage("A10" + i, "meter.jpg");
+                        rooms.add(createRoom(i, "A10" + i));
+                }
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(rooms);
+                AtomicInteger inFlight = new AtomicInteger();
+                AtomicInteger maxInFlight = new AtomicInteger();
+                CountDownLatch fourStarted = new CountDownLatch(4);
+                CountDownLatch release = new CountDownLatch(1);
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class))).thenAnswer(invocation -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        fourStarted.countDown();
+                        try {
+                                release.await(10, TimeUnit.SECONDS);
+                        } finally {
+                                inFlight.decrementAndGet();
+                        }
+                        return "12345";
+                });
+
+                // Act
+                CompletableFuture<Void> sweep = CompletableFuture.runAsync(scanner::scanFolder);
+                boolean allWorkersBusy = fourStarted.await(10, TimeUnit.SECONDS);
+                int inFlightWhileBlocked = inFlight.get();
+                release.countDown();
+                sweep.get(10, TimeUnit.SECONDS);
+
+                // Assert: 4 ảnh được nhận diện cùng lúc, không bao giờ vượt số luồng cấu hình
+                assertTrue(allWorkersBusy, "Nhận diện phải chạy song song trên 4 luồng");
+                assertEquals(4, inFlightWhileBlocked);
+                assertEquals(4, maxInFlight.get());
+                for (long i = 1; i <= 6; i++) {
+                        verify(detectionService).saveReadingIfValid("12345", i);
+                        assertTrue(Files.exists(scanFolder.resolve("A10" + i).resolve("processed_meter.jpg")));
+                }
+                verify(scanLogService, times(6)).saveLog(eq("meter.jpg"), anyLong(), eq("12345"), isNull());
+        }
+
+        @Test
+        public void testScanFolder_KeepsFileWhenDetectionFails() throws Exception {
+                // Arrange
+                createImage("A101", "meter.jpg");
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101")));
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class)))
+                                .thenThrow(new RuntimeException("Azure không phản hồi"));
+
+                // Act
+                scanner.scanFolder();
+
+                // Assert: file giữ nguyên để quét lại ở lượt sau
+                verify(detectionService, never()).saveReadingIfValid(anyString(), anyLong());
+                verify(scanLogService).saveLog("meter.jpg", 1L, null, "Azure không phản hồi");
+                assertTrue(Files.exists(scanFolder.resolve("A101").resolve("meter.jpg")));
+        }
+
+        @Test
+        public void testScanFolder_BacksOffFailedFileInsteadOfRetryingEverySweep() throws Exception {
+                // Arrange
+                createImage("A101", "a.jpg");
+                createImage("A101", "b.jpg");
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101")));
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class)))
+                                .thenThrow(new RuntimeException("Azure không phản hồi"));
+
+                // Act
+                scanner.scanFolder();
+                scanner.scanFolder();
+
+                // Assert: chỉ gọi Azure và ghi log 1 lần, ảnh sau không được quét trước ảnh lỗi
+                verify(detectionService, times(1)).detectAndReadFromFile(any(MultipartFile.class));
+                verify(scanLogService, times(1)).saveLog(anyString(), anyLong(), any(), anyString());
+                assertTrue(Files.exists(scanFolder.resolve("A101").resolve("a.jpg")));
+                assertTrue(Files.exists(scanFolder.resolve("A101").resolve("b.jpg")));
+        }
+
+        @Test
+        public void testScanFolder_ProcessesOneImagePerRoomInNameOrder() throws Exception {
+                // Arrange
+                createImage("A101", "b.jpg");
+                createImage("A101", "a.jpg");
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101")));
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class))).thenReturn("12345");
+
+                // Act
+                scanner.scanFolder();
+
+                // Assert
+                verify(detectionService, times(1)).detectAndReadFromFile(any(MultipartFile.class));
+                assertTrue(Files.exists(scanFolder.resolve("A101").resolve("processed_a.jpg")));
+                assertTrue(Files.exists(scanFolder.resolve("A101").resolve("b.jpg")));
+        }
+
+        @Test
+        public void testScanFolder_LoadsAllRoomsInOneQuery() throws Exception {
+                // Arrange
+                createImage("A101", "meter.jpg");
+                createImage("A102", "meter.jpg");
+                createImage("Z999", "meter.jpg");
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101"), createRoom(2L, "A102")));
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class))).thenReturn("12345");
+
+                // Act
+                scanner.scanFolder();
+
+                // Assert: không truy vấn phòng theo từng thư mục, thư mục không phải phòng bị bỏ qua
+                verify(roomRepository, times(1)).findAllByDeletedFalse();
+                verify(roomRepository, never()).findByRoomNumberAndDeletedFalse(anyString());
+                verify(detectionService, times(2)).detectAndReadFromFile(any(MultipartFile.class));
+                assertTrue(Files.exists(scanFolder.resolve("Z999").resolve("meter.jpg")));
+        }
+
+        @Test
+        public void testScanFolder_DoesNotRescanImageThatCannotBeRenamed() throws Exception {
+                // Arrange: thư mục phòng chỉ đọc nên không đổi tên/copy được ảnh đã quét
+                createImage("A101", "meter.jpg");
+                File roomDir = scanFolder.resolve("A101").toFile();
+                assumeTrue(roomDir.setWritable(false) && !roomDir.canWrite(), "Cần chạy bằng user không phải root");
+                try {
+                        when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101")));
+                        when(detectionService.detectAndReadFromFile(any(MultipartFile.class))).thenReturn("12345");
+
+                        // Act
+                        scanner.scanFolder();
+                        scanner.scanFolder();
+
+                        // Assert: chỉ số lưu một lần, lỗi đổi tên được ghi log một lần
+                        verify(detectionService, times(1)).detectAndReadFromFile(any(MultipartFile.class));
+                        verify(detectionService, times(1)).saveReadingIfValid("12345", 1L);
+                        verify(scanLogService, times(1)).saveLog(eq("meter.jpg"), eq(1L), eq("12345"), anyString());
+                        assertTrue(Files.exists(scanFolder.resolve("A101").resolve("meter.jpg")));
+                } finally {
+                        roomDir.setWritable(true);
+                }
+        }
+
+        // ==================== TEST WATCH MODE ====================
+
+        @Test
+        public void testWatch_PicksUpNewImageWithoutWaitingForSweep() throws Exception {
+                // Arrange: lượt đối soát 1 giờ/lần, ảnh mới phải được quét nhờ sự kiện thư mục
+                Files.createDirectories(scanFolder.resolve("A101"));
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101")));
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class))).thenReturn("12345");
+                AutoElectricMeterScanner watcher = new AutoElectricMeterScanner(detectionService, scanLogService, roomRepository,
+                                scanFolder.toString(), 4, true, 3600000, 50);
+                try {
+                        watcher.setEnabled(true);
+                        assertTrue(watcher.isWatching());
+                        verify(roomRepository, timeout(2000)).findAllByDeletedFalse();
+
+                        // Act
+                        createImage("A101", "a.jpg");
+                        createImage("A101", "b.jpg");
+
+                        // Assert: quét hết ảnh của phòng, theo thứ tự tên
+                        verify(detectionService, timeout(5000).times(2)).detectAndReadFromFile(any(MultipartFile.class));
+                        verify(scanLogService, timeout(2000)).saveLog(eq("b.jpg"), eq(1L), eq("12345"), isNull());
+                        verify(roomRepository, times(1)).findAllByDeletedFalse();
+                        assertTrue(Files.exists(scanFolder.resolve("A101").resolve("processed_a.jpg")));
+                } finally {
+                        watcher.setEnabled(false);
+                        watcher.shutdown();
+                }
+        }
+
+        @Test
+        public void testWatch_DoesNotRetryFailedImageInHotLoop() throws Exception {
+                // Arrange
+                Files.createDirectories(scanFolder.resolve("A101"));
+                when(roomRepository.findAllByDeletedFalse()).thenReturn(List.of(createRoom(1L, "A101")));
+                when(detectionService.detectAndReadFromFile(any(MultipartFile.class)))
+                                .thenThrow(new RuntimeException("Azure không phản hồi"));
+                AutoElectricMeterScanner watcher = new AutoElectricMeterScanner(detectionService, scanLogService, roomRepository,
+                                scanFolder.toString(), 4, true, 3600000, 50);
+                try {
+                        watcher.setEnabled(true);
+                        verify(roomRepository, timeout(2000)).findAllByDeletedFalse();
+
+                        // Act
+                        createImage("A101", "a.jpg");
+
+                        // Assert: lỗi một lần rồi chờ backoff, không quét lại liên tục
+                        verify(scanLogService, timeout(5000)).saveLog("a.jpg", 1L, null, "Azure không phản hồi");
+                        verify(detectionService, after(500).times(1)).detectAndReadFromFile(any(MultipartFile.class));
+                } finally {
+                        watcher.setEnabled(false);
+                        watcher.shutdown();
+                }
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private void createImage(String roomNumber, String fileName) throws Exception {
+                Path roomDir = Files.createDirectories(scanFolder.resolve(roomNumber));
+                Files.write(roomDir.resolve(fileName), new byte[]{1, 2, 3});
+        }
+
+        private Room createRoom(Long id, String roomNumber) {
+                Room room = new Room();
+                room.setId(id);
+                room.setRoomNumber(roomNumber);
+                return room;
+        }
+}
@@ -0,0 +1,308 @@
+package com.mpbhms.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mpbhms.backend.service.AzureReadClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Kiểm thử AzureReadClient với stub server cục bộ giả lập Azure Read (không gọi Azure thật)
+ */
+public class AzureReadClientTest {
+
+        private StubReadServer server;
+        private AzureReadClient client;
+
+        @BeforeEach
+        void setUp() throws IOException {
+                server = new StubReadServer();
+        }
+
+        @AfterEach
+        void tearDown() {
+                if (client != null) {
+                        client.shutdown();
+                }
+                server.stop();
+        }
+
+        // ==================== TEST POLLING ====================
+
+        @Test
+        public void testRead_PollsUntilSucceeded() throws Exception {
+                // Arrange: 2 lần poll "running" trước khi xong
+                server.runningPolls = 2;
+                client = newClient(4, 15000);
+
+                // Act
+                JsonNode result = client.read(new byte[]{1, 2, 3}).get(5, TimeUnit.SECONDS);
+
+                // Assert
+                assertEquals("succeeded", result.path("status").asText());
+                assertEquals("12345", result.at("/analyzeResult/readResults/0/lines/0/text").asText());
+                assertEquals(3, server.polls.get());
+        }
+
+        @Test
+        public void testRead_HonorsRetryAfter() {
+                // Arrange: Azure yêu cầu chờ 30 giây trước lần poll đầu, vượt quá timeout 2 giây
+                server.retryAfterSeconds = "30";
+                client = newClient(4, 2000);
+
+                // Act
+                ExecutionException error = assertThrows(ExecutionException.class,
+                                () -> client.read(new byte[]{1}).get(5, TimeUnit.SECONDS));
+
+                // Assert: không poll sớm hơn Retry-After mà báo timeout ngay
+                assertInstanceOf(AzureReadClient.OcrTimeoutException.class, error.getCause());
+                assertEquals(0, server.polls.get());
+        }
+
+        @Test
+        public void testRead_RetriesThrottledPoll() throws Exception {
+                // Arrange: lần poll đầu bị 429
+                server.throttledPolls = 1;
+                client = newClient(4, 15000);
+
+                // Act
+                JsonNode result = client.read(new byte[]{1}).get(5, TimeUnit.SECONDS);
+
+                // Assert
+                assertEquals("succeeded", result.path("status").asText());
+                assertEquals(1L, client.getStats().get("throttled"));
+        }
+
+        @Test
+        public void testRead_TimesOutWhenOperationNeverFinishes() {
+                // Arrange
+                server.runningPolls = Integer.MAX_VALUE;
+                client = newClient(4, 300);
+
+                // Act
+                ExecutionException error = assertThrows(ExecutionException.class,
+                                () -> client.read(new byte[]{1}).get(5, TimeUnit.SECONDS));
+
+                // Assert
+                assertInstanceOf(AzureReadClient.OcrTimeoutException.class, error.getCause());
+                assertEquals(1L, client.getStats().get("timedOut"));
+        }
+
+        @Test
+        public void testRead_FailsFastOnFailedStatus() {
+                // Arrange
+                server.finalStatus = "failed";
+                client = newClient(4, 15000);
+
+                // Act
+                ExecutionException error = assertThrows(ExecutionException.class,
+                                () -> client.read(new byte[]{1}).get(5, TimeUnit.SECONDS));
+
+                // Assert
+                assertInstanceOf(AzureReadClient.OcrException.class, error.getCause());
+        }
+
+        // ==================== TEST CONCURRENCY LIMIT ====================
+
+        @Test
+        public void testRead_ManyOperationsCompleteWithBoundedRequests() throws Exception {
+                // Arrange: 200 ảnh, mỗi ảnh 2 lần poll "running", tối đa 8 request HTTP đồng thời
+                server.runningPolls = 2;
+                server.responseDelayMs = 5;
+                client = newClient(8, 15000);
+                int operations = 200;
+
+                // Act
+                List<CompletableFuture<JsonNode>> futures = new ArrayList<>();
+                for (int i = 0; i < operations; i++) {
+                        futures.add(client.read(new byte[]{(byte) i}));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+                // Assert
+                assertTrue(server.maxConcurrentRequests.get() <= 8, "Vượt giới hạn: " + server.maxConcurrentRequests.get());
+                assertEquals(operations, server.operationIds.get());
+                assertEquals((long) operations, client.getStats().get("completed"));
+                assertEquals(0, client.getStats().get("inFlightOperations"));
+                assertEquals(0, client.getStats().get("queuedRequests"));
+        }
+
+        @Test
+        public void testRead_CancelledWhileQueuedIsNeverSent() throws Exception {
+                // Arrange: 1 permit, request đầu bị giữ ở server nên request thứ hai phải xếp hàng
+                server.analyzeGate = new CountDownLatch(1);
+                client = newClient(1, 15000);
+                CompletableFuture<JsonNode> first = client.read(new byte[]{1});
+                assertTrue(server.analyzeArrived.await(5, TimeUnit.SECONDS));
+                CompletableFuture<JsonNode> second = client.read(new byte[]{2});
+                assertEquals(1, client.getStats().get("queuedRequests"));
+
+                // Act: hủy khi còn trong hàng đợi rồi thả request đầu
+                second.cancel(true);
+                server.analyzeGate.countDown();
+                first.get(5, TimeUnit.SECONDS);
+
+                // Assert: request của thao tác đã hủy không tới server
+                assertEquals(1, server.operationIds.get());
+                assertEquals(1L, client.getStats().get("cancelled"));
+                assertEquals(0, client.getStats().get("queuedRequests"));
+        }
+
+        @Test
+        public void testRead_QueuedPastDeadlineIsNeverSent() throws Exception {
+                // Arrange: 1 permit, timeout 300ms; request đầu bị giữ cho tới khi request thứ hai quá hạn
+                server.analyzeGate = new CountDownLatch(1);
+                client = newClient(1, 300);
+                CompletableFuture<JsonNode> first = client.read(new byte[]{1});
+                assertTrue(server.analyzeArrived.await(5, TimeUnit.SECONDS));
+                CompletableFuture<JsonNode> second = client.read(new byte[]{2});
+                Thread.sleep(400);
+
+                // Act
+                server.analyzeGate.countDown();
+                ExecutionException error = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+
+                // Assert: tới lượt thì đã quá deadline, request không được gửi
+                assertInstanceOf(AzureReadClient.OcrTimeoutException.class, error.getCause());
+                assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+                assertEquals(1, server.operationIds.get());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private AzureReadClient newClient(int maxConcurrentRequests, long timeoutMs) {
+                // poll lần đầu sau 20ms, tăng dần tới 100ms
+                return new AzureReadClient(server.baseUrl(), "test-key", maxConcurrentRequests,
+                                2000, 5000, 20, 100, 1.5, timeoutMs);
+        }
+
+        /**
+         * Stub server giả lập Azure Read: POST /vision/v3.2/read/analyze trả về Operation-Location,
+         * GET /operations/{id} trả về "running" runningPolls lần rồi finalStatus
+         */
+        static class StubReadServer {
+                private final HttpServer httpServer;
+                private final ExecutorService handlers = Executors.newFixedThreadPool(16);
+                final AtomicInteger operationIds = new AtomicInteger();
+                private final Map<String, AtomicInteger> pollsByOperation = new ConcurrentHashMap<>();
+                private final AtomicInteger concurrentRequests = new AtomicInteger();
+                final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+                final AtomicInteger polls = new AtomicInteger();
+                volatile int runningPolls = 0;
+                volatile int throttledPolls = 0;
+                volatile String retryAfterSeconds = null;
+                volatile String finalStatus = "succeeded";
+                volatile long responseDelayMs = 0;
+                // Nếu đặt: request analyze được giữ lại tới khi latch mở
+                volatile CountDownLatch analyzeGate = null;
+                final CountDownLatch analyzeArrived = new CountDownLatch(1);
+
+                StubReadServer() throws IOException {
+                        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+                        httpServer.setExecutor(handlers);
+                        httpServer.createContext("/vision/v3.2/read/analyze", this::handleAnalyze);
+                        httpServer.createContext("/operations/", this::handlePoll);
+                        httpServer.start();
+                }
+
+                String baseUrl() {
+                        return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+                }
+
+                void stop() {
+                        httpServer.stop(0);
+                        handlers.shutdownNow();
+                }
+
+                private void handleAnalyze(HttpExchange exchange) throws IOException {
+                        track(() -> {
+                                exchange.getRequestBody().readAllBytes();
+                                analyzeArrived.countDown();
+                                awaitGate();
+                                String id = String.valueOf(operationIds.incrementAndGet());
+                                pollsByOperation.put(id, new AtomicInteger());
+                                exchange.getResponseHeaders().add("Operation-Location", baseUrl() + "/operations/" + id);
+                                if (retryAfterSeconds != null) {
+                                        exchange.getResponseHeaders().add("Retry-After", retryAfterSeconds);
+                                }
+                                respond(exchange, 202, "");
+                        });
+                }
+
+                private void handlePoll(HttpExchange exchange) throws IOException {
+                        track(() -> {
+                                String id = exchange.getRequestURI().getPath().substring("/operations/".length());
+                                int poll = pollsByOperation.get(id).incrementAndGet();
+                                polls.incrementAndGet();
+                                if (poll <= throttledPolls) {
+                                        exchange.getResponseHeaders().add("Retry-After", "0");
+                                        respond(exchange, 429, "{\"error\":{\"code\":\"429\"}}");
+                                } else if (poll <= throttledPolls + runningPolls) {
+                                        respond(exchange, 200, "{\"status\":\"running\"}");
+                                } else {
+                                        respond(exchange, 200, "{\"status\":\"" + finalStatus + "\",\"analyzeResult\":"
+                                                        + "{\"readResults\":[{\"lines\":[{\"text\":\"12345\"}]}]}}");
+                                }
+                        });
+                }
+
+                private void awaitGate() {
+                        CountDownLatch gate = analyzeGate;
+                        if (gate == null) return;
+                        try {
+                                gate.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                }
+
+                private void track(IoAction action) throws IOException {
+                        maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+                        try {
+                                if (responseDelayMs > 0) {
+                                        Thread.sleep(responseDelayMs);
+                                }
+                                action.run();
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                }
+
+                private void respond(HttpExchange exchange, int status, String body) throws IOException {
+                        // Hết tính request đang xử lý trước khi client nhận phản hồi và gửi request tiếp theo
+                        concurrentRequests.decrementAndGet();
+                        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+                        if (bytes.length > 0) {
+                                try (OutputStream out = exchange.getResponseBody()) {
+                                        out.write(bytes);
+                                }
+                        }
+                        exchange.close();
+                }
+
+                interface IoAction {
+                        void run() throws IOException;
+                }
+        }
+}
@@ -2,6 +2,7 @@ package com.mpbhms.backend;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mpbhms.backend.controller.BillController;
+import com.mpbhms.backend.dto.BillGenerationJobResponse;
 import com.mpbhms.backend.dto.BillResponse;
 import com.mpbhms.backend.entity.Bill;
 import com.mpbhms.backend.entity.Contract;
@@ -11,8 +12,10 @@ import com.mpbhms.backend.enums.PaymentCycle;
 import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.exception.GlobalExceptionHandler;
 import com.mpbhms.backend.exception.NotFoundException;
+import com.mpbhms.backend.service.BillGenerationJobService;
 import com.mpbhms.backend.service.BillService;
 import com.mpbhms.backend.service.EmailService;
+import com.mpbhms.backend.service.EmailOutboxService;
 import com.mpbhms.backend.service.NotificationService;
 import com.mpbhms.backend.service.VnPayService;
 import com.mpbhms.backend.util.SecurityUtil;
@@ -36,6 +39,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
 
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -68,6 +72,8 @@ public class BillControllerTest {
         private VnPayService vnPayService;
         @Mock
         private NotificationService notificationService;
+        @Mock private BillGenerationJobService billGenerationJobService;
+        @Mock private EmailOutboxService emailOutboxService;
 
 
         private ObjectMapper objectMapper;
@@ -83,7 +89,9 @@ public class BillControllerTest {
                         notificationService,
                         paymentHistoryService,
                         billRepository,
-                        paymentHistoryRepository
+                        paymentHistoryRepository,
+                        billGenerationJobService,
+                        emailOutboxService
                 );
 
                 mockMvc = MockMvcBuilders
@@ -353,7 +361,7 @@ public class BillControllerTest {
                 when(billService.filterBills(eq(roomId), eq(status), eq(minPrice), eq(maxPrice), eq(search),
                                 any(Pageable.class)))
                                 .thenReturn(mockPage);
-                when(billService.toResponse(any(Bill.class))).thenReturn(createMockBillResponse());
+                when(billService.toResponses(anyList())).thenReturn(List.of(createMockBillResponse()));
 
                 // Act & Assert
                 mockMvc.perform(get("/mpbhms/bills")
@@ -381,7 +389,7 @@ public class BillControllerTest {
 
                 when(billService.getBillsByContractOrRoom(eq(contractId), eq(null), any(Pageable.class)))
                                 .thenReturn(mockPage);
-                when(billService.toResponse(any(Bill.class))).thenReturn(createMockBillResponse());
+                when(billService.toResponses(anyList())).thenReturn(List.of(createMockBillResponse()));
 
                 // Act & Assert
                 mockMvc.perform(get("/mpbhms/bills")
@@ -401,6 +409,38 @@ public class BillControllerTest {
                                 .andExpect(status().isBadRequest());
         }
 
+        @Test
+        public void testGetBills_AssemblesPageInOneBatch() throws Exception {
+                // Arrange
+                List<Bill> mockBills = new ArrayList<>();
+                List<BillResponse> mockResponses = new ArrayList<>();
+                for (long i = 1; i <= 50; i++) {
+                        Bill bill = createMockBill();
+                        bill.setId(i);
+                        mockBills.add(bill);
+                        BillResponse response = createMockBillResponse();
+                        response.setId(i);
+                        mockResponses.add(response);
+                }
+                Page<Bill> mockPage = new PageImpl<>(mockBills, PageRequest.of(0, 50), 120);
+
+                when(billService.getBillsByContractOrRoom(eq(null), eq(null), any(Pageable.class)))
+                                .thenReturn(mockPage);
+                when(billService.toResponses(mockBills)).thenReturn(mockResponses);
+
+                // Act & Assert
+                mockMvc.perform(get("/mpbhms/bills")
+                                .param("page", "0")
+                                .param("size", "50"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.content.length()").value(50))
+                                .andExpect(jsonPath("$.content[49].id").value(50))
+                                .andExpect(jsonPath("$.totalElements").value(120));
+
+                verify(billService, times(1)).toResponses(mockBills);
+                verify(billService, never()).toResponse(any(Bill.class));
+        }
+
         // ==================== TEST DELETE BILL ====================
 
         @Test
@@ -494,28 +534,36 @@ public class BillControllerTest {
         public void testExportBillPdf_Success() throws Exception {
                 // Arrange
                 Long billId = 1L;
-                byte[] pdfBytes = "mock pdf content".getBytes();
 
-                when(billService.generateBillPdf(billId)).thenReturn(pdfBytes);
+                when(billService.getBillPdfVersionStamp(billId)).thenReturn("3|");
+                doAnswer(invocation -> {
+                        OutputStream out = invocation.getArgument(2);
+                        out.write("mock pdf content".getBytes());
+                        return null;
+                }).when(billService).writeBillPdf(eq(billId), eq("3|"), any(OutputStream.class));
 
-                // Act & Assert
+                // Act & Assert: PDF được ghi thẳng ra response, không qua byte[], không nạp BillPdfView ở controller
                 mockMvc.perform(get("/mpbhms/bills/{id}/export", billId))
                                 .andExpect(status().isOk())
                                 .andExpect(header().string("Content-Disposition",
                                                 "attachment; filename=bill_" + billId + ".pdf"))
-                                .andExpect(content().contentType(MediaType.APPLICATION_PDF));
+                                .andExpect(content().contentType(MediaType.APPLICATION_PDF))
+                                .andExpect(content().bytes("mock pdf content".getBytes()));
+                verify(billService, never()).generateBillPdf(anyLong());
+                verify(billService, never()).getBillPdfView(anyLong());
         }
 
         @Test
         public void testExportBillPdf_NotFound() throws Exception {
                 // Arrange
                 Long billId = 999L;
-                when(billService.generateBillPdf(billId))
+                when(billService.getBillPdfVersionStamp(billId))
                                 .thenThrow(new NotFoundException("Không tìm thấy hóa đơn"));
 
                 // Act & Assert
                 mockMvc.perform(get("/mpbhms/bills/{id}/export", billId))
                                 .andExpect(status().isBadRequest());
+                verify(billService, never()).writeBillPdf(any(), any(), any());
         }
 
         @Test
@@ -542,7 +590,7 @@ public class BillControllerTest {
                         securityUtilMock.when(SecurityUtil::getCurrentUserId).thenReturn(userId);
 
                         when(billService.getBillsByUserId(eq(userId), any(Pageable.class))).thenReturn(mockPage);
-                        when(billService.toResponse(any(Bill.class))).thenReturn(createMockBillResponse());
+                        when(billService.toResponses(anyList())).thenReturn(List.of(createMockBillResponse()));
 
                         // Act & Assert
                         mockMvc.perform(get("/mpbhms/bills/my")
@@ -722,6 +770,91 @@ public class BillControllerTest {
                                 .andExpect(jsonPath("$.message").value("Lỗi tạo hóa đơn"));
         }
 
+        // ==================== TEST OVERDUE BILLS ====================
+
+        @Test
+        public void testGetOverdueBills_UsesBatchAssembler() throws Exception {
+                // Arrange
+                Bill bill1 = createMockBill();
+                Bill bill2 = createMockBill();
+                bill2.setId(2L);
+                List<Bill> overdueBills = Arrays.asList(bill1, bill2);
+                BillResponse response2 = createMockBillResponse();
+                response2.setId(2L);
+
+                when(billService.getOverdueBills()).thenReturn(overdueBills);
+                when(billService.toResponses(overdueBills))
+                                .thenReturn(Arrays.asList(createMockBillResponse(), response2));
+
+                // Act & Assert
+                mockMvc.perform(get("/mpbhms/bills/overdue-bills"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$[1].id").value(2));
+
+                verify(billService, never()).toResponse(any(Bill.class));
+        }
+
+        // ==================== TEST ASYNC BULK GENERATION ====================
+
+        @Test
+        public void testBulkGenerateBillsAsync_ReturnsJob() throws Exception {
+                // Arrange
+                BillGenerationJobResponse job = createMockJobResponse(BillGenerationJobService.JOB_CONTRACT_BILLS);
+                when(billGenerationJobService.startContractBillGeneration()).thenReturn(job);
+
+                // Act & Assert
+                mockMvc.perform(post("/mpbhms/bills/bulk-generate/async"))
+                                .andExpect(status().isAccepted())
+                                .andExpect(jsonPath("$.jobId").value("job-1"))
+                                .andExpect(jsonPath("$.status").value("RUNNING"));
+
+                verify(billService, never()).bulkGenerateBills();
+        }
+
+        @Test
+        public void testAutoGenerateServiceBillsAsync_ReturnsJob() throws Exception {
+                // Arrange
+                BillGenerationJobResponse job = createMockJobResponse(BillGenerationJobService.JOB_SERVICE_BILLS);
+                when(billGenerationJobService.startServiceBillGeneration()).thenReturn(job);
+
+                // Act & Assert
+                mockMvc.perform(post("/mpbhms/bills/auto-generate-service-bills/async"))
+                                .andExpect(status().isAccepted())
+                                .andExpect(jsonPath("$.jobType").value(BillGenerationJobService.JOB_SERVICE_BILLS));
+        }
+
+        @Test
+        public void testGetGenerationJob_Progress() throws Exception {
+                // Arrange
+                BillGenerationJobResponse job = createMockJobResponse(BillGenerationJobService.JOB_CONTRACT_BILLS);
+                job.setTotalContracts(10);
+                job.setProcessed(6);
+                job.setCreated(4);
+                job.setSkipped(1);
+                job.setFailed(1);
+                when(billGenerationJobService.getJob("job-1")).thenReturn(job);
+
+                // Act & Assert
+                mockMvc.perform(get("/mpbhms/bills/generation-jobs/{jobId}", "job-1"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.processed").value(6))
+                                .andExpect(jsonPath("$.created").value(4))
+                                .andExpect(jsonPath("$.skipped").value(1))
+                                .andExpect(jsonPath("$.failed").value(1));
+        }
+
+        @Test
+        public void testGetGenerationJob_NotFound() throws Exception {
+                // Arrange
+                when(billGenerationJobService.getJob("missing"))
+                                .thenThrow(new NotFoundException("Không tìm thấy job tạo hóa đơn: missing"));
+
+                // Act & Assert
+                mockMvc.perform(get("/mpbhms/bills/generation-jobs/{jobId}", "missing"))
+                                .andExpect(status().isBadRequest());
+        }
+
         // ==================== HELPER METHODS ====================
 
         @Test
@@ -794,4 +927,13 @@ public class BillControllerTest {
                 response.setDetails(new ArrayList<>());
                 return response;
         }
-}
\ No newline at end of file
+
+        private BillGenerationJobResponse createMockJobResponse(String jobType) {
+                BillGenerationJobResponse job = new BillGenerationJobResponse();
+                job.setJobId("job-1");
+                job.setJobType(jobType);
+                job.setStatus("RUNNING");
+                job.setStartedAt(Instant.now());
+                return job;
+        }
+}
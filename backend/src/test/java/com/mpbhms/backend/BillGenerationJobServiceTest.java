@@ -0,0 +1,110 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.entity.Bill;
+import com.mpbhms.backend.enums.BillType;
+import com.mpbhms.backend.enums.ContractStatus;
+import com.mpbhms.backend.enums.PaymentCycle;
+import com.mpbhms.backend.repository.ContractRepository;
+import com.mpbhms.backend.service.BillGenerationJobService;
+import com.mpbhms.backend.service.BillService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class BillGenerationJobServiceTest {
+
+        @Mock
+        private ContractRepository contractRepository;
+        @Mock
+        private BillService billService;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        private BillGenerationJobService jobService;
+
+        @BeforeEach
+        void setUp() {
+                when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+                // Hợp đồng 2 được xử lý trước hợp đồng 1 trong cùng một lô
+                when(contractRepository.findIdsByContractStatus(ContractStatus.ACTIVE)).thenReturn(List.of(2L, 1L));
+                jobService = new BillGenerationJobService(contractRepository, billService, transactionManager, 2, 200);
+        }
+
+        @AfterEach
+        void tearDown() {
+                jobService.shutdown();
+        }
+
+        // ==================== TEST CONTRACT BILLS ====================
+
+        @Test
+        public void testContractBills_SkipsPeriodBilledAfterPlanning() {
+                // Arrange: lúc lập kế hoạch cả 2 hợp đồng đều chưa có hóa đơn,
+                // tới lượt hợp đồng 2 thì kỳ này đã được tạo từ nơi khác
+                LocalDate[] period = {LocalDate.of(2025, 7, 1), LocalDate.of(2025, 7, 31)};
+                Map<Long, LocalDate[]> planned = new HashMap<>();
+                planned.put(1L, period);
+                planned.put(2L, period);
+                when(billService.findContractsPendingBill(List.of(2L, 1L))).thenReturn(planned);
+                when(billService.findContractsPendingBill(List.of(2L))).thenReturn(Map.of());
+                when(billService.findContractsPendingBill(List.of(1L))).thenReturn(Map.of(1L, period));
+                when(contractRepository.findPaymentCyclesByIdIn(anyCollection())).thenReturn(List.of(
+                                new Object[]{1L, PaymentCycle.MONTHLY}, new Object[]{2L, PaymentCycle.MONTHLY}));
+                when(billService.generateBill(eq(1L), any(), any(), any(), eq(false))).thenReturn(bill(101L));
+
+                // Act
+                jobService.startContractBillGeneration();
+
+                // Assert: hợp đồng 1 được tạo (thông báo gửi sau cùng), hợp đồng 2 không bị tạo trùng
+                verify(billService, timeout(5000)).sendBillNotificationToAllUsers(101L);
+                verify(billService).generateBill(1L, period[0], period[1], BillType.CONTRACT_TOTAL, false);
+                verify(billService, never()).generateBill(eq(2L), any(), any(), any(), anyBoolean());
+                // Chu kỳ thanh toán lấy một lần cho cả lô, không findById từng hợp đồng
+                verify(contractRepository, times(1)).findPaymentCyclesByIdIn(anyCollection());
+                verify(contractRepository, never()).findById(anyLong());
+        }
+
+        // ==================== TEST SERVICE BILLS ====================
+
+        @Test
+        public void testServiceBills_SkipsMonthBilledAfterPlanning() {
+                // Arrange: hóa đơn dịch vụ tháng này của hợp đồng 2 được tạo sau bước lập kế hoạch
+                when(billService.findContractIdsWithServiceBill(eq(List.of(2L, 1L)), anyInt(), anyInt())).thenReturn(Set.of());
+                when(billService.findContractIdsWithServiceBill(eq(List.of(2L)), anyInt(), anyInt())).thenReturn(Set.of(2L));
+                when(billService.findContractIdsWithServiceBill(eq(List.of(1L)), anyInt(), anyInt())).thenReturn(Set.of());
+                when(billService.createServiceBill(eq(1L), anyInt(), anyInt(), eq(false))).thenReturn(bill(201L));
+
+                // Act
+                jobService.startServiceBillGeneration();
+
+                // Assert
+                verify(billService, timeout(5000)).sendBillNotificationToAllUsers(201L);
+                verify(billService, never()).createServiceBill(eq(2L), anyInt(), anyInt(), anyBoolean());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private static Bill bill(Long id) {
+                Bill bill = new Bill();
+                bill.setId(id);
+                return bill;
+        }
+}
@@ -0,0 +1,109 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.service.BillPdfCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BillPdfCacheTest {
+
+        @TempDir
+        Path cacheDir;
+
+        // ==================== TEST RENDER ONCE ====================
+
+        @Test
+        public void testGetOrRender_RendersOncePerVersion() throws Exception {
+                BillPdfCache cache = new BillPdfCache(cacheDir.toString(), 16, true);
+                AtomicInteger renders = new AtomicInteger();
+
+                // Act: gửi email cho 4 thành viên cùng phòng
+                Path first = null;
+                for (int i = 0; i < 4; i++) {
+                        Path path = cache.getOrRender(1L, "0|", out -> write(out, "pdf-v1", renders));
+                        if (first == null) first = path;
+                        assertEquals(first, path);
+                }
+
+                // Assert
+                assertEquals(1, renders.get());
+                assertEquals("pdf-v1", Files.readString(first));
+        }
+
+        @Test
+        public void testGetOrRender_NewVersionReplacesOldFile() throws Exception {
+                BillPdfCache cache = new BillPdfCache(cacheDir.toString(), 16, true);
+                AtomicInteger renders = new AtomicInteger();
+
+                Path unpaid = cache.getOrRender(1L, "0|", out -> write(out, "unpaid", renders));
+                // Thanh toán làm tăng version hóa đơn -> khóa mới
+                Path paid = cache.getOrRender(1L, "1|", out -> write(out, "paid", renders));
+
+                assertEquals(2, renders.get());
+                assertNotEquals(unpaid, paid);
+                assertFalse(Files.exists(unpaid));
+                assertEquals("paid", Files.readString(paid));
+        }
+
+        // ==================== TEST INVALIDATE / LRU ====================
+
+        @Test
+        public void testInvalidate_RemovesAllVersionsOfBill() {
+                BillPdfCache cache = new BillPdfCache(cacheDir.toString(), 16, true);
+                AtomicInteger renders = new AtomicInteger();
+                Path bill1 = cache.getOrRender(1L, "0|", out -> write(out, "bill1", renders));
+                Path bill2 = cache.getOrRender(2L, "0|", out -> write(out, "bill2", renders));
+
+                cache.invalidate(1L);
+
+                assertFalse(Files.exists(bill1));
+                assertTrue(Files.exists(bill2));
+                cache.getOrRender(1L, "0|", out -> write(out, "bill1", renders));
+                assertEquals(3, renders.get());
+        }
+
+        @Test
+        public void testGetOrRender_EvictsLeastRecentlyUsedOverCap() {
+                BillPdfCache cache = new BillPdfCache(cacheDir.toString(), 1, true);
+                String large = "x".repeat(400 * 1024);
+                AtomicInteger renders = new AtomicInteger();
+
+                Path bill1 = cache.getOrRender(1L, "1|", out -> write(out, large, renders));
+                Path bill2 = cache.getOrRender(2L, "1|", out -> write(out, large, renders));
+                // Đọc lại hóa đơn 1 để hóa đơn 2 thành phần tử ít dùng nhất
+                cache.getOrRender(1L, "1|", out -> write(out, large, renders));
+                Path bill3 = cache.getOrRender(3L, "1|", out -> write(out, large, renders));
+
+                assertEquals(3, renders.get());
+                assertTrue(Files.exists(bill1));
+                assertFalse(Files.exists(bill2));
+                assertTrue(Files.exists(bill3));
+        }
+
+        @Test
+        public void testGetOrRender_DisabledReturnsNull() {
+                BillPdfCache cache = new BillPdfCache(cacheDir.toString(), 16, false);
+                AtomicInteger renders = new AtomicInteger();
+
+                assertNull(cache.getOrRender(1L, "1|", out -> write(out, "pdf", renders)));
+                assertEquals(0, renders.get());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private void write(java.io.OutputStream out, String content, AtomicInteger renders) {
+                renders.incrementAndGet();
+                try {
+                        out.write(content.getBytes());
+                } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                }
+        }
+}
@@ -0,0 +1,299 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.dto.BillResponse;
+import com.mpbhms.backend.entity.Bill;
+import com.mpbhms.backend.entity.BillDetail;
+import com.mpbhms.backend.entity.Contract;
+import com.mpbhms.backend.entity.CustomService;
+import com.mpbhms.backend.entity.PaymentHistory;
+import com.mpbhms.backend.entity.Room;
+import com.mpbhms.backend.enums.BillItemType;
+import com.mpbhms.backend.enums.BillType;
+import com.mpbhms.backend.enums.PaymentCycle;
+import com.mpbhms.backend.repository.BillDetailRepository;
+import com.mpbhms.backend.repository.BillRepository;
+import com.mpbhms.backend.repository.ContractRepository;
+import com.mpbhms.backend.repository.PaymentHistoryRepository;
+import com.mpbhms.backend.repository.RoomRepository;
+import com.mpbhms.backend.service.BillPdfCache;
+import com.mpbhms.backend.service.OverdueWarningLedger;
+import com.mpbhms.backend.service.impl.BillServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BillServiceImplTest {
+
+        @Mock
+        private RoomRepository roomRepository;
+        @Mock
+        private BillDetailRepository billDetailRepository;
+        @Mock
+        private PaymentHistoryRepository paymentHistoryRepository;
+        @Mock
+        private BillRepository billRepository;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+        @Mock
+        private ContractRepository contractRepository;
+        @Mock
+        private OverdueWarningLedger overdueWarningLedger;
+        @Mock
+        private BillPdfCache billPdfCache;
+
+        @InjectMocks
+        private BillServiceImpl billService;
+
+        @TempDir
+        Path tempDir;
+
+        // ==================== TEST TO RESPONSES (BATCH LOADING) ====================
+
+        @Test
+        public void testToResponses_BatchesRepositoryCallsPerPage() {
+                // Arrange: 50 hóa đơn thuộc 5 phòng
+                List<Room> rooms = new ArrayList<>();
+                for (long i = 1; i <= 5; i++) {
+                        rooms.add(createRoom(i, "A10" + i));
+                }
+                List<Bill> bills = new ArrayList<>();
+                List<BillDetail> details = new ArrayList<>();
+                for (long i = 1; i <= 50; i++) {
+                        Bill bill = createBill(i, rooms.get((int) (i % 5)));
+                        bills.add(bill);
+                        details.add(createDetail(bill, "Điện"));
+                        details.add(createDetail(bill, "Nước"));
+                }
+                PaymentHistory pendingCash = createPendingCashPayment(bills.get(0));
+
+                when(roomRepository.findAllById(anyIterable())).thenReturn(rooms);
+                when(billDetailRepository.findWithServiceByBillIdIn(anyCollection())).thenReturn(details);
+                when(paymentHistoryRepository.findByBillIdInAndPaymentMethodAndStatusOrderByPaymentDateDesc(
+                                anyCollection(), eq("CASH"), eq("PENDING")))
+                                .thenReturn(List.of(pendingCash));
+
+                // Act
+                List<BillResponse> responses = billService.toResponses(bills);
+
+                // Assert: mỗi loại dữ liệu chỉ một lần gọi repository theo lô cho cả trang, không gọi theo từng hóa đơn
+                assertEquals(50, responses.size());
+                verify(roomRepository, times(1)).findAllById(anyIterable());
+                verify(billDetailRepository, times(1)).findWithServiceByBillIdIn(anyCollection());
+                verify(paymentHistoryRepository, times(1))
+                                .findByBillIdInAndPaymentMethodAndStatusOrderByPaymentDateDesc(anyCollection(), anyString(), anyString());
+                verify(roomRepository, never()).findById(anyLong());
+                verify(paymentHistoryRepository, never())
+                                .findByBillIdAndPaymentMethodAndStatusOrderByPaymentDateDesc(anyLong(), anyString(), anyString());
+                verifyNoMoreInteractions(roomRepository, billDetailRepository, paymentHistoryRepository);
+        }
+
+        @Test
+        public void testToResponses_MapsRoomsDetailsAndPendingPayments() {
+                // Arrange
+                Room room1 = createRoom(1L, "A101");
+                Room room2 = createRoom(2L, "B202");
+                Bill bill1 = createBill(1L, room1);
+                Bill bill2 = createBill(2L, room2);
+                BillDetail detail = createDetail(bill1, "Điện");
+
+                when(roomRepository.findAllById(anyIterable())).thenReturn(List.of(room1, room2));
+                when(billDetailRepository.findWithServiceByBillIdIn(anyCollection())).thenReturn(List.of(detail));
+                when(paymentHistoryRepository.findByBillIdInAndPaymentMethodAndStatusOrderByPaymentDateDesc(
+                                anyCollection(), eq("CASH"), eq("PENDING")))
+                                .thenReturn(List.of(createPendingCashPayment(bill2)));
+
+                // Act
+                List<BillResponse> responses = billService.toResponses(List.of(bill1, bill2));
+
+                // Assert: giữ thứ tự đầu vào
+                assertEquals(1L, responses.get(0).getId());
+                assertEquals("A101", responses.get(0).getRoomNumber());
+                assertEquals(1, responses.get(0).getDetails().size());
+                assertEquals("Điện", responses.get(0).getDetails().get(0).getServiceName());
+                assertTrue(responses.get(0).getPendingCashPayments().isEmpty());
+
+                assertEquals(2L, responses.get(1).getId());
+                assertEquals("B202", responses.get(1).getRoomNumber());
+                assertTrue(responses.get(1).getDetails().isEmpty());
+                assertEquals(1, responses.get(1).getPendingCashPayments().size());
+        }
+
+        @Test
+        public void testToResponses_EmptyList() {
+                // Act
+                List<BillResponse> responses = billService.toResponses(new ArrayList<>());
+
+                // Assert
+                assertTrue(responses.isEmpty());
+                verifyNoInteractions(roomRepository, billDetailRepository, paymentHistoryRepository);
+        }
+
+        // ==================== TEST PENALTY CHECKS ====================
+
+        @Test
+        public void testProcessDuePenaltyChecks_OneTransactionPerBill() {
+                // Arrange: hóa đơn #1 lỗi, hóa đơn #2 chưa tới ngày cảnh báo
+                Bill ok = createBill(2L, createRoom(1L, "A101"));
+                ok.setDueDate(Instant.now().plusSeconds(3 * 86400));
+                when(billRepository.findDuePenaltyCheckIds(any(Instant.class), any(Pageable.class))).thenReturn(List.of(1L, 2L));
+                when(billRepository.findById(1L)).thenThrow(new RuntimeException("Deadlock"));
+                when(billRepository.findById(2L)).thenReturn(Optional.of(ok));
+                when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+
+                // Act
+                List<BillResponse> changed = billService.processDuePenaltyChecks(500);
+
+                // Assert: hóa đơn lỗi chỉ rollback phần của nó, hóa đơn còn lại vẫn được commit
+                assertTrue(changed.isEmpty());
+                verify(billRepository).save(ok);
+                assertTrue(ok.getNextPenaltyCheckAt() != null);
+                verify(transactionManager, times(1)).commit(any(TransactionStatus.class));
+                verify(transactionManager, atLeastOnce()).rollback(any(TransactionStatus.class));
+        }
+
+        @Test
+        public void testProcessDuePenaltyChecks_RetriesBillOnOptimisticConflict() {
+                // Arrange: lần commit đầu xung đột với một thanh toán VNPay đang chạy song song
+                Bill bill = createBill(1L, createRoom(1L, "A101"));
+                bill.setDueDate(Instant.now().plusSeconds(3 * 86400));
+                when(billRepository.findDuePenaltyCheckIds(any(Instant.class), any(Pageable.class))).thenReturn(List.of(1L));
+                when(billRepository.findById(1L)).thenReturn(Optional.of(bill));
+                when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+                doThrow(new ObjectOptimisticLockingFailureException(Bill.class, 1L))
+                                .doNothing()
+                                .when(transactionManager).commit(any(TransactionStatus.class));
+
+                // Act
+                billService.processDuePenaltyChecks(500);
+
+                // Assert: đọc lại hóa đơn và xử lý lại trong transaction mới
+                verify(billRepository, times(2)).findById(1L);
+                verify(transactionManager, times(2)).commit(any(TransactionStatus.class));
+        }
+
+        // ==================== TEST OVERDUE WARNING ====================
+
+        @Test
+        public void testOverdueWarning_ReleasesLedgerWhenSendFails() {
+                // Arrange: hóa đơn quá hạn đúng 7 ngày nhưng không tải được hợp đồng
+                Bill bill = createBill(1L, createRoom(1L, "A101"));
+                bill.setDueDate(Instant.now().minusSeconds(7 * 86400 + 3600));
+                when(billRepository.findByStatusFalse()).thenReturn(List.of(bill));
+                when(overdueWarningLedger.tryClaim(1L, OverdueWarningLedger.WARNING_OVERDUE_7_DAYS)).thenReturn(true);
+                when(contractRepository.findById(1L)).thenReturn(Optional.empty());
+
+                // Act
+                billService.sendOverdueWarningNotificationFor7Days();
+
+                // Assert: trả lại sổ cảnh báo để lượt sau gửi lại
+                verify(overdueWarningLedger).release(1L, OverdueWarningLedger.WARNING_OVERDUE_7_DAYS);
+        }
+
+        @Test
+        public void testOverdueWarning_KeepsLedgerClaimWhenSent() {
+                // Arrange
+                Bill bill = createBill(1L, createRoom(1L, "A101"));
+                bill.setDueDate(Instant.now().minusSeconds(7 * 86400 + 3600));
+                when(billRepository.findByStatusFalse()).thenReturn(List.of(bill));
+                when(overdueWarningLedger.tryClaim(1L, OverdueWarningLedger.WARNING_OVERDUE_7_DAYS)).thenReturn(true);
+                Contract contract = new Contract();
+                contract.setId(1L);
+                contract.setRoomUsers(new ArrayList<>());
+                when(contractRepository.findById(1L)).thenReturn(Optional.of(contract));
+
+                // Act
+                billService.sendOverdueWarningNotificationFor7Days();
+
+                // Assert
+                verify(overdueWarningLedger, never()).release(anyLong(), anyString());
+        }
+
+        // ==================== TEST BILL PDF CACHE ====================
+
+        @Test
+        public void testGenerateBillPdf_CacheHitDoesNotLoadBill() throws Exception {
+                // Arrange: PDF của phiên bản hiện tại đã có trong cache
+                Path cachedPdf = Files.write(tempDir.resolve("bill_1.pdf"), "cached".getBytes());
+                when(billRepository.findPdfVersionStamp(1L)).thenReturn(List.<Object[]>of(new Object[]{3L, null, 2L, 11L, null, 4L}));
+                when(billPdfCache.getOrRender(eq(1L), eq("3|null|2|11|null|4|"), any())).thenReturn(cachedPdf);
+
+                // Act
+                byte[] pdf = billService.generateBillPdf(1L);
+
+                // Assert: khóa cache lấy trước khi nạp dữ liệu, cache trúng thì không nạp hóa đơn
+                assertArrayEquals("cached".getBytes(), pdf);
+                verify(billRepository, never()).findById(anyLong());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private Room createRoom(Long id, String roomNumber) {
+                Room room = new Room();
+                room.setId(id);
+                room.setRoomNumber(roomNumber);
+                return room;
+        }
+
+        private Bill createBill(Long id, Room room) {
+                Bill bill = new Bill();
+                bill.setId(id);
+                bill.setRoom(room);
+                Contract contract = new Contract();
+                contract.setId(1L);
+                bill.setContract(contract);
+                bill.setTotalAmount(new BigDecimal("1000000"));
+                bill.setStatus(false);
+                bill.setBillType(BillType.CONTRACT_TOTAL);
+                bill.setPaymentCycle(PaymentCycle.MONTHLY);
+                bill.setBillDate(Instant.now());
+                bill.setFromDate(Instant.now());
+                bill.setToDate(Instant.now().plusSeconds(86400));
+                return bill;
+        }
+
+        private BillDetail createDetail(Bill bill, String serviceName) {
+                CustomService service = new CustomService();
+                service.setServiceName(serviceName);
+                BillDetail detail = new BillDetail();
+                detail.setBill(bill);
+                detail.setItemType(BillItemType.SERVICE);
+                detail.setDescription("Dịch vụ " + serviceName);
+                detail.setService(service);
+                detail.setItemAmount(new BigDecimal("100000"));
+                return detail;
+        }
+
+        private PaymentHistory createPendingCashPayment(Bill bill) {
+                PaymentHistory payment = new PaymentHistory();
+                payment.setId(100L + bill.getId());
+                payment.setBill(bill);
+                payment.setPaymentAmount(new BigDecimal("500000"));
+                payment.setTotalAmount(new BigDecimal("500000"));
+                payment.setPaymentMethod("CASH");
+                payment.setStatus("PENDING");
+                payment.setIsPartialPayment(true);
+                payment.setPaymentDate(Instant.now());
+                return payment;
+        }
+}
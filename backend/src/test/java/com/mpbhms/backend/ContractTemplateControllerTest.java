@@ -30,6 +30,7 @@ public class ContractTemplateControllerTest {
 
     @MockBean private ContractTemplateService contractTemplateService;
     @MockBean private UserService userService;
+    @MockBean private AuthorizationMatrix authorizationMatrix;
     @MockBean private RoleService roleService;
     @MockBean private PermissionService permissionService;
     @MockBean private NotificationService notificationService;
@@ -0,0 +1,222 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.config.PermissionInterceptor;
+import com.mpbhms.backend.controller.BillController;
+import com.mpbhms.backend.dto.NotificationInboxDTO;
+import com.mpbhms.backend.entity.NotificationCounter;
+import com.mpbhms.backend.repository.BillRepository;
+import com.mpbhms.backend.repository.NotificationArchiveRepository;
+import com.mpbhms.backend.repository.NotificationCounterRepository;
+import com.mpbhms.backend.repository.NotificationRepository;
+import com.mpbhms.backend.repository.PaymentHistoryRepository;
+import com.mpbhms.backend.repository.RoleRepository;
+import com.mpbhms.backend.repository.UserRepository;
+import com.mpbhms.backend.service.AuthorizationMatrix;
+import com.mpbhms.backend.service.BillGenerationJobService;
+import com.mpbhms.backend.service.BillService;
+import com.mpbhms.backend.service.EmailOutboxService;
+import com.mpbhms.backend.service.EmailService;
+import com.mpbhms.backend.service.NotificationBulkWriter;
+import com.mpbhms.backend.service.NotificationService;
+import com.mpbhms.backend.service.PaymentHistoryService;
+import com.mpbhms.backend.service.VnPayService;
+import com.mpbhms.backend.service.impl.NotificationServiceImpl;
+import com.mpbhms.backend.util.CurrentPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class CurrentPrincipalTest {
+
+        @Mock
+        private RoleRepository roleRepository;
+        @Mock
+        private UserRepository userRepository;
+        @Mock
+        private BillService billService;
+        @Mock
+        private NotificationRepository notificationRepository;
+        @Mock
+        private NotificationCounterRepository notificationCounterRepository;
+
+        private AuthorizationMatrix authorizationMatrix;
+        private PermissionInterceptor interceptor;
+
+        @BeforeEach
+        void setUp() {
+                when(roleRepository.findAllRolePermissionKeys()).thenReturn(List.of(
+                                new Object[]{2L, "RENTER", "GET", "/mpbhms/bills/my"},
+                                new Object[]{2L, "RENTER", "GET", "/mpbhms/notifications/inbox"},
+                                new Object[]{4L, "LANDLORD", "GET", "/mpbhms/bills"}));
+                when(userRepository.findIdAndRoleIdByEmail("renter@test.com")).thenReturn(List.<Object[]>of(new Object[]{20L, 2L}));
+                when(userRepository.findIdAndRoleIdByEmail("landlord@test.com")).thenReturn(List.<Object[]>of(new Object[]{40L, 4L}));
+
+                authorizationMatrix = new AuthorizationMatrix(roleRepository, userRepository, 60, 1000);
+                authorizationMatrix.rebuild();
+                interceptor = new PermissionInterceptor();
+                ReflectionTestUtils.setField(interceptor, "authorizationMatrix", authorizationMatrix);
+                RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        }
+
+        @AfterEach
+        void tearDown() {
+                SecurityContextHolder.clearContext();
+                RequestContextHolder.resetRequestAttributes();
+        }
+
+        // ==================== TEST RESOLVE FROM CLAIMS ====================
+
+        @Test
+        public void testResolve_ReadsIdentityAndRoleFromToken() {
+                login("landlord@test.com", 40L, 4L, "LANDLORD");
+                CurrentPrincipal principal = new CurrentPrincipal(authorizationMatrix);
+
+                assertTrue(principal.isAuthenticated());
+                assertEquals(40L, principal.getUserId());
+                assertEquals("landlord@test.com", principal.getEmail());
+                assertEquals("Landlord", principal.getName());
+                assertEquals(4L, principal.getRoleId());
+                assertTrue(principal.isLandlord());
+                assertEquals(40L, principal.getLandlordScope());
+                assertTrue(principal.isCurrentUser("LANDLORD@test.com"));
+                assertFalse(principal.isCurrentUser("renter@test.com"));
+
+                // Chỉ một truy vấn vai trò (dùng chung cache với PermissionInterceptor), không tải entity User
+                verify(userRepository, times(1)).findIdAndRoleIdByEmail("landlord@test.com");
+                verify(userRepository, never()).findByEmail(anyString());
+                verify(userRepository, never()).findById(anyLong());
+        }
+
+        @Test
+        public void testResolve_RoleChangedAfterTokenIssued_UsesCurrentRole() {
+                // Token cấp khi còn là LANDLORD, hiện tại người dùng đã thành RENTER
+                login("renter@test.com", 20L, 4L, "LANDLORD");
+                CurrentPrincipal principal = new CurrentPrincipal(authorizationMatrix);
+
+                assertEquals("RENTER", principal.getRoleName());
+                assertFalse(principal.isLandlord());
+                assertNull(principal.getLandlordScope());
+        }
+
+        @Test
+        public void testResolve_LegacyTokenWithoutRoleClaim() {
+                login("renter@test.com", 20L, null, null);
+                CurrentPrincipal principal = new CurrentPrincipal(authorizationMatrix);
+
+                assertEquals(2L, principal.getRoleId());
+                assertTrue(principal.hasAnyRole("ADMIN", "RENTER"));
+        }
+
+        @Test
+        public void testResolve_DeletedUserIsNotAuthenticated() {
+                when(userRepository.findIdAndRoleIdByEmail("gone@test.com")).thenReturn(List.of());
+                login("gone@test.com", 99L, 2L, "RENTER");
+                CurrentPrincipal principal = new CurrentPrincipal(authorizationMatrix);
+
+                assertFalse(principal.isAuthenticated());
+                assertNull(principal.getUserId());
+                assertFalse(principal.isCurrentUser("gone@test.com"));
+        }
+
+        // ==================== TEST QUERY COUNT ====================
+
+        @Test
+        public void testBillListing_NoUserQueriesAfterFirstRequest() throws Exception {
+                // Arrange
+                BillController controller = new BillController(billService, mock(EmailService.class), mock(VnPayService.class),
+                                mock(NotificationService.class), mock(PaymentHistoryService.class), mock(BillRepository.class),
+                                mock(PaymentHistoryRepository.class), mock(BillGenerationJobService.class), mock(EmailOutboxService.class));
+                when(billService.getBillsByUserId(eq(20L), any(Pageable.class))).thenReturn(new PageImpl<>(List.of()));
+                when(billService.toResponses(anyList())).thenReturn(List.of());
+                login("renter@test.com", 20L, 2L, "RENTER");
+
+                // Act: 50 request GET /mpbhms/bills/my
+                for (int i = 0; i < 50; i++) {
+                        assertTrue(interceptor.preHandle(request("GET", "/mpbhms/bills/my"), new MockHttpServletResponse(), null));
+                        Page<?> bills = controller.getMyBills(PageRequest.of(0, 10));
+                        assertEquals(0, bills.getTotalElements());
+                }
+
+                // Assert: chỉ request đầu đọc vai trò, không request nào tải lại người dùng
+                verify(userRepository, times(1)).findIdAndRoleIdByEmail("renter@test.com");
+                verify(userRepository, never()).findByEmail(anyString());
+                verify(userRepository, never()).findById(anyLong());
+                verify(billService, times(50)).getBillsByUserId(eq(20L), any(Pageable.class));
+        }
+
+        @Test
+        public void testNotificationInbox_UserIdTakenFromToken() throws Exception {
+                // Arrange
+                NotificationServiceImpl notificationService = new NotificationServiceImpl(notificationRepository, userRepository,
+                                mock(SimpMessagingTemplate.class), mock(NotificationBulkWriter.class), notificationCounterRepository,
+                                mock(NotificationArchiveRepository.class), new CurrentPrincipal(authorizationMatrix));
+                when(notificationRepository.findInboxFirstPage(eq(20L), any(Pageable.class))).thenReturn(List.of());
+                NotificationCounter counter = new NotificationCounter();
+                counter.setUserId(20L);
+                counter.setUnreadCount(3);
+                when(notificationCounterRepository.findById(20L)).thenReturn(Optional.of(counter));
+                login("renter@test.com", 20L, 2L, "RENTER");
+
+                // Act
+                interceptor.preHandle(request("GET", "/mpbhms/notifications/inbox"), new MockHttpServletResponse(), null);
+                NotificationInboxDTO inbox = notificationService.getInbox("renter@test.com", null, 20);
+
+                // Assert
+                assertEquals(3L, inbox.getUnreadCount());
+                verify(userRepository, times(1)).findIdAndRoleIdByEmail("renter@test.com");
+                verify(userRepository, never()).findByEmail(anyString());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private static void login(String email, Long userId, Long roleId, String roleName) {
+                Map<String, Object> user = new HashMap<>();
+                user.put("id", userId);
+                user.put("email", email);
+                user.put("name", email.startsWith("landlord") ? "Landlord" : "Renter");
+                user.put("roleId", roleId);
+                user.put("roleName", roleName);
+                Jwt jwt = Jwt.withTokenValue("token")
+                                .header("alg", "HS512")
+                                .subject(email)
+                                .claim("user", user)
+                                .build();
+                SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+        }
+
+        private static MockHttpServletRequest request(String method, String pattern) {
+                MockHttpServletRequest request = new MockHttpServletRequest(method, pattern);
+                request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+                return request;
+        }
+}
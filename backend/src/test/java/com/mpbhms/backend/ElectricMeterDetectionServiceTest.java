@@ -0,0 +1,157 @@
+package com.mpbhms.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mpbhms.backend.service.AzureReadClient;
+import com.mpbhms.backend.service.ElectricMeterDetectionService;
+import com.mpbhms.backend.service.OcrResultCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ElectricMeterDetectionServiceTest {
+
+        @Mock
+        private AzureReadClient azureReadClient;
+        @Mock
+        private OcrResultCache ocrResultCache;
+
+        @InjectMocks
+        private ElectricMeterDetectionService detectionService;
+
+        private final ScheduledExecutorService azure = Executors.newSingleThreadScheduledExecutor();
+
+        @BeforeEach
+        void setUp() {
+                // Custom Vision không cấu hình URL -> phương pháp 1 lỗi ngay, chỉ còn các phương pháp OCR
+                ReflectionTestUtils.setField(detectionService, "hedgedEnabled", true);
+                ReflectionTestUtils.setField(detectionService, "hedgedThreads", 3);
+                ReflectionTestUtils.setField(detectionService, "hedgedMaxRemoteCallsPerImage", 2);
+                ReflectionTestUtils.setField(detectionService, "predictionMaxConcurrentRequests", 4);
+                ReflectionTestUtils.invokeMethod(detectionService, "initEndpointLimits");
+        }
+
+        @AfterEach
+        void tearDown() {
+                detectionService.shutdown();
+                azure.shutdownNow();
+        }
+
+        // ==================== TEST HEDGED MODE ====================
+
+        @Test
+        public void testHedged_FirstValidResultWinsAndCancelsOthers() throws Exception {
+                // Arrange: lời gọi OCR đầu tiên chỉ xong khi lời gọi thứ hai đã được gửi (hai phương pháp chạy chồng nhau),
+                // các lời gọi sau không bao giờ tự xong nên detect chỉ trả về được nếu không chờ chúng
+                List<CompletableFuture<JsonNode>> operations = new CopyOnWriteArrayList<>();
+                AtomicInteger calls = new AtomicInteger();
+                when(azureReadClient.read(any(byte[].class))).thenAnswer(invocation -> {
+                        CompletableFuture<JsonNode> operation = new CompletableFuture<>();
+                        operations.add(operation);
+                        if (calls.incrementAndGet() == 2) {
+                                azure.execute(() -> operations.get(0).complete(ocrResult("12345")));
+                        }
+                        return operation;
+                });
+
+                // Act
+                String result = detectionService.detectAndReadFromFile(meterPhoto());
+
+                // Assert
+                assertEquals("12345", result);
+                // Giới hạn 2 lời gọi Azure đồng thời cho một ảnh: phương pháp thắng và đúng một phương pháp chạy chồng
+                assertEquals(2, operations.size(), "Đã gửi " + operations.size() + " lời gọi OCR");
+                for (CompletableFuture<JsonNode> operation : operations.subList(1, operations.size())) {
+                        awaitCancelled(operation);
+                }
+
+                Map<String, Object> stats = detectionService.getStrategyStats();
+                assertEquals("hedged", stats.get("mode"));
+                long totalWins = 0;
+                for (String strategy : List.of("CUSTOM_VISION", "DIRECT_OCR", "ENHANCED_PREPROCESSING")) {
+                        totalWins += (Long) ((Map<?, ?>) stats.get(strategy)).get("wins");
+                }
+                assertEquals(1L, totalWins);
+                assertEquals(0L, ((Map<?, ?>) stats.get("CUSTOM_VISION")).get("wins"));
+                verify(ocrResultCache).put(eq("meter"), anyString(), eq("12345"));
+        }
+
+        @Test
+        public void testHedged_NoValidResult() throws Exception {
+                // Arrange: Azure không đọc được chữ số nào
+                when(azureReadClient.read(any(byte[].class)))
+                                .thenAnswer(invocation -> CompletableFuture.completedFuture(ocrResult("ABC")));
+
+                // Act
+                String result = detectionService.detectAndReadFromFile(meterPhoto());
+
+                // Assert
+                assertEquals("Không quét được chỉ số điện", result);
+                assertEquals(1L, detectionService.getStrategyStats().get("noValidResult"));
+                verify(ocrResultCache, never()).put(anyString(), anyString(), any());
+        }
+
+        // ==================== TEST RESULT CACHE ====================
+
+        @Test
+        public void testDetect_ReturnsCachedResultWithoutRemoteCalls() throws Exception {
+                // Arrange: ảnh này đã quét thành công trước đó
+                when(ocrResultCache.get(eq("meter"), anyString(), eq(String.class))).thenReturn("54321");
+
+                // Act
+                String result = detectionService.detectAndReadFromFile(meterPhoto());
+
+                // Assert
+                assertEquals("54321", result);
+                verify(azureReadClient, never()).read(any(byte[].class));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private static void awaitCancelled(CompletableFuture<JsonNode> operation) {
+                // Lời gọi của phương pháp thua chỉ kết thúc khi bị hủy
+                assertThrows(CancellationException.class, () -> operation.get(5, TimeUnit.SECONDS),
+                                "Lời gọi OCR của phương pháp thua chưa bị hủy");
+        }
+
+        private static JsonNode ocrResult(String text) {
+                try {
+                        return new ObjectMapper().readTree("{\"status\":\"succeeded\",\"analyzeResult\":"
+                                        + "{\"readResults\":[{\"lines\":[{\"text\":\"" + text + "\"}]}]}}");
+                } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                }
+        }
+
+        private static MockMultipartFile meterPhoto() throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB), "jpg", out);
+                return new MockMultipartFile("file", "meter.jpg", "image/jpeg", out.toByteArray());
+        }
+}
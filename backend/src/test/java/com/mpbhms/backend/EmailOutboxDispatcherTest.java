@@ -0,0 +1,213 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.entity.EmailOutbox;
+import com.mpbhms.backend.repository.EmailOutboxRepository;
+import com.mpbhms.backend.service.BillService;
+import com.mpbhms.backend.service.EmailOutboxDispatcher;
+import com.mpbhms.backend.service.EmailService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class EmailOutboxDispatcherTest {
+
+        @Mock
+        private EmailOutboxRepository emailOutboxRepository;
+        @Mock
+        private EmailService emailService;
+        @Mock
+        private BillService billService;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        private EmailOutboxDispatcher dispatcher;
+
+        @BeforeEach
+        void setUp() {
+                when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+                // rate-per-second = 0: không giới hạn tốc độ trong test
+                dispatcher = new EmailOutboxDispatcher(emailOutboxRepository, emailService, billService,
+                                transactionManager, 2, 50, 0, 3, 30, 3600, 7);
+        }
+
+        @AfterEach
+        void tearDown() {
+                dispatcher.shutdown();
+        }
+
+        // ==================== TEST DISPATCH ====================
+
+        @Test
+        public void testDispatch_RendersAttachmentOncePerBill() {
+                // Arrange: 4 thành viên cùng phòng nhận cùng hóa đơn
+                List<EmailOutbox> batch = List.of(
+                                createMessage(1L, "a@test.com", 10L, "BILL:10"),
+                                createMessage(2L, "b@test.com", 10L, "BILL:10"),
+                                createMessage(3L, "c@test.com", 10L, "BILL:10"),
+                                createMessage(4L, "d@test.com", 10L, "BILL:10"));
+                stubBatch(batch);
+                when(billService.generateBillPdf(10L)).thenReturn("pdf".getBytes());
+
+                // Act
+                dispatcher.dispatchPending();
+
+                // Assert
+                verify(billService, times(1)).generateBillPdf(10L);
+                verify(emailService, times(4)).sendBillWithAttachment(anyString(), anyString(), anyString(), any(byte[].class));
+                batch.forEach(message -> assertEquals(EmailOutbox.STATUS_SENT, message.getStatus()));
+        }
+
+        @Test
+        public void testDispatch_CoalescesSameRecipientAndKey() {
+                // Arrange: hai bản cập nhật phạt cho cùng người nhận
+                EmailOutbox older = createMessage(1L, "a@test.com", null, "PENALTY:5");
+                EmailOutbox newer = createMessage(2L, "a@test.com", null, "PENALTY:5");
+                newer.setContent("Nội dung mới");
+                stubBatch(List.of(older, newer));
+
+                // Act
+                dispatcher.dispatchPending();
+
+                // Assert: chỉ gửi bản mới nhất, bản cũ không được tính là đã gửi
+                verify(emailService, times(1)).sendNotificationEmail("a@test.com", "Tiêu đề", "Nội dung mới");
+                assertEquals(EmailOutbox.STATUS_SUPERSEDED, older.getStatus());
+                assertNull(older.getSentAt());
+                assertEquals(EmailOutbox.STATUS_SENT, newer.getStatus());
+                assertEquals(1L, dispatcher.getStats().get("sentSinceStart"));
+                assertEquals(1L, dispatcher.getStats().get("supersededSinceStart"));
+        }
+
+        @Test
+        public void testDispatch_RetriesWithBackoffOnFailure() {
+                // Arrange
+                EmailOutbox message = createMessage(1L, "a@test.com", null, null);
+                stubBatch(List.of(message));
+                doThrow(new RuntimeException("SMTP timeout")).when(emailService)
+                                .sendNotificationEmail(anyString(), anyString(), anyString());
+                Instant before = Instant.now();
+
+                // Act
+                dispatcher.dispatchPending();
+
+                // Assert: lần 1 thất bại -> chờ 30s rồi thử lại
+                assertEquals(EmailOutbox.STATUS_PENDING, message.getStatus());
+                assertEquals(1, message.getAttempts());
+                assertFalse(message.getNextAttemptAt().isBefore(before.plusSeconds(30)));
+                assertEquals("SMTP timeout", message.getLastError());
+        }
+
+        @Test
+        public void testDispatch_MarksFailedAfterMaxAttempts() {
+                // Arrange: đã thử 2 lần, max-attempts = 3
+                EmailOutbox message = createMessage(1L, "a@test.com", null, null);
+                message.setAttempts(2);
+                stubBatch(List.of(message));
+                doThrow(new RuntimeException("Mailbox unavailable")).when(emailService)
+                                .sendNotificationEmail(anyString(), anyString(), anyString());
+
+                // Act
+                dispatcher.dispatchPending();
+
+                // Assert
+                assertEquals(EmailOutbox.STATUS_FAILED, message.getStatus());
+                assertEquals(3, message.getAttempts());
+        }
+
+        @Test
+        public void testDispatch_LogsBillEmailOnlyAfterDelivery() {
+                // Arrange: một email gửi được, một email lỗi SMTP
+                EmailOutbox delivered = createMessage(1L, "a@test.com", 10L, "BILL:10");
+                delivered.setLogEmailType("BILL");
+                delivered.setLogIpAddress("10.0.0.1");
+                delivered.setLogSentByUserId(7L);
+                EmailOutbox failed = createMessage(2L, "b@test.com", 10L, "BILL:10");
+                failed.setLogEmailType("BILL");
+                stubBatch(List.of(delivered, failed));
+                when(billService.generateBillPdf(10L)).thenReturn("pdf".getBytes());
+                doThrow(new RuntimeException("SMTP timeout")).when(emailService)
+                                .sendBillWithAttachment(eq("b@test.com"), anyString(), anyString(), any(byte[].class));
+
+                // Act
+                dispatcher.dispatchPending();
+
+                // Assert
+                verify(billService).logEmailSent(10L, "a@test.com", "BILL", "10.0.0.1", null, 7L);
+                verify(billService, never()).logEmailSent(anyLong(), eq("b@test.com"), anyString(), any(), any(), any());
+        }
+
+        @Test
+        public void testDispatch_LogFailureDoesNotResendDeliveredEmail() {
+                // Arrange: gửi thành công nhưng ghi EmailSentLog bị lỗi
+                EmailOutbox message = createMessage(1L, "a@test.com", 10L, "BILL:10");
+                message.setLogEmailType("BILL");
+                stubBatch(List.of(message));
+                when(billService.generateBillPdf(10L)).thenReturn("pdf".getBytes());
+                doThrow(new RuntimeException("Deadlock")).when(billService)
+                                .logEmailSent(anyLong(), anyString(), anyString(), any(), any(), any());
+
+                // Act
+                dispatcher.dispatchPending();
+
+                // Assert: vẫn lưu SENT, không xếp lại để gửi lần nữa
+                assertEquals(EmailOutbox.STATUS_SENT, message.getStatus());
+                assertEquals(0, message.getAttempts());
+                verify(emailOutboxRepository).save(message);
+                assertEquals(0L, dispatcher.getStats().get("retriedSinceStart"));
+        }
+
+        // ==================== TEST PURGE ====================
+
+        @Test
+        public void testPurge_DeletesSentAndSupersededSeparately() {
+                // Arrange
+                when(emailOutboxRepository.deleteSentBefore(any(Instant.class))).thenReturn(3);
+                when(emailOutboxRepository.deleteSupersededBefore(any(Instant.class))).thenReturn(2);
+
+                // Act
+                dispatcher.purgeSentEmails();
+
+                // Assert
+                verify(emailOutboxRepository).deleteSentBefore(any(Instant.class));
+                verify(emailOutboxRepository).deleteSupersededBefore(any(Instant.class));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private void stubBatch(List<EmailOutbox> batch) {
+                List<Long> ids = batch.stream().map(EmailOutbox::getId).toList();
+                when(emailOutboxRepository.findDueIds(any(Instant.class), any(Pageable.class)))
+                                .thenReturn(ids)
+                                .thenReturn(List.of());
+                when(emailOutboxRepository.findClaimed(anyString())).thenReturn(batch);
+        }
+
+        private EmailOutbox createMessage(Long id, String recipient, Long billId, String coalesceKey) {
+                EmailOutbox message = new EmailOutbox();
+                message.setId(id);
+                message.setRecipientEmail(recipient);
+                message.setSubject("Tiêu đề");
+                message.setContent("Nội dung");
+                message.setAttachmentBillId(billId);
+                message.setCoalesceKey(coalesceKey);
+                message.setStatus(EmailOutbox.STATUS_SENDING);
+                message.setNextAttemptAt(Instant.now());
+                return message;
+        }
+}
@@ -0,0 +1,76 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.entity.EmailOutbox;
+import com.mpbhms.backend.repository.EmailOutboxRepository;
+import com.mpbhms.backend.service.EmailOutboxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class EmailOutboxServiceTest {
+
+        @Mock
+        private EmailOutboxRepository emailOutboxRepository;
+
+        private EmailOutboxService emailOutboxService;
+
+        @BeforeEach
+        void setUp() {
+                emailOutboxService = new EmailOutboxService(emailOutboxRepository);
+        }
+
+        // ==================== TEST ENQUEUE ====================
+
+        @Test
+        public void testEnqueueBillEmail_OverwritesPendingEmailWithConditionalUpdate() {
+                // Arrange: còn email PENDING cùng người nhận + khóa gộp
+                when(emailOutboxRepository.coalescePending(eq("a@test.com"), eq("BILL:10"), anyString(), anyString(), eq(10L),
+                                eq("BILL"), eq("10.0.0.1"), isNull(), eq(7L))).thenReturn(1);
+
+                // Act
+                emailOutboxService.enqueueBillEmail("a@test.com", "Tiêu đề", "Nội dung mới", 10L, "BILL:10",
+                                new EmailOutboxService.SentLog("BILL", "10.0.0.1", null, 7L));
+
+                // Assert: không tạo email mới
+                verify(emailOutboxRepository, never()).save(any(EmailOutbox.class));
+        }
+
+        @Test
+        public void testEnqueueBillEmail_CreatesNewEmailWhenPendingAlreadyClaimed() {
+                // Arrange: dispatcher đã giành email cũ (SENDING) nên UPDATE không sửa dòng nào
+                when(emailOutboxRepository.coalescePending(anyString(), anyString(), anyString(), anyString(), any(),
+                                any(), any(), any(), any())).thenReturn(0);
+
+                // Act
+                emailOutboxService.enqueueBillEmail("a@test.com", "Tiêu đề", "Nội dung mới", 10L, "BILL:10",
+                                new EmailOutboxService.SentLog("BILL", "10.0.0.1", "JUnit", 7L));
+
+                // Assert
+                ArgumentCaptor<EmailOutbox> captor = ArgumentCaptor.forClass(EmailOutbox.class);
+                verify(emailOutboxRepository).save(captor.capture());
+                EmailOutbox saved = captor.getValue();
+                assertEquals(EmailOutbox.STATUS_PENDING, saved.getStatus());
+                assertEquals("Nội dung mới", saved.getContent());
+                assertEquals(10L, saved.getAttachmentBillId());
+                assertEquals("BILL", saved.getLogEmailType());
+                assertEquals(7L, saved.getLogSentByUserId());
+        }
+
+        @Test
+        public void testEnqueue_WithoutCoalesceKeyAlwaysCreatesEmail() {
+                // Act
+                emailOutboxService.enqueue("a@test.com", "Tiêu đề", "Nội dung", null);
+
+                // Assert
+                verify(emailOutboxRepository, never()).coalescePending(any(), any(), any(), any(), any(), any(), any(), any(), any());
+                verify(emailOutboxRepository).save(any(EmailOutbox.class));
+        }
+}
@@ -0,0 +1,130 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.service.LocalStompBroker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalStompBrokerTest {
+
+        private LocalStompBroker broker;
+
+        @BeforeEach
+        void setUp() throws IOException {
+                broker = new LocalStompBroker("127.0.0.1", 0);
+                broker.start();
+        }
+
+        @AfterEach
+        void tearDown() {
+                broker.stop();
+        }
+
+        // ==================== TEST PUBLISH / SUBSCRIBE ====================
+
+        @Test
+        public void testSend_DeliversToSubscribersOfOtherConnections() throws Exception {
+                try (Socket node1 = connect(); Socket node2 = connect()) {
+                        // Arrange: node 1 có người dùng đăng ký /topic/notifications
+                        write(node1, "SUBSCRIBE\nid:sub-0\ndestination:/topic/notifications\nreceipt:r1\n\n");
+                        assertTrue(readFrame(node1).startsWith("RECEIPT\nreceipt-id:r1\n"));
+
+                        // Act: node 2 gửi thông báo
+                        write(node2, "SEND\ndestination:/topic/notifications\ncontent-type:application/json\n\n{\"id\":1}");
+
+                        // Assert
+                        String message = readFrame(node1);
+                        assertTrue(message.startsWith("MESSAGE\n"), message);
+                        assertTrue(message.contains("subscription:sub-0\n"));
+                        assertTrue(message.contains("content-type:application/json\n"));
+                        assertTrue(message.endsWith("\n\n{\"id\":1}"));
+                        assertEquals(1L, broker.getStats().get("routedMessages"));
+                }
+        }
+
+        @Test
+        public void testUnsubscribe_StopsDelivery() throws Exception {
+                try (Socket client = connect()) {
+                        write(client, "SUBSCRIBE\nid:sub-0\ndestination:/topic/a\n\n");
+                        write(client, "UNSUBSCRIBE\nid:sub-0\n\n");
+                        write(client, "SEND\ndestination:/topic/a\nreceipt:r2\n\nhello");
+
+                        // Chỉ nhận RECEIPT, không có MESSAGE
+                        assertTrue(readFrame(client).startsWith("RECEIPT\nreceipt-id:r2\n"));
+                        assertEquals(0L, broker.getStats().get("routedMessages"));
+                }
+        }
+
+        @Test
+        public void testHeaders_AreEscaped() throws Exception {
+                try (Socket client = connect()) {
+                        write(client, "SUBSCRIBE\nid:sub-0\ndestination:/topic/a\n\n");
+                        write(client, "SEND\ndestination:/topic/a\nx-note:a\\cb\\nc\n\nhello");
+
+                        String message = readFrame(client);
+                        assertTrue(message.contains("x-note:a\\cb\\nc\n"), message);
+                }
+        }
+
+        // ==================== TEST HEART-BEAT ====================
+
+        @Test
+        public void testConnect_SendsHeartbeatsClientAskedFor() throws Exception {
+                try (Socket client = new Socket("127.0.0.1", broker.getPort())) {
+                        client.setSoTimeout(2000);
+                        write(client, "CONNECT\naccept-version:1.2\nheart-beat:0,200\n\n");
+                        assertTrue(readFrame(client).contains("heart-beat:200,0\n"));
+
+                        // Không có frame nào khác: broker phải gửi EOL trong vòng khoảng heart-beat
+                        long start = System.currentTimeMillis();
+                        assertEquals((int) '\n', client.getInputStream().read());
+                        assertTrue(System.currentTimeMillis() - start < 1000);
+                }
+        }
+
+        @Test
+        public void testDisconnect_SendsReceiptAndCloses() throws Exception {
+                Socket client = connect();
+                write(client, "DISCONNECT\nreceipt:bye\n\n");
+
+                assertTrue(readFrame(client).startsWith("RECEIPT\nreceipt-id:bye\n"));
+                assertEquals(-1, client.getInputStream().read());
+                client.close();
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private Socket connect() throws IOException {
+                Socket socket = new Socket("127.0.0.1", broker.getPort());
+                socket.setSoTimeout(2000);
+                write(socket, "CONNECT\naccept-version:1.2\nhost:localhost\n\n");
+                assertTrue(readFrame(socket).startsWith("CONNECTED\nversion:1.2\n"));
+                return socket;
+        }
+
+        private static void write(Socket socket, String frame) throws IOException {
+                socket.getOutputStream().write((frame + "\0").getBytes(StandardCharsets.UTF_8));
+                socket.getOutputStream().flush();
+        }
+
+        // Đọc một frame (bỏ qua EOL heart-beat phía trước), trả về nội dung không gồm NUL
+        private static String readFrame(Socket socket) throws IOException {
+                InputStream in = socket.getInputStream();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) != 0) {
+                        if (b == -1) throw new IOException("Kết nối đã đóng");
+                        if (b == '\n' && buffer.size() == 0) continue;
+                        buffer.write(b);
+                }
+                return buffer.toString(StandardCharsets.UTF_8);
+        }
+}
@@ -0,0 +1,173 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.service.ImageBufferPool;
+import com.mpbhms.backend.service.MeterImage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Kiểm thử MeterImage và ImageBufferPool
+ */
+public class MeterImageTest {
+
+        // Hai bounding box Custom Vision giả lập
+        private static final double[][] BOXES = {{0.30, 0.40, 0.40, 0.12}, {0.32, 0.42, 0.03, 0.02}};
+
+        private static byte[] meterPhoto;
+
+        @BeforeAll
+        static void createSamplePhoto() throws IOException {
+                meterPhoto = toJpeg(drawMeter(1600, 1200));
+        }
+
+        // ==================== TEST DECODE ONCE ====================
+
+        @Test
+        public void testGetImage_DecodesOnce() throws Exception {
+                MeterImage image = new MeterImage(meterPhoto, new ImageBufferPool(0));
+
+                assertSame(image.getImage(), image.getImage());
+        }
+
+        @Test
+        public void testEncode_CachesEachVariant() throws Exception {
+                MeterImage image = new MeterImage(meterPhoto, new ImageBufferPool(0));
+
+                byte[] first = image.encode(MeterImage.Variant.GRAYSCALE);
+
+                assertSame(first, image.encode(MeterImage.Variant.GRAYSCALE));
+                assertEquals(1200, ImageIO.read(new ByteArrayInputStream(first)).getHeight());
+        }
+
+        @Test
+        public void testEncode_VariantSizes() throws Exception {
+                MeterImage image = new MeterImage(meterPhoto, new ImageBufferPool(0));
+
+                assertEquals(3200, decode(image.encode(MeterImage.Variant.UPSCALED)).getWidth());
+                assertEquals(800, decode(image.encode(MeterImage.Variant.DOWNSCALED)).getWidth());
+        }
+
+        @Test
+        public void testEncodeRegion_PadsAndUpscalesSmallBoxes() throws Exception {
+                MeterImage image = new MeterImage(meterPhoto, new ImageBufferPool(0));
+
+                // Box 48x24 px: padding 6px mỗi bên -> 60x36, nhỏ hơn 100x50 nên phóng to 3 lần
+                BufferedImage region = decode(image.encodeRegion(BOXES[1][0], BOXES[1][1], BOXES[1][2], BOXES[1][3]));
+
+                assertEquals(180, region.getWidth());
+                assertEquals(108, region.getHeight());
+        }
+
+        @Test
+        public void testEncodeRegion_ReusesPooledBuffers() throws Exception {
+                ImageBufferPool pool = new ImageBufferPool(64L * 1024 * 1024);
+
+                for (int i = 0; i < 3; i++) {
+                        MeterImage image = new MeterImage(meterPhoto, pool);
+                        image.encodeRegion(BOXES[0][0], BOXES[0][1], BOXES[0][2], BOXES[0][3]);
+                }
+
+                assertEquals(1, pool.getMisses());
+                assertEquals(2, pool.getHits());
+        }
+
+        @Test
+        public void testBufferPool_DropsBuffersOverBudget() {
+                // 100x100 thuộc size class 112x112, ngân sách chỉ đủ giữ một buffer
+                ImageBufferPool pool = new ImageBufferPool(112 * 112 * 4);
+                BufferedImage first = pool.acquire(100, 100, BufferedImage.TYPE_INT_RGB);
+                BufferedImage second = pool.acquire(100, 100, BufferedImage.TYPE_INT_RGB);
+
+                pool.release(first);
+                pool.release(second);
+
+                assertEquals(112 * 112 * 4, pool.getPooledBytes());
+        }
+
+        @Test
+        public void testBufferPool_ReusesBufferAcrossNearbySizes() {
+                ImageBufferPool pool = new ImageBufferPool(64L * 1024 * 1024);
+
+                // 1600x1200 và 1590x1195 cùng size class -> dùng chung một buffer
+                BufferedImage first = pool.acquire(1600, 1200, BufferedImage.TYPE_INT_RGB);
+                pool.release(first);
+                BufferedImage second = pool.acquire(1590, 1195, BufferedImage.TYPE_INT_RGB);
+
+                assertEquals(1590, second.getWidth());
+                assertEquals(1195, second.getHeight());
+                assertEquals(1, pool.getMisses());
+                assertEquals(1, pool.getHits());
+        }
+
+        @Test
+        public void testBufferPool_ReturnsBackingBufferOnRelease() {
+                ImageBufferPool pool = new ImageBufferPool(64L * 1024 * 1024);
+
+                // Sub-view 1000x700 được trả về pool dưới dạng ảnh nền 1024x704 (size class)
+                pool.release(pool.acquire(1000, 700, BufferedImage.TYPE_INT_RGB));
+                BufferedImage again = pool.acquire(1010, 690, BufferedImage.TYPE_INT_RGB);
+                pool.release(again);
+
+                assertEquals(1, pool.getMisses());
+                assertEquals(1, pool.getHits());
+                assertEquals(1024L * 704 * 4, pool.getPooledBytes());
+        }
+
+        @Test
+        public void testEncode_FullCascadeReusesPooledBuffers() throws Exception {
+                ImageBufferPool pool = new ImageBufferPool(256L * 1024 * 1024);
+
+                sharedContextCascade(meterPhoto, pool);
+                long missesAfterFirstImage = pool.getMisses();
+                sharedContextCascade(meterPhoto, pool);
+
+                // Ảnh thứ hai không cấp phát buffer mới nào
+                assertEquals(missesAfterFirstImage, pool.getMisses());
+                assertTrue(pool.getHits() >= missesAfterFirstImage);
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private static void sharedContextCascade(byte[] photo, ImageBufferPool pool) throws IOException {
+                MeterImage image = new MeterImage(photo, pool);
+                for (double[] box : BOXES) {
+                        image.encodeRegion(box[0], box[1], box[2], box[3]);
+                }
+                for (MeterImage.Variant variant : MeterImage.Variant.values()) {
+                        image.encode(variant);
+                }
+        }
+
+        private static BufferedImage drawMeter(int width, int height) {
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics2D g2d = image.createGraphics();
+                g2d.setColor(new Color(200, 200, 190));
+                g2d.fillRect(0, 0, width, height);
+                g2d.setColor(Color.BLACK);
+                g2d.fillRect(480, 480, 640, 144);
+                g2d.setColor(Color.WHITE);
+                g2d.setFont(new Font(Font.MONOSPACED, Font.BOLD, 110));
+                g2d.drawString("031717", 500, 590);
+                g2d.dispose();
+                return image;
+        }
+
+        private static BufferedImage decode(byte[] bytes) throws IOException {
+                return ImageIO.read(new ByteArrayInputStream(bytes));
+        }
+
+        private static byte[] toJpeg(BufferedImage image) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(image, "jpg", out);
+                return out.toByteArray();
+        }
+}
@@ -3,6 +3,7 @@ package com.mpbhms.backend;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mpbhms.backend.controller.NotificationController;
 import com.mpbhms.backend.dto.NotificationDTO;
+import com.mpbhms.backend.dto.NotificationInboxDTO;
 import com.mpbhms.backend.dto.Meta;
 import com.mpbhms.backend.dto.ResultPaginationDTO;
 import com.mpbhms.backend.entity.Notification;
@@ -11,7 +12,9 @@ import com.mpbhms.backend.enums.NotificationType;
 import com.mpbhms.backend.exception.BusinessException;
 import com.mpbhms.backend.exception.GlobalExceptionHandler;
 import com.mpbhms.backend.exception.ResourceNotFoundException;
+import com.mpbhms.backend.service.NotificationRetentionService;
 import com.mpbhms.backend.service.NotificationService;
+import com.mpbhms.backend.service.WebSocketOutboundBuffer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -50,6 +53,12 @@ public class NotificationControllerTest {
     @Mock
     private NotificationService notificationService;
 
+    @Mock
+    private WebSocketOutboundBuffer webSocketOutboundBuffer;
+
+    @Mock
+    private NotificationRetentionService notificationRetentionService;
+
     @Mock
     private Principal principal;
 
@@ -59,7 +68,7 @@ public class NotificationControllerTest {
     void setUp() {
         objectMapper = new ObjectMapper();
         mockMvc = MockMvcBuilders
-                .standaloneSetup(new NotificationController(notificationService))
+                .standaloneSetup(new NotificationController(notificationService, webSocketOutboundBuffer, notificationRetentionService))
                 .setControllerAdvice(new GlobalExceptionHandler())
                 .setCustomArgumentResolvers(
                         new SpecificationArgumentResolver(),
@@ -236,6 +245,61 @@ public class NotificationControllerTest {
         verify(notificationService, times(1)).getUserNotifications("test@example.com");
     }
 
+    // **UNITTEST INBOX / UNREAD COUNT / READ ALL
+    @Test
+    public void testGetInboxSuccess() throws Exception {
+        // Arrange
+        NotificationDTO item = new NotificationDTO();
+        item.setId(30L);
+        item.setTitle("Notification 30");
+        NotificationInboxDTO inbox = new NotificationInboxDTO();
+        inbox.setItems(List.of(item));
+        inbox.setHasMore(true);
+        inbox.setNextCursor("abc");
+        inbox.setUnreadCount(3);
+        when(notificationService.getInbox("test@example.com", "xyz", 1)).thenReturn(inbox);
+
+        // Act & Assert
+        mockMvc.perform(get("/mpbhms/notifications/inbox").param("cursor", "xyz").param("size", "1")
+                        .principal(() -> "test@example.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id").value(30))
+                .andExpect(jsonPath("$.nextCursor").value("abc"))
+                .andExpect(jsonPath("$.hasMore").value(true))
+                .andExpect(jsonPath("$.unreadCount").value(3));
+    }
+
+    @Test
+    public void testGetInboxInvalidCursor() throws Exception {
+        // Arrange
+        when(notificationService.getInbox("test@example.com", "bad", 20))
+                .thenThrow(new IllegalArgumentException("Cursor không hợp lệ: bad"));
+
+        // Act & Assert: mặc định size = 20
+        mockMvc.perform(get("/mpbhms/notifications/inbox").param("cursor", "bad").principal(() -> "test@example.com"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testGetUnreadCount() throws Exception {
+        when(notificationService.getUnreadCount("test@example.com")).thenReturn(5L);
+
+        mockMvc.perform(get("/mpbhms/notifications/unread-count").principal(() -> "test@example.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.unreadCount").value(5));
+    }
+
+    @Test
+    public void testMarkAllAsRead() throws Exception {
+        when(notificationService.markAllAsRead("test@example.com")).thenReturn(4);
+
+        mockMvc.perform(put("/mpbhms/notifications/read-all").principal(() -> "test@example.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.updated").value(4));
+
+        verify(notificationService, times(1)).markAllAsRead("test@example.com");
+    }
+
     // **UNITTEST GET ALL NOTIFICATIONS (ADMIN)
     @Test
     public void testGetAllNotificationsSuccess() throws Exception {
@@ -0,0 +1,160 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.enums.NotificationStatus;
+import com.mpbhms.backend.repository.NotificationArchiveRepository;
+import com.mpbhms.backend.repository.NotificationRepository;
+import com.mpbhms.backend.service.NotificationRetentionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class NotificationRetentionServiceTest {
+
+        @Mock
+        private NotificationRepository notificationRepository;
+        @Mock
+        private NotificationArchiveRepository notificationArchiveRepository;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        @BeforeEach
+        void setUp() {
+                when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+                when(notificationRepository.deleteByIdInAndStatus(anyCollection(), eq(NotificationStatus.READ)))
+                                .thenAnswer(invocation -> ((Collection<?>) invocation.getArgument(0)).size());
+        }
+
+        // ==================== TEST ARCHIVE ====================
+
+        @Test
+        public void testArchive_MovesBatchesUntilPartialBatch() {
+                // Arrange: lô 2 dòng, còn 5 thông báo quá hạn -> 2 + 2 + 1
+                NotificationRetentionService service = newService(2, 100);
+                when(notificationRepository.findIdsByStatusReadBefore(eq(NotificationStatus.READ), any(LocalDateTime.class), any(Pageable.class)))
+                                .thenReturn(List.of(1L, 2L), List.of(3L, 4L), List.of(5L));
+
+                // Act
+                long archived = service.archiveReadNotifications();
+
+                // Assert
+                assertEquals(5, archived);
+                verify(notificationArchiveRepository).copyFromNotifications(eq(List.of(1L, 2L)), any(Instant.class));
+                verify(notificationArchiveRepository).copyFromNotifications(eq(List.of(5L)), any(Instant.class));
+                verify(notificationRepository, times(3)).deleteByIdInAndStatus(anyCollection(), eq(NotificationStatus.READ));
+                // Mỗi lô một transaction riêng
+                verify(transactionManager, times(3)).commit(any());
+                assertEquals(5L, service.getStats().get("lastRunArchived"));
+                assertEquals(3L, service.getStats().get("lastRunBatches"));
+                assertEquals(5L, service.getStats().get("archivedSinceStart"));
+        }
+
+        @Test
+        public void testArchive_StopsAtMaxBatchesPerRun() {
+                // Arrange: luôn còn lô đầy
+                NotificationRetentionService service = newService(2, 3);
+                when(notificationRepository.findIdsByStatusReadBefore(eq(NotificationStatus.READ), any(LocalDateTime.class), any(Pageable.class)))
+                                .thenReturn(List.of(1L, 2L));
+
+                // Act
+                long archived = service.archiveReadNotifications();
+
+                // Assert: phần còn lại để lần chạy sau
+                assertEquals(6, archived);
+                verify(notificationRepository, times(3)).deleteByIdInAndStatus(anyCollection(), any());
+        }
+
+        @Test
+        public void testArchive_UsesReadAgeCutoffAndBatchSize() {
+                NotificationRetentionService service = newService(1000, 10);
+                when(notificationRepository.findIdsByStatusReadBefore(any(), any(LocalDateTime.class), any(Pageable.class)))
+                                .thenReturn(List.of());
+                when(notificationRepository.findIdsByStatusWithoutReadAtCreatedBefore(any(), any(Instant.class), any(Pageable.class)))
+                                .thenReturn(List.of());
+
+                long archived = service.archiveReadNotifications();
+
+                ArgumentCaptor<LocalDateTime> readCutoff = ArgumentCaptor.forClass(LocalDateTime.class);
+                ArgumentCaptor<Instant> createdCutoff = ArgumentCaptor.forClass(Instant.class);
+                ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+                verify(notificationRepository).findIdsByStatusReadBefore(eq(NotificationStatus.READ), readCutoff.capture(), pageable.capture());
+                verify(notificationRepository).findIdsByStatusWithoutReadAtCreatedBefore(eq(NotificationStatus.READ), createdCutoff.capture(), any(Pageable.class));
+                assertEquals(0, archived);
+                assertEquals(1000, pageable.getValue().getPageSize());
+                assertEquals(90, ChronoUnit.DAYS.between(readCutoff.getValue(), LocalDateTime.now().plusSeconds(60)));
+                assertEquals(90, ChronoUnit.DAYS.between(createdCutoff.getValue(), Instant.now().plusSeconds(60)));
+                verify(notificationArchiveRepository, never()).copyFromNotifications(anyCollection(), any());
+        }
+
+        @Test
+        public void testArchive_FillsBatchWithLegacyRowsWithoutReadAt() {
+                // Arrange: lô 3 dòng, chỉ 2 dòng quá hạn theo readAt -> bù 1 dòng cũ thiếu readAt theo createdDate
+                NotificationRetentionService service = newService(3, 10);
+                when(notificationRepository.findIdsByStatusReadBefore(eq(NotificationStatus.READ), any(LocalDateTime.class), any(Pageable.class)))
+                                .thenReturn(List.of(1L, 2L), List.of());
+                when(notificationRepository.findIdsByStatusWithoutReadAtCreatedBefore(eq(NotificationStatus.READ), any(Instant.class), any(Pageable.class)))
+                                .thenReturn(List.of(7L), List.of());
+
+                // Act
+                long archived = service.archiveReadNotifications();
+
+                // Assert
+                assertEquals(3, archived);
+                ArgumentCaptor<Pageable> legacyPage = ArgumentCaptor.forClass(Pageable.class);
+                verify(notificationRepository, times(2)).findIdsByStatusWithoutReadAtCreatedBefore(eq(NotificationStatus.READ), any(Instant.class), legacyPage.capture());
+                assertEquals(1, legacyPage.getAllValues().get(0).getPageSize());
+                verify(notificationArchiveRepository).copyFromNotifications(eq(List.of(1L, 2L, 7L)), any(Instant.class));
+        }
+
+        @Test
+        public void testArchive_FullReadAtBatchSkipsLegacyQuery() {
+                // Arrange
+                NotificationRetentionService service = newService(2, 1);
+                when(notificationRepository.findIdsByStatusReadBefore(eq(NotificationStatus.READ), any(LocalDateTime.class), any(Pageable.class)))
+                                .thenReturn(List.of(1L, 2L));
+
+                // Act
+                service.archiveReadNotifications();
+
+                // Assert: thông báo đọc gần đây nhưng tạo đã lâu không bị chọn theo createdDate
+                verify(notificationRepository, never()).findIdsByStatusWithoutReadAtCreatedBefore(any(), any(), any());
+        }
+
+        @Test
+        public void testScheduledArchive_DisabledDoesNothing() {
+                NotificationRetentionService service = new NotificationRetentionService(notificationRepository,
+                                notificationArchiveRepository, transactionManager, false, 90, 1000, 10, 0);
+
+                service.scheduledArchive();
+
+                verifyNoInteractions(notificationArchiveRepository);
+                verify(notificationRepository, never()).findIdsByStatusReadBefore(any(), any(), any());
+                assertEquals(0L, service.getStats().get("runs"));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private NotificationRetentionService newService(int batchSize, int maxBatchesPerRun) {
+                return new NotificationRetentionService(notificationRepository, notificationArchiveRepository,
+                                transactionManager, true, 90, batchSize, maxBatchesPerRun, 0);
+        }
+}
@@ -0,0 +1,358 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.dto.NotificationDTO;
+import com.mpbhms.backend.dto.NotificationInboxDTO;
+import com.mpbhms.backend.entity.Notification;
+import com.mpbhms.backend.entity.NotificationArchive;
+import com.mpbhms.backend.entity.NotificationCounter;
+import com.mpbhms.backend.entity.User;
+import com.mpbhms.backend.enums.NotificationStatus;
+import com.mpbhms.backend.enums.NotificationType;
+import com.mpbhms.backend.repository.NotificationArchiveRepository;
+import com.mpbhms.backend.repository.NotificationCounterRepository;
+import com.mpbhms.backend.repository.NotificationRepository;
+import com.mpbhms.backend.repository.UserRepository;
+import com.mpbhms.backend.service.NotificationBulkWriter;
+import com.mpbhms.backend.service.impl.NotificationServiceImpl;
+import com.mpbhms.backend.util.CurrentPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class NotificationServiceImplTest {
+
+        @Mock
+        private NotificationRepository notificationRepository;
+        @Mock
+        private UserRepository userRepository;
+        @Mock
+        private SimpMessagingTemplate messagingTemplate;
+        @Mock
+        private JdbcTemplate jdbcTemplate;
+        @Mock
+        private NotificationCounterRepository notificationCounterRepository;
+        @Mock
+        private NotificationArchiveRepository notificationArchiveRepository;
+        @Mock
+        private CurrentPrincipal currentPrincipal;
+
+        @AfterEach
+        void tearDown() {
+                if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                        TransactionSynchronizationManager.clearSynchronization();
+                }
+        }
+
+        // ==================== TEST CREATE AND SEND MULTIPLE ====================
+
+        @Test
+        public void testCreateAndSendMultiple_ResolvesUsernamesInOneQuery() {
+                // Arrange
+                NotificationServiceImpl service = newService(messagingTemplate, 2);
+                when(userRepository.findUsernamesByIdIn(anyCollection())).thenAnswer(invocation -> usernameRows(invocation.getArgument(0)));
+
+                // Act: id 2 bị trùng
+                List<Notification> result = service.createAndSendMultiple(request(List.of(1L, 2L, 3L, 2L)));
+
+                // Assert
+                assertEquals(3, result.size());
+                assertEquals(List.of(1L, 2L, 3L), result.stream().map(Notification::getId).toList());
+                verify(userRepository, times(1)).findUsernamesByIdIn(anyCollection());
+                verify(userRepository, never()).findById(anyLong());
+                verify(notificationRepository, never()).save(any());
+                // 3 dòng, lô 2 dòng -> 2 lần gửi batch
+                verify(jdbcTemplate, times(2)).batchUpdate(any(PreparedStatementCreator.class), any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+                verify(messagingTemplate).convertAndSendToUser(eq("user1"), eq("/queue/notifications"), same(result.get(0)));
+                verify(messagingTemplate).convertAndSendToUser(eq("user3"), eq("/queue/notifications"), same(result.get(2)));
+                verify(messagingTemplate, times(3)).convertAndSendToUser(anyString(), anyString(), any(Object.class));
+        }
+
+        @Test
+        public void testCreateAndSendMultiple_PushesOnlyAfterCommit() {
+                // Arrange
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findUsernamesByIdIn(anyCollection())).thenAnswer(invocation -> usernameRows(invocation.getArgument(0)));
+                TransactionSynchronizationManager.initSynchronization();
+
+                // Act
+                service.createAndSendMultiple(request(List.of(1L, 2L)));
+
+                // Assert: chưa commit thì chưa gửi gì
+                verify(messagingTemplate, never()).convertAndSendToUser(anyString(), anyString(), any(Object.class));
+
+                TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+                verify(messagingTemplate, times(2)).convertAndSendToUser(anyString(), anyString(), any(Object.class));
+        }
+
+        @Test
+        public void testCreateAndSendMultiple_RejectsEmptyRecipients() {
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+
+                assertThrows(IllegalArgumentException.class, () -> service.createAndSendMultiple(request(List.of())));
+        }
+
+        // ==================== TEST CREATE AND SEND ====================
+
+        @Test
+        public void testCreateAndSend_ByEmailLooksUpUserOnce() {
+                // Arrange
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                User user = new User();
+                user.setId(7L);
+                user.setUsername("renter7");
+                when(userRepository.findByEmail("renter7@test.com")).thenReturn(user);
+                when(notificationRepository.save(any(Notification.class))).thenAnswer(invocation -> invocation.getArgument(0));
+                NotificationDTO request = new NotificationDTO();
+                request.setRecipientEmail("renter7@test.com");
+
+                // Act
+                Notification saved = service.createAndSend(request);
+
+                // Assert
+                assertEquals(7L, saved.getRecipientId());
+                verify(userRepository, never()).findById(anyLong());
+                verify(userRepository, never()).findUsernameById(anyLong());
+                verify(messagingTemplate).convertAndSendToUser("renter7", "/queue/notifications", saved);
+                verify(notificationCounterRepository).incrementAll(List.of(7L));
+        }
+
+        // ==================== TEST INBOX ====================
+
+        @Test
+        public void testGetInbox_FirstPageReturnsCursorWhenMoreRows() {
+                // Arrange: size 2, repository trả về 3 dòng (size + 1)
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findByEmail("renter7@test.com")).thenReturn(user(7L));
+                Instant now = Instant.parse("2025-07-01T10:00:00Z");
+                when(notificationRepository.findInboxFirstPage(eq(7L), any(Pageable.class)))
+                                .thenReturn(List.of(notification(30L, now), notification(29L, now), notification(28L, now.minusSeconds(60))));
+                when(notificationCounterRepository.findById(7L)).thenReturn(Optional.of(counter(7L, 5)));
+
+                // Act
+                NotificationInboxDTO inbox = service.getInbox("renter7@test.com", null, 2);
+
+                // Assert
+                ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+                verify(notificationRepository).findInboxFirstPage(eq(7L), pageable.capture());
+                assertEquals(3, pageable.getValue().getPageSize());
+                assertEquals(List.of(30L, 29L), inbox.getItems().stream().map(NotificationDTO::getId).toList());
+                assertTrue(inbox.isHasMore());
+                assertNotNull(inbox.getNextCursor());
+                assertEquals(5L, inbox.getUnreadCount());
+                verify(notificationCounterRepository, never()).initializeFromNotifications(anyLong());
+
+                // Trang tiếp theo bắt đầu sau (createdDate, id) của dòng cuối trang trước
+                when(notificationRepository.findInboxPageAfter(eq(7L), eq(now), eq(29L), any(Pageable.class)))
+                                .thenReturn(List.of(notification(28L, now.minusSeconds(60))));
+                NotificationInboxDTO next = service.getInbox("renter7@test.com", inbox.getNextCursor(), 2);
+                assertEquals(List.of(28L), next.getItems().stream().map(NotificationDTO::getId).toList());
+                assertFalse(next.isHasMore());
+                assertNull(next.getNextCursor());
+        }
+
+        @Test
+        public void testGetInbox_RejectsInvalidCursor() {
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findByEmail("renter7@test.com")).thenReturn(user(7L));
+
+                assertThrows(IllegalArgumentException.class, () -> service.getInbox("renter7@test.com", "not-a-cursor", 20));
+        }
+
+        @Test
+        public void testGetArchive_ReturnsArchivedItemsAsRead() {
+                // Arrange
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findByEmail("renter7@test.com")).thenReturn(user(7L));
+                NotificationArchive archived = new NotificationArchive();
+                archived.setId(3L);
+                archived.setRecipientId(7L);
+                archived.setType(NotificationType.SERVICE_UPDATE);
+                archived.setCreatedDate(Instant.parse("2025-01-01T00:00:00Z"));
+                when(notificationArchiveRepository.findArchiveFirstPage(eq(7L), any(Pageable.class))).thenReturn(List.of(archived));
+                when(notificationCounterRepository.findById(7L)).thenReturn(Optional.of(counter(7L, 0)));
+
+                // Act
+                NotificationInboxDTO archive = service.getArchive("renter7@test.com", null, 20);
+
+                // Assert
+                assertEquals(1, archive.getItems().size());
+                assertEquals(3L, archive.getItems().get(0).getId());
+                assertEquals(NotificationStatus.READ, archive.getItems().get(0).getStatus());
+                assertFalse(archive.isHasMore());
+                verify(notificationRepository, never()).findInboxFirstPage(anyLong(), any());
+        }
+
+        @Test
+        public void testGetUnreadCount_InitializesCounterOnce() {
+                // Arrange: chưa có dòng đếm
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findByEmail("renter7@test.com")).thenReturn(user(7L));
+                when(notificationCounterRepository.findById(7L)).thenReturn(Optional.empty());
+                when(notificationCounterRepository.findUnreadCount(7L)).thenReturn(4L);
+
+                // Act
+                long unread = service.getUnreadCount("renter7@test.com");
+
+                // Assert: COUNT và INSERT trong một câu lệnh, không COUNT riêng rồi mới chèn
+                assertEquals(4L, unread);
+                verify(notificationCounterRepository).initializeFromNotifications(7L);
+        }
+
+        // ==================== TEST MARK AS READ ====================
+
+        @Test
+        public void testMarkAsRead_DecrementsCounterOnlyWhenRowChanged() {
+                // Arrange: id 1 chưa đọc, id 2 đã đọc (hoặc request khác đã đánh dấu trước)
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(notificationRepository.markReadIfUnread(eq(1L), eq(NotificationStatus.READ), any(LocalDateTime.class))).thenReturn(1);
+                when(notificationRepository.markReadIfUnread(eq(2L), eq(NotificationStatus.READ), any(LocalDateTime.class))).thenReturn(0);
+                when(notificationRepository.findRecipientIdById(1L)).thenReturn(7L);
+
+                // Act
+                service.markAsRead(1L);
+                service.markAsRead(2L);
+
+                // Assert
+                verify(notificationRepository, never()).findById(anyLong());
+                verify(notificationRepository, never()).save(any());
+                verify(notificationRepository, never()).findRecipientIdById(2L);
+                verify(notificationCounterRepository, times(1)).decrement(7L);
+        }
+
+        @Test
+        public void testMarkAsRead_ConcurrentRequestsDecrementOnce() {
+                // Arrange: hai request cùng đánh dấu một thông báo, chỉ UPDATE đầu tiên đổi được dòng
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(notificationRepository.markReadIfUnread(eq(1L), eq(NotificationStatus.READ), any(LocalDateTime.class)))
+                                .thenReturn(1, 0);
+                when(notificationRepository.findRecipientIdById(1L)).thenReturn(7L);
+
+                // Act
+                service.markAsRead(1L);
+                service.markAsRead(1L);
+
+                // Assert
+                verify(notificationCounterRepository, times(1)).decrement(7L);
+        }
+
+        @Test
+        public void testMarkAllAsRead_SingleUpdateAndResetsCounter() {
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findByEmail("renter7@test.com")).thenReturn(user(7L));
+                when(notificationRepository.markAllRead(eq(7L), eq(NotificationStatus.READ), any(LocalDateTime.class))).thenReturn(12);
+
+                assertEquals(12, service.markAllAsRead("renter7@test.com"));
+                verify(notificationRepository, never()).findById(anyLong());
+                verify(notificationCounterRepository).reset(7L);
+        }
+
+        // ==================== TEST FAN-OUT BATCHING ====================
+
+        @Test
+        public void testCreateAndSendMultiple_LargeFanOutUsesBatchedWrites() {
+                // Arrange: 1201 người nhận, lô 500 dòng
+                NotificationServiceImpl service = newService(messagingTemplate, 500);
+                when(userRepository.findUsernamesByIdIn(anyCollection())).thenAnswer(invocation -> usernameRows(invocation.getArgument(0)));
+                List<Long> ids = new ArrayList<>();
+                for (long id = 1; id <= 1_201; id++) {
+                        ids.add(id);
+                }
+
+                // Act
+                List<Notification> result = service.createAndSendMultiple(request(ids));
+
+                // Assert: 1 truy vấn username + 1 UPDATE bộ đếm + ceil(1201 / 500) = 3 lô INSERT
+                assertEquals(1_201, result.size());
+                verify(userRepository, times(1)).findUsernamesByIdIn(anyCollection());
+                verify(notificationCounterRepository, times(1)).incrementAll(anyCollection());
+                verify(jdbcTemplate, times(3)).batchUpdate(any(PreparedStatementCreator.class), any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+                verify(notificationRepository, never()).save(any());
+                verify(userRepository, never()).findById(anyLong());
+                verify(messagingTemplate, times(1_201)).convertAndSendToUser(anyString(), eq("/queue/notifications"), any(Object.class));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private NotificationServiceImpl newService(SimpMessagingTemplate template, int batchSize) {
+                AtomicLong nextId = new AtomicLong(1);
+                lenient().when(jdbcTemplate.batchUpdate(any(PreparedStatementCreator.class), any(BatchPreparedStatementSetter.class), any(KeyHolder.class)))
+                                .thenAnswer(invocation -> {
+                                        BatchPreparedStatementSetter setter = invocation.getArgument(1);
+                                        KeyHolder keyHolder = invocation.getArgument(2);
+                                        int[] counts = new int[setter.getBatchSize()];
+                                        for (int i = 0; i < counts.length; i++) {
+                                                keyHolder.getKeyList().add(Map.of("GENERATED_KEY", nextId.getAndIncrement()));
+                                                counts[i] = 1;
+                                        }
+                                        return counts;
+                                });
+                return new NotificationServiceImpl(notificationRepository, userRepository, template,
+                                new NotificationBulkWriter(jdbcTemplate, batchSize), notificationCounterRepository,
+                                notificationArchiveRepository, currentPrincipal);
+        }
+
+        private static User user(Long id) {
+                User user = new User();
+                user.setId(id);
+                user.setUsername("renter" + id);
+                return user;
+        }
+
+        private static Notification notification(Long id, Instant createdDate) {
+                Notification notification = new Notification();
+                notification.setId(id);
+                notification.setRecipientId(7L);
+                notification.setStatus(NotificationStatus.SENT);
+                notification.setCreatedDate(createdDate);
+                return notification;
+        }
+
+        private static NotificationCounter counter(Long userId, long unreadCount) {
+                NotificationCounter counter = new NotificationCounter();
+                counter.setUserId(userId);
+                counter.setUnreadCount(unreadCount);
+                return counter;
+        }
+
+        private static List<Object[]> usernameRows(Collection<Long> ids) {
+                List<Object[]> rows = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                        rows.add(new Object[]{id, "user" + id});
+                }
+                return rows;
+        }
+
+        private static NotificationDTO request(List<Long> recipientIds) {
+                NotificationDTO request = new NotificationDTO();
+                request.setTitle("Thay đổi giá dịch vụ: Điện");
+                request.setMessage("Giá dịch vụ Điện đã được cập nhật thành 3500 VNĐ/kWh");
+                request.setType(NotificationType.SERVICE_UPDATE);
+                request.setRecipientIds(recipientIds);
+                return request;
+        }
+}
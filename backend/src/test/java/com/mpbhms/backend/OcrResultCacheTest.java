@@ -0,0 +1,125 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.service.OcrResultCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OcrResultCacheTest {
+
+        @TempDir
+        Path cacheDir;
+
+        // ==================== TEST GET / PUT ====================
+
+        @Test
+        public void testGet_ReturnsStoredResultForSameContent() {
+                OcrResultCache cache = newCache(10);
+                String hash = OcrResultCache.sha256(new byte[]{1, 2, 3});
+
+                cache.put("meter", hash, "12345");
+
+                assertEquals("12345", cache.get("meter", hash, String.class));
+                assertNull(cache.get("meter", OcrResultCache.sha256(new byte[]{1, 2, 4}), String.class));
+                // Cùng ảnh nhưng loại OCR khác không dùng chung kết quả
+                assertNull(cache.get("cccd", hash, String[].class));
+        }
+
+        @Test
+        public void testPut_EvictsLeastRecentlyUsedOverCap() {
+                OcrResultCache cache = newCache(2);
+                cache.put("meter", "a", "11111");
+                cache.put("meter", "b", "22222");
+                cache.get("meter", "a", String.class);
+
+                cache.put("meter", "c", "33333");
+
+                assertEquals("11111", cache.get("meter", "a", String.class));
+                assertNull(cache.get("meter", "b", String.class));
+                assertEquals("33333", cache.get("meter", "c", String.class));
+        }
+
+        // ==================== TEST PERSISTENCE ====================
+
+        @Test
+        public void testFlush_SurvivesRestart() {
+                OcrResultCache cache = newCache(10);
+                cache.put("meter", "a", "12345");
+                cache.flush();
+
+                OcrResultCache restarted = newCache(10);
+
+                assertEquals("12345", restarted.get("meter", "a", String.class));
+        }
+
+        @Test
+        public void testFlush_NeverWritesCccdResults() throws Exception {
+                // Arrange
+                OcrResultCache cache = newCache(10);
+                cache.put("meter", "a", "12345");
+                cache.put("cccd", "b", List.of("CĂN CƯỚC CÔNG DÂN", "001234567890"));
+
+                // Act
+                cache.flush();
+
+                // Assert: dùng được trong bộ nhớ nhưng không có trong file, không còn sau khi khởi động lại
+                assertArrayEquals(new String[]{"CĂN CƯỚC CÔNG DÂN", "001234567890"}, cache.get("cccd", "b", String[].class));
+                String file = Files.readString(cacheDir.resolve("ocr-results.json"), StandardCharsets.UTF_8);
+                assertFalse(file.contains("001234567890"));
+                assertNull(newCache(10).get("cccd", "b", String[].class));
+        }
+
+        @Test
+        public void testLoad_PurgesCccdResultsWrittenByOldVersion() throws Exception {
+                // Arrange: file cũ còn dòng CCCD
+                Files.writeString(cacheDir.resolve("ocr-results.json"),
+                                "{\"entries\":[{\"key\":\"cccd:old\",\"createdAt\":" + System.currentTimeMillis() + ",\"value\":[\"001234567890\"]},"
+                                                + "{\"key\":\"meter:new\",\"createdAt\":" + System.currentTimeMillis() + ",\"value\":\"22222\"}]}",
+                                StandardCharsets.UTF_8);
+
+                // Act
+                OcrResultCache cache = newCache(10);
+                cache.flushIfDirty();
+
+                // Assert
+                assertNull(cache.get("cccd", "old", String[].class));
+                assertEquals("22222", cache.get("meter", "new", String.class));
+                assertFalse(Files.readString(cacheDir.resolve("ocr-results.json"), StandardCharsets.UTF_8).contains("001234567890"));
+        }
+
+        @Test
+        public void testLoad_SkipsExpiredEntries() throws Exception {
+                long twoHoursAgo = System.currentTimeMillis() - 2 * 3600 * 1000L;
+                Files.writeString(cacheDir.resolve("ocr-results.json"),
+                                "{\"entries\":[{\"key\":\"meter:old\",\"createdAt\":" + twoHoursAgo + ",\"value\":\"11111\"},"
+                                                + "{\"key\":\"meter:new\",\"createdAt\":" + System.currentTimeMillis() + ",\"value\":\"22222\"}]}",
+                                StandardCharsets.UTF_8);
+
+                // TTL 1 giờ
+                OcrResultCache cache = newCache(10);
+
+                assertNull(cache.get("meter", "old", String.class));
+                assertEquals("22222", cache.get("meter", "new", String.class));
+        }
+
+        @Test
+        public void testLoad_IgnoresCorruptFile() throws Exception {
+                Files.writeString(cacheDir.resolve("ocr-results.json"), "{not json", StandardCharsets.UTF_8);
+
+                OcrResultCache cache = newCache(10);
+
+                assertEquals(0, cache.getStats().get("entries"));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private OcrResultCache newCache(int maxEntries) {
+                return new OcrResultCache(cacheDir.resolve("ocr-results.json").toString(), 1, maxEntries, true, "cccd", 10);
+        }
+}
@@ -0,0 +1,90 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.repository.OverdueWarningLogRepository;
+import com.mpbhms.backend.service.OverdueWarningLedger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OverdueWarningLedgerTest {
+
+        private static final String KIND = OverdueWarningLedger.WARNING_OVERDUE_7_DAYS;
+
+        @Mock
+        private OverdueWarningLogRepository overdueWarningLogRepository;
+
+        private OverdueWarningLedger ledger;
+
+        @BeforeEach
+        void setUp() {
+                ledger = new OverdueWarningLedger(overdueWarningLogRepository, 100);
+                // Giả lập transaction đang chạy của job gửi cảnh báo
+                TransactionSynchronizationManager.initSynchronization();
+        }
+
+        @AfterEach
+        void tearDown() {
+                TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        // ==================== TEST CLAIM ====================
+
+        @Test
+        public void testTryClaim_CachesOnlyAfterCommit() {
+                // Arrange
+                when(overdueWarningLogRepository.insertIfAbsent(eq(1L), eq(KIND), any(Instant.class))).thenReturn(1);
+
+                // Act
+                boolean claimed = ledger.tryClaim(1L, KIND);
+
+                // Assert: chưa commit thì chưa đánh dấu là đã gửi
+                assertTrue(claimed);
+                assertFalse(ledger.getCachedBillIds(KIND).contains(1L));
+
+                TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+                assertTrue(ledger.getCachedBillIds(KIND).contains(1L));
+        }
+
+        @Test
+        public void testTryClaim_RollbackLeavesWarningClaimableAgain() {
+                // Arrange: transaction đầu rollback nên dòng trong sổ cũng mất, lần chạy sau INSERT lại được
+                when(overdueWarningLogRepository.insertIfAbsent(eq(1L), eq(KIND), any(Instant.class))).thenReturn(1);
+                ledger.tryClaim(1L, KIND);
+                TransactionSynchronizationManager.getSynchronizations()
+                                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+                // Act
+                boolean claimedAgain = ledger.tryClaim(1L, KIND);
+
+                // Assert
+                assertTrue(claimedAgain);
+                verify(overdueWarningLogRepository, times(2)).insertIfAbsent(eq(1L), eq(KIND), any(Instant.class));
+        }
+
+        @Test
+        public void testTryClaim_AlreadySentSkipsDatabaseNextTime() {
+                // Arrange: node khác đã gửi
+                when(overdueWarningLogRepository.insertIfAbsent(eq(1L), eq(KIND), any(Instant.class))).thenReturn(0);
+
+                // Act
+                boolean first = ledger.tryClaim(1L, KIND);
+                boolean second = ledger.tryClaim(1L, KIND);
+
+                // Assert
+                assertFalse(first);
+                assertFalse(second);
+                verify(overdueWarningLogRepository, times(1)).insertIfAbsent(eq(1L), eq(KIND), any(Instant.class));
+        }
+}
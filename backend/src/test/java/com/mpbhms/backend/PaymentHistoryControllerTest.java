@@ -0,0 +1,71 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.controller.PaymentHistoryController;
+import com.mpbhms.backend.service.PaymentHistoryService;
+import com.mpbhms.backend.util.CurrentPrincipal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.Writer;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PaymentHistoryControllerTest {
+
+        @Mock
+        private PaymentHistoryService paymentHistoryService;
+        @Mock
+        private CurrentPrincipal currentPrincipal;
+
+        private MockMvc mockMvc;
+
+        @BeforeEach
+        void setUp() {
+                PaymentHistoryController controller = new PaymentHistoryController();
+                ReflectionTestUtils.setField(controller, "paymentHistoryService", paymentHistoryService);
+                ReflectionTestUtils.setField(controller, "currentPrincipal", currentPrincipal);
+                ReflectionTestUtils.setField(controller, "exportTimeoutMs", 600000L);
+                mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+        }
+
+        // ==================== TEST EXPORT ====================
+
+        @Test
+        public void testExport_UsesEndpointTimeoutAndStreamsCsv() throws Exception {
+                // Arrange
+                when(currentPrincipal.getLandlordScope()).thenReturn(3L);
+                when(paymentHistoryService.exportPaymentHistoryByDateRange(any(Instant.class), any(Instant.class), eq(3L), any(Writer.class)))
+                                .thenAnswer(invocation -> {
+                                        invocation.getArgument(3, Writer.class).write("id,amount\n1,100\n");
+                                        return 1L;
+                                });
+
+                // Act
+                MvcResult started = mockMvc.perform(get("/mpbhms/payment-history/date-range/export")
+                                                .param("startDate", "2025-07-01T00:00:00Z")
+                                                .param("endDate", "2025-07-31T23:59:59Z"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+
+                // Assert: timeout 10 phút chỉ đặt cho request xuất CSV
+                assertEquals(600000L, started.getRequest().getAsyncContext().getTimeout());
+                mockMvc.perform(asyncDispatch(started))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Disposition", "attachment; filename=payment_history.csv"))
+                                .andExpect(content().contentType("text/csv;charset=UTF-8"))
+                                .andExpect(content().string("\uFEFFid,amount\n1,100\n"));
+        }
+}
@@ -0,0 +1,270 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.dto.PaymentHistoryPageDTO;
+import com.mpbhms.backend.dto.PaymentHistoryResponse;
+import com.mpbhms.backend.entity.Bill;
+import com.mpbhms.backend.entity.PaymentHistory;
+import com.mpbhms.backend.entity.Room;
+import com.mpbhms.backend.repository.BillRepository;
+import com.mpbhms.backend.repository.PaymentHistoryRepository;
+import com.mpbhms.backend.repository.RoomRepository;
+import com.mpbhms.backend.service.impl.PaymentHistoryServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.security.access.AccessDeniedException;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PaymentHistoryServiceImplTest {
+
+        private static final Instant START = Instant.parse("2025-01-01T00:00:00Z");
+        private static final Instant END = Instant.parse("2025-12-31T23:59:59Z");
+
+        @Mock
+        private PaymentHistoryRepository paymentHistoryRepository;
+        @Mock
+        private BillRepository billRepository;
+        @Mock
+        private RoomRepository roomRepository;
+
+        @InjectMocks
+        private PaymentHistoryServiceImpl paymentHistoryService;
+
+        private final AtomicInteger exportQueries = new AtomicInteger();
+
+        // ==================== TEST PHÂN TRANG THEO HÓA ĐƠN ====================
+
+        @Test
+        public void testGetPaymentHistoryByBillId_PaginatesInDatabase() {
+                // Arrange
+                when(paymentHistoryRepository.findPageByBillId(eq(5L), any(Pageable.class)))
+                                .thenReturn(List.of(payment(21L, START), payment(20L, START.minusSeconds(60))));
+
+                // Act
+                List<PaymentHistoryResponse> page = paymentHistoryService.getPaymentHistoryByBillId(5L, 2, 10);
+
+                // Assert: LIMIT 10 OFFSET 20, không nạp toàn bộ lịch sử của hóa đơn
+                ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+                verify(paymentHistoryRepository).findPageByBillId(eq(5L), pageable.capture());
+                assertEquals(10, pageable.getValue().getPageSize());
+                assertEquals(20L, pageable.getValue().getOffset());
+                assertEquals(List.of(21L, 20L), page.stream().map(PaymentHistoryResponse::getId).toList());
+                verify(paymentHistoryRepository, never()).findByBillIdOrderByPaymentDateDesc(anyLong());
+        }
+
+        @Test
+        public void testGetPaymentHistoryByBillId_ClampsPageSize() {
+                when(paymentHistoryRepository.findPageByBillId(eq(5L), any(Pageable.class))).thenReturn(List.of());
+
+                paymentHistoryService.getPaymentHistoryByBillId(5L, -1, 100_000);
+
+                ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+                verify(paymentHistoryRepository).findPageByBillId(eq(5L), pageable.capture());
+                assertEquals(100, pageable.getValue().getPageSize());
+                assertEquals(0L, pageable.getValue().getOffset());
+        }
+
+        // ==================== TEST PHÂN TRANG CURSOR ====================
+
+        @Test
+        public void testGetPaymentHistoryPageByRoomId_FirstPageThenCursor() {
+                // Arrange: size 2, repository trả về 3 dòng (size + 1)
+                when(paymentHistoryRepository.findRoomFirstPage(eq(3L), any(Pageable.class)))
+                                .thenReturn(List.of(payment(30L, START), payment(29L, START), payment(28L, START.minusSeconds(60))));
+
+                // Act
+                PaymentHistoryPageDTO page = paymentHistoryService.getPaymentHistoryPageByRoomId(3L, null, null, 2);
+
+                // Assert
+                ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+                verify(paymentHistoryRepository).findRoomFirstPage(eq(3L), pageable.capture());
+                assertEquals(3, pageable.getValue().getPageSize());
+                assertEquals(List.of(30L, 29L), page.getItems().stream().map(PaymentHistoryResponse::getId).toList());
+                assertTrue(page.isHasMore());
+                assertNotNull(page.getNextCursor());
+
+                // Trang tiếp theo bắt đầu sau (paymentDate, id) của dòng cuối trang trước
+                when(paymentHistoryRepository.findRoomPageAfter(eq(3L), eq(START), eq(29L), any(Pageable.class)))
+                                .thenReturn(List.of(payment(28L, START.minusSeconds(60))));
+                PaymentHistoryPageDTO next = paymentHistoryService.getPaymentHistoryPageByRoomId(3L, null, page.getNextCursor(), 2);
+                assertEquals(List.of(28L), next.getItems().stream().map(PaymentHistoryResponse::getId).toList());
+                assertFalse(next.isHasMore());
+                assertNull(next.getNextCursor());
+        }
+
+        @Test
+        public void testGetPaymentHistoryPageByDateRange_RejectsInvalidCursor() {
+                assertThrows(IllegalArgumentException.class,
+                                () -> paymentHistoryService.getPaymentHistoryPageByDateRange(START, END, null, "not-a-cursor", 20));
+                verifyNoInteractions(paymentHistoryRepository);
+        }
+
+        @Test
+        public void testGetPaymentHistoryByUserId_LegacyListIsBounded() {
+                when(paymentHistoryRepository.findUserFirstPage(eq(9L), any(Pageable.class))).thenReturn(List.of(payment(1L, START)));
+
+                PaymentHistoryPageDTO histories = paymentHistoryService.getPaymentHistoryByUserId(9L);
+
+                // Đọc 501 dòng để biết danh sách 500 dòng có bị cắt hay không
+                ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+                verify(paymentHistoryRepository).findUserFirstPage(eq(9L), pageable.capture());
+                assertEquals(501, pageable.getValue().getPageSize());
+                assertEquals(1, histories.getItems().size());
+                assertFalse(histories.isHasMore());
+                verify(paymentHistoryRepository, never()).findByUserId(anyLong());
+        }
+
+        @Test
+        public void testGetPaymentHistoryByDateRange_LegacyListReportsTruncation() {
+                // Arrange: 501 dòng => danh sách 500 dòng bị cắt
+                List<PaymentHistory> rows = new ArrayList<>();
+                for (long id = 501; id >= 1; id--) {
+                        rows.add(payment(id, START.plusSeconds(id)));
+                }
+                when(paymentHistoryRepository.findDateRangeFirstPage(eq(START), eq(END), isNull(), any(Pageable.class))).thenReturn(rows);
+
+                // Act
+                PaymentHistoryPageDTO histories = paymentHistoryService.getPaymentHistoryByDateRange(START, END, null);
+
+                // Assert
+                assertEquals(500, histories.getItems().size());
+                assertTrue(histories.isHasMore());
+                assertNotNull(histories.getNextCursor());
+        }
+
+        // ==================== TEST PHẠM VI CHỦ TRỌ ====================
+
+        @Test
+        public void testGetPaymentHistoryPageByRoomId_RejectsRoomOfOtherLandlord() {
+                when(roomRepository.existsByIdAndLandlordId(3L, 42L)).thenReturn(false);
+
+                assertThrows(AccessDeniedException.class,
+                                () -> paymentHistoryService.getPaymentHistoryPageByRoomId(3L, 42L, null, 20));
+                verifyNoInteractions(paymentHistoryRepository);
+        }
+
+        @Test
+        public void testGetPaymentHistoryPageByRoomId_AllowsOwnRoom() {
+                when(roomRepository.existsByIdAndLandlordId(3L, 42L)).thenReturn(true);
+                when(paymentHistoryRepository.findRoomFirstPage(eq(3L), any(Pageable.class))).thenReturn(List.of(payment(1L, START)));
+
+                PaymentHistoryPageDTO page = paymentHistoryService.getPaymentHistoryPageByRoomId(3L, 42L, null, 20);
+
+                assertEquals(1, page.getItems().size());
+        }
+
+        @Test
+        public void testGetPaymentHistoryPageByDateRange_PassesLandlordScope() {
+                when(paymentHistoryRepository.findDateRangeFirstPage(eq(START), eq(END), eq(42L), any(Pageable.class)))
+                                .thenReturn(List.of(payment(1L, START)));
+
+                PaymentHistoryPageDTO page = paymentHistoryService.getPaymentHistoryPageByDateRange(START, END, 42L, null, 20);
+
+                assertEquals(1, page.getItems().size());
+                verify(paymentHistoryRepository).findDateRangeFirstPage(eq(START), eq(END), eq(42L), any(Pageable.class));
+        }
+
+        @Test
+        public void testExportPaymentHistoryByDateRange_PassesLandlordScope() throws Exception {
+                when(paymentHistoryRepository.findExportFirstBatch(eq(START), eq(END), eq(42L), any(Pageable.class))).thenReturn(List.of());
+
+                paymentHistoryService.exportPaymentHistoryByDateRange(START, END, 42L, new StringWriter());
+
+                verify(paymentHistoryRepository).findExportFirstBatch(eq(START), eq(END), eq(42L), any(Pageable.class));
+        }
+
+        // ==================== TEST XUẤT CSV ====================
+
+        @Test
+        public void testExportPaymentHistoryByDateRange_WritesEveryBatch() throws Exception {
+                // Arrange: 1.200 giao dịch => 3 lô (500, 500, 200)
+                stubExportRows(1_200);
+                StringWriter writer = new StringWriter();
+
+                // Act
+                long written = paymentHistoryService.exportPaymentHistoryByDateRange(START, END, null, writer);
+
+                // Assert
+                assertEquals(1_200L, written);
+                String[] lines = writer.toString().split("\n");
+                assertEquals(1 + 1_200, lines.length);
+                assertTrue(lines[0].startsWith("ID,"));
+                // Giờ Việt Nam, số tiền không ở dạng khoa học, ô chứa dấu phẩy được đặt trong ngoặc kép
+                assertEquals("1200,2025-07-01 00:00:00,1200,\"A,101\",1500000,1500000,,,VNPAY,SUCCESS,TXN1200", lines[1]);
+                verify(paymentHistoryRepository, times(1)).findExportFirstBatch(eq(START), eq(END), isNull(), any(Pageable.class));
+                verify(paymentHistoryRepository, times(2)).findExportBatchAfter(eq(START), eq(END), isNull(), any(Instant.class), anyLong(), any(Pageable.class));
+                // Mỗi lô chỉ giữ tối đa 500 dòng
+                assertEquals(3, exportQueries.get());
+        }
+
+        @Test
+        public void testExportPaymentHistoryByDateRange_EmptyRangeWritesHeaderOnly() throws Exception {
+                stubExportRows(0);
+                StringWriter writer = new StringWriter();
+
+                assertEquals(0L, paymentHistoryService.exportPaymentHistoryByDateRange(START, END, null, writer));
+                assertEquals(1, writer.toString().split("\n").length);
+                verify(paymentHistoryRepository, never()).findExportBatchAfter(any(), any(), any(), any(), anyLong(), any());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private void stubExportRows(int total) {
+                List<Object[]> rows = new ArrayList<>();
+                for (int i = total; i > 0; i--) {
+                        rows.add(new Object[]{(long) i, Instant.parse("2025-06-30T17:00:00Z").minusSeconds(60L * (total - i)), (long) i,
+                                        "A,101", new BigDecimal("1500000.00").stripTrailingZeros(), new BigDecimal("1500000"),
+                                        null, null, "VNPAY", "SUCCESS", "TXN" + i});
+                }
+                when(paymentHistoryRepository.findExportFirstBatch(eq(START), eq(END), isNull(), any(Pageable.class))).thenAnswer(invocation -> {
+                        exportQueries.incrementAndGet();
+                        Pageable pageable = invocation.getArgument(3);
+                        return new ArrayList<>(rows.subList(0, Math.min(rows.size(), pageable.getPageSize())));
+                });
+                when(paymentHistoryRepository.findExportBatchAfter(eq(START), eq(END), isNull(), any(Instant.class), anyLong(), any(Pageable.class)))
+                                .thenAnswer(invocation -> {
+                                        exportQueries.incrementAndGet();
+                                        Long afterId = invocation.getArgument(4);
+                                        Pageable pageable = invocation.getArgument(5);
+                                        // Dòng có id nhỏ hơn nằm sau trong thứ tự giảm dần
+                                        int from = (int) (total - afterId + 1);
+                                        return new ArrayList<>(rows.subList(from, Math.min(rows.size(), from + pageable.getPageSize())));
+                                });
+        }
+
+        private static PaymentHistory payment(Long id, Instant paymentDate) {
+                Room room = new Room();
+                room.setId(3L);
+                room.setRoomNumber("101");
+                Bill bill = new Bill();
+                bill.setId(5L);
+                bill.setRoom(room);
+                bill.setTotalAmount(new BigDecimal("1500000"));
+                PaymentHistory paymentHistory = new PaymentHistory();
+                paymentHistory.setId(id);
+                paymentHistory.setBill(bill);
+                paymentHistory.setPaymentDate(paymentDate);
+                paymentHistory.setPaymentAmount(new BigDecimal("1500000"));
+                paymentHistory.setTotalAmount(new BigDecimal("1500000"));
+                paymentHistory.setPaymentMethod("VNPAY");
+                return paymentHistory;
+        }
+}
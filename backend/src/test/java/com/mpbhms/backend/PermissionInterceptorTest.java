@@ -0,0 +1,202 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.config.PermissionInterceptor;
+import com.mpbhms.backend.exception.IdInvalidException;
+import com.mpbhms.backend.repository.RoleRepository;
+import com.mpbhms.backend.repository.UserRepository;
+import com.mpbhms.backend.service.AuthorizationMatrix;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PermissionInterceptorTest {
+
+        // Xấp xỉ số quyền của ADMIN trong DatabaseInitializer
+        private static final int PERMISSION_COUNT = 170;
+
+        @Mock
+        private RoleRepository roleRepository;
+        @Mock
+        private UserRepository userRepository;
+
+        private AuthorizationMatrix authorizationMatrix;
+        private PermissionInterceptor interceptor;
+        private final AtomicInteger roundTrips = new AtomicInteger();
+
+        @BeforeEach
+        void setUp() {
+                List<Object[]> rows = new ArrayList<>();
+                rows.add(new Object[]{1L, "ADMIN", "GET", "/mpbhms/notifications/all"});
+                rows.add(new Object[]{1L, "ADMIN", "DELETE", "/mpbhms/notifications/{id}"});
+                for (int i = 0; i < PERMISSION_COUNT; i++) {
+                        rows.add(new Object[]{1L, "ADMIN", "POST", "/mpbhms/module" + i + "/{id}"});
+                }
+                rows.add(new Object[]{2L, "RENTER", "GET", "/mpbhms/notifications"});
+                rows.add(new Object[]{3L, "EMPTY", null, null});
+                when(roleRepository.findAllRolePermissionKeys()).thenAnswer(invocation -> {
+                        roundTrip();
+                        return rows;
+                });
+                when(userRepository.findIdAndRoleIdByEmail(anyString())).thenAnswer(invocation -> {
+                        roundTrip();
+                        String email = invocation.getArgument(0);
+                        if (email.startsWith("admin")) return List.<Object[]>of(new Object[]{10L, 1L});
+                        if (email.startsWith("renter")) return List.<Object[]>of(new Object[]{20L, 2L});
+                        if (email.startsWith("norole")) return List.<Object[]>of(new Object[]{30L, null});
+                        return List.<Object[]>of();
+                });
+
+                authorizationMatrix = new AuthorizationMatrix(roleRepository, userRepository, 60, 1000);
+                authorizationMatrix.rebuild();
+                interceptor = new PermissionInterceptor();
+                ReflectionTestUtils.setField(interceptor, "authorizationMatrix", authorizationMatrix);
+                roundTrips.set(0);
+        }
+
+        @AfterEach
+        void tearDown() {
+                SecurityContextHolder.clearContext();
+        }
+
+        // ==================== TEST AUTHORIZATION ====================
+
+        @Test
+        public void testPreHandle_AllowsGrantedPermission() throws Exception {
+                login("admin@test.com");
+
+                assertTrue(interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null));
+                assertTrue(interceptor.preHandle(request("DELETE", "/mpbhms/notifications/{id}"), new MockHttpServletResponse(), null));
+        }
+
+        @Test
+        public void testPreHandle_RejectsMissingPermissionOrWrongMethod() {
+                login("renter@test.com");
+
+                assertThrows(IdInvalidException.class,
+                                () -> interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null));
+                assertThrows(IdInvalidException.class,
+                                () -> interceptor.preHandle(request("DELETE", "/mpbhms/notifications"), new MockHttpServletResponse(), null));
+        }
+
+        @Test
+        public void testPreHandle_ScheduleBookingRuleStillApplies() throws Exception {
+                login("admin@test.com");
+                assertThrows(IdInvalidException.class,
+                                () -> interceptor.preHandle(request("POST", "/mpbhms/schedules"), new MockHttpServletResponse(), null));
+
+                login("renter@test.com");
+                assertTrue(interceptor.preHandle(request("POST", "/mpbhms/schedules"), new MockHttpServletResponse(), null));
+        }
+
+        @Test
+        public void testPreHandle_UserWithoutRoleOnlyGetsWhitelist() throws Exception {
+                login("norole@test.com");
+
+                assertTrue(interceptor.preHandle(request("GET", "/mpbhms/notifications/inbox"), new MockHttpServletResponse(), null));
+                assertTrue(interceptor.preHandle(request("PUT", "/mpbhms/schedules/{id}"), new MockHttpServletResponse(), null));
+                assertThrows(IdInvalidException.class,
+                                () -> interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null));
+        }
+
+        @Test
+        public void testPreHandle_NoDatabaseRoundTripWhileSubjectCached() throws Exception {
+                // Arrange: lần đầu đọc vai trò từ DB
+                login("admin@test.com");
+                interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+                assertEquals(1, roundTrips.get());
+
+                // Act
+                for (int i = 0; i < 100; i++) {
+                        interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+                }
+
+                // Assert
+                assertEquals(1, roundTrips.get());
+                verify(userRepository, times(1)).findIdAndRoleIdByEmail("admin@test.com");
+        }
+
+        @Test
+        public void testEvictSubject_ReloadsRoleOnNextRequest() throws Exception {
+                login("admin@test.com");
+                interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+
+                authorizationMatrix.evictSubject("admin@test.com");
+                interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+
+                verify(userRepository, times(2)).findIdAndRoleIdByEmail("admin@test.com");
+        }
+
+        @Test
+        public void testEvictSubject_InTransactionEvictsAgainAfterCommit() throws Exception {
+                login("admin@test.com");
+                interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+                TransactionSynchronizationManager.initSynchronization();
+                try {
+                        // Đổi vai trò trong transaction; request khác chen vào trước khi commit nạp lại vai trò cũ
+                        authorizationMatrix.evictSubject("admin@test.com");
+                        interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+
+                        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+                } finally {
+                        TransactionSynchronizationManager.clearSynchronization();
+                }
+
+                // Sau commit phải đọc lại vai trò mới từ DB
+                interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null);
+                verify(userRepository, times(3)).findIdAndRoleIdByEmail("admin@test.com");
+        }
+
+        @Test
+        public void testRebuild_PicksUpPermissionChanges() throws Exception {
+                login("renter@test.com");
+                assertThrows(IdInvalidException.class,
+                                () -> interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null));
+
+                // Gán thêm quyền cho RENTER rồi dựng lại bảng
+                when(roleRepository.findAllRolePermissionKeys()).thenReturn(List.<Object[]>of(
+                                new Object[]{2L, "RENTER", "GET", "/mpbhms/notifications"},
+                                new Object[]{2L, "RENTER", "GET", "/mpbhms/notifications/all"}));
+                authorizationMatrix.rebuild();
+
+                assertTrue(interceptor.preHandle(request("GET", "/mpbhms/notifications/all"), new MockHttpServletResponse(), null));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private static void login(String email) {
+                SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(email, null));
+        }
+
+        private static MockHttpServletRequest request(String method, String pattern) {
+                MockHttpServletRequest request = new MockHttpServletRequest(method, pattern);
+                request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+                return request;
+        }
+
+        private void roundTrip() {
+                roundTrips.incrementAndGet();
+        }
+}
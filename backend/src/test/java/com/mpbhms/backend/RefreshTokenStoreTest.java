@@ -0,0 +1,197 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.entity.RevokedToken;
+import com.mpbhms.backend.repository.RevokedTokenRepository;
+import com.mpbhms.backend.repository.UserRepository;
+import com.mpbhms.backend.service.RefreshTokenStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class RefreshTokenStoreTest {
+
+        @Mock
+        private UserRepository userRepository;
+        @Mock
+        private RevokedTokenRepository revokedTokenRepository;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        // Cột users.refresh_token giả lập
+        private final Map<String, String> storedTokens = new ConcurrentHashMap<>();
+
+        @BeforeEach
+        void setUp() {
+                when(userRepository.findRefreshTokenByEmail(anyString())).thenAnswer(invocation -> {
+                        String email = invocation.getArgument(0);
+                        if (!email.endsWith("@test.com")) return List.of();
+                        return Collections.singletonList(storedTokens.get(email));
+                });
+                when(userRepository.updateRefreshTokenByEmail(anyString(), any())).thenAnswer(invocation -> {
+                        String token = invocation.getArgument(1);
+                        if (token == null) storedTokens.remove(invocation.<String>getArgument(0));
+                        else storedTokens.put(invocation.getArgument(0), token);
+                        return 1;
+                });
+        }
+
+        // ==================== TEST ROTATION ====================
+
+        @Test
+        public void testRotate_CurrentAndRecentlyRotatedTokenAccepted() {
+                RefreshTokenStore store = newStore(30);
+                store.rotate("a@test.com", "token-1");
+                store.rotate("a@test.com", "token-2");
+
+                assertTrue(store.isActive("a@test.com", "token-2"));
+                // Tab khác vừa gửi token cũ trong thời gian ân hạn
+                assertTrue(store.isActive("a@test.com", "token-1"));
+                assertFalse(store.isActive("a@test.com", "token-0"));
+                assertEquals("token-2", storedTokens.get("a@test.com"));
+        }
+
+        @Test
+        public void testRotate_PreviousTokenRejectedAfterGrace() {
+                RefreshTokenStore store = newStore(0);
+                store.rotate("a@test.com", "token-1");
+                store.rotate("a@test.com", "token-2");
+
+                assertFalse(store.isActive("a@test.com", "token-1"));
+                assertEquals(1L, store.getStats().get("rejected"));
+        }
+
+        @Test
+        public void testIsActive_AfterRestartValidatesAgainstDatabase() {
+                // Arrange: token đã lưu trong DB trước khi khởi động lại
+                storedTokens.put("a@test.com", "token-1");
+                RefreshTokenStore store = newStore(30);
+
+                // Act + Assert
+                assertTrue(store.isActive("a@test.com", "token-1"));
+                assertFalse(store.isActive("a@test.com", "token-0"));
+                assertFalse(store.isActive("missing@other.com", "token-1"));
+        }
+
+        @Test
+        public void testIsActive_TokenRotatedOnOtherNodeIsAccepted() {
+                RefreshTokenStore store = newStore(30);
+                store.rotate("a@test.com", "token-1");
+                // Node khác đã xoay vòng và ghi token mới vào DB
+                storedTokens.put("a@test.com", "token-2");
+
+                assertTrue(store.isActive("a@test.com", "token-2"));
+        }
+
+        @Test
+        public void testIsActive_TokenRotatedAwayOnOtherNodeIsRejected() {
+                // Arrange: node này cấp token-1, node khác đã xoay vòng sang token-2
+                RefreshTokenStore store = newStore(30);
+                store.rotate("a@test.com", "token-1");
+                assertTrue(store.isActive("a@test.com", "token-1"));
+                storedTokens.put("a@test.com", "token-2");
+
+                // Act + Assert: token-1 bị từ chối ngay, kể cả trong thời gian ân hạn
+                assertFalse(store.isActive("a@test.com", "token-1"));
+        }
+
+        @Test
+        public void testIsActive_LogoutOnOtherNodeIsRejected() {
+                RefreshTokenStore store = newStore(30);
+                store.rotate("a@test.com", "token-1");
+                // Node khác xử lý đăng xuất: users.refresh_token = null
+                storedTokens.remove("a@test.com");
+
+                assertFalse(store.isActive("a@test.com", "token-1"));
+        }
+
+        // ==================== TEST REVOCATION ====================
+
+        @Test
+        public void testRevoke_RejectsRefreshTokenAndAccessToken() {
+                // Arrange
+                RefreshTokenStore store = newStore(30);
+                store.rotate("a@test.com", "token-1");
+                Jwt accessToken = jwt("jti-1", Instant.now().plusSeconds(3600));
+                assertFalse(store.isRevoked(accessToken));
+
+                // Act
+                store.revoke("a@test.com", accessToken);
+
+                // Assert
+                assertFalse(store.isActive("a@test.com", "token-1"));
+                assertTrue(store.isRevoked(accessToken));
+                assertFalse(store.isRevoked(jwt("jti-2", Instant.now().plusSeconds(3600))));
+                ArgumentCaptor<RevokedToken> saved = ArgumentCaptor.forClass(RevokedToken.class);
+                verify(revokedTokenRepository).save(saved.capture());
+                assertEquals("jti-1", saved.getValue().getJti());
+        }
+
+        @Test
+        public void testSyncRevocations_LoadsOtherNodesAndDropsExpired() {
+                // Arrange: token do node khác thu hồi
+                RefreshTokenStore store = newStore(30);
+                when(revokedTokenRepository.findUnexpired(any(Instant.class))).thenReturn(List.<Object[]>of(
+                                new Object[]{"jti-other", Instant.now().plusSeconds(600)}));
+
+                // Act
+                store.syncRevocations();
+
+                // Assert
+                assertTrue(store.isRevoked(jwt("jti-other", Instant.now().plusSeconds(600))));
+                verify(revokedTokenRepository).deleteExpired(any(Instant.class));
+                assertEquals(1, store.getStats().get("revokedTokens"));
+        }
+
+        @Test
+        public void testSyncNewRevocations_LoadsOnlyRecentRevocations() {
+                // Arrange: đã đồng bộ toàn bộ lúc khởi động
+                RefreshTokenStore store = newStore(30);
+                when(revokedTokenRepository.findUnexpired(any(Instant.class))).thenReturn(List.of());
+                store.syncRevocations();
+                when(revokedTokenRepository.findRevokedSince(any(Instant.class), any(Instant.class))).thenReturn(List.<Object[]>of(
+                                new Object[]{"jti-other", Instant.now().plusSeconds(600)}));
+
+                // Act
+                store.syncNewRevocations();
+
+                // Assert: không nạp lại toàn bộ bảng
+                assertTrue(store.isRevoked(jwt("jti-other", Instant.now().plusSeconds(600))));
+                verify(revokedTokenRepository, times(1)).findUnexpired(any(Instant.class));
+                verify(revokedTokenRepository, times(1)).findRevokedSince(any(Instant.class), any(Instant.class));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private RefreshTokenStore newStore(long graceSeconds) {
+                return new RefreshTokenStore(userRepository, revokedTokenRepository, transactionManager, graceSeconds, 1000);
+        }
+
+        private static Jwt jwt(String jti, Instant expiresAt) {
+                return Jwt.withTokenValue("token")
+                                .header("alg", "HS512")
+                                .subject("a@test.com")
+                                .jti(jti)
+                                .issuedAt(expiresAt.minusSeconds(3600))
+                                .expiresAt(expiresAt)
+                                .build();
+        }
+}
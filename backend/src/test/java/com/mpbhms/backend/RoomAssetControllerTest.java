@@ -6,6 +6,7 @@ import com.mpbhms.backend.dto.RoomAssetDTO;
 import com.mpbhms.backend.repository.RoomRepository;
 import com.mpbhms.backend.repository.AssetRepository;
 import com.mpbhms.backend.service.RoomAssetService;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -38,6 +39,8 @@ public class RoomAssetControllerTest {
 
     @MockBean
     private UserService userService; // ✅ cần thiết vì PermissionInterceptor có @Autowired
+    @MockBean
+    private AuthorizationMatrix authorizationMatrix;
 
     @Test
     void testAddAssetToRoom() throws Exception {
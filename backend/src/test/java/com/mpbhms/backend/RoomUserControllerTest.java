@@ -7,6 +7,7 @@ import com.mpbhms.backend.service.ContractService;
 import com.mpbhms.backend.repository.UserRepository;
 import com.mpbhms.backend.repository.RoomUserRepository;
 import com.mpbhms.backend.service.AmendmentAutoApproveJob;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -39,6 +40,8 @@ public class RoomUserControllerTest {
 
     @MockBean
     private UserService userService;
+    @MockBean
+    private AuthorizationMatrix authorizationMatrix;
 
     @Autowired
     private ObjectMapper objectMapper;
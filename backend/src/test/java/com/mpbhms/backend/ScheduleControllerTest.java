@@ -9,6 +9,7 @@ import com.mpbhms.backend.dto.ScheduleDTO;
 import com.mpbhms.backend.dto.ResultPaginationDTO;
 import com.mpbhms.backend.enums.ScheduleStatus;
 import com.mpbhms.backend.service.ScheduleService;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.UserService;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -38,6 +39,8 @@ public class ScheduleControllerTest {
     private ScheduleService scheduleService;
     @MockBean
     private UserService userService;
+    @MockBean
+    private AuthorizationMatrix authorizationMatrix;
 
     @Autowired
     private ObjectMapper objectMapper;
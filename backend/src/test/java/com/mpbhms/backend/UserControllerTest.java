@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mpbhms.backend.controller.UserController;
 import com.mpbhms.backend.dto.*;
 import com.mpbhms.backend.entity.User;
+import com.mpbhms.backend.service.AuthorizationMatrix;
 import com.mpbhms.backend.service.UserService;
 import com.mpbhms.backend.util.SecurityUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -46,6 +47,8 @@ public class UserControllerTest {
 
     @MockBean
     private UserService userService;
+    @MockBean
+    private AuthorizationMatrix authorizationMatrix;
 
     @BeforeEach
     public void setup() {
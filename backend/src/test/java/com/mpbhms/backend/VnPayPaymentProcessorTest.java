@@ -0,0 +1,358 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.dto.PartialPaymentRequest;
+import com.mpbhms.backend.entity.Bill;
+import com.mpbhms.backend.entity.PaymentHistory;
+import com.mpbhms.backend.entity.VnPayTransaction;
+import com.mpbhms.backend.repository.BillRepository;
+import com.mpbhms.backend.repository.VnPayTransactionRepository;
+import com.mpbhms.backend.service.BillService;
+import com.mpbhms.backend.service.PaymentHistoryService;
+import com.mpbhms.backend.service.VnPayPaymentProcessor;
+import com.mpbhms.backend.service.VnPayService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class VnPayPaymentProcessorTest {
+
+        // Độ trễ giả lập của một round-trip tới MySQL
+        private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+        @Mock
+        private BillRepository billRepository;
+        @Mock
+        private BillService billService;
+        @Mock
+        private PaymentHistoryService paymentHistoryService;
+        @Mock
+        private VnPayTransactionRepository vnPayTransactionRepository;
+        @Mock
+        private VnPayService vnPayService;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        private Bill bill;
+        // Bảng vnpay_transactions giả lập (unique txn_ref)
+        private final Map<String, VnPayTransaction> ledger = new ConcurrentHashMap<>();
+        private final AtomicLong historyIds = new AtomicLong();
+
+        @BeforeEach
+        void setUp() {
+                bill = unpaidBill();
+
+                when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+                when(vnPayService.extractBillIdFromTxnRef(anyString()))
+                                .thenAnswer(invocation -> Long.valueOf(invocation.<String>getArgument(0).split("-")[0]));
+                when(billRepository.findById(1L)).thenAnswer(invocation -> {
+                        roundTrip();
+                        return Optional.of(bill);
+                });
+                when(billRepository.save(any(Bill.class))).thenAnswer(invocation -> invocation.getArgument(0));
+                when(billService.getAllPaymentCount(1L)).thenAnswer(invocation -> (int) historyIds.get());
+                when(paymentHistoryService.savePaymentHistory(any(PaymentHistory.class))).thenAnswer(invocation -> {
+                        PaymentHistory history = invocation.getArgument(0);
+                        history.setId(historyIds.incrementAndGet());
+                        return history;
+                });
+                // Thanh toán từng phần: đọc - chờ - ghi, lộ ra mất cập nhật nếu hai callback chạy xen kẽ
+                when(billService.makePartialPayment(any(PartialPaymentRequest.class))).thenAnswer(invocation -> {
+                        PartialPaymentRequest request = invocation.getArgument(0);
+                        BigDecimal paidBefore = bill.getPaidAmount();
+                        roundTrip();
+                        bill.setPaidAmount(paidBefore.add(request.getPaymentAmount()));
+                        bill.setOutstandingAmount(bill.getTotalAmount().subtract(bill.getPaidAmount()));
+                        bill.setStatus(bill.getOutstandingAmount().signum() <= 0);
+                        return null;
+                });
+                when(vnPayTransactionRepository.insertIfAbsent(anyString(), anyLong(), any(), any(), anyString(), anyString(), any()))
+                                .thenAnswer(invocation -> {
+                                        VnPayTransaction transaction = new VnPayTransaction();
+                                        transaction.setTxnRef(invocation.getArgument(0));
+                                        transaction.setBillId(invocation.getArgument(1));
+                                        transaction.setStatus(invocation.getArgument(5));
+                                        return ledger.putIfAbsent(transaction.getTxnRef(), transaction) == null ? 1 : 0;
+                                });
+                when(vnPayTransactionRepository.findByTxnRef(anyString()))
+                                .thenAnswer(invocation -> Optional.ofNullable(ledger.get(invocation.<String>getArgument(0))));
+        }
+
+        // ==================== TEST IDEMPOTENCY ====================
+
+        @Test
+        public void testProcess_FirstCallbackAppliesPayment() {
+                VnPayPaymentProcessor processor = newProcessor();
+
+                VnPayPaymentProcessor.Result result = processor.process(callback("1-1001", 400000, 400000),
+                                VnPayPaymentProcessor.SOURCE_RETURN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.APPLIED, result.outcome());
+                assertEquals(1L, result.billId());
+                assertEquals(1L, result.paymentHistoryId());
+                assertEquals(0, new BigDecimal("400000").compareTo(bill.getPaidAmount()));
+                assertTrue(ledger.containsKey("1-1001"));
+                verify(vnPayTransactionRepository).complete("1-1001", VnPayTransaction.STATUS_SUCCESS, 1L);
+        }
+
+        @Test
+        public void testProcess_ReturnThenIpnAppliesOnce() {
+                VnPayPaymentProcessor processor = newProcessor();
+                Map<String, String> fields = callback("1-1001", 400000, 400000);
+
+                processor.process(fields, VnPayPaymentProcessor.SOURCE_RETURN);
+                VnPayPaymentProcessor.Result ipn = processor.process(fields, VnPayPaymentProcessor.SOURCE_IPN);
+                VnPayPaymentProcessor.Result refresh = processor.process(fields, VnPayPaymentProcessor.SOURCE_RETURN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.DUPLICATE, ipn.outcome());
+                assertEquals(VnPayPaymentProcessor.Outcome.DUPLICATE, refresh.outcome());
+                assertEquals(1L, refresh.paymentHistoryId());
+                assertEquals(0, new BigDecimal("400000").compareTo(bill.getPaidAmount()));
+                // Lần lặp lại không chạm DB
+                verify(billRepository, times(1)).findById(1L);
+                verify(paymentHistoryService, times(1)).savePaymentHistory(any());
+                assertEquals(2L, processor.getStats().get("duplicates"));
+        }
+
+        @Test
+        public void testProcess_RecordedByOtherNode_NoUpdate() {
+                // Arrange: node khác đã ghi nhận giao dịch
+                VnPayTransaction recorded = new VnPayTransaction();
+                recorded.setTxnRef("1-1001");
+                recorded.setBillId(1L);
+                recorded.setStatus(VnPayTransaction.STATUS_SUCCESS);
+                recorded.setPaymentHistoryId(7L);
+                ledger.put("1-1001", recorded);
+
+                // Act
+                VnPayPaymentProcessor.Result result = newProcessor().process(callback("1-1001", 400000, 400000),
+                                VnPayPaymentProcessor.SOURCE_IPN);
+
+                // Assert
+                assertEquals(VnPayPaymentProcessor.Outcome.DUPLICATE, result.outcome());
+                assertEquals(7L, result.paymentHistoryId());
+                verify(billRepository, never()).findById(anyLong());
+                verify(transactionManager, never()).getTransaction(any());
+        }
+
+        @Test
+        public void testProcess_FailedResponseUnlocksWithoutClaiming() {
+                Map<String, String> fields = callback("1-1001", 400000, 400000);
+                fields.put("vnp_ResponseCode", "24");
+
+                VnPayPaymentProcessor.Result result = newProcessor().process(fields, VnPayPaymentProcessor.SOURCE_RETURN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.PAYMENT_FAILED, result.outcome());
+                verify(billRepository).clearPaymentUrlLock(1L);
+                assertTrue(ledger.isEmpty());
+        }
+
+        @Test
+        public void testProcess_AlreadyPaidBillIsNotUpdated() {
+                bill.setStatus(true);
+
+                VnPayPaymentProcessor.Result result = newProcessor().process(callback("1-1001", 400000, 400000),
+                                VnPayPaymentProcessor.SOURCE_IPN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.ALREADY_PAID, result.outcome());
+                assertEquals(VnPayTransaction.STATUS_IGNORED, ledger.get("1-1001").getStatus());
+                verify(paymentHistoryService, never()).savePaymentHistory(any());
+        }
+
+        // ==================== TEST CONCURRENCY ====================
+
+        @Test
+        public void testProcess_ConcurrentDuplicateCallbacksApplyOnce() throws Exception {
+                VnPayPaymentProcessor processor = newProcessor();
+                Map<String, String> fields = callback("1-1001", 400000, 400000);
+
+                List<VnPayPaymentProcessor.Result> results = runConcurrently(8, i -> processor.process(fields,
+                                i % 2 == 0 ? VnPayPaymentProcessor.SOURCE_RETURN : VnPayPaymentProcessor.SOURCE_IPN));
+
+                assertEquals(1, results.stream().filter(r -> r.outcome() == VnPayPaymentProcessor.Outcome.APPLIED).count());
+                assertEquals(7, results.stream().filter(r -> r.outcome() == VnPayPaymentProcessor.Outcome.DUPLICATE).count());
+                assertEquals(0, new BigDecimal("400000").compareTo(bill.getPaidAmount()));
+                verify(billService, times(1)).makePartialPayment(any());
+        }
+
+        @Test
+        public void testProcess_ConcurrentPaymentsForSameBillSerialize() throws Exception {
+                VnPayPaymentProcessor processor = newProcessor();
+
+                // 4 giao dịch khác nhau (4 x 250.000) cho cùng một hóa đơn tới cùng lúc
+                List<VnPayPaymentProcessor.Result> results = runConcurrently(4, i -> processor.process(
+                                callback("1-200" + i, 250000, 250000), VnPayPaymentProcessor.SOURCE_IPN));
+
+                assertTrue(results.stream().allMatch(r -> r.outcome() == VnPayPaymentProcessor.Outcome.APPLIED));
+                // Không mất cập nhật: đủ 1.000.000 và hóa đơn đã thanh toán
+                assertEquals(0, new BigDecimal("1000000").compareTo(bill.getPaidAmount()));
+                assertTrue(bill.getStatus());
+        }
+
+        @Test
+        public void testProcess_OptimisticConflictIsRetried() {
+                // Mỗi lần thử trong giao dịch mới đọc lại hóa đơn từ DB
+                when(billRepository.findById(1L)).thenAnswer(invocation -> {
+                        bill = unpaidBill();
+                        return Optional.of(bill);
+                });
+                when(billRepository.save(any(Bill.class)))
+                                .thenThrow(new ObjectOptimisticLockingFailureException(Bill.class, 1L))
+                                .thenAnswer(invocation -> invocation.getArgument(0));
+                // Giao dịch thất bại được rollback: bỏ dòng trong sổ
+                doAnswer(invocation -> {
+                        ledger.clear();
+                        return null;
+                }).when(transactionManager).rollback(any());
+
+                VnPayPaymentProcessor processor = newProcessor();
+
+                VnPayPaymentProcessor.Result result = processor.process(callback("1-1001", 1200000, 1200000),
+                                VnPayPaymentProcessor.SOURCE_IPN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.APPLIED, result.outcome());
+                assertTrue(bill.getStatus());
+                verify(billRepository, times(2)).findById(1L);
+                assertEquals(1L, processor.getStats().get("optimisticRetries"));
+        }
+
+        // ==================== TEST PARSE ====================
+
+        @Test
+        public void testParseOriginalAmount() {
+                assertEquals(0, new BigDecimal("456000").compareTo(
+                                VnPayPaymentProcessor.parseOriginalAmount("Thanh toán #1|originalAmount:456000.00").orElseThrow()));
+                assertEquals(0, new BigDecimal("1500000").compareTo(
+                                VnPayPaymentProcessor.parseOriginalAmount("Thanh toán #1|originalAmount:1,500,000").orElseThrow()));
+                assertEquals(0, new BigDecimal("1500000").compareTo(
+                                VnPayPaymentProcessor.parseOriginalAmount("Thanh toán #1|originalAmount:1.500.000").orElseThrow()));
+                assertTrue(VnPayPaymentProcessor.parseOriginalAmount("Thanh toán hóa đơn #1").isEmpty());
+        }
+
+        @Test
+        public void testProcess_RepeatedCallbacksSkipDatabase() {
+                VnPayPaymentProcessor processor = newProcessor();
+                Map<String, String> fields = callback("1-1001", 400000, 400000);
+
+                for (int i = 0; i < 100; i++) {
+                        processor.process(fields, i % 2 == 0 ? VnPayPaymentProcessor.SOURCE_RETURN : VnPayPaymentProcessor.SOURCE_IPN);
+                }
+
+                // Chỉ lần đầu đọc hóa đơn và ghi nhận, các lần sau trả từ cache vnp_TxnRef
+                verify(billRepository, times(1)).findById(1L);
+                verify(vnPayTransactionRepository, times(1)).insertIfAbsent(anyString(), anyLong(), any(), any(), anyString(), anyString(), any());
+                verify(transactionManager, times(1)).getTransaction(any());
+                assertEquals(0, new BigDecimal("400000").compareTo(bill.getPaidAmount()));
+        }
+
+        @Test
+        public void testProcess_TransactionStatusNotSuccessIsNotApplied() {
+                // vnp_ResponseCode = 00 nhưng giao dịch chưa hoàn tất / bị từ chối ở phía ngân hàng
+                Map<String, String> fields = callback("1-1001", 400000, 400000);
+                fields.put("vnp_TransactionStatus", "02");
+
+                VnPayPaymentProcessor.Result result = newProcessor().process(fields, VnPayPaymentProcessor.SOURCE_IPN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.PAYMENT_FAILED, result.outcome());
+                assertTrue(ledger.isEmpty());
+                assertEquals(0, BigDecimal.ZERO.compareTo(bill.getPaidAmount()));
+                verify(billService, never()).makePartialPayment(any(PartialPaymentRequest.class));
+        }
+
+        @Test
+        public void testProcess_MissingTransactionStatusIsNotApplied() {
+                Map<String, String> fields = callback("1-1001", 400000, 400000);
+                fields.remove("vnp_TransactionStatus");
+
+                VnPayPaymentProcessor.Result result = newProcessor().process(fields, VnPayPaymentProcessor.SOURCE_IPN);
+
+                assertEquals(VnPayPaymentProcessor.Outcome.PAYMENT_FAILED, result.outcome());
+                assertTrue(ledger.isEmpty());
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        private VnPayPaymentProcessor newProcessor() {
+                return new VnPayPaymentProcessor(billRepository, billService, paymentHistoryService, vnPayTransactionRepository,
+                                vnPayService, transactionManager, 64, 3, 1000);
+        }
+
+        private static Bill unpaidBill() {
+                Bill bill = new Bill();
+                bill.setId(1L);
+                bill.setTotalAmount(new BigDecimal("1000000"));
+                bill.setOutstandingAmount(new BigDecimal("1000000"));
+                bill.setPaidAmount(BigDecimal.ZERO);
+                bill.setStatus(false);
+                return bill;
+        }
+
+        private static Map<String, String> callback(String txnRef, long totalAmount, long originalAmount) {
+                Map<String, String> fields = new HashMap<>();
+                fields.put("vnp_TxnRef", txnRef);
+                fields.put("vnp_ResponseCode", "00");
+                fields.put("vnp_TransactionStatus", "00");
+                fields.put("vnp_TransactionNo", "VNP" + txnRef);
+                fields.put("vnp_Amount", String.valueOf(totalAmount * 100));
+                fields.put("vnp_OrderInfo", "Thanh toán từng phần hóa đơn #1|originalAmount:" + originalAmount);
+                return fields;
+        }
+
+        private interface Callback {
+                VnPayPaymentProcessor.Result run(int index);
+        }
+
+        private static List<VnPayPaymentProcessor.Result> runConcurrently(int threads, Callback callback) throws Exception {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                        CountDownLatch start = new CountDownLatch(1);
+                        List<Future<VnPayPaymentProcessor.Result>> futures = new ArrayList<>();
+                        for (int i = 0; i < threads; i++) {
+                                int index = i;
+                                futures.add(executor.submit(() -> {
+                                        start.await();
+                                        return callback.run(index);
+                                }));
+                        }
+                        start.countDown();
+                        List<VnPayPaymentProcessor.Result> results = new ArrayList<>();
+                        for (Future<VnPayPaymentProcessor.Result> future : futures) {
+                                results.add(future.get(10, TimeUnit.SECONDS));
+                        }
+                        return results;
+                } finally {
+                        executor.shutdownNow();
+                }
+        }
+
+        private void roundTrip() {
+                LockSupport.parkNanos(ROUND_TRIP_NANOS);
+        }
+}
@@ -0,0 +1,146 @@
+package com.mpbhms.backend;
+
+import com.mpbhms.backend.service.WebSocketOutboundBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class WebSocketOutboundBufferTest {
+
+        @Mock
+        private WebSocketHandler handler;
+        @Mock
+        private WebSocketSession session;
+
+        private WebSocketOutboundBuffer outboundBuffer;
+        private final CountDownLatch clientReading = new CountDownLatch(1);
+        private final List<String> delivered = new CopyOnWriteArrayList<>();
+        private final Semaphore deliveries = new Semaphore(0);
+        private final List<Thread> writerThreads = new CopyOnWriteArrayList<>();
+
+        @BeforeEach
+        void setUp() throws Exception {
+                when(session.getId()).thenReturn("s1");
+                // Client chậm: socket không nhận thêm dữ liệu cho tới khi clientReading mở
+                doAnswer(invocation -> {
+                        writerThreads.add(Thread.currentThread());
+                        clientReading.await(5, TimeUnit.SECONDS);
+                        delivered.add(((TextMessage) invocation.getArgument(0)).getPayload());
+                        deliveries.release();
+                        return null;
+                }).when(session).sendMessage(any());
+        }
+
+        @AfterEach
+        void tearDown() {
+                clientReading.countDown();
+                outboundBuffer.shutdown();
+        }
+
+        // ==================== TEST BOUNDED QUEUE ====================
+
+        @Test
+        public void testSlowClient_DoesNotBlockSenderAndDropsOldestMessages() throws Exception {
+                // Arrange: tối đa 10 frame chờ gửi mỗi phiên
+                outboundBuffer = new WebSocketOutboundBuffer("simple", 10, 60000, 2);
+                WebSocketSession buffered = connect();
+
+                // Act: luồng broker đẩy CONNECTED + 100 thông báo trong khi client không đọc
+                buffered.sendMessage(new TextMessage("CONNECTED\nversion:1.2\n\n\0"));
+                // Luồng ghi đã lấy CONNECTED và đang chờ client
+                verify(session, timeout(1000)).sendMessage(any());
+                for (int i = 0; i < 100; i++) {
+                        buffered.sendMessage(new TextMessage("MESSAGE\nmessage-id:" + i + "\n\n\0"));
+                }
+
+                // Assert: cả 100 lần gửi đã trả về khi client vẫn chưa đọc, socket chỉ được ghi trên luồng ghi
+                assertEquals(1, clientReading.getCount());
+                verify(session, times(1)).sendMessage(any());
+                assertFalse(writerThreads.contains(Thread.currentThread()), "Luồng broker ghi thẳng ra socket");
+                assertTrue((Long) outboundBuffer.getStats().get("queuedFrames") <= 10);
+                assertTrue((Long) outboundBuffer.getStats().get("droppedFrames") >= 90);
+
+                clientReading.countDown();
+                awaitDelivered(11);
+                // CONNECTED không bị bỏ, các thông báo mới nhất được giữ lại
+                assertTrue(delivered.get(0).startsWith("CONNECTED"));
+                assertTrue(delivered.get(delivered.size() - 1).contains("message-id:99"));
+                assertEquals(0L, outboundBuffer.getStats().get("queuedFrames"));
+        }
+
+        @Test
+        public void testSlowClient_ClosedWhenQueueStaysFull() throws Exception {
+                // Arrange: đóng phiên nếu hàng đợi đầy liên tục quá 50ms
+                outboundBuffer = new WebSocketOutboundBuffer("simple", 2, 50, 2);
+                WebSocketSession buffered = connect();
+                buffered.sendMessage(new TextMessage("MESSAGE\nmessage-id:0\n\n\0"));
+                // Luồng ghi đã lấy frame đầu và đang chờ client, các frame sau chỉ còn nằm trong hàng đợi
+                verify(session, timeout(1000)).sendMessage(any());
+                for (int i = 1; i < 5; i++) {
+                        buffered.sendMessage(new TextMessage("MESSAGE\nmessage-id:" + i + "\n\n\0"));
+                }
+
+                // Act: hàng đợi vẫn đầy sau hơn 50ms
+                Thread.sleep(100);
+                buffered.sendMessage(new TextMessage("MESSAGE\nmessage-id:5\n\n\0"));
+
+                // Assert
+                verify(session, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+                assertEquals(1L, outboundBuffer.getStats().get("closedSlowSessions"));
+                assertEquals(0L, outboundBuffer.getStats().get("queuedFrames"));
+        }
+
+        // ==================== TEST SESSION TRACKING ====================
+
+        @Test
+        public void testConnectionClosed_RemovesSessionFromStats() throws Exception {
+                outboundBuffer = new WebSocketOutboundBuffer("relay", 10, 60000, 2);
+                WebSocketHandler decorated = outboundBuffer.decorate(handler);
+                decorated.afterConnectionEstablished(session);
+                assertEquals(1, outboundBuffer.getStats().get("connectedSessions"));
+
+                decorated.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+                assertEquals(0, outboundBuffer.getStats().get("connectedSessions"));
+                assertEquals("relay", outboundBuffer.getStats().get("brokerMode"));
+        }
+
+        // ==================== HELPER METHODS ====================
+
+        // Trả về phiên đã được bọc mà SubProtocolWebSocketHandler nhận được
+        private WebSocketSession connect() throws Exception {
+                WebSocketHandler decorated = outboundBuffer.decorate(handler);
+                decorated.afterConnectionEstablished(session);
+                ArgumentCaptor<WebSocketSession> captor = ArgumentCaptor.forClass(WebSocketSession.class);
+                verify(handler).afterConnectionEstablished(captor.capture());
+                assertNotSame(session, captor.getValue());
+                return captor.getValue();
+        }
+
+        private void awaitDelivered(int count) throws InterruptedException {
+                assertTrue(deliveries.tryAcquire(count, 5, TimeUnit.SECONDS), "Chỉ nhận được " + delivered.size() + " frame");
+                assertEquals(count, delivered.size());
+        }
+}
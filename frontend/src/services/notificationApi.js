@@ -27,4 +27,28 @@ export const getMyNotifications = async () => {
 
 export const markNotificationRead = async (id) => {
   return axiosClient.put(`/notifications/${id}/read`);
-};
\ No newline at end of file
+};
+// Hộp thư phân trang: truyền nextCursor của trang trước để lấy trang tiếp theo
+export const getMyNotificationInbox = async (cursor = null, size = 20) => {
+  const params = { size };
+  if (cursor) params.cursor = cursor;
+  const res = await axiosClient.get("/notifications/inbox", { params });
+  return res.data;
+};
+
+export const getUnreadNotificationCount = async () => {
+  const res = await axiosClient.get("/notifications/unread-count");
+  return res.data;
+};
+
+export const markAllNotificationsRead = async () => {
+  return axiosClient.put("/notifications/read-all");
+};
+
+// Thông báo đã đọc cũ đã được chuyển sang lưu trữ, phân trang giống hộp thư
+export const getMyArchivedNotifications = async (cursor = null, size = 20) => {
+  const params = { size };
+  if (cursor) params.cursor = cursor;
+  const res = await axiosClient.get("/notifications/archive", { params });
+  return res.data;
+};